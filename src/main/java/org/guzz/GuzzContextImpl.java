@@ -23,6 +23,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -70,6 +71,7 @@ import org.guzz.service.core.impl.SlowUpdateServiceProxy;
 import org.guzz.service.core.impl.TemplatedSQLServiceProxy;
 import org.guzz.service.impl.ServiceManagerFactory;
 import org.guzz.service.impl.ServiceManagerImpl;
+import org.guzz.transaction.DataSourceTransactionManager;
 import org.guzz.transaction.DefaultTranSessionLocatorImpl;
 import org.guzz.transaction.TranSessionLocator;
 import org.guzz.transaction.TransactionManager;
@@ -285,6 +287,11 @@ public class GuzzContextImpl implements GuzzContext{
 			serviceManager.registerService(s) ;
 		}
 		
+		Service pageCountExecutor = serviceManager.getService(Service.FAMOUSE_SERVICE.PAGE_COUNT_EXECUTOR) ;
+		if(pageCountExecutor instanceof ExecutorService && transactionManager instanceof DataSourceTransactionManager){
+			((DataSourceTransactionManager) transactionManager).setPageCountExecutor((ExecutorService) pageCountExecutor) ;
+		}
+		
 		//8. 完成启动
 		fullStarted = true ;
 		
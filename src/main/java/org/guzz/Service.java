@@ -55,6 +55,8 @@ public interface Service {
 		public final String SLOW_UPDATE = "guzzSlowUpdate" ;
 		public final String DYNAMIC_SQL = "guzzDynamicSQL" ;
 		public final String TEMPLATED_SQL = "guzzTemplatedSQL" ;
+		/**optional {@link java.util.concurrent.ExecutorService} to run count queries of paged queries concurrently.*/
+		public final String PAGE_COUNT_EXECUTOR = "guzzPageCountExecutor" ;
 	}
 	
 	/**
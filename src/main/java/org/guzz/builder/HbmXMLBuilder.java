@@ -194,7 +194,7 @@ public class HbmXMLBuilder {
 					Assert.assertNotNull(cls, "invalid class name") ;
 					Assert.assertNotEmpty(tableName, "invalid table name") ;
 					
-					JavaBeanWrapper configBeanWrapper = BeanWrapper.createPOJOWrapper(cls) ;
+					JavaBeanWrapper configBeanWrapper = BeanWrapper.createFastPOJOWrapper(cls) ;
 					business.setDomainClass(cls) ;
 					business.setConfiguredBeanWrapper(configBeanWrapper) ;
 					
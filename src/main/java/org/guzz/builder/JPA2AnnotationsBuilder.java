@@ -540,7 +540,7 @@ public class JPA2AnnotationsBuilder {
 		}
 		
 		//构建table信息
-		JavaBeanWrapper configBeanWrapper = BeanWrapper.createPOJOWrapper(domainCls) ;
+		JavaBeanWrapper configBeanWrapper = BeanWrapper.createFastPOJOWrapper(domainCls) ;
 		business.setConfiguredBeanWrapper(configBeanWrapper) ;
 		
 		map.setBusiness(business) ;
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.connection;
+
+import java.sql.Connection;
+
+/**
+ * 
+ * Implemented by the {@link Connection}s wanting the time cost of their queries, eg: to balance the reads by the latency of the databases.
+ * <p/>
+ * TranSessions report the time cost of every executeQuery to the connection if it implements this interface.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface QueryTimeListener {
+	
+	/**
+	 * @param nanos nanoseconds from the start of a query to the return of the ResultSet.
+	 */
+	public void onQueryExecuted(long nanos) ;
+
+}
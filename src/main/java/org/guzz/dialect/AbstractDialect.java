@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -51,6 +52,7 @@ import org.guzz.orm.type.ParameteredType;
 import org.guzz.orm.type.SQLDataType;
 import org.guzz.orm.type.ShortObjectSQLDataType;
 import org.guzz.orm.type.ShortSQLDataType;
+import org.guzz.orm.type.StatefulType;
 import org.guzz.orm.type.StringSQLDataType;
 import org.guzz.orm.type.TimeSQLDataType;
 
@@ -65,6 +67,12 @@ public abstract class AbstractDialect implements Dialect {
 	
 	protected final Map sqlTypes = new HashMap() ;
 	
+	/**low-cased type name -> type class. Rebuilt when {@link #sqlTypes} changes.*/
+	private volatile Map lowerCaseSqlTypes = new HashMap() ;
+	
+	/**full type name(with the |param) -> shared SQLDataType*/
+	private final Map cachedDataTypes = new ConcurrentHashMap() ;
+	
 	public AbstractDialect(){
 		regSystemTypes() ;
 	}
@@ -154,13 +162,59 @@ public abstract class AbstractDialect implements Dialect {
 	
 	public void registerUserDefinedTypes(String typeName, Class dataType){
 		sqlTypes.put(typeName, dataType) ;
+		
+		//the type may be overrided.
+		this.lowerCaseSqlTypes = new HashMap() ;
+		this.cachedDataTypes.clear() ;
+	}
+	
+	protected Class getTypeClassIgnoreCase(String colType){
+		Map types = this.lowerCaseSqlTypes ;
+		
+		if(types.size() != this.sqlTypes.size()){
+			types = new HashMap() ;
+			
+			Iterator i = this.sqlTypes.entrySet().iterator() ;
+			while(i.hasNext()){
+				Map.Entry e = (Entry) i.next() ;
+				types.put(((String) e.getKey()).toLowerCase(), e.getValue()) ;
+			}
+			
+			this.lowerCaseSqlTypes = types ;
+		}
+		
+		return (Class) types.get(colType.toLowerCase()) ;
 	}
 
 	/**
+	 * The instance is cached and shared for the same colType (unless it is a {@link StatefulType}), 
+	 * don't modify it. Use {@link #createDataType(String)} to get a private instance.
+	 * 
 	 * @param colType 字段类型，如varchar, bigint, int, org.guzz.xxx.POJO
 	 * @return 用于处理@param数据类型的处理类，如果不支持抛出异常@link DataTypeException。
 	 */
 	public SQLDataType getDataType(String colType){
+		SQLDataType type = (SQLDataType) this.cachedDataTypes.get(colType) ;
+		
+		if(type != null){
+			return type ;
+		}
+		
+		type = createDataType(colType) ;
+		
+		if(!(type instanceof StatefulType)){
+			this.cachedDataTypes.put(colType, type) ;
+		}
+		
+		return type ;
+	}
+	
+	/**
+	 * Create a new instance of the data type, for callers customizing it such as {@link SQLDataType#setNullToValue(Object)}.
+	 * 
+	 * @param colType eg: varchar, bigint, int, org.guzz.xxx.POJO
+	 */
+	public SQLDataType createDataType(String colType){
 		String param = null ;
 		int pos = colType.indexOf('|') ;
 		
@@ -176,13 +230,7 @@ public abstract class AbstractDialect implements Dialect {
 		Class type = (Class) sqlTypes.get(colType) ;
 		
 		if(type == null){
-			Iterator i = this.sqlTypes.entrySet().iterator() ;
-			while(i.hasNext()){
-				Map.Entry e = (Entry) i.next() ;
-				if(colType.equalsIgnoreCase((String) e.getKey())){
-					type = (Class) e.getValue() ;
-				}
-			}
+			type = getTypeClassIgnoreCase(colType) ;
 		}
 		
 		if(type != null){
@@ -223,4 +271,15 @@ public abstract class AbstractDialect implements Dialect {
 		return true ;
 	}
 	
+	/**
+	 * The fetch size to set on the statement when iterating a large result set row by row.
+	 * <p/>
+	 * Not part of {@link Dialect}. Dialects not extending this class use the driver's default.
+	 * 
+	 * @return 0 to use the driver's default. Default is 256.
+	 */
+	public int getStreamingFetchSize(){
+		return 256 ;
+	}
+	
 }
@@ -29,6 +29,7 @@ public interface Dialect {
 	/**
 	 * @param colType eg: varchar, bigint, int, org.guzz.xxx.POJO
 	 * @return 用于处理@param数据类型的处理类，如果不支持抛出异常@link DataTypeException。
+	 * @see AbstractDialect#getDataType(String)
 	 */
 	public SQLDataType getDataType(String colType) ;
 	
@@ -88,4 +88,14 @@ public class Mysql5Dialect extends AbstractDialect {
 		return 1024 ;
 	}
 	
+	/**
+	 * Connector/J only streams the results row by row with a fetch size of Integer.MIN_VALUE on a forward-only, read-only statement.
+	 * No other statements can be issued on the connection until the streaming ResultSet is closed.
+	 * 
+	 * @return Integer.MIN_VALUE
+	 */
+	public int getStreamingFetchSize(){
+		return Integer.MIN_VALUE ;
+	}
+	
 }
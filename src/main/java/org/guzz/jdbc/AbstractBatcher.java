@@ -9,7 +9,7 @@ package org.guzz.jdbc;
  * 
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public abstract class AbstractBatcher implements Batcher {
+public abstract class AbstractBatcher implements AdaptiveBatcher {
 	
 	private int batchSize ;
 	
@@ -17,6 +17,8 @@ public abstract class AbstractBatcher implements Batcher {
 	
 	private boolean autoExecuteUpdate = true ;
 	
+	private AdaptiveBatchSizePolicy batchSizePolicy ;
+	
 	protected AbstractBatcher(int defaultBatchSize){
 		this.defaultBatchSize = defaultBatchSize ;
 	}
@@ -24,7 +26,7 @@ public abstract class AbstractBatcher implements Batcher {
 	protected void checkAndAutoExecuteBatch(int objectsCountInBatch){
 		//exceeds the batchSize
 		if(autoExecuteUpdate){
-			int size = batchSize > 0 ? batchSize : defaultBatchSize ;
+			int size = batchSizePolicy != null ? batchSizePolicy.getBatchSize() : (batchSize > 0 ? batchSize : defaultBatchSize) ;
 			
 			if(objectsCountInBatch >= size){
 				this.executeBatch() ;
@@ -33,6 +35,22 @@ public abstract class AbstractBatcher implements Batcher {
 		}
 	}
 	
+	/**
+	 * Is the time cost of executeBatch required by the batch size policy?
+	 */
+	protected boolean isBatchTimeRequired(){
+		return batchSizePolicy != null ;
+	}
+	
+	/**
+	 * Called by the subclass after every executeBatch to report the time cost.
+	 */
+	protected void batchExecuted(int rows, long nanos){
+		if(batchSizePolicy != null){
+			batchSizePolicy.onBatchExecuted(rows, nanos) ;
+		}
+	}
+	
 	/**
 	 * @deprecated
 	 */
@@ -52,6 +70,14 @@ public abstract class AbstractBatcher implements Batcher {
 		this.defaultBatchSize = defaultBatchSize ;
 	}
 
+	public final AdaptiveBatchSizePolicy getBatchSizePolicy() {
+		return batchSizePolicy;
+	}
+
+	public final void setBatchSizePolicy(AdaptiveBatchSizePolicy policy) {
+		this.batchSizePolicy = policy ;
+	}
+
 	public final boolean isAutoExecuteUpdate() {
 		return autoExecuteUpdate;
 	}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.jdbc;
+
+import java.util.Map;
+
+import org.guzz.util.StringUtil;
+
+/**
+ * 
+ * Adjust the batch size of {@link Batcher}s toward a target latency for every executeBatch.
+ * <p/>
+ * The policy learns the average time cost of one row from the executed batches, and sets the batch size to
+ * targetLatency / costPerRow, bounded by [minBatchSize, maxBatchSize]. Wide rows with LOB columns get small batches,
+ * and narrow rows get big ones.
+ * <p/>
+ * Only batches of at least half the current batch size are learned. The last small batch of a job is mostly the fixed cost of a round trip,
+ * and would shrink the batch size again and again.
+ * <p/>
+ * One policy can be shared by many batchers of the same kind of sql, for example, all inserts of a background service. This class is thread-safe.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class AdaptiveBatchSizePolicy {
+	
+	/**weight of the latest batch in the average cost of a row.*/
+	private static final double ALPHA = 0.3 ;
+	
+	/**the batch size changes at most this times in one step.*/
+	private static final int MAX_STEP_FACTOR = 2 ;
+	
+	private final long targetNanos ;
+	
+	private final int minBatchSize ;
+	
+	private final int maxBatchSize ;
+	
+	private volatile int batchSize ;
+	
+	/**average nanoseconds of one row. 0 means not measured yet.*/
+	private double rowNanos ;
+	
+	private long batchesLearned ;
+	
+	/**
+	 * @param targetMillis the expected milliseconds of one executeBatch.
+	 * @param minBatchSize the minimum batch size.
+	 * @param maxBatchSize the maximum batch size. It is also the initial batch size.
+	 */
+	public AdaptiveBatchSizePolicy(int targetMillis, int minBatchSize, int maxBatchSize){
+		if(targetMillis <= 0){
+			throw new IllegalArgumentException("targetMillis must be positive. was:" + targetMillis) ;
+		}
+		if(minBatchSize < 1 || maxBatchSize < minBatchSize){
+			throw new IllegalArgumentException("illegal batch size bounds. min:" + minBatchSize + ", max:" + maxBatchSize) ;
+		}
+		
+		this.targetNanos = targetMillis * 1000000L ;
+		this.minBatchSize = minBatchSize ;
+		this.maxBatchSize = maxBatchSize ;
+		this.batchSize = maxBatchSize ;
+	}
+	
+	/**
+	 * Create a policy from a service's properties: batchTargetMillis, minBatchSize and maxBatchSize.
+	 * 
+	 * @param props service config properties.
+	 * @param defaultMaxBatchSize maxBatchSize if not configured. Usually the fixed batch size used before.
+	 * @return null if batchTargetMillis is not configured, which means the fixed batch size should be used.
+	 */
+	public static AdaptiveBatchSizePolicy configure(Map props, int defaultMaxBatchSize){
+		int targetMillis = StringUtil.toInt((String) props.get("batchTargetMillis"), 0) ;
+		if(targetMillis <= 0){
+			return null ;
+		}
+		
+		int max = StringUtil.toInt((String) props.get("maxBatchSize"), defaultMaxBatchSize) ;
+		int min = StringUtil.toInt((String) props.get("minBatchSize"), Math.min(16, max)) ;
+		
+		return new AdaptiveBatchSizePolicy(targetMillis, Math.max(1, min), Math.max(Math.max(1, min), max)) ;
+	}
+	
+	/**
+	 * The batch size to use for the next batch.
+	 */
+	public int getBatchSize(){
+		return batchSize ;
+	}
+	
+	/**
+	 * Learn from an executed batch.
+	 * 
+	 * @param rows the count of rows in the batch.
+	 * @param nanos nanoseconds the executeBatch took.
+	 */
+	public synchronized void onBatchExecuted(int rows, long nanos){
+		if(rows <= 0 || nanos <= 0) return ;
+		
+		int current = this.batchSize ;
+		if(rows * 2 < current) return ;
+		
+		double cost = (double) nanos / rows ;
+		rowNanos = rowNanos == 0 ? cost : rowNanos * (1 - ALPHA) + cost * ALPHA ;
+		batchesLearned++ ;
+		
+		long ideal = (long) (targetNanos / rowNanos) ;
+		
+		//change smoothly, one slow batch caused by a lock should not drop the size to the minimum.
+		ideal = Math.min(ideal, (long) current * MAX_STEP_FACTOR) ;
+		ideal = Math.max(ideal, current / MAX_STEP_FACTOR) ;
+		
+		ideal = Math.min(ideal, maxBatchSize) ;
+		ideal = Math.max(ideal, minBatchSize) ;
+		
+		this.batchSize = (int) ideal ;
+	}
+	
+	public long getTargetMillis() {
+		return targetNanos / 1000000L ;
+	}
+
+	public int getMinBatchSize() {
+		return minBatchSize;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+	
+	/**
+	 * Average nanoseconds of one row learned so far, 0 if nothing is learned.
+	 */
+	public synchronized double getRowNanos() {
+		return rowNanos;
+	}
+
+	public synchronized long getBatchesLearned() {
+		return batchesLearned;
+	}
+	
+	public String toString(){
+		return "adaptiveBatch[target:" + getTargetMillis() + "ms, size:" + batchSize + ", min:" + minBatchSize + ", max:" + maxBatchSize + "]" ;
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.jdbc;
+
+/**
+ * 
+ * {@link Batcher} adjusting the batch size of the auto execute by a {@link AdaptiveBatchSizePolicy}.
+ * <p/>
+ * A separate interface, so implementations of {@link Batcher} outside guzz are not broken. Batchers created by guzz implement it; check it before using.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface AdaptiveBatcher extends Batcher {
+	
+	/**
+	 * Adjust the batch size of the auto execute by the measured time cost of every {@link #executeBatch()}.
+	 * The policy overrides {@link #setBatchSize(int)} when set.
+	 * 
+	 * @param policy null to use the fixed batch size.
+	 */
+	public void setBatchSizePolicy(AdaptiveBatchSizePolicy policy) ;
+	
+	public AdaptiveBatchSizePolicy getBatchSizePolicy() ;
+
+}
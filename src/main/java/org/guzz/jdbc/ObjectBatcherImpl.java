@@ -53,6 +53,15 @@ public class ObjectBatcherImpl extends AbstractBatcher implements ObjectBatcher
 	//inited in the construct method to protect add/delete/update passing wrong instances.
 	private BeanWrapper bw ;
 	private String[] props ;
+	
+	/**indexes of the props in the bw*/
+	private int[] propIndexes ;
+	
+	/**slots of the props in the {@link #runtimeBSQL}*/
+	private int[] propSlots ;
+	
+	/**reused for every object in the batch, as the values are copied into the PreparedStatement on adding.*/
+	private BindedCompiledSQL runtimeBSQL ;
 
 	private Class domainCls ;
 	
@@ -115,6 +124,14 @@ public class ObjectBatcherImpl extends AbstractBatcher implements ObjectBatcher
 		ObjectMapping mapping  = runtimeCS.getMapping() ;
 		this.bw = mapping.getBeanWrapper() ;
 		this.props = runtimeCS.getOrderedParams() ;
+		this.propIndexes = new int[props.length] ;
+		this.propSlots = new int[props.length] ;
+		this.runtimeBSQL = runtimeCS.bindNoParams().setTableCondition(this.tableCondition) ;
+		
+		for(int i = 0 ; i < props.length ; i++){
+			this.propIndexes[i] = bw.getPropertyIndex(props[i]) ;
+			this.propSlots[i] = this.runtimeBSQL.getParamBindings().getSlot(props[i]) ;
+		}
 		
 		DBGroup dbGroup = mapping.getDbGroup() ;
 		this.dialect = dbGroup.getDialect() ;
@@ -147,14 +164,14 @@ public class ObjectBatcherImpl extends AbstractBatcher implements ObjectBatcher
 			throw new DaoException("duplicate domain object. the batch has already been prepared for:" + this.domainCls) ;
 		}
 
-		BindedCompiledSQL bsql = runtimeCS.bindNoParams() ;
+		BindedCompiledSQL bsql = this.runtimeBSQL ;
 		IdentifierGenerator ig = runtimeCS.getMapping().getTable().getIdentifierGenerator() ;
 
 		ig.preInsert(this.sessionImpl, domainObject, this.tableCondition) ;
 
 		for(int i = 0 ; i < props.length ; i++){
-			Object value = bw.getValue(domainObject, props[i]) ;
-			bsql.bind(props[i], value) ;
+			Object value = bw.getValue(domainObject, propIndexes[i]) ;
+			bsql.bindSlot(propSlots[i], value) ;
 		}
 
 		try {
@@ -188,11 +205,11 @@ public class ObjectBatcherImpl extends AbstractBatcher implements ObjectBatcher
 			throw new DaoException("duplicate domain object. the batch has already been prepared for:" + this.domainCls) ;
 		}
 
-		BindedCompiledSQL bsql = runtimeCS.bindNoParams() ;
+		BindedCompiledSQL bsql = this.runtimeBSQL ;
 
 		for(int i = 0 ; i < props.length ; i++){
-			Object value = bw.getValue(domainObject, props[i]) ;
-			bsql.bind(props[i], value) ;
+			Object value = bw.getValue(domainObject, propIndexes[i]) ;
+			bsql.bindSlot(propSlots[i], value) ;
 		}
 
 		try {
@@ -219,11 +236,11 @@ public class ObjectBatcherImpl extends AbstractBatcher implements ObjectBatcher
 			throw new DaoException("duplicate domain object. the batch has already been prepared for:" + this.domainCls) ;
 		}
 
-		BindedCompiledSQL bsql = runtimeCS.bindNoParams() ;
+		BindedCompiledSQL bsql = this.runtimeBSQL ;
 
 		for(int i = 0 ; i < props.length ; i++){
-			Object value = bw.getValue(domainObject, props[i]) ;
-			bsql.bind(props[i], value) ;
+			Object value = bw.getValue(domainObject, propIndexes[i]) ;
+			bsql.bindSlot(propSlots[i], value) ;
 		}
 
 		try {
@@ -264,7 +281,7 @@ public class ObjectBatcherImpl extends AbstractBatcher implements ObjectBatcher
 			return new int[0] ;
 		}
 		
-		boolean measureTime = this.debugService.isMeasureTime() ;
+		boolean measureTime = this.debugService.isMeasureTime() || isBatchTimeRequired() ;
 		long startTime = 0L ;
 		if(measureTime){
 			startTime = System.nanoTime() ;
@@ -273,18 +290,23 @@ public class ObjectBatcherImpl extends AbstractBatcher implements ObjectBatcher
 		try {
 			int[] affectedRows = ps.executeBatch() ;
 			
+			long timeCost = 0 ;
+			if(measureTime){
+				timeCost = System.nanoTime() - startTime ;
+			}
+			
+			batchExecuted(affectedRows.length, timeCost) ;
+			
 			if(this.debugService.isLogSQL()){
-				long timeCost = 0 ;
-				if(measureTime){
-					timeCost = System.nanoTime() - startTime ;
-				}
-				
-				this.debugService.logBatch(this.rawSQL, this.objectsCountInBatch, timeCost) ;
+				this.debugService.logBatch(this.rawSQL, affectedRows.length, timeCost) ;
 			}
 			
 			return affectedRows ;
 		} catch (SQLException e) {
 			throw new DaoException("error execute batch update. CompiledSQL is:" + runtimeCS, e) ;
+		}finally{
+			//the statement's batch is emptied by the execution.
+			this.objectsCountInBatch = 0 ;
 		}
 	}
 
@@ -109,7 +109,7 @@ public class SQLBatcherImpl extends AbstractBatcher implements SQLBatcher {
 	public int[] executeBatch() {
 		if(this.objectsCountInBatch == 0) return new int[0] ;
 		
-		boolean measureTime = this.debugService.isMeasureTime() ;
+		boolean measureTime = this.debugService.isMeasureTime() || isBatchTimeRequired() ;
 		long startTime = 0L ;
 		if(measureTime){
 			startTime = System.nanoTime() ;
@@ -118,18 +118,23 @@ public class SQLBatcherImpl extends AbstractBatcher implements SQLBatcher {
 		try {
 			int[] affectedRows = ps.executeBatch() ;
 			
+			long timeCost = 0 ;
+			if(measureTime){
+				timeCost = System.nanoTime() - startTime ;
+			}
+			
+			batchExecuted(affectedRows.length, timeCost) ;
+			
 			if(this.debugService.isLogSQL()){
-				long timeCost = 0 ;
-				if(measureTime){
-					timeCost = System.nanoTime() - startTime ;
-				}
-				
-				this.debugService.logBatch(this.rawSQL, this.objectsCountInBatch, timeCost) ;
+				this.debugService.logBatch(this.rawSQL, affectedRows.length, timeCost) ;
 			}
 			
 			return affectedRows ;
 		} catch (SQLException e) {
 			throw new DaoException("error execute batch update. CompiledSQL is:" + cs, e) ;
+		}finally{
+			//the statement's batch is emptied by the execution.
+			this.objectsCountInBatch = 0 ;
 		}
 	}
 	
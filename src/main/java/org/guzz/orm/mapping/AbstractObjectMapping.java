@@ -17,6 +17,7 @@
 package org.guzz.orm.mapping;
 
 import org.guzz.connection.DBGroup;
+import org.guzz.dialect.AbstractDialect;
 import org.guzz.dialect.Dialect;
 import org.guzz.exception.DataTypeException;
 import org.guzz.orm.ColumnDataLoader;
@@ -65,7 +66,13 @@ public abstract class AbstractObjectMapping implements ObjectMapping {
 				throw new DataTypeException("no dialect found. datatype:[" + dataType2 + "] for column:[" + colName + "]") ;
 			}
 			
-			SQLDataType type = dialect.getDataType(dataType2) ;
+			//the column sets its own null value to the type, never touch the shared one.
+			SQLDataType type ;
+			if(dialect instanceof AbstractDialect){
+				type = ((AbstractDialect) dialect).createDataType(dataType2) ;
+			}else{
+				type = dialect.getDataType(dataType2) ;
+			}
 			
 			o = new ColumnORM(tc, type) ;
 		}else{
@@ -30,6 +30,7 @@ import org.guzz.orm.CustomTableView;
 import org.guzz.orm.ObjectMapping;
 import org.guzz.orm.rdms.TableColumn;
 import org.guzz.orm.type.SQLDataType;
+import org.guzz.util.ConcurrentLRUCache;
 import org.guzz.util.javabean.BeanCreator;
 import org.guzz.util.javabean.BeanWrapper;
 import org.guzz.util.javabean.JavaBeanWrapper;
@@ -67,6 +68,9 @@ public final class FormBeanRowDataLoader implements RowDataLoader {
 	 */
 	private final Map writableProps ;
 	
+	/**{@link RowLoadPlan}s of the queries loaded by this loader.*/
+	private final ConcurrentLRUCache rowLoadPlans = new ConcurrentLRUCache(64, 4) ;
+	
 	/**
 	 * 
 	 * Create a new instance of FormBeanRowDataLoader for class @param beanCls.
@@ -108,7 +112,7 @@ public final class FormBeanRowDataLoader implements RowDataLoader {
 		this.isMap = java.util.Map.class.isAssignableFrom(beanCls) ;
 		
 		if(!this.isMap){
-			this.beanWrapper = BeanWrapper.createPOJOWrapper(beanCls) ;
+			this.beanWrapper = BeanWrapper.createFastPOJOWrapper(beanCls) ;
 			cachedDataTypes = new HashMap() ;
 			this.writableProps = new HashMap() ;
 			
@@ -190,6 +194,56 @@ public final class FormBeanRowDataLoader implements RowDataLoader {
 		return obj ;
 	}
 	
+	/**
+	 * Get the plan to map the rows of the sql. The plan is built once and cached for the same sql and runtime mapping.
+	 * 
+	 * @param mapping the ObjectMapping of the query.
+	 * @param sql the sql executed. null to skip the cache.
+	 * @param rs the {@link ResultSet} of the sql.
+	 */
+	public RowLoadPlan getRowLoadPlan(ObjectMapping mapping, String sql, ResultSet rs) throws SQLException {
+		if(this.customTableView != null){
+			mapping = this.customTableView.getRuntimeObjectMapping(Guzz.getTableCondition()) ;
+		}else if(this.colsMapping != null){
+			mapping = this.colsMapping ;
+		}
+		
+		ResultSetMetaData meta = rs.getMetaData() ;
+		RowLoadPlan.ColumnsPlan plan = RowLoadPlan.getCachedPlan(this.rowLoadPlans, mapping, sql, meta) ;
+		if(plan != null){
+			return plan ;
+		}
+		
+		plan = new RowLoadPlan.ColumnsPlan(null, this.beanCls, this.beanWrapper, meta) ;
+		
+		for(int i = 0 ; i < plan.columnLabels.length ; i++){
+			String colName = plan.columnLabels[i] ;
+			TableColumn tc = mapping.getTable().getColumnByColNameInRS(colName) ;
+			
+			if(tc != null){
+				plan.loadByORM(i, tc.getPropName(), tc.getOrm()) ;
+			}else if(isMap){
+				plan.loadByObject(i, colName) ;
+			}else{
+				String propName = (String) this.writableProps.get(colName.toLowerCase()) ;
+				
+				if(propName == null){
+					if(log.isWarnEnabled()){
+						log.warn("rs column:[" + colName + "] cann't be mapped to java class:[" + this.beanCls.getName() + "]. The column is not writable.") ;
+					}
+					continue ;
+				}
+				
+				String propType = this.beanWrapper.getPropertyTypeName(propName) ;
+				plan.loadByType(i, propName, mapping.getDbGroup().getDialect().getDataType(propType)) ;
+			}
+		}
+		
+		RowLoadPlan.cachePlan(this.rowLoadPlans, mapping, sql, plan) ;
+		
+		return plan ;
+	}
+	
 	public Class getBeanCls() {
 		return beanCls;
 	}
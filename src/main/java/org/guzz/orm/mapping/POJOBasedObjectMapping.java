@@ -34,6 +34,7 @@ import org.guzz.orm.rdms.Table;
 import org.guzz.orm.rdms.TableColumn;
 import org.guzz.orm.type.SQLDataType;
 import org.guzz.pojo.GuzzProxy;
+import org.guzz.util.ConcurrentLRUCache;
 import org.guzz.util.StringUtil;
 import org.guzz.util.javabean.BeanCreator;
 import org.guzz.util.javabean.BeanWrapper;
@@ -58,6 +59,12 @@ public final class POJOBasedObjectMapping extends AbstractObjectMapping{
 	
 	private BusinessDescriptor businessDescriptor ;
 	
+	/**{@link RowLoadPlan}s of the queries executed on this mapping.*/
+	private final ConcurrentLRUCache rowLoadPlans = new ConcurrentLRUCache(128, 4) ;
+	
+	/**resultClass -> BeanWrapper*/
+	private final ConcurrentLRUCache resultClassWrappers = new ConcurrentLRUCache(32, 4) ;
+	
 	public POJOBasedObjectMapping(GuzzContextImpl guzzContext, DBGroup dbGroup, Table table){
 		super(dbGroup, table) ;
 		
@@ -105,7 +112,7 @@ public final class POJOBasedObjectMapping extends AbstractObjectMapping{
 		if(instance instanceof Map){
 			isMap = true ;
 		}else{
-			bw = resultClass == null ? this.beanWrapper : BeanWrapper.createPOJOWrapper(resultClass) ;
+			bw = resultClass == null ? this.beanWrapper : getResultClassWrapper(resultClass) ;
 		}
 		
 		if(instance instanceof GuzzProxy){
@@ -171,6 +178,72 @@ public final class POJOBasedObjectMapping extends AbstractObjectMapping{
 		return instance ;
 	}
 	
+	/**
+	 * Get the plan to map the rows of the sql. The plan is built once and cached for the same sql and resultClass.
+	 * 
+	 * @param sql the sql executed. null to skip the cache.
+	 * @param rs the {@link ResultSet} of the sql.
+	 * @param resultClass the class to map each row to. null to map to the domain class.
+	 */
+	public RowLoadPlan getRowLoadPlan(String sql, ResultSet rs, Class resultClass) throws SQLException{
+		ResultSetMetaData meta = rs.getMetaData() ;
+		Object owner = resultClass == null ? (Object) this : resultClass ;
+		
+		RowLoadPlan.ColumnsPlan plan = RowLoadPlan.getCachedPlan(this.rowLoadPlans, owner, sql, meta) ;
+		if(plan != null){
+			return plan ;
+		}
+		
+		boolean isMap = Map.class.isAssignableFrom(resultClass == null ? this.business.getDomainClass() : resultClass) ;
+		BeanWrapper bw = null ;
+		
+		if(!isMap){
+			bw = resultClass == null ? this.beanWrapper : getResultClassWrapper(resultClass) ;
+		}
+		
+		plan = new RowLoadPlan.ColumnsPlan(resultClass == null ? this : null, resultClass, bw, meta) ;
+		Table t = getTable() ;
+		
+		for(int i = 0 ; i < plan.columnLabels.length ; i++){
+			String colName = plan.columnLabels[i] ;
+			TableColumn col = t.getColumnByColNameInRS(colName) ;
+			ColumnORM orm = col != null ? col.getOrm() : null ;
+			
+			if(orm != null){
+				plan.loadByORM(i, col.getPropName(), orm) ;
+			}else if(resultClass != null){
+				//same as rs2Object(), resultClass accepts all columns.
+				plan.loadByObject(i, colName) ;
+			}else{
+				String propName = getPropName(colName, this.beanWrapper) ;
+				
+				if(isMap){
+					plan.loadByObject(i, propName == null ? colName : propName) ;
+				}else if(propName != null){
+					String typeName = bw.getPropertyTypeName(propName) ;
+					plan.loadByType(i, propName, getDbGroup().getDialect().getDataType(typeName)) ;
+				}else if(log.isDebugEnabled()){
+					log.debug("warning:ignore ResultSet column:[" + colName + "] in POJOBasedObjectMapping for business:[" + this.business.getName() + "].") ;
+				}
+			}
+		}
+		
+		RowLoadPlan.cachePlan(this.rowLoadPlans, owner, sql, plan) ;
+		
+		return plan ;
+	}
+	
+	protected BeanWrapper getResultClassWrapper(Class resultClass){
+		BeanWrapper bw = (BeanWrapper) this.resultClassWrappers.get(resultClass) ;
+		
+		if(bw == null){
+			bw = BeanWrapper.createFastPOJOWrapper(resultClass) ;
+			this.resultClassWrappers.put(resultClass, bw) ;
+		}
+		
+		return bw ;
+	}
+	
 	protected String getPropName(String colName, BeanWrapper bw) {
 		if (bw instanceof JavaBeanWrapper) {
 			List<String> props = ((JavaBeanWrapper)bw).getAllWritabeProps();
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.orm.mapping;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.guzz.exception.ORMException;
+import org.guzz.orm.ColumnORM;
+import org.guzz.orm.ObjectMapping;
+import org.guzz.orm.type.SQLDataType;
+import org.guzz.pojo.GuzzProxy;
+import org.guzz.util.ConcurrentLRUCache;
+import org.guzz.util.javabean.BeanCreator;
+import org.guzz.util.javabean.BeanWrapper;
+
+/**
+ * 
+ * How to map each row of a query's {@link ResultSet} to a java object.
+ * <p/>
+ * The column to property mapping is resolved once for the {@link ResultSet} (and cached for the same sql), 
+ * so mapping each row only runs over the precomputed columns.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public abstract class RowLoadPlan {
+	
+	/**
+	 * Map the current row of the {@link ResultSet} to a java object.
+	 */
+	public abstract Object rs2Object(ResultSet rs) throws SQLException ;
+	
+	/**
+	 * Get the plan to map the rows of a query.
+	 * 
+	 * @param mapping the ObjectMapping of the query.
+	 * @param loader the RowDataLoader of the query, null to use the mapping.
+	 * @param resultClass the result class of the query. Only used when loader is null.
+	 * @param sql the sql executed. The plans are cached by sql. Pass null to skip the cache.
+	 * @param rs the ResultSet of the query.
+	 */
+	public static RowLoadPlan forQuery(ObjectMapping mapping, RowDataLoader loader, Class resultClass, String sql, ResultSet rs) throws SQLException{
+		if(loader == null){
+			if(mapping instanceof POJOBasedObjectMapping){
+				return ((POJOBasedObjectMapping) mapping).getRowLoadPlan(sql, rs, resultClass) ;
+			}
+		}else if(loader instanceof FormBeanRowDataLoader){
+			return ((FormBeanRowDataLoader) loader).getRowLoadPlan(mapping, sql, rs) ;
+		}
+		
+		return new DelegatePlan(mapping, loader, resultClass) ;
+	}
+	
+	/**
+	 * Get the cached plan of the sql, or null if the plan is not cached or is built for different columns.
+	 */
+	static ColumnsPlan getCachedPlan(ConcurrentLRUCache plans, Object owner, String sql, ResultSetMetaData meta) throws SQLException{
+		if(sql == null) return null ;
+		
+		int count = meta.getColumnCount() ;
+		ColumnsPlan plan = (ColumnsPlan) plans.get(new PlanKey(owner, sql, count)) ;
+		
+		if(plan == null) return null ;
+		
+		for(int i = 0 ; i < count ; i++){
+			if(!plan.columnLabels[i].equals(meta.getColumnLabel(i + 1))){
+				return null ;
+			}
+		}
+		
+		return plan ;
+	}
+	
+	static void cachePlan(ConcurrentLRUCache plans, Object owner, String sql, ColumnsPlan plan){
+		if(sql == null) return ;
+		
+		plans.put(new PlanKey(owner, sql, plan.columnLabels.length), plan) ;
+	}
+	
+	static class DelegatePlan extends RowLoadPlan{
+		private final ObjectMapping mapping ;
+		private final RowDataLoader loader ;
+		private final Class resultClass ;
+		
+		public DelegatePlan(ObjectMapping mapping, RowDataLoader loader, Class resultClass){
+			this.mapping = mapping ;
+			this.loader = loader ;
+			this.resultClass = resultClass ;
+		}
+
+		public Object rs2Object(ResultSet rs) throws SQLException {
+			if(loader == null){
+				return mapping.rs2Object(rs, resultClass) ;
+			}else{
+				return loader.rs2Object(mapping, rs) ;
+			}
+		}
+	}
+	
+	/**
+	 * Precomputed (column index -> property) pairs.
+	 */
+	static class ColumnsPlan extends RowLoadPlan{
+		/**load the value by the {@link ColumnORM}*/
+		static final int BY_ORM = 1 ;
+		
+		/**load the value by {@link ResultSet#getObject(int)}*/
+		static final int BY_OBJECT = 2 ;
+		
+		/**load the value by the {@link SQLDataType}*/
+		static final int BY_TYPE = 3 ;
+		
+		/**ignore the column*/
+		static final int SKIP = 0 ;
+		
+		private final POJOBasedObjectMapping domainMapping ;
+		private final Class beanClass ;
+		private final BeanWrapper beanWrapper ;
+		private final boolean isMap ;
+		
+		final String[] columnLabels ;
+		private final int[] loadTypes ;
+		private final String[] propNames ;
+		
+		/**index of the property in the beanWrapper, -1 to set by name.*/
+		private final int[] propIndexes ;
+		private final ColumnORM[] orms ;
+		private final SQLDataType[] dataTypes ;
+		
+		/**
+		 * @param domainMapping create the domain object of the mapping for each row. null to create beanClass.
+		 * @param beanClass class to create for each row when the domainMapping is null.
+		 * @param beanWrapper used to set the properties. null for java.util.Map results.
+		 */
+		public ColumnsPlan(POJOBasedObjectMapping domainMapping, Class beanClass, BeanWrapper beanWrapper, ResultSetMetaData meta) throws SQLException{
+			this.domainMapping = domainMapping ;
+			this.beanClass = beanClass ;
+			this.beanWrapper = beanWrapper ;
+			this.isMap = beanWrapper == null ;
+			
+			int count = meta.getColumnCount() ;
+			this.columnLabels = new String[count] ;
+			this.loadTypes = new int[count] ;
+			this.propNames = new String[count] ;
+			this.propIndexes = new int[count] ;
+			this.orms = new ColumnORM[count] ;
+			this.dataTypes = new SQLDataType[count] ;
+			
+			for(int i = 0 ; i < count ; i++){
+				this.columnLabels[i] = meta.getColumnLabel(i + 1) ;
+			}
+		}
+		
+		/**
+		 * @param index index in the ResultSet, starts from 0.
+		 */
+		void loadByORM(int index, String propName, ColumnORM orm){
+			this.loadTypes[index] = BY_ORM ;
+			setPropName(index, propName) ;
+			this.orms[index] = orm ;
+		}
+		
+		void loadByObject(int index, String propName){
+			this.loadTypes[index] = BY_OBJECT ;
+			setPropName(index, propName) ;
+		}
+		
+		void loadByType(int index, String propName, SQLDataType dataType){
+			this.loadTypes[index] = BY_TYPE ;
+			setPropName(index, propName) ;
+			this.dataTypes[index] = dataType ;
+		}
+		
+		private void setPropName(int index, String propName){
+			this.propNames[index] = propName ;
+			this.propIndexes[index] = -1 ;
+			
+			if(!isMap){
+				try{
+					this.propIndexes[index] = beanWrapper.getPropertyIndex(propName) ;
+				}catch(ORMException e){
+					//unknown property. report it on setting the value.
+				}
+			}
+		}
+
+		public Object rs2Object(ResultSet rs) throws SQLException {
+			Object instance = domainMapping != null ? domainMapping.proxyDomainObject() : BeanCreator.newBeanInstance(beanClass) ;
+			
+			if(instance instanceof GuzzProxy){
+				((GuzzProxy) instance).markReading() ;
+			}
+			
+			for(int i = 0 ; i < loadTypes.length ; i++){
+				Object value ;
+				
+				switch(loadTypes[i]){
+					case BY_ORM:
+						value = orms[i].loadResult(rs, instance, i + 1) ;
+						break ;
+					case BY_OBJECT:
+						value = rs.getObject(i + 1) ;
+						break ;
+					case BY_TYPE:
+						value = dataTypes[i].getSQLValue(rs, i + 1) ;
+						break ;
+					default:
+						continue ;
+				}
+				
+				if(isMap){
+					((Map) instance).put(propNames[i], value) ;
+				}else if(propIndexes[i] >= 0){
+					beanWrapper.setValue(instance, propIndexes[i], value) ;
+				}else{
+					beanWrapper.setValue(instance, propNames[i], value) ;
+				}
+			}
+			
+			if(instance instanceof GuzzProxy){
+				((GuzzProxy) instance).unmarkReading() ;
+			}
+			
+			return instance ;
+		}
+	}
+	
+	static class PlanKey{
+		private final Object owner ;
+		private final String sql ;
+		private final int columnCount ;
+		private final int hashCode ;
+		
+		public PlanKey(Object owner, String sql, int columnCount){
+			this.owner = owner ;
+			this.sql = sql ;
+			this.columnCount = columnCount ;
+			this.hashCode = (System.identityHashCode(owner) * 31 + sql.hashCode()) * 31 + columnCount ;
+		}
+
+		public int hashCode() {
+			return hashCode ;
+		}
+
+		public boolean equals(Object obj) {
+			if(!(obj instanceof PlanKey)) return false ;
+			
+			PlanKey k = (PlanKey) obj ;
+			
+			return k.owner == this.owner && k.columnCount == this.columnCount && k.sql.equals(this.sql) ;
+		}
+	}
+
+}
@@ -23,7 +23,7 @@ package org.guzz.orm.se;
  * 
  * @author liu kaixuan(liukaixuan@gmail.com)
  */
-public abstract class AbstractConcatTerm implements SearchTerm {
+public abstract class AbstractConcatTerm implements CacheableSearchTerm {
 
 	protected SearchTerm leftTerm ;
 	protected SearchTerm rightTerm ;
@@ -53,6 +53,27 @@ public abstract class AbstractConcatTerm implements SearchTerm {
 //		return params.isEmpty() ? null : params ;
 //	}
 
+	/**
+	 * Append the shape of the two sides, wrapped in the given tag.
+	 */
+	protected boolean appendShape(String tag, StringBuffer key, SearchParams params){
+		key.append(tag).append('(') ;
+		
+		if(!SearchExpression.appendShape(leftTerm, key, params)){
+			return false ;
+		}
+		
+		key.append(',') ;
+		
+		if(!SearchExpression.appendShape(rightTerm, key, params)){
+			return false ;
+		}
+		
+		key.append(')') ;
+		
+		return true ;
+	}
+
 	public SearchTerm getLeftTerm() {
 		return leftTerm;
 	}
@@ -80,6 +80,10 @@ public class AndTerm extends AbstractConcatTerm {
 		}
 	}
 
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		return appendShape("and", key, params) ;
+	}
+
 	public boolean isEmptyQuery() {
 		if(this.leftTerm == null && this.rightTerm == null) return false ;
 		if(this.leftTerm == null) return this.rightTerm.isEmptyQuery() ;
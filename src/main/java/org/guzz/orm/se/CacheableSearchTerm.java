@@ -0,0 +1,43 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.orm.se;
+
+/**
+ * 
+ * {@link SearchTerm} whose sql only depends on its structure, not on the values it binds.
+ * <p/>
+ * The compiled sql of a {@link SearchExpression} made up of such terms is cached by the structure, and later
+ * queries in the same shape only bind the new values.
+ * <p/>
+ * Subclasses changing {@link #toExpression(SearchExpression, org.guzz.orm.ObjectMapping, SearchParams)} must override
+ * {@link #appendShape(StringBuffer, SearchParams)} too, or return false in it. Subclasses overriding toExpression only are never cached.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface CacheableSearchTerm extends SearchTerm {
+	
+	/**
+	 * Append the structure of this term to the key, with all values replaced by placeholders.
+	 * <p/>
+	 * The values must be added to the params in the same order and with the same names as
+	 * {@link #toExpression(SearchExpression, org.guzz.orm.ObjectMapping, SearchParams)} does.
+	 * 
+	 * @return false if the sql of this term cannot be cached.
+	 */
+	public boolean appendShape(StringBuffer key, SearchParams params) ;
+
+}
@@ -26,7 +26,7 @@ import org.guzz.orm.ObjectMapping;
  * 
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class CompareTerm implements SearchTerm {
+public class CompareTerm implements CacheableSearchTerm {
 	
 	public static final String EQUALS = "=" ;
 	public static final String BIGGER = ">" ;
@@ -60,6 +60,15 @@ public class CompareTerm implements SearchTerm {
 		
 		return colName + " " + operator + " :" + propMark ;
 	}
+	
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		String propMark = propName + '_' + params.getNextSeq() ;
+		params.addParam(propName, propMark, propValue) ;
+		
+		key.append("cmp(").append(propName).append(' ').append(operator).append(')') ;
+		
+		return true ;
+	}
 
 	public boolean isEmptyQuery() {
 		return false;
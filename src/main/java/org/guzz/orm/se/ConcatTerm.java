@@ -65,6 +65,10 @@ public class ConcatTerm  extends AbstractConcatTerm {
 		}
 	}
 
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		return appendShape("concat", key, params) ;
+	}
+
 	public boolean isEmptyQuery() {
 		if(this.leftTerm == null && this.rightTerm == null) return false ;
 		if(this.leftTerm == null) return this.rightTerm.isEmptyQuery() ;
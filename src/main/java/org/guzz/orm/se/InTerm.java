@@ -27,7 +27,7 @@ import org.guzz.orm.ObjectMapping;
  * 
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class InTerm implements SearchTerm {
+public class InTerm implements CacheableSearchTerm {
 	
 	private String propName ;
 	private Collection values ;
@@ -96,6 +96,29 @@ public class InTerm implements SearchTerm {
 		
 		return sb.toString() ;
 	}
+	
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		int count = 0 ;
+		
+		if(values != null){
+			Iterator ii = values.iterator() ;
+			
+			while(ii.hasNext()){
+				params.addParam(propName, propName + "_" + params.getNextSeq(), ii.next()) ;
+				count++ ;
+			}
+		}else if(i_values != null){
+			for(int i = 0 ; i < i_values.length ; i++){
+				params.addParam(propName, propName + "_" + params.getNextSeq(), new Integer(i_values[i])) ;
+				count++ ;
+			}
+		}
+		
+		//the sql has one placeholder for each value.
+		key.append("in(").append(propName).append(' ').append(count).append(')') ;
+		
+		return true ;
+	}
 
 	public boolean isEmptyQuery() {
 		if(values != null && !values.isEmpty()){
@@ -24,7 +24,7 @@ import org.guzz.orm.ObjectMapping;
  * 
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class IsNullTerm implements SearchTerm {
+public class IsNullTerm implements CacheableSearchTerm {
 	
 	private String propName ;
 
@@ -47,6 +47,12 @@ public class IsNullTerm implements SearchTerm {
 		
 		return sb.toString() ;
 	}
+	
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		key.append("null(").append(propName).append(')') ;
+		
+		return true ;
+	}
 
 	public boolean isEmptyQuery() {
 		return false;
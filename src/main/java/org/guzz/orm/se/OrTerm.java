@@ -79,6 +79,10 @@ public class OrTerm extends AbstractConcatTerm {
 		}
 	}
 
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		return appendShape("or", key, params) ;
+	}
+
 	public boolean isEmptyQuery() {
 		if(this.leftTerm == null && this.rightTerm == null) return false ;
 		if(this.leftTerm == null) return this.rightTerm.isEmptyQuery() ;
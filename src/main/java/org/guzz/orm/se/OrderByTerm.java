@@ -28,7 +28,7 @@ import org.guzz.util.StringUtil;
  * 
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class OrderByTerm implements SearchTerm {
+public class OrderByTerm implements CacheableSearchTerm {
 	
 	private LinkedList orders = new LinkedList() ;
 
@@ -113,6 +113,19 @@ public class OrderByTerm implements SearchTerm {
 		return sb.toString() ;
 	}
 
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		key.append("order(") ;
+		
+		for(int i = 0 ; i < orders.size() ; i++){
+			_OrderBy o = (_OrderBy) orders.get(i) ;
+			key.append(o.propName).append(o.isASC ? " asc," : " desc,") ;
+		}
+		
+		key.append(')') ;
+		
+		return true ;
+	}
+
 	public boolean isEmptyQuery() {
 		return false;
 	}
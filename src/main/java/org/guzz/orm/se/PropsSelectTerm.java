@@ -28,7 +28,7 @@ import org.guzz.util.StringUtil;
  * 
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class PropsSelectTerm implements SearchTerm {
+public class PropsSelectTerm implements CacheableSearchTerm {
 
 	private LinkedList props = new LinkedList() ;
 	
@@ -75,6 +75,18 @@ public class PropsSelectTerm implements SearchTerm {
 		return sb.toString() ;
 	}
 
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		key.append("select(") ;
+		
+		for(int i = 0 ; i < props.size() ; i++){
+			key.append(props.get(i)).append(',') ;
+		}
+		
+		key.append(')') ;
+		
+		return true ;
+	}
+
 	public boolean isEmptyQuery() {
 		return false;
 	}
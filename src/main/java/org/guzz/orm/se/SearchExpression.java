@@ -17,10 +17,13 @@
 package org.guzz.orm.se;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.guzz.Guzz;
 import org.guzz.exception.DataTypeException;
 import org.guzz.exception.GuzzException;
+import org.guzz.orm.ObjectMapping;
 import org.guzz.orm.mapping.POJOBasedObjectMapping;
 import org.guzz.orm.mapping.RowDataLoader;
 import org.guzz.orm.rdms.Table;
@@ -38,12 +41,24 @@ public abstract class SearchExpression {
 	
 	private static Class SEImpClass = DefaultSearchExpression.class ; 
 	
+	/**term class -> Boolean, see {@link #isShapeOverrided(Class)}*/
+	private static final Map shapeOverridedTerms = new ConcurrentHashMap() ;
+	
 	public static int FIRST_PAGE = 1 ;
 	
 	public static int DEFAULT_PAGE_SIZE = 20 ;
 	
 	/**不进行分页，如果每页的包含的记录为此，则不进行分页处理。pageNo自动按照第一页处理。*/
 	public static final int UNLIMITED_PAGE_SIZE = Integer.MAX_VALUE ;
+	
+	/**sql type for {@link #toLoadRecordsMarkedSQL(POJOBasedObjectMapping, SearchParams)}*/
+	public static final int SQL_LOAD_RECORDS = 1 ;
+	
+	/**sql type for {@link #toComputeRecordNumberSQL(POJOBasedObjectMapping, SearchParams)}*/
+	public static final int SQL_COMPUTE_RECORD_NUMBER = 2 ;
+	
+	/**sql type for {@link #toDeleteRecordString(POJOBasedObjectMapping, SearchParams)}*/
+	public static final int SQL_DELETE_RECORDS = 3 ;
 
 	private OrderByTerm orderByTerm ;
 	
@@ -67,6 +82,9 @@ public abstract class SearchExpression {
 	
 	private boolean loadRecords = true ;
 	
+	/**run the count query on another connection while loading the records. see {@link #setConcurrentCount(boolean)}*/
+	private boolean concurrentCount ;
+	
 	private int cacheMode ;
 	
 	/**定义用于翻页的类，默认使用 (@link PageFlip)*/
@@ -264,6 +282,100 @@ public abstract class SearchExpression {
 	    return sql ;
 	}
 	
+	/**
+	 * Build the sql of the given type.
+	 * 
+	 * @param sqlType {@link #SQL_LOAD_RECORDS}, {@link #SQL_COMPUTE_RECORD_NUMBER} or {@link #SQL_DELETE_RECORDS}
+	 */
+	public MarkedSQL toMarkedSQL(int sqlType, POJOBasedObjectMapping mapping, SearchParams params){
+		if(sqlType == SQL_LOAD_RECORDS){
+			return toLoadRecordsMarkedSQL(mapping, params) ;
+		}else if(sqlType == SQL_COMPUTE_RECORD_NUMBER){
+			return toComputeRecordNumberSQL(mapping, params) ;
+		}else if(sqlType == SQL_DELETE_RECORDS){
+			return toDeleteRecordString(mapping, params) ;
+		}
+		
+		throw new GuzzException("unknown sql type:" + sqlType) ;
+	}
+	
+	/**
+	 * Build the key identifying the structure of the sql of the given type, used to cache the compiled sql.
+	 * <p/>
+	 * Values are replaced by placeholders in the key, and are added to the params in the same order and with the
+	 * same names as {@link #toMarkedSQL(int, POJOBasedObjectMapping, SearchParams)} does.
+	 * <p/>
+	 * Subclasses changing the sql building should override this method, and return null to disable the caching.
+	 * 
+	 * @return null if the sql cannot be cached, eg: some terms are not {@link CacheableSearchTerm}s.
+	 */
+	public String toShapeKey(int sqlType, SearchParams params){
+		StringBuffer sb = new StringBuffer(128) ;
+		sb.append(getClass().getName()).append('|').append(sqlType).append('|').append(from).append('|') ;
+		
+		if(sqlType == SQL_LOAD_RECORDS){
+			if(selectTerm != null && !appendShape(selectTerm, sb, params)){
+				return null ;
+			}
+		}else if(sqlType == SQL_COMPUTE_RECORD_NUMBER){
+			sb.append(countSelectPhrase) ;
+		}
+		
+		sb.append('|') ;
+		
+		if(conditionTerm != null && !appendShape(conditionTerm, sb, params)){
+			return null ;
+		}
+		
+		sb.append('|') ;
+		
+		if(sqlType == SQL_LOAD_RECORDS && orderByTerm != null && !appendShape(orderByTerm, sb, params)){
+			return null ;
+		}
+		
+		return sb.toString() ;
+	}
+	
+	/**
+	 * Append the shape of the term to the key. A null term is appended as empty.
+	 * 
+	 * @return false if the term is not a {@link CacheableSearchTerm} or cannot be cached.
+	 */
+	static boolean appendShape(SearchTerm term, StringBuffer key, SearchParams params){
+		if(term == null){
+			return true ;
+		}
+		
+		if(term instanceof CacheableSearchTerm && isShapeOverrided(term.getClass())){
+			return ((CacheableSearchTerm) term).appendShape(key, params) ;
+		}
+		
+		return false ;
+	}
+	
+	/**
+	 * Is appendShape declared at the same level as toExpression or below it? 
+	 * A subclass overriding toExpression only would inherit the shape of its parent, and hit the parent's cached sql.
+	 */
+	static boolean isShapeOverrided(Class termClass){
+		Boolean b = (Boolean) shapeOverridedTerms.get(termClass) ;
+		
+		if(b == null){
+			try {
+				Class toExpressionClass = termClass.getMethod("toExpression", new Class[]{SearchExpression.class, ObjectMapping.class, SearchParams.class}).getDeclaringClass() ;
+				Class appendShapeClass = termClass.getMethod("appendShape", new Class[]{StringBuffer.class, SearchParams.class}).getDeclaringClass() ;
+				
+				b = Boolean.valueOf(toExpressionClass.isAssignableFrom(appendShapeClass)) ;
+			} catch (NoSuchMethodException e) {
+				b = Boolean.FALSE ;
+			}
+			
+			shapeOverridedTerms.put(termClass, b) ;
+		}
+		
+		return b.booleanValue() ;
+	}
+	
 	public BindedCompiledSQL prepareHits(BindedCompiledSQL bsql){
 		bsql.setTableCondition(getTableCondition()) ;
 		
@@ -322,6 +434,21 @@ public abstract class SearchExpression {
 		this.computeRecordNumber = computePageSize;
 	}
 
+	public boolean isConcurrentCount() {
+		return concurrentCount;
+	}
+
+	/**
+	 * Run the count(*) query of {@link org.guzz.transaction.ReadonlyTranSession#page(SearchExpression)} in parallel with the records query.
+	 * <p/>
+	 * The count query is executed on a second readonly connection of the same database group, 
+	 * so it only works in readonly sessions with an executor configured (service name: guzzPageCountExecutor). 
+	 * Otherwise, the two queries are executed one by one as usual.
+	 */
+	public void setConcurrentCount(boolean concurrentCount) {
+		this.concurrentCount = concurrentCount;
+	}
+
 	public boolean isLoadRecords() {
 		return loadRecords;
 	}
@@ -59,5 +59,14 @@ public class StringCompareTerm extends CompareTerm {
 		
 		return sb.toString() ;
 	}
+	
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		String propMark = propName + '_' + params.getNextSeq() ;
+		params.addParam(propName, propMark, propValue) ;
+		
+		key.append("scmp(").append(propName).append(' ').append(operator).append(' ').append(ignoreCase).append(')') ;
+		
+		return true ;
+	}
 
 }
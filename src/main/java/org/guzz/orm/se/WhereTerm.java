@@ -25,7 +25,7 @@ import org.guzz.util.StringUtil;
  * 
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class WhereTerm implements SearchTerm {
+public class WhereTerm implements CacheableSearchTerm {
 	
 	private SearchTerm condition ;
 
@@ -48,6 +48,18 @@ public class WhereTerm implements SearchTerm {
 		return "where " + m_con ;
 	}
 
+	public boolean appendShape(StringBuffer key, SearchParams params) {
+		key.append("where(") ;
+		
+		if(!SearchExpression.appendShape(condition, key, params)){
+			return false ;
+		}
+		
+		key.append(')') ;
+		
+		return true ;
+	}
+
 	public SearchTerm getCondition() {
 		return condition;
 	}
@@ -54,7 +54,14 @@ public abstract class BindedCompiledSQL {
 	 */
 	public static final RowDataLoader MAP_ROW_DATA_LOADER = FormBeanRowDataLoader.newInstanceForClass(HashMap.class) ;
 	
-	private Map bindedParams = new HashMap() ;
+	/**values of the params not in the slots. created on demand.*/
+	private Map bindedParams ;
+	
+	/**positional binding plan of the sql. null if the sql to run is not known before binding.*/
+	private ParamBindings bindings ;
+	
+	/**values of the params in the slots of {@link #bindings}*/
+	private Object[] slotValues ;
 	
 	private RowDataLoader rowDataLoader ;
 	
@@ -80,6 +87,34 @@ public abstract class BindedCompiledSQL {
 		this.resultClass = resultClass ;
 	}
 	
+	/**
+	 * Store the values of the params by the slots of the given plan instead of names.
+	 * Subclasses knowing the sql to run on creating should call this in the constructor.
+	 */
+	protected void useParamBindings(ParamBindings bindings){
+		this.bindings = bindings ;
+		this.slotValues = new Object[bindings.getSlotCount()] ;
+	}
+	
+	/**
+	 * @return the positional binding plan of the binded values, or null if values are binded by names.
+	 */
+	public ParamBindings getParamBindings(){
+		return this.bindings ;
+	}
+	
+	protected Object getBindedValue(String paramName){
+		if(this.bindings != null){
+			int slot = this.bindings.getSlot(paramName) ;
+			
+			if(slot >= 0){
+				return this.slotValues[slot] ;
+			}
+		}
+		
+		return this.bindedParams == null ? null : this.bindedParams.get(paramName) ;
+	}
+	
 	
 	/**
 	 * 将命名参数set到PreparedStatement中
@@ -90,14 +125,18 @@ public abstract class BindedCompiledSQL {
 	public void prepareNamedParams(Dialect dialect, PreparedStatement pstm) throws SQLException{
 		NormalCompiledSQL cs = getCompiledSQLToRun() ;
 		
-		String[] orderParams = cs.getOrderedParams() ;
+		ParamBindings csBindings = cs.getParamBindings() ;
+		int[] positionSlots = csBindings.getPositionSlots() ;
+		SQLDataType[] types = csBindings.getPositionTypes(cs) ;
+		
+		//the values are stored by the same plan, read the slots directly.
+		boolean bySlot = this.bindings == csBindings ;
 		
-		for(int i = 0 ; i < orderParams.length ; i++){
-			String orderParam = orderParams[i] ;
-			Object value = bindedParams.get(orderParam) ;
+		for(int i = 0 ; i < positionSlots.length ; i++){
+			Object value = bySlot ? this.slotValues[positionSlots[i]] : getBindedValue(csBindings.getSlotName(positionSlots[i])) ;
 			
 			if(value == null){
-				throw new DaoException("missing parameter:[" + orderParam + "] in sql:" + getSQLToRun()) ;
+				throw new DaoException("missing parameter:[" + csBindings.getSlotName(positionSlots[i]) + "] in sql:" + getSQLToRun()) ;
 			}
 			
 			//NEW Implemention to fix
@@ -105,13 +144,13 @@ public abstract class BindedCompiledSQL {
 				value = null ;
 			}
 			
-			SQLDataType type = cs.getSQLDataTypeForParam(cs, orderParam) ;
+			SQLDataType type = types[i] ;
 			
 			if(type != null){
 				type.setSQLValue(pstm, i + bindStartIndex, value) ;
 			}else{ //使用jdbc自己的方式绑定。
 				if(log.isInfoEnabled()){
-					log.info("bind named params without SQLDataType found, try CompiledSQL#addParamPropMapping(,) for better binding. bind param is:[" + orderParam + "], value is :[" + value + "]. sql is:" + getSQLToRun()) ;
+					log.info("bind named params without SQLDataType found, try CompiledSQL#addParamPropMapping(,) for better binding. bind param is:[" + csBindings.getSlotName(positionSlots[i]) + "], value is :[" + value + "]. sql is:" + getSQLToRun()) ;
 				}
 				
 				pstm.setObject(i + bindStartIndex, value) ;
@@ -139,16 +178,37 @@ public abstract class BindedCompiledSQL {
 	/**绑定sql执行需要的参数*/
 	public BindedCompiledSQL bind(String paramName, Object paramValue){
 		if(paramValue == null){
-			this.bindedParams.put(paramName, NullValue.instance) ;
+			paramValue = NullValue.instance ;
+		}
+		
+		int slot = this.bindings == null ? -1 : this.bindings.getSlot(paramName) ;
+		
+		if(slot >= 0){
+			this.slotValues[slot] = paramValue ;
 		}else{
-			bindedParams.put(paramName, paramValue) ;
+			if(this.bindedParams == null){
+				this.bindedParams = new HashMap() ;
+			}
+			
+			this.bindedParams.put(paramName, paramValue) ;
 		}
 		
 		return this ;
 	}
 	
 	public BindedCompiledSQL bind(String paramName, int paramValue){
-		bindedParams.put(paramName, new Integer(paramValue)) ;
+		return bind(paramName, Integer.valueOf(paramValue)) ;
+	}
+	
+	/**
+	 * Bind the value to the slot of {@link #getParamBindings()}. Only available for sqls binded by slots.
+	 * 
+	 * @param slot the index returned by {@link ParamBindings#getSlot(String)}
+	 * @param paramValue the value to bind, null is allowed.
+	 */
+	public BindedCompiledSQL bindSlot(int slot, Object paramValue){
+		this.slotValues[slot] = paramValue == null ? NullValue.instance : paramValue ;
+		
 		return this ;
 	}
 	
@@ -165,12 +225,40 @@ public abstract class BindedCompiledSQL {
 	}
 	
 	public BindedCompiledSQL clearBindedParams(){
-		bindedParams.clear() ;
+		if(this.bindedParams != null){
+			this.bindedParams.clear() ;
+		}
+		
+		if(this.slotValues != null){
+			for(int i = 0 ; i < this.slotValues.length ; i++){
+				this.slotValues[i] = null ;
+			}
+		}
+		
 		return this ;
 	}
 
+	/**
+	 * Return the binded params. If the params are binded by slots, a new map is returned, and changing it won't affect the binding.
+	 */
 	public Map getBindedParams() {
-		return bindedParams;
+		if(this.bindings == null){
+			if(this.bindedParams == null){
+				this.bindedParams = new HashMap() ;
+			}
+			
+			return this.bindedParams ;
+		}
+		
+		HashMap params = this.bindedParams == null ? new HashMap() : new HashMap(this.bindedParams) ;
+		
+		for(int i = 0 ; i < this.slotValues.length ; i++){
+			if(this.slotValues[i] != null){
+				params.put(this.bindings.getSlotName(i), this.slotValues[i]) ;
+			}
+		}
+		
+		return params ;
 	}
 
 	public RowDataLoader getRowDataLoader() {
@@ -277,6 +365,8 @@ public abstract class BindedCompiledSQL {
 	
 	protected BindedCompiledSQL copyUserSettingsFrom(BindedCompiledSQL bsql){
 		this.bindedParams = bsql.bindedParams ;
+		this.bindings = bsql.bindings ;
+		this.slotValues = bsql.slotValues ;
 		this.rowDataLoader = bsql.rowDataLoader ;
 		this.exceptionOnNoRecordFound = bsql.exceptionOnNoRecordFound ;
 		this.bindStartIndex = bsql.bindStartIndex ;
@@ -53,6 +53,8 @@ public abstract class CompiledSQL {
 		}
 		
 		paramTypes.put(paramName, dataType) ;
+		onParamSettingsChanged() ;
+		
 		return this ;
 	}
 	
@@ -76,6 +78,7 @@ public abstract class CompiledSQL {
 		}
 		
 		this.paramTypes.putAll(paramTypes) ;
+		onParamSettingsChanged() ;
 		
 		return this ;
 	}
@@ -90,6 +93,8 @@ public abstract class CompiledSQL {
 		}
 		
 		paramPropMapping.put(paramName, propName) ;
+		onParamSettingsChanged() ;
+		
 		return this ;
 	}
 	
@@ -107,6 +112,7 @@ public abstract class CompiledSQL {
 		}
 		
 		this.paramPropMapping.putAll(paramPropMapping) ;
+		onParamSettingsChanged() ;
 		
 		return this ;
 	}
@@ -116,9 +122,17 @@ public abstract class CompiledSQL {
 	 */
 	public CompiledSQL setParamPropMapping(Map paramPropMapping){
 		this.paramPropMapping = paramPropMapping ;
+		onParamSettingsChanged() ;
+		
 		return this ;
 	}
 	
+	/**
+	 * Called after the param types or the param-prop mappings are changed. Subclasses caching the resolved types should drop them here.
+	 */
+	protected void onParamSettingsChanged(){
+	}
+	
 	/**
 	 * Query the data type for the giving paramName.
 	 * 
@@ -17,6 +17,7 @@
 package org.guzz.orm.sql;
 
 import org.guzz.orm.mapping.POJOBasedObjectMapping;
+import org.guzz.orm.se.SearchExpression;
 
 /**
  * 
@@ -57,6 +58,17 @@ public interface CompiledSQLManager {
 	 */
 	public CompiledSQL buildLoadColumnByPkSQL(POJOBasedObjectMapping mapping, String columnName) ;
 	
+	/**
+	 * Build the sql of the {@link SearchExpression}, and bind its parameters.
+	 * <p/>
+	 * The compiled sql is cached by the structure of the expression, queries in the same shape only bind their own values.
+	 * 
+	 * @param se the search expression
+	 * @param mapping the runtime object mapping of the business queried.
+	 * @param sqlType {@link SearchExpression#SQL_LOAD_RECORDS}, {@link SearchExpression#SQL_COMPUTE_RECORD_NUMBER} or {@link SearchExpression#SQL_DELETE_RECORDS}
+	 */
+	public BindedCompiledSQL bindSearchExpressionSQL(SearchExpression se, POJOBasedObjectMapping mapping, int sqlType) ;
+	
 	public void addCompliedSQL(String id, CompiledSQL cs) ;
 	
 	/**
@@ -32,7 +32,7 @@ public class CustomBindedCompiledSQL extends BindedCompiledSQL {
 	private String cachedSql ;	
 	
 	/**
-	 * 根据当前tableCondition决定的运行时CS；每次都会变化，不能做缓存。
+	 * 根据当前tableCondition决定的运行时CS；随tableCondition变化，由 {@link CustomCompiledSQL} 按ObjectMapping缓存。
 	 */
 	private NormalCompiledSQL runtimeCS ;
 	
@@ -54,12 +54,7 @@ public class CustomBindedCompiledSQL extends BindedCompiledSQL {
 		if(runtimeCS == null){
 			POJOBasedObjectMapping om = this.customCS.getObjectMapping(getTableCondition()) ;
 			
-			NormalCompiledSQL cs = this.customCS.getSql(om) ;
-			//将用户设置的param和prop的mapping复制给CompiledSQL
-			cs.addParamPropMappings(this.customCS.paramPropMapping) ;
-			cs.registerParamTypes(this.customCS.paramTypes) ;
-			
-			this.runtimeCS = cs ;
+			this.runtimeCS = this.customCS.getRuntimeSql(om) ;
 		}
 		
 		return runtimeCS ;
@@ -21,6 +21,7 @@ import java.util.Map;
 import org.guzz.orm.mapping.ObjectMappingManager;
 import org.guzz.orm.mapping.POJOBasedObjectMapping;
 import org.guzz.orm.rdms.Table;
+import org.guzz.util.ConcurrentLRUCache;
 
 /**
  * 
@@ -45,6 +46,15 @@ public class CustomCompiledSQL extends CompiledSQL {
 	
 	private DynamicSQLProvider sqlProvider ;
 	
+	/**Max runtime sqls cached for each CustomCompiledSQL by default.*/
+	public static final int DEFAULT_RUNTIME_SQL_CACHE_SIZE = 16 ;
+	
+	/**
+	 * runtime POJOBasedObjectMapping -> NormalCompiledSQL ready to run. 
+	 * The mappings are compared by identity, so a new mapping created by the CustomTableView never hits the old sqls.
+	 */
+	private volatile ConcurrentLRUCache runtimeSQLs = new ConcurrentLRUCache(DEFAULT_RUNTIME_SQL_CACHE_SIZE, 4) ;
+	
 	public CustomCompiledSQL(ObjectMappingManager omm, CompiledSQLBuilder sqlBuilder, String businessName){
 		this.omm = omm ;
 		this.businessName = businessName ;
@@ -70,6 +80,48 @@ public class CustomCompiledSQL extends CompiledSQL {
 		return m_sql ;
 	}
 	
+	/**
+	 * Get the runtime sql for the mapping with the param settings of this CustomCompiledSQL copied.
+	 * <p/>
+	 * The returned NormalCompiledSQL is cached and shared, don't modify it.
+	 */
+	public NormalCompiledSQL getRuntimeSql(POJOBasedObjectMapping mapping){
+		ConcurrentLRUCache cache = this.runtimeSQLs ;
+		NormalCompiledSQL cs = cache == null ? null : (NormalCompiledSQL) cache.get(mapping) ;
+		
+		if(cs == null){
+			cs = getSql(mapping) ;
+			
+			//将用户设置的param和prop的mapping复制给CompiledSQL
+			cs.addParamPropMappings(this.paramPropMapping) ;
+			cs.registerParamTypes(this.paramTypes) ;
+			
+			if(cache != null){
+				cache.put(mapping, cs) ;
+			}
+		}
+		
+		return cs ;
+	}
+	
+	/**
+	 * Set the max number of runtime sqls to cache. 0 to disable the cache.
+	 */
+	public void setRuntimeSQLCacheSize(int size){
+		this.runtimeSQLs = size > 0 ? new ConcurrentLRUCache(size, 4) : null ;
+	}
+	
+	/**
+	 * Drop all cached runtime sqls.
+	 */
+	public void clearRuntimeSQLs(){
+		ConcurrentLRUCache cache = this.runtimeSQLs ;
+		
+		if(cache != null){
+			cache.clear() ;
+		}
+	}
+	
 	
 	/**
 	 * 设置查询sql，如果sql中涉及shadow表，表名可以用@@businessName替代；
@@ -77,10 +129,17 @@ public class CustomCompiledSQL extends CompiledSQL {
 	 */
 	public void setSql(String sql) {
 		this.sql = sql;
+		clearRuntimeSQLs() ;
 	}
 
 	public void setSqlProvider(DynamicSQLProvider sqlProvider) {
 		this.sqlProvider = sqlProvider;
+		clearRuntimeSQLs() ;
+	}
+	
+	protected void onParamSettingsChanged() {
+		//the param settings are copied to the cached runtime sqls.
+		clearRuntimeSQLs() ;
 	}
 	
 	/**绑定sql执行需要的参数*/
@@ -34,6 +34,8 @@ public class NormalBindedCompiledSQL extends BindedCompiledSQL{
 	public NormalBindedCompiledSQL(NormalCompiledSQL cs){
 		super(cs.getResultClass()) ;
 		this.compiledSQL = cs ;
+		
+		useParamBindings(cs.getParamBindings()) ;
 	}
 
 	protected void notifyTableConditionChanged() {
@@ -17,15 +17,15 @@
 package org.guzz.orm.sql;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.guzz.orm.ObjectMapping;
 import org.guzz.orm.rdms.Table;
-import org.guzz.util.StringUtil;
+import org.guzz.util.ConcurrentLRUCache;
 
 /**
  * 
@@ -49,25 +49,27 @@ public class NormalCompiledSQL extends CompiledSQL {
 	/**保存sql中用到的shadow表，如果查询中没有shadow表，值为null*/
 	private Map shadowMapping = null ;
 	
+	/**positional binding plan of the ordered params. built on the first use.*/
+	private volatile ParamBindings paramBindings = null ;
+	
+	/**the sql split by the shadow table marks. built on the first use.*/
+	private volatile ShadowSQLTemplate shadowTemplate = null ;
+	
 	/**
 	 * 根据tableCondition获取完成shadow映射后的sql语句。
 	 */
 	public String getSql(Object tableCondition) {
 		if(shadowMapping == null){
 			return sql;
-		}else{
-			String sql2 = sql ;
-			//替换shadow table name
-			Iterator i = shadowMapping.entrySet().iterator() ;
-			while(i.hasNext()){
-				Entry e = (Entry) i.next() ;
-				Table shadowTable = (Table) e.getValue() ;
-				
-				sql2 = StringUtil.replaceString(sql2, (String) e.getKey(), shadowTable.getTableName(tableCondition)) ;
-			}
-			
-			return sql2 ;
 		}
+		
+		ShadowSQLTemplate t = this.shadowTemplate ;
+		if(t == null){
+			t = new ShadowSQLTemplate(sql, shadowMapping) ;
+			this.shadowTemplate = t ;
+		}
+		
+		return t.getSql(tableCondition) ;
 	}
 	
 	/**
@@ -76,6 +78,7 @@ public class NormalCompiledSQL extends CompiledSQL {
 	 */
 	public void setSql(String sql) {
 		this.sql = sql;
+		this.shadowTemplate = null ;
 	}
 	
 	/**
@@ -87,11 +90,13 @@ public class NormalCompiledSQL extends CompiledSQL {
 		}
 		
 		this.shadowMapping.put(MarkedSQL.TABLE_START_TAG_IN_MARKED_SQL + businessName, shadowTable) ;
+		this.shadowTemplate = null ;
 	}
 	
 	public void addParamToLast(String paramName){
 		orderedParams.add(paramName) ;
 		cached_orderedParams = null ;
+		paramBindings = null ;
 	}
 
 	/**如果没有参数，返回长度为0的数组。*/
@@ -106,6 +111,26 @@ public class NormalCompiledSQL extends CompiledSQL {
 	public void setOrderedParams(List orderedParams) {
 		this.orderedParams = orderedParams;
 		cached_orderedParams = null ;
+		paramBindings = null ;
+	}
+	
+	/**
+	 * Get the positional binding plan of the ordered params.
+	 */
+	public ParamBindings getParamBindings(){
+		ParamBindings b = this.paramBindings ;
+		
+		if(b == null){
+			b = new ParamBindings(getOrderedParams()) ;
+			this.paramBindings = b ;
+		}
+		
+		return b ;
+	}
+	
+	protected void onParamSettingsChanged() {
+		//the types of the params may change.
+		this.paramBindings = null ;
 	}
 
 	public ObjectMapping getMapping() {
@@ -114,6 +139,7 @@ public class NormalCompiledSQL extends CompiledSQL {
 
 	public void setMapping(ObjectMapping mapping) {
 		this.mapping = mapping;
+		this.paramBindings = null ;
 	}
 	
 	/**绑定sql执行需要的参数*/
@@ -136,5 +162,151 @@ public class NormalCompiledSQL extends CompiledSQL {
 	public BindedCompiledSQL bindNoParams(){
 		return new NormalBindedCompiledSQL(this) ;
 	}
+	
+	/**
+	 * The sql split into fragments around the shadow table marks.
+	 * <p/>
+	 * The final sql is one concatenation of the fragments and the resolved table names, 
+	 * and is cached by the resolved table names as most shadow tables only have a few real tables.
+	 */
+	static class ShadowSQLTemplate{
+		/**Max sqls cached for each template.*/
+		static final int MAX_CACHED_SQLS = 32 ;
+		
+		/**fragments.length == slots.length + 1*/
+		private final String[] fragments ;
+		
+		/**index of the shadow table in {@link #tables} for each slot between the fragments.*/
+		private final int[] slots ;
+		
+		/**distinct shadow tables used in the sql.*/
+		private final Table[] tables ;
+		
+		private final int fragmentsLength ;
+		
+		/**resolved table name(s) -> sql*/
+		private final ConcurrentLRUCache sqls = new ConcurrentLRUCache(MAX_CACHED_SQLS, 4) ;
+		
+		public ShadowSQLTemplate(String sql, Map shadowMapping){
+			String[] marks = (String[]) shadowMapping.keySet().toArray(new String[0]) ;
+			
+			//match the longest mark first, as "@@user" is a prefix of "@@userGroup".
+			Arrays.sort(marks, new Comparator(){
+				public int compare(Object o1, Object o2) {
+					return ((String) o2).length() - ((String) o1).length() ;
+				}
+			}) ;
+			
+			List m_fragments = new ArrayList() ;
+			List m_slots = new ArrayList() ;
+			List m_tables = new ArrayList() ;
+			
+			int start = 0 ;
+			int pos = sql.indexOf(MarkedSQL.TABLE_START_TAG_IN_MARKED_SQL) ;
+			
+			while(pos >= 0){
+				String mark = null ;
+				
+				for(int i = 0 ; i < marks.length ; i++){
+					if(sql.startsWith(marks[i], pos)){
+						mark = marks[i] ;
+						break ;
+					}
+				}
+				
+				if(mark == null){
+					pos = sql.indexOf(MarkedSQL.TABLE_START_TAG_IN_MARKED_SQL, pos + 1) ;
+					continue ;
+				}
+				
+				Table table = (Table) shadowMapping.get(mark) ;
+				int tableIndex = m_tables.indexOf(table) ;
+				if(tableIndex < 0){
+					tableIndex = m_tables.size() ;
+					m_tables.add(table) ;
+				}
+				
+				m_fragments.add(sql.substring(start, pos)) ;
+				m_slots.add(new Integer(tableIndex)) ;
+				
+				start = pos + mark.length() ;
+				pos = sql.indexOf(MarkedSQL.TABLE_START_TAG_IN_MARKED_SQL, start) ;
+			}
+			
+			m_fragments.add(sql.substring(start)) ;
+			
+			this.fragments = (String[]) m_fragments.toArray(new String[0]) ;
+			this.tables = (Table[]) m_tables.toArray(new Table[0]) ;
+			this.slots = new int[m_slots.size()] ;
+			
+			int length = 0 ;
+			for(int i = 0 ; i < fragments.length ; i++){
+				length += fragments[i].length() ;
+			}
+			
+			for(int i = 0 ; i < slots.length ; i++){
+				slots[i] = ((Integer) m_slots.get(i)).intValue() ;
+			}
+			
+			this.fragmentsLength = length ;
+		}
+		
+		public String getSql(Object tableCondition){
+			if(tables.length == 0){
+				return fragments[0] ;
+			}
+			
+			String[] names = new String[tables.length] ;
+			for(int i = 0 ; i < tables.length ; i++){
+				names[i] = tables[i].getTableName(tableCondition) ;
+			}
+			
+			Object key = names.length == 1 ? (Object) names[0] : new TableNamesKey(names) ;
+			String sql = (String) this.sqls.get(key) ;
+			
+			if(sql == null){
+				sql = buildSql(names) ;
+				this.sqls.put(key, sql) ;
+			}
+			
+			return sql ;
+		}
+		
+		protected String buildSql(String[] names){
+			int length = fragmentsLength ;
+			for(int i = 0 ; i < slots.length ; i++){
+				length += names[slots[i]].length() ;
+			}
+			
+			StringBuffer sb = new StringBuffer(length) ;
+			for(int i = 0 ; i < slots.length ; i++){
+				sb.append(fragments[i]).append(names[slots[i]]) ;
+			}
+			sb.append(fragments[slots.length]) ;
+			
+			return sb.toString() ;
+		}
+	}
+	
+	static class TableNamesKey{
+		private final String[] names ;
+		
+		private final int hashCode ;
+		
+		public TableNamesKey(String[] names){
+			this.names = names ;
+			this.hashCode = Arrays.hashCode(names) ;
+		}
+		
+		public boolean equals(Object obj) {
+			if(!(obj instanceof TableNamesKey)) return false ;
+			
+			return Arrays.equals(this.names, ((TableNamesKey) obj).names) ;
+		}
+
+		public int hashCode() {
+			return this.hashCode ;
+		}
+	}
 
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.orm.sql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.guzz.orm.type.SQLDataType;
+
+/**
+ * 
+ * Positional binding plan of a {@link NormalCompiledSQL}.
+ * <p/>
+ * Each distinct named param in the sql owns a slot, numbered by its first appearance. 
+ * The slot of every ordered param and the {@link SQLDataType} used to bind it are resolved once, 
+ * so binding values is a matter of array accesses.
+ * <p/>
+ * Immutable once built except for the lazily resolved types, and thread-safe.
+ *
+ * @see BindedCompiledSQL#bindSlot(int, Object)
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public final class ParamBindings {
+	
+	/**slot -> param name*/
+	private final String[] slotNames ;
+	
+	/**param name -> Integer(slot)*/
+	private final Map slotIndexes ;
+	
+	/**ordered param position -> slot*/
+	private final int[] positionSlots ;
+	
+	/**ordered param position -> SQLDataType, null to bind with setObject. resolved on the first use.*/
+	private volatile SQLDataType[] positionTypes ;
+	
+	public ParamBindings(String[] orderedParams){
+		List names = new ArrayList() ;
+		Map indexes = new HashMap() ;
+		
+		this.positionSlots = new int[orderedParams.length] ;
+		
+		for(int i = 0 ; i < orderedParams.length ; i++){
+			Integer slot = (Integer) indexes.get(orderedParams[i]) ;
+			
+			if(slot == null){
+				slot = new Integer(names.size()) ;
+				names.add(orderedParams[i]) ;
+				indexes.put(orderedParams[i], slot) ;
+			}
+			
+			this.positionSlots[i] = slot.intValue() ;
+		}
+		
+		this.slotNames = (String[]) names.toArray(new String[0]) ;
+		this.slotIndexes = indexes ;
+	}
+	
+	/**
+	 * @return -1 if the param is not used in the sql.
+	 */
+	public int getSlot(String paramName){
+		Integer slot = (Integer) this.slotIndexes.get(paramName) ;
+		
+		return slot == null ? -1 : slot.intValue() ;
+	}
+	
+	public String getSlotName(int slot){
+		return this.slotNames[slot] ;
+	}
+	
+	public int getSlotCount(){
+		return this.slotNames.length ;
+	}
+	
+	public int[] getPositionSlots(){
+		return this.positionSlots ;
+	}
+	
+	/**
+	 * Get the data types of the ordered params.
+	 * 
+	 * @param cs the CompiledSQL owning this plan.
+	 */
+	public SQLDataType[] getPositionTypes(NormalCompiledSQL cs){
+		SQLDataType[] types = this.positionTypes ;
+		
+		if(types == null){
+			types = new SQLDataType[positionSlots.length] ;
+			
+			for(int i = 0 ; i < types.length ; i++){
+				types[i] = cs.getSQLDataTypeForParam(cs, slotNames[positionSlots[i]]) ;
+			}
+			
+			this.positionTypes = types ;
+		}
+		
+		return types ;
+	}
+
+}
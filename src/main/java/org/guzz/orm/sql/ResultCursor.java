@@ -0,0 +1,42 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.orm.sql;
+
+import java.util.Iterator;
+
+/**
+ * 
+ * Iterate the query results one row at a time. Each row is mapped to object on {@link #next()}.
+ * <p/>
+ * The underlying ResultSet is released automatically when the last row is read.
+ * Call {@link #close()} in a finally block if the iteration may stop early.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface ResultCursor extends Iterator {
+	
+	/**
+	 * How many rows have been read. 
+	 */
+	public int getRowIndex() ;
+	
+	/**
+	 * Release the ResultSet and the statement. Calling it more than once is harmless.
+	 */
+	public void close() ;
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.orm.sql;
+
+
+/**
+ * 
+ * Handle the query results one row at a time, without holding all of them in memory.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface RowCallback {
+	
+	/**
+	 * Process one mapped row.
+	 * 
+	 * @param rowObject the object mapped from the current row.
+	 * @param rowIndex the first row is 1, the second is 2...
+	 * @return true to continue, false to stop the iteration.
+	 */
+	public boolean handleRow(Object rowObject, int rowIndex) throws Exception ;
+
+}
@@ -20,9 +20,13 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.guzz.exception.GuzzException;
+import org.guzz.orm.ObjectMapping;
 import org.guzz.orm.mapping.POJOBasedObjectMapping;
 import org.guzz.orm.rdms.Table;
 import org.guzz.orm.rdms.TableColumn;
+import org.guzz.orm.se.SearchExpression;
+import org.guzz.orm.se.SearchParams;
+import org.guzz.orm.sql.BindedCompiledSQL;
 import org.guzz.orm.sql.CompiledSQL;
 import org.guzz.orm.sql.CompiledSQLBuilder;
 import org.guzz.orm.sql.CompiledSQLManager;
@@ -31,6 +35,7 @@ import org.guzz.orm.sql.MarkedSQL;
 import org.guzz.orm.sql.NormalCompiledSQL;
 import org.guzz.orm.sql.CustomCompiledSQL.DynamicSQLProvider;
 import org.guzz.service.core.DynamicSQLService;
+import org.guzz.util.ConcurrentLRUCache;
 import org.guzz.util.StringUtil;
 
 /**
@@ -47,6 +52,11 @@ public class CompiledSQLManagerImpl implements CompiledSQLManager {
 	
 	private DynamicSQLService dynamicSQLService ;
 	
+	public static final int DEFAULT_SEARCH_EXPRESSION_CACHE_SIZE = 1024 ;
+	
+	/**{@link SearchExpressionKey} -> CompiledSQL*/
+	private ConcurrentLRUCache searchExpressionSQLs = new ConcurrentLRUCache(DEFAULT_SEARCH_EXPRESSION_CACHE_SIZE) ;
+	
 	public CompiledSQLManagerImpl(CompiledSQLBuilder compiledSQLBuilder){
 		this.compiledSQLBuilder = compiledSQLBuilder ;
 	}
@@ -485,6 +495,38 @@ public class CompiledSQLManagerImpl implements CompiledSQLManager {
 		return sqlForLoadProp ;
 	}
 
+	public BindedCompiledSQL bindSearchExpressionSQL(SearchExpression se, POJOBasedObjectMapping mapping, int sqlType){
+		SearchParams sp = new SearchParams() ;
+		String shape = this.searchExpressionSQLs == null ? null : se.toShapeKey(sqlType, sp) ;
+		
+		if(shape == null){
+			sp = new SearchParams() ;
+			CompiledSQL sql = compiledSQLBuilder.buildCompiledSQL(se.toMarkedSQL(sqlType, mapping, sp)).setParamPropMapping(sp.getParamPropMapping()) ;
+			
+			return sql.bind(sp.getSearchParams()) ;
+		}
+		
+		SearchExpressionKey key = new SearchExpressionKey(mapping, shape) ;
+		CompiledSQL sql = (CompiledSQL) this.searchExpressionSQLs.get(key) ;
+		
+		if(sql == null){
+			//the param names are generated in the same order, the values collected by the shape can be reused.
+			SearchParams sp2 = new SearchParams() ;
+			sql = compiledSQLBuilder.buildCompiledSQL(se.toMarkedSQL(sqlType, mapping, sp2)).setParamPropMapping(sp2.getParamPropMapping()) ;
+			
+			this.searchExpressionSQLs.put(key, sql) ;
+		}
+		
+		return sql.bind(sp.getSearchParams()) ;
+	}
+	
+	/**
+	 * Set the max number of compiled sqls cached for {@link SearchExpression}s. 0 to disable the cache.
+	 */
+	public void setSearchExpressionCacheSize(int size){
+		this.searchExpressionSQLs = size > 0 ? new ConcurrentLRUCache(size) : null ;
+	}
+
 	public CompiledSQLBuilder getCompiledSQLBuilder() {
 		return compiledSQLBuilder;
 	}
@@ -496,5 +538,34 @@ public class CompiledSQLManagerImpl implements CompiledSQLManager {
 	public void setDynamicSQLService(DynamicSQLService dynamicSQLService) {
 		this.dynamicSQLService = dynamicSQLService;
 	}
+	
+	/**
+	 * The runtime mapping and the shape of a {@link SearchExpression}. Custom tables have different mappings for the same business.
+	 */
+	static class SearchExpressionKey{
+		private final ObjectMapping mapping ;
+		
+		private final String shape ;
+		
+		private final int hashCode ;
+		
+		public SearchExpressionKey(ObjectMapping mapping, String shape){
+			this.mapping = mapping ;
+			this.shape = shape ;
+			this.hashCode = System.identityHashCode(mapping) * 31 + shape.hashCode() ;
+		}
+
+		public int hashCode() {
+			return hashCode ;
+		}
+
+		public boolean equals(Object obj) {
+			if(!(obj instanceof SearchExpressionKey)) return false ;
+			
+			SearchExpressionKey k = (SearchExpressionKey) obj ;
+			
+			return k.mapping == this.mapping && k.shape.equals(this.shape) ;
+		}
+	}
 
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.orm.type;
+
+import org.guzz.dialect.Dialect;
+
+/**
+ * 
+ * Marker for {@link SQLDataType}s holding state that cannot be shared.
+ * <p/>
+ * {@link Dialect#getDataType(String)} caches and shares the type instances by the type name. Types implementing this 
+ * interface are created for each call.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface StatefulType {
+
+}
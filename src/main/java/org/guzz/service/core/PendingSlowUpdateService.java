@@ -0,0 +1,67 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 
+ * 可以读取还未写入临时表的增量的{@link SlowUpdateService}，用于在页面显示时叠加到从数据库读取的值上(read-your-writes)。
+ * <p/>
+ * 只包括当前机器内存中的增量；已经写入临时表、但还没有更新到主表的增量不在其中。
+ * 单独的接口，避免已有的{@link SlowUpdateService}实现需要增加新的方法；使用时先判断服务是否实现了本接口。
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface PendingSlowUpdateService extends SlowUpdateService {
+	
+	/**
+	 * 读取本服务中还未写入临时表的增量。
+	 * 
+	 * @param businessName 域对象
+	 * @param tableCondition shaodow table分表条件
+	 * @param propToUpdate 更新的属性名称
+	 * @param pkValue 对象的主键值
+	 * @return 增量，没有则返回0。
+	 */
+	public long getPendingIncrement(String businessName, Object tableCondition, String propToUpdate, Serializable pkValue) ;
+	
+	/**
+	 * @see #getPendingIncrement(String, Object, String, Serializable)
+	 */
+	public long getPendingIncrement(Class domainClass, Object tableCondition, String propToUpdate, Serializable pkValue) ;
+	
+	/**
+	 * 批量读取一组对象在本服务中还未写入临时表的增量。
+	 * 
+	 * @param pkValues 对象的主键值列表
+	 * @return (Map&lt;pkValue, Long&gt;) 有增量的对象。没有增量的主键不在Map中。
+	 */
+	public Map getPendingIncrements(String businessName, Object tableCondition, String propToUpdate, Collection pkValues) ;
+	
+	/**
+	 * 将本服务中还未写入临时表的增量叠加到对象的属性上。对象一般通过{@link org.guzz.transaction.ReadonlyTranSession}读取，延迟加载的代理对象按其业务类处理。只修改内存中的对象，不修改数据库。
+	 * 
+	 * @param objects 域对象列表
+	 * @param tableCondition shaodow table分表条件
+	 * @param propToUpdate 计数属性的名称，属性类型必须为数字。
+	 */
+	public void applyPendingIncrements(Collection objects, Object tableCondition, String propToUpdate) ;
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 
+ * {@link DatabaseService} acquiring connections by itself: failing over among its machines, and skipping the machines lagging behind the master.
+ * <p/>
+ * A separate interface, so implementations of {@link DatabaseService} outside guzz are not broken. 
+ * Other services are used through {@link DatabaseService#getDataSource()}, with no failover and treated as no lag.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface ReplicatedDatabaseService extends DatabaseService {
+	
+	/**
+	 * Acquire a connection. Services with many machines retry the other machines on failures.
+	 * 
+	 * @throws SQLException no machine gives a connection.
+	 */
+	public Connection getConnection() throws SQLException ;
+	
+	/**
+	 * Acquire a connection from a machine no more than maxLagMillis behind the master. 
+	 * Machines without a lag monitor(see lagSQL of the machine's config) are treated as no lag.
+	 * 
+	 * @param maxLagMillis max milliseconds the data can be behind the master. negative for no limit.
+	 * @return null if no machine is within the limit.
+	 * @throws SQLException the machines within the limit don't give a connection.
+	 */
+	public Connection getConnection(long maxLagMillis) throws SQLException ;
+
+}
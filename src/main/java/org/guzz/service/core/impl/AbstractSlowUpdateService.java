@@ -0,0 +1,191 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core.impl;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.guzz.Guzz;
+import org.guzz.GuzzContext;
+import org.guzz.exception.ORMException;
+import org.guzz.orm.mapping.ObjectMappingManager;
+import org.guzz.orm.mapping.POJOBasedObjectMapping;
+import org.guzz.pojo.GuzzProxy;
+import org.guzz.service.AbstractService;
+import org.guzz.service.core.PendingSlowUpdateService;
+import org.guzz.service.core.SlowUpdateService;
+import org.guzz.transaction.TransactionManager;
+import org.guzz.util.javabean.BeanWrapper;
+import org.guzz.web.context.GuzzContextAware;
+
+/**
+ * 
+ * Common parts of the {@link SlowUpdateService}s: resolving the business to tables, and reading the pending increments back.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public abstract class AbstractSlowUpdateService extends AbstractService implements PendingSlowUpdateService, GuzzContextAware {
+	
+	protected TransactionManager tm ;
+	
+	protected ObjectMappingManager omm ;
+	
+	/**
+	 * Increments held by this service for the key, and not written to the temp table yet.
+	 */
+	protected abstract long getPendingIncrement(IncUpdateKey key) ;
+	
+	public void updateCount(String businessName, Object tableCondition, String propToUpdate, Serializable pkValue, int countToInc){
+		IncUpdateTarget target = resolveTarget(businessName, tableCondition, propToUpdate) ;
+		
+		updateCount(target.dbGroup, target.tableName, target.columnToUpdate, target.pkColName, pkValue, countToInc) ;
+	}
+	
+	public void updateCount(Class domainClass, Object tableCondtion, String propToUpdate, Serializable pkValue, int countToInc){
+		updateCount(domainClass.getName(), tableCondtion, propToUpdate, pkValue, countToInc) ;
+	}
+	
+	public long getPendingIncrement(String businessName, Object tableCondition, String propToUpdate, Serializable pkValue){
+		return getPendingIncrement(resolveTarget(businessName, tableCondition, propToUpdate).keyOf(pkValue)) ;
+	}
+	
+	public long getPendingIncrement(Class domainClass, Object tableCondition, String propToUpdate, Serializable pkValue){
+		return getPendingIncrement(domainClass.getName(), tableCondition, propToUpdate, pkValue) ;
+	}
+	
+	public Map getPendingIncrements(String businessName, Object tableCondition, String propToUpdate, Collection pkValues){
+		IncUpdateTarget target = resolveTarget(businessName, tableCondition, propToUpdate) ;
+		HashMap increments = new HashMap() ;
+		
+		for(Iterator i = pkValues.iterator() ; i.hasNext() ; ){
+			Serializable pk = (Serializable) i.next() ;
+			long inc = getPendingIncrement(target.keyOf(pk)) ;
+			
+			if(inc != 0){
+				increments.put(pk, new Long(inc)) ;
+			}
+		}
+		
+		return increments ;
+	}
+	
+	public void applyPendingIncrements(Collection objects, Object tableCondition, String propToUpdate){
+		IncUpdateTarget target = null ;
+		
+		for(Iterator i = objects.iterator() ; i.hasNext() ; ){
+			Object obj = i.next() ;
+			
+			if(obj == null) continue ;
+			
+			if(target == null || !target.domainClass.isInstance(obj)){
+				//objects loaded lazily are enhanced subclasses of the business class.
+				Class domainClass = obj instanceof GuzzProxy ? ((GuzzProxy) obj).getProxiedClass() : obj.getClass() ;
+				target = resolveTarget(domainClass.getName(), tableCondition, propToUpdate) ;
+			}
+			
+			Serializable pk = (Serializable) target.beanWrapper.getValue(obj, target.pkPropName) ;
+			if(pk == null) continue ;
+			
+			long inc = getPendingIncrement(target.keyOf(pk)) ;
+			if(inc == 0) continue ;
+			
+			Number value = (Number) target.beanWrapper.getValue(obj, propToUpdate) ;
+			long newValue = (value == null ? 0 : value.longValue()) + inc ;
+			
+			target.beanWrapper.setValue(obj, propToUpdate, toPropertyType(target.propType, newValue, propToUpdate)) ;
+		}
+	}
+	
+	protected Object toPropertyType(Class type, long value, String propName){
+		if(type == int.class || type == Integer.class){
+			return new Integer((int) value) ;
+		}else if(type == long.class || type == Long.class){
+			return new Long(value) ;
+		}else if(type == short.class || type == Short.class){
+			return new Short((short) value) ;
+		}else if(type == double.class || type == Double.class){
+			return new Double(value) ;
+		}else if(type == float.class || type == Float.class){
+			return new Float(value) ;
+		}
+		
+		throw new ORMException("property:[" + propName + "] is not a number. type:" + type) ;
+	}
+	
+	protected IncUpdateTarget resolveTarget(String businessName, Object tableCondition, String propToUpdate){
+		tableCondition = tableCondition == null ? Guzz.getTableCondition() : tableCondition ;
+		POJOBasedObjectMapping mapping = (POJOBasedObjectMapping) omm.getObjectMapping(businessName, tableCondition) ;
+		
+		if(mapping == null){
+			throw new ORMException("unknown business:[" + businessName + "]") ;
+		}
+		
+		String columnToUpdate = mapping.getColNameByPropNameForSQL(propToUpdate) ;
+		
+		if(columnToUpdate == null){
+			throw new ORMException("unknown property:[" + propToUpdate + "], business name:[" + businessName + "]") ;
+		}
+		
+		return new IncUpdateTarget(mapping, tableCondition, columnToUpdate, propToUpdate) ;
+	}
+	
+	/**
+	 * The table and column a business property goes to.
+	 */
+	protected static class IncUpdateTarget{
+		
+		final Class domainClass ;
+		
+		final String dbGroup ;
+		
+		final String tableName ;
+		
+		final String columnToUpdate ;
+		
+		final String pkColName ;
+		
+		final String pkPropName ;
+		
+		final BeanWrapper beanWrapper ;
+		
+		final Class propType ;
+		
+		IncUpdateTarget(POJOBasedObjectMapping mapping, Object tableCondition, String columnToUpdate, String propToUpdate){
+			this.domainClass = mapping.getBusiness().getDomainClass() ;
+			this.dbGroup = mapping.getDbGroup().getPhysicsGroupName(tableCondition) ;
+			this.tableName = mapping.getTable().getTableName(tableCondition) ;
+			this.columnToUpdate = columnToUpdate ;
+			this.pkColName = mapping.getTable().getPKColumn().getColNameForSQL() ;
+			this.pkPropName = mapping.getTable().getPKPropName() ;
+			this.beanWrapper = mapping.getBeanWrapper() ;
+			this.propType = beanWrapper.getPropertyType(propToUpdate) ;
+		}
+		
+		IncUpdateKey keyOf(Serializable pkValue){
+			return new IncUpdateKey(dbGroup, tableName, columnToUpdate, pkColName, pkValue.toString()) ;
+		}
+	}
+
+	public void setGuzzContext(GuzzContext guzzContext) {
+		this.tm = guzzContext.getTransactionManager() ;
+		this.omm = guzzContext.getObjectMappingManager() ;
+	}
+
+}
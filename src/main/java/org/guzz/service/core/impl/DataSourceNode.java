@@ -0,0 +1,506 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core.impl;
+
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.guzz.connection.DataSourceProvider;
+import org.guzz.connection.QueryTimeListener;
+import org.guzz.util.CloseUtil;
+import org.guzz.util.StringUtil;
+import org.guzz.util.lb.LoadCard;
+
+/**
+ * 
+ * One machine of a {@link MultiMachinesDatabaseServiceImpl}, with a circuit breaker on its {@link DataSourceProvider}.
+ * <p/>
+ * The node is ejected after failureThreshold successive failures to connect to the database, and is not chosen until a background probe succeeds.
+ * Only connection and communication failures (SQLState 08xxx, or a socket error in the causes) are counted. Other errors, such as an exhausted pool, leave the node available.
+ * The probe is retried after ejectTime milliseconds, doubled on every failed probe up to maxEjectTime.
+ * <p/>
+ * Properties of the breaker are removed from the provider's properties:
+ * <ul>
+ * <li>failureThreshold: successive failures to eject the node. default 2.</li>
+ * <li>ejectTime: milliseconds before the first probe. default 5000.</li>
+ * <li>maxEjectTime: max milliseconds between two probes. default 60000.</li>
+ * <li>probeSQL: sql to execute on the probed connection. default null, only acquire a connection.</li>
+ * <li>lagSQL: sql to query the replication lag of a slave, checked by {@link ReplicationLagMonitor}. 
+ * "show slave status"(or "show replica status") of mysql reads the Seconds_Behind_Master(Seconds_Behind_Source) column; 
+ * other sqls must return the lag in seconds in the first column, eg: "select unix_timestamp() - max(ts) from heartbeat" on a heartbeat table written on the master. 
+ * default null, the lag is not limited.</li>
+ * </ul>
+ * <p/>
+ * With load tracking on, the connections are wrapped to count the borrowed ones as the load of the node. 
+ * Statements and meta data created by a wrapped connection return the wrapper in getConnection(); {@link ResultSet#getStatement()} still returns the driver's statement, so never close the connection reached that way.
+ * With latency tracking on, the load is the borrowed connections times the average latency of acquiring a connection and executing a query, 
+ * so a machine slowed down by backups or GC pauses takes less requests. The averages decay to 0 in latencyDecay(default 10000) milliseconds without new samples,
+ * so a machine recovered gets requests again.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+class DataSourceNode implements LoadCard {
+	private static transient final Log log = LogFactory.getLog(DataSourceNode.class) ;
+	
+	static final String[] HEALTH_PROPS = {"failureThreshold", "ejectTime", "maxEjectTime", "probeSQL", "probeInterval", "balance", "latencyDecay", "lagSQL", "lagCheckInterval"} ;
+	
+	/**weight of the latest sample in the average latencies.*/
+	private static final double LATENCY_ALPHA = 0.2 ;
+	
+	final DataSourceProvider provider ;
+	
+	final String name ;
+	
+	private int failureThreshold = 2 ;
+	
+	private long ejectTime = 5000 ;
+	
+	private long maxEjectTime = 60000 ;
+	
+	private String probeSQL ;
+	
+	private volatile boolean ejected ;
+	
+	private int successiveFailures ;
+	
+	private long backoff ;
+	
+	private long nextProbeTime ;
+	
+	private volatile boolean trackLoad ;
+	
+	private volatile String lagSQL ;
+	
+	/**milliseconds behind the master. -1 if unknown.*/
+	private volatile long lagMillis = -1 ;
+	
+	/**the lag is unknown if not checked successfully after this time.*/
+	private volatile long lagExpireTime ;
+	
+	private volatile boolean trackLatency ;
+	
+	private long latencyDecay = 10000 ;
+	
+	/**average nanoseconds to acquire a connection.*/
+	private double acquireNanos ;
+	
+	/**average nanoseconds of a query.*/
+	private double queryNanos ;
+	
+	private long lastLatencySampleTime ;
+	
+	/**borrowed connections not closed yet. only counted when trackLoad is on.*/
+	private final AtomicInteger outstanding = new AtomicInteger(0) ;
+	
+	public DataSourceNode(String name, DataSourceProvider provider){
+		this.name = name ;
+		this.provider = provider ;
+	}
+	
+	/**
+	 * Read the breaker properties.
+	 */
+	public void configure(Properties props){
+		this.failureThreshold = Math.max(1, StringUtil.toInt(props.getProperty("failureThreshold"), this.failureThreshold)) ;
+		this.ejectTime = Math.max(10, StringUtil.toInt(props.getProperty("ejectTime"), (int) this.ejectTime)) ;
+		this.maxEjectTime = Math.max(this.ejectTime, StringUtil.toInt(props.getProperty("maxEjectTime"), (int) this.maxEjectTime)) ;
+		this.probeSQL = props.getProperty("probeSQL") ;
+		this.lagSQL = StringUtil.isEmpty(props.getProperty("lagSQL")) ? null : props.getProperty("lagSQL").trim() ;
+		this.latencyDecay = Math.max(100, StringUtil.toInt(props.getProperty("latencyDecay"), (int) this.latencyDecay)) ;
+	}
+	
+	/**
+	 * @return a copy of the props without the breaker properties, for the {@link DataSourceProvider}.
+	 */
+	public static Properties providerProps(Properties props){
+		Properties dsProps = (Properties) props.clone() ;
+		
+		for(int i = 0 ; i < HEALTH_PROPS.length ; i++){
+			dsProps.remove(HEALTH_PROPS[i]) ;
+		}
+		
+		return dsProps ;
+	}
+	
+	public Connection getConnection() throws SQLException{
+		boolean trackLatency = this.trackLatency ;
+		long startTime = trackLatency ? System.nanoTime() : 0L ;
+		
+		try{
+			Connection conn = provider.getDataSource().getConnection() ;
+			onSuccess() ;
+			
+			if(trackLatency){
+				recordAcquireTime(System.nanoTime() - startTime) ;
+				outstanding.incrementAndGet() ;
+				
+				return (Connection) Proxy.newProxyInstance(DataSourceNode.class.getClassLoader(), new Class[]{Connection.class, QueryTimeListener.class}, new TrackedConnection(conn)) ;
+			}else if(trackLoad){
+				outstanding.incrementAndGet() ;
+				
+				return (Connection) Proxy.newProxyInstance(DataSourceNode.class.getClassLoader(), new Class[]{Connection.class}, new TrackedConnection(conn)) ;
+			}
+			
+			return conn ;
+		}catch(SQLException e){
+			if(isConnectionFailure(e)){
+				onFailure() ;
+			}
+			
+			throw e ;
+		}catch(RuntimeException e){
+			if(isConnectionFailure(e)){
+				onFailure() ;
+			}
+			
+			throw e ;
+		}
+	}
+	
+	/**
+	 * Is the error caused by a broken connection or the network, instead of the pool or the request itself? 
+	 * The causes and the chained SQLExceptions are checked, as pools wrap the driver's errors.
+	 */
+	static boolean isConnectionFailure(Throwable e){
+		for(int depth = 0 ; e != null && depth < 10 ; depth++){
+			if(e instanceof SQLException){
+				String state = ((SQLException) e).getSQLState() ;
+				
+				//08: connection exception.
+				if(state != null && state.startsWith("08")){
+					return true ;
+				}
+			}else if(e instanceof SocketException || e instanceof UnknownHostException || e instanceof InterruptedIOException){
+				return true ;
+			}
+			
+			Throwable next = e.getCause() ;
+			if(next == null && e instanceof SQLException){
+				next = ((SQLException) e).getNextException() ;
+			}
+			
+			e = next ;
+		}
+		
+		return false ;
+	}
+	
+	public boolean isAvailable(){
+		return !ejected ;
+	}
+	
+	/**
+	 * The borrowed connections, or the borrowed connections times the average latency in microseconds if the latency is tracked.
+	 */
+	public int getLoad(){
+		if(!trackLatency){
+			return outstanding.get() ;
+		}
+		
+		long micros = (long) (getLatencyNanos(System.currentTimeMillis()) / 1000) + 1 ;
+		
+		return (int) Math.min(Integer.MAX_VALUE, micros * (outstanding.get() + 1)) ;
+	}
+	
+	public void setTrackLoad(boolean trackLoad){
+		this.trackLoad = trackLoad ;
+	}
+	
+	public void setTrackLatency(boolean trackLatency){
+		this.trackLatency = trackLatency ;
+	}
+	
+	protected synchronized void recordAcquireTime(long nanos){
+		applyDecay() ;
+		this.acquireNanos = ewma(this.acquireNanos, nanos) ;
+	}
+	
+	protected synchronized void recordQueryTime(long nanos){
+		applyDecay() ;
+		this.queryNanos = ewma(this.queryNanos, nanos) ;
+	}
+	
+	/**
+	 * The old averages decay while no samples come.
+	 */
+	private void applyDecay(){
+		long now = System.currentTimeMillis() ;
+		double d = decay(now) ;
+		
+		this.acquireNanos *= d ;
+		this.queryNanos *= d ;
+		this.lastLatencySampleTime = now ;
+	}
+	
+	private static double ewma(double avg, long sample){
+		return avg == 0 ? sample : avg * (1 - LATENCY_ALPHA) + sample * LATENCY_ALPHA ;
+	}
+	
+	private double decay(long now){
+		long idle = now - lastLatencySampleTime ;
+		
+		return idle <= 0 ? 1 : Math.exp(- (double) idle / latencyDecay) ;
+	}
+	
+	/**
+	 * The average nanoseconds to acquire a connection and to execute a query, decayed by the idle time.
+	 */
+	public synchronized double getLatencyNanos(long now){
+		return (acquireNanos + queryNanos) * decay(now) ;
+	}
+	
+	protected synchronized void onSuccess(){
+		this.successiveFailures = 0 ;
+	}
+	
+	/**
+	 * @return true if the node is ejected by this failure.
+	 */
+	protected synchronized boolean onFailure(){
+		this.successiveFailures++ ;
+		
+		if(!ejected && successiveFailures >= failureThreshold){
+			this.ejected = true ;
+			this.backoff = ejectTime ;
+			this.nextProbeTime = System.currentTimeMillis() + backoff ;
+			
+			log.warn("datasource [" + name + "] is ejected after " + successiveFailures + " failures.") ;
+			
+			return true ;
+		}
+		
+		return false ;
+	}
+	
+	public synchronized boolean isProbeDue(long now){
+		return ejected && now >= nextProbeTime ;
+	}
+	
+	/**
+	 * Check an ejected node, and put it back on success.
+	 * 
+	 * @return true if the node is available now.
+	 */
+	public boolean probe(){
+		Connection conn = null ;
+		Statement st = null ;
+		ResultSet rs = null ;
+		
+		try{
+			conn = provider.getDataSource().getConnection() ;
+			
+			if(StringUtil.notEmpty(probeSQL)){
+				st = conn.createStatement() ;
+				rs = st.executeQuery(probeSQL) ;
+			}
+			
+			synchronized(this){
+				this.successiveFailures = 0 ;
+				this.ejected = false ;
+			}
+			
+			if(log.isInfoEnabled()){
+				log.info("datasource [" + name + "] is back.") ;
+			}
+			
+			return true ;
+		}catch(Exception e){
+			synchronized(this){
+				this.backoff = Math.min(backoff * 2, maxEjectTime) ;
+				this.nextProbeTime = System.currentTimeMillis() + backoff ;
+			}
+			
+			return false ;
+		}finally{
+			CloseUtil.close(rs) ;
+			CloseUtil.close(st) ;
+			CloseUtil.close(conn) ;
+		}
+	}
+
+	/**
+	 * Count the connection back to the node on the first close(), and record the time cost of queries reported by {@link QueryTimeListener}.
+	 */
+	class TrackedConnection implements InvocationHandler{
+		
+		private final Connection conn ;
+		
+		private boolean closed ;
+		
+		public TrackedConnection(Connection conn){
+			this.conn = conn ;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if(method.getDeclaringClass() == QueryTimeListener.class){
+				recordQueryTime(((Long) args[0]).longValue()) ;
+				
+				return null ;
+			}
+			
+			if("close".equals(method.getName()) && method.getParameterTypes().length == 0){
+				synchronized(this){
+					if(!closed){
+						closed = true ;
+						outstanding.decrementAndGet() ;
+					}
+				}
+			}
+			
+			Object result ;
+			
+			try{
+				result = method.invoke(conn, args) ;
+			}catch(InvocationTargetException e){
+				throw e.getTargetException() ;
+			}
+			
+			//don't leak the raw connection through the objects it creates.
+			if(result instanceof Statement || result instanceof DatabaseMetaData){
+				Class type = method.getReturnType() ;
+				
+				if(type.isInterface()){
+					result = Proxy.newProxyInstance(DataSourceNode.class.getClassLoader(), new Class[]{type}, new OwnedByConnection(result, proxy)) ;
+				}
+			}
+			
+			return result ;
+		}
+	}
+	
+	/**
+	 * Return the wrapped connection in getConnection() of a statement or the meta data.
+	 */
+	static class OwnedByConnection implements InvocationHandler{
+		
+		private final Object target ;
+		
+		private final Object connection ;
+		
+		public OwnedByConnection(Object target, Object connection){
+			this.target = target ;
+			this.connection = connection ;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if("getConnection".equals(method.getName()) && method.getParameterTypes().length == 0){
+				return connection ;
+			}
+			
+			try{
+				return method.invoke(target, args) ;
+			}catch(InvocationTargetException e){
+				throw e.getTargetException() ;
+			}
+		}
+	}
+
+	public boolean isLagMonitored(){
+		return lagSQL != null ;
+	}
+	
+	/**
+	 * Query the replication lag by the lagSQL.
+	 * 
+	 * @param expireMillis the result is valid for the milliseconds.
+	 */
+	public void checkLag(long expireMillis){
+		String sql = this.lagSQL ;
+		if(sql == null) return ;
+		
+		Connection conn = null ;
+		Statement st = null ;
+		ResultSet rs = null ;
+		long lag = -1 ;
+		
+		try{
+			conn = provider.getDataSource().getConnection() ;
+			st = conn.createStatement() ;
+			rs = st.executeQuery(sql) ;
+			
+			if(rs.next()){
+				String lower = sql.toLowerCase() ;
+				String seconds ;
+				
+				if(lower.startsWith("show slave status")){
+					seconds = rs.getString("Seconds_Behind_Master") ;
+				}else if(lower.startsWith("show replica status")){
+					seconds = rs.getString("Seconds_Behind_Source") ;
+				}else{
+					seconds = rs.getString(1) ;
+				}
+				
+				//null: the replication is stopped.
+				if(seconds != null){
+					lag = (long) Math.max(0, Double.parseDouble(seconds.trim()) * 1000) ;
+				}
+			}
+		}catch(Exception e){
+			log.warn("fail to check the replication lag of [" + name + "].", e) ;
+		}finally{
+			CloseUtil.close(rs) ;
+			CloseUtil.close(st) ;
+			CloseUtil.close(conn) ;
+		}
+		
+		this.lagMillis = lag ;
+		this.lagExpireTime = System.currentTimeMillis() + expireMillis ;
+	}
+	
+	/**
+	 * @return milliseconds behind the master, or -1 if unknown.
+	 */
+	public long getLagMillis(){
+		if(System.currentTimeMillis() > lagExpireTime){
+			return -1 ;
+		}
+		
+		return lagMillis ;
+	}
+	
+	/**
+	 * Is the lag of this node known and no more than the given milliseconds? Always true if the lag is not monitored.
+	 * 
+	 * @param maxLagMillis negative for no limit.
+	 */
+	public boolean isLagWithin(long maxLagMillis){
+		if(maxLagMillis < 0 || lagSQL == null) return true ;
+		
+		long lag = getLagMillis() ;
+		
+		return lag >= 0 && lag <= maxLagMillis ;
+	}
+
+	public String toString() {
+		return name + (ejected ? "[ejected]" : "") ;
+	}
+
+}
@@ -41,6 +41,12 @@ public class IncUpdateBusiness implements Serializable{
 	
 	private int countToInc ;
 	
+	/**record in the local journal. not persisted.*/
+	private transient IncUpdateJournal.JournalRecord journalRecord ;
+	
+	/**counter of pending increments this update is counted in. not persisted.*/
+	private transient SlowUpdateServiceImpl.PendingCounter pendingCounter ;
+	
 	public IncUpdateBusiness(){
 	}
 	
@@ -55,6 +61,22 @@ public class IncUpdateBusiness implements Serializable{
 		countToInc += incValue ;
 	}
 
+	IncUpdateJournal.JournalRecord getJournalRecord() {
+		return journalRecord;
+	}
+
+	void setJournalRecord(IncUpdateJournal.JournalRecord journalRecord) {
+		this.journalRecord = journalRecord;
+	}
+
+	SlowUpdateServiceImpl.PendingCounter getPendingCounter() {
+		return pendingCounter;
+	}
+
+	void setPendingCounter(SlowUpdateServiceImpl.PendingCounter pendingCounter) {
+		this.pendingCounter = pendingCounter;
+	}
+
 	public long getId() {
 		return id;
 	}
@@ -0,0 +1,761 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.guzz.exception.GuzzException;
+import org.guzz.jdbc.ObjectBatcher;
+import org.guzz.transaction.TransactionManager;
+import org.guzz.transaction.WriteTranSession;
+import org.guzz.util.StringUtil;
+import org.guzz.util.thread.BoundedMPSCQueue;
+import org.guzz.util.thread.DemonQueuedThread;
+
+/**
+ * 
+ * Append-only local journal of pending increments, so counts kept in memory by the slow update services survive a crash or a redeploy.
+ * <p/>
+ * The journal is a list of memory-mapped segment files named [name]-[seq].journal. Each segment holds a fixed number of fixed-width records.
+ * A record is written first and marked as pending at last, so a broken record is never replayed. Records are marked as done after the increment is 
+ * committed to the database, and a segment is deleted once all its records are done or its {@link Generation} is released.
+ * <p/>
+ * Data in the mapped buffers survive a crash of the JVM. To survive a crash of the OS, use a fsync policy:
+ * <ul>
+ * <li>none: never force the buffers to the disk, leave it to the OS.</li>
+ * <li>interval: force the written segments every fsyncInterval milliseconds in a background thread.(default)</li>
+ * <li>always: force after every append. Concurrent appends share one force(group commit).</li>
+ * </ul>
+ * 
+ * Pending records left by the last run are inserted to the temp table by {@link #replay(TransactionManager, int)} before new records are flushed.
+ * Replay is at-least-once: increments committed just before a crash, but not marked as done yet, are replayed again.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class IncUpdateJournal {
+	private static transient final Log log = LogFactory.getLog(IncUpdateJournal.class) ;
+	
+	public static final String FSYNC_NONE = "none" ;
+	
+	public static final String FSYNC_INTERVAL = "interval" ;
+	
+	public static final String FSYNC_ALWAYS = "always" ;
+	
+	/**directory to store the journal. The journal is disabled if not set.*/
+	public static final String CONFIG_JOURNAL_DIR = "journalDir" ;
+	
+	/**bytes of each record. default: 256*/
+	public static final String CONFIG_JOURNAL_RECORD_SIZE = "journalRecordSize" ;
+	
+	/**records in each segment file. default: 4096*/
+	public static final String CONFIG_JOURNAL_SEGMENT_RECORDS = "journalSegmentRecords" ;
+	
+	/**none, interval or always. default: interval*/
+	public static final String CONFIG_JOURNAL_FSYNC = "journalFsync" ;
+	
+	/**milliseconds between two background forces for the interval policy. default: 100*/
+	public static final String CONFIG_JOURNAL_FSYNC_INTERVAL = "journalFsyncInterval" ;
+	
+	private static final int FILE_MAGIC = 0x475a4a31 ;
+	
+	/**magic(4) + record size(4) + records count(4)*/
+	private static final int FILE_HEADER_SIZE = 12 ;
+	
+	/**status(1) + crc(4) + payload length(2)*/
+	private static final int RECORD_HEADER_SIZE = 7 ;
+	
+	private static final byte STATUS_PENDING = 1 ;
+	
+	private static final byte STATUS_DONE = 2 ;
+	
+	private static final String FILE_SUFFIX = ".journal" ;
+	
+	private final File dir ;
+	
+	private final String name ;
+	
+	private int recordSize = 256 ;
+	
+	private int recordsPerSegment = 4096 ;
+	
+	private String fsyncPolicy = FSYNC_INTERVAL ;
+	
+	private int fsyncInterval = 100 ;
+	
+	private final AtomicLong nextSegmentSeq = new AtomicLong(0) ;
+	
+	/**segments opened for writing. Segment -> Boolean*/
+	private final ConcurrentHashMap openSegments = new ConcurrentHashMap() ;
+	
+	/**files left by the last run.*/
+	private final List replayFiles = new LinkedList() ;
+	
+	private FsyncThread fsyncThread ;
+	
+	private boolean oversizeWarned ;
+	
+	public IncUpdateJournal(File dir, String name){
+		this.dir = dir ;
+		this.name = name ;
+	}
+	
+	/**
+	 * Create the journal from the service config.
+	 * 
+	 * @param props properties of the service config. The journal is enabled by journalDir.
+	 * @return null if the journal is not enabled.
+	 */
+	public static IncUpdateJournal configure(Map props, String name){
+		String m_dir = (String) props.get(CONFIG_JOURNAL_DIR) ;
+		
+		if(StringUtil.isEmpty(m_dir)){
+			return null ;
+		}
+		
+		IncUpdateJournal journal = new IncUpdateJournal(new File(m_dir.trim()), name) ;
+		journal.setRecordSize(StringUtil.toInt((String) props.get(CONFIG_JOURNAL_RECORD_SIZE), journal.getRecordSize())) ;
+		journal.setRecordsPerSegment(StringUtil.toInt((String) props.get(CONFIG_JOURNAL_SEGMENT_RECORDS), journal.getRecordsPerSegment())) ;
+		journal.setFsyncPolicy((String) props.get(CONFIG_JOURNAL_FSYNC)) ;
+		journal.setFsyncInterval(StringUtil.toInt((String) props.get(CONFIG_JOURNAL_FSYNC_INTERVAL), journal.getFsyncInterval())) ;
+		
+		return journal ;
+	}
+	
+	/**
+	 * Open the journal. Segments left by the last run are kept for {@link #replay(TransactionManager, int)}.
+	 */
+	public void open(){
+		if(!dir.exists() && !dir.mkdirs()){
+			throw new GuzzException("fail to create the journal directory:" + dir.getAbsolutePath()) ;
+		}
+		
+		File[] files = dir.listFiles() ;
+		long maxSeq = -1 ;
+		
+		if(files != null){
+			List found = new ArrayList() ;
+			
+			for(int i = 0 ; i < files.length ; i++){
+				long seq = parseSegmentSeq(files[i].getName()) ;
+				
+				if(seq >= 0){
+					found.add(new Object[]{new Long(seq), files[i]}) ;
+					maxSeq = Math.max(maxSeq, seq) ;
+				}
+			}
+			
+			//replay in the writing order
+			Object[] sorted = found.toArray() ;
+			Arrays.sort(sorted, new Comparator(){
+				public int compare(Object o1, Object o2) {
+					return ((Long) ((Object[]) o1)[0]).compareTo((Long) ((Object[]) o2)[0]) ;
+				}
+			}) ;
+			
+			for(int i = 0 ; i < sorted.length ; i++){
+				replayFiles.add(((Object[]) sorted[i])[1]) ;
+			}
+		}
+		
+		nextSegmentSeq.set(maxSeq + 1) ;
+		
+		if(FSYNC_INTERVAL.equals(fsyncPolicy) && fsyncThread == null){
+			fsyncThread = new FsyncThread() ;
+			fsyncThread.start() ;
+		}
+		
+		if(!replayFiles.isEmpty()){
+			log.info("found [" + replayFiles.size() + "] journal segments of [" + name + "] to replay.") ;
+		}
+	}
+	
+	protected long parseSegmentSeq(String fileName){
+		String prefix = name + "-" ;
+		
+		if(!fileName.startsWith(prefix) || !fileName.endsWith(FILE_SUFFIX)){
+			return -1 ;
+		}
+		
+		String seq = fileName.substring(prefix.length(), fileName.length() - FILE_SUFFIX.length()) ;
+		
+		try{
+			return Long.parseLong(seq) ;
+		}catch(NumberFormatException e){
+			return -1 ;
+		}
+	}
+	
+	public boolean hasReplay(){
+		synchronized(replayFiles){
+			return !replayFiles.isEmpty() ;
+		}
+	}
+	
+	/**
+	 * Read the pending records left by the last run.
+	 * 
+	 * @return list of {@link IncUpdateBusiness}
+	 */
+	public List readReplayRecords() throws IOException{
+		List records = new LinkedList() ;
+		
+		synchronized(replayFiles){
+			for(Iterator i = replayFiles.iterator() ; i.hasNext() ; ){
+				readPendingRecords((File) i.next(), records) ;
+			}
+		}
+		
+		return records ;
+	}
+	
+	/**
+	 * Insert the pending records left by the last run into the temp table in one transaction, and delete the replayed segments after the commit.
+	 * 
+	 * @return the number of records replayed.
+	 */
+	public int replay(TransactionManager tm, int batchSize) throws IOException{
+		synchronized(replayFiles){
+			if(replayFiles.isEmpty()){
+				return 0 ;
+			}
+			
+			List records = readReplayRecords() ;
+			
+			if(!records.isEmpty()){
+				WriteTranSession tran = tm.openRWTran(false) ;
+				
+				try{
+					ObjectBatcher batcher = tran.createObjectBatcher() ;
+					int addedCount = 0 ;
+					
+					for(Iterator i = records.iterator() ; i.hasNext() ; ){
+						batcher.insert(i.next()) ;
+						addedCount++ ;
+						
+						if(addedCount >= batchSize){
+							batcher.executeBatch() ;
+							addedCount = 0 ;
+						}
+					}
+					
+					if(addedCount > 0){
+						batcher.executeBatch() ;
+					}
+					
+					tran.commit() ;
+				}catch(RuntimeException e){
+					tran.rollback() ;
+					
+					throw e ;
+				}finally{
+					tran.close() ;
+				}
+			}
+			
+			for(Iterator i = replayFiles.iterator() ; i.hasNext() ; ){
+				File f = (File) i.next() ;
+				
+				if(!f.delete()){
+					log.warn("fail to delete the replayed journal:" + f.getAbsolutePath()) ;
+				}
+				
+				i.remove() ;
+			}
+			
+			log.info("[" + records.size() + "] pending increments replayed from the journal of [" + name + "].") ;
+			
+			return records.size() ;
+		}
+	}
+	
+	protected void readPendingRecords(File file, List records) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r") ;
+		
+		try{
+			FileChannel channel = raf.getChannel() ;
+			
+			if(channel.size() < FILE_HEADER_SIZE){
+				return ;
+			}
+			
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) ;
+			
+			if(buf.getInt(0) != FILE_MAGIC){
+				log.warn("unknown journal file ignored:" + file.getAbsolutePath()) ;
+				return ;
+			}
+			
+			int m_recordSize = buf.getInt(4) ;
+			int m_records = buf.getInt(8) ;
+			
+			for(int slot = 0 ; slot < m_records ; slot++){
+				int offset = FILE_HEADER_SIZE + slot * m_recordSize ;
+				
+				if(offset + m_recordSize > buf.limit()) break ;
+				if(buf.get(offset) != STATUS_PENDING) continue ;
+				
+				int crc = buf.getInt(offset + 1) ;
+				int length = buf.getShort(offset + 5) & 0xffff ;
+				
+				if(length > m_recordSize - RECORD_HEADER_SIZE) continue ;
+				
+				byte[] payload = new byte[length] ;
+				ByteBuffer b = buf.duplicate() ;
+				b.position(offset + RECORD_HEADER_SIZE) ;
+				b.get(payload) ;
+				
+				CRC32 c = new CRC32() ;
+				c.update(payload) ;
+				
+				if((int) c.getValue() != crc){
+					log.warn("broken journal record ignored. file:" + file.getAbsolutePath() + ", slot:" + slot) ;
+					continue ;
+				}
+				
+				decode(payload, records) ;
+			}
+		}finally{
+			closeQuietly(raf) ;
+		}
+	}
+	
+	private static void closeQuietly(RandomAccessFile raf){
+		try {
+			raf.close() ;
+		} catch (IOException e) {
+			log.warn("fail to close journal file.", e) ;
+		}
+	}
+	
+	protected void decode(byte[] payload, List records) throws IOException{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload)) ;
+		
+		long count = in.readLong() ;
+		String dbGroup = readString(in) ;
+		String tableName = readString(in) ;
+		String columnToUpdate = readString(in) ;
+		String pkColName = readString(in) ;
+		String pkValue = readString(in) ;
+		
+		//the temp table column is an int.
+		while(count != 0){
+			int countToInc = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, count)) ;
+			count -= countToInc ;
+			
+			IncUpdateBusiness ut = new IncUpdateBusiness(dbGroup) ;
+			ut.setTableName(tableName) ;
+			ut.setColumnToUpdate(columnToUpdate) ;
+			ut.setPkColunName(pkColName) ;
+			ut.setPkValue(pkValue) ;
+			ut.setCountToInc(countToInc) ;
+			
+			records.add(ut) ;
+		}
+	}
+	
+	protected byte[] encode(String dbGroup, String tableName, String columnToUpdate, String pkColName, String pkValue, long count){
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(64) ;
+		DataOutputStream out = new DataOutputStream(bos) ;
+		
+		try{
+			out.writeLong(count) ;
+			writeString(out, dbGroup) ;
+			writeString(out, tableName) ;
+			writeString(out, columnToUpdate) ;
+			writeString(out, pkColName) ;
+			writeString(out, pkValue) ;
+		}catch(IOException e){
+			//never happens for ByteArrayOutputStream.
+			throw new GuzzException(e) ;
+		}
+		
+		return bos.toByteArray() ;
+	}
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException{
+		out.writeBoolean(s != null) ;
+		
+		if(s != null){
+			out.writeUTF(s) ;
+		}
+	}
+	
+	private static String readString(DataInputStream in) throws IOException{
+		return in.readBoolean() ? in.readUTF() : null ;
+	}
+	
+	/**
+	 * Start a new group of segments. 
+	 */
+	public Generation newGeneration(){
+		return new Generation() ;
+	}
+	
+	protected Segment createSegment(Generation owner) throws IOException{
+		File file = new File(dir, name + "-" + nextSegmentSeq.getAndIncrement() + FILE_SUFFIX) ;
+		Segment seg = new Segment(owner, file, recordsPerSegment) ;
+		openSegments.put(seg, Boolean.TRUE) ;
+		
+		return seg ;
+	}
+	
+	/**
+	 * Mark the record as committed. The segment is deleted once all its records are done.
+	 */
+	public void markDone(JournalRecord record){
+		if(record != null){
+			record.segment.markDone(record.slot) ;
+		}
+	}
+	
+	/**
+	 * Stop the background fsync, force and close all open segments. Pending records are kept for the next run.
+	 */
+	public void close(){
+		if(fsyncThread != null){
+			fsyncThread.shutdown() ;
+			fsyncThread = null ;
+		}
+		
+		for(Iterator i = openSegments.keySet().iterator() ; i.hasNext() ; ){
+			Segment seg = (Segment) i.next() ;
+			
+			seg.force() ;
+			seg.close(false) ;
+		}
+		
+		openSegments.clear() ;
+	}
+	
+	public final class Generation {
+		
+		private volatile Segment current ;
+		
+		/**all segments of this generation. guarded by this.*/
+		private final List segments = new LinkedList() ;
+		
+		private boolean released ;
+		
+		/**
+		 * Append a pending increment.
+		 * 
+		 * @return the record to mark as done after the increment is committed, or null if the record is too long to journal.
+		 */
+		public JournalRecord append(String dbGroup, String tableName, String columnToUpdate, String pkColName, String pkValue, long count){
+			byte[] payload = encode(dbGroup, tableName, columnToUpdate, pkColName, pkValue, count) ;
+			
+			if(payload.length + RECORD_HEADER_SIZE > recordSize){
+				if(!oversizeWarned){
+					oversizeWarned = true ;
+					log.warn("increment too long to journal, enlarge journalRecordSize. table:" + tableName + ", pk:" + pkValue) ;
+				}
+				
+				return null ;
+			}
+			
+			for(;;){
+				Segment seg = this.current ;
+				
+				if(seg == null){
+					seg = nextSegment(null) ;
+				}
+				
+				int slot = seg.reserve() ;
+				
+				if(slot < 0){
+					nextSegment(seg) ;
+					continue ;
+				}
+				
+				seg.write(slot, payload) ;
+				
+				return new JournalRecord(seg, slot) ;
+			}
+		}
+		
+		private synchronized Segment nextSegment(Segment full){
+			if(released){
+				throw new GuzzException("journal generation is released.") ;
+			}
+			
+			if(this.current != full){
+				//opened by another thread.
+				return this.current ;
+			}
+			
+			if(full != null){
+				full.seal() ;
+			}
+			
+			try{
+				Segment seg = createSegment(this) ;
+				segments.add(seg) ;
+				this.current = seg ;
+				
+				return seg ;
+			}catch(IOException e){
+				throw new GuzzException("fail to create journal segment in:" + dir.getAbsolutePath(), e) ;
+			}
+		}
+		
+		private synchronized void removeSegment(Segment seg){
+			segments.remove(seg) ;
+		}
+		
+		/**
+		 * All increments of this generation are committed. Delete its segments.
+		 */
+		public void release(){
+			List toDelete ;
+			
+			synchronized(this){
+				released = true ;
+				toDelete = new ArrayList(segments) ;
+				segments.clear() ;
+				current = null ;
+			}
+			
+			for(int i = 0 ; i < toDelete.size() ; i++){
+				((Segment) toDelete.get(i)).close(true) ;
+			}
+		}
+	}
+	
+	public static final class JournalRecord {
+		
+		final Segment segment ;
+		
+		final int slot ;
+		
+		JournalRecord(Segment segment, int slot){
+			this.segment = segment ;
+			this.slot = slot ;
+		}
+	}
+	
+	class Segment {
+		
+		final Generation owner ;
+		
+		final File file ;
+		
+		final int capacity ;
+		
+		private final RandomAccessFile raf ;
+		
+		private final MappedByteBuffer buffer ;
+		
+		private final AtomicInteger reserved = new AtomicInteger(0) ;
+		
+		private final AtomicInteger written = new AtomicInteger(0) ;
+		
+		private final AtomicInteger done = new AtomicInteger(0) ;
+		
+		private volatile boolean dirty ;
+		
+		private volatile boolean sealed ;
+		
+		/**writes covered by the last force. guarded by this.*/
+		private int forcedCount ;
+		
+		/**guarded by this.*/
+		private boolean closed ;
+		
+		Segment(Generation owner, File file, int capacity) throws IOException{
+			this.owner = owner ;
+			this.file = file ;
+			this.capacity = capacity ;
+			
+			int size = FILE_HEADER_SIZE + capacity * recordSize ;
+			
+			this.raf = new RandomAccessFile(file, "rw") ;
+			
+			try{
+				raf.setLength(size) ;
+				this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size) ;
+			}catch(IOException e){
+				closeQuietly(raf) ;
+				throw e ;
+			}
+			
+			buffer.putInt(0, FILE_MAGIC) ;
+			buffer.putInt(4, recordSize) ;
+			buffer.putInt(8, capacity) ;
+		}
+		
+		/**
+		 * @return the slot, or -1 if the segment is full.
+		 */
+		int reserve(){
+			if(sealed) return -1 ;
+			
+			int slot = reserved.getAndIncrement() ;
+			
+			return slot < capacity ? slot : -1 ;
+		}
+		
+		void write(int slot, byte[] payload){
+			int offset = FILE_HEADER_SIZE + slot * recordSize ;
+			CRC32 c = new CRC32() ;
+			c.update(payload) ;
+			
+			ByteBuffer b = buffer.duplicate() ;
+			b.position(offset + 1) ;
+			b.putInt((int) c.getValue()) ;
+			b.putShort((short) payload.length) ;
+			b.put(payload) ;
+			
+			//the record is valid only after the status is set.
+			buffer.put(offset, STATUS_PENDING) ;
+			dirty = true ;
+			
+			int ticket = written.incrementAndGet() ;
+			
+			if(FSYNC_ALWAYS.equals(fsyncPolicy)){
+				syncTo(ticket) ;
+			}
+		}
+		
+		/**
+		 * Group commit: the first waiting writer forces the buffer for all writes completed before it.
+		 */
+		private synchronized void syncTo(int ticket){
+			if(closed || forcedCount >= ticket) return ;
+			
+			int covered = written.get() ;
+			dirty = false ;
+			buffer.force() ;
+			forcedCount = covered ;
+		}
+		
+		void markDone(int slot){
+			synchronized(this){
+				if(closed) return ;
+				
+				buffer.put(FILE_HEADER_SIZE + slot * recordSize, STATUS_DONE) ;
+			}
+			
+			if(done.incrementAndGet() >= capacity){
+				close(true) ;
+			}
+		}
+		
+		void seal(){
+			this.sealed = true ;
+		}
+		
+		synchronized void force(){
+			if(closed || !dirty) return ;
+			
+			dirty = false ;
+			buffer.force() ;
+		}
+		
+		synchronized void close(boolean delete){
+			if(closed) return ;
+			
+			closed = true ;
+			openSegments.remove(this) ;
+			closeQuietly(raf) ;
+			
+			if(owner != null){
+				owner.removeSegment(this) ;
+			}
+			
+			//mapped files may not be deleted on some platforms until the buffer is collected. all records are done, so they are skipped if replayed.
+			if(delete && !file.delete()){
+				file.deleteOnExit() ;
+			}
+		}
+	}
+	
+	class FsyncThread extends DemonQueuedThread{
+		
+		public FsyncThread(){
+			super("journalFsyncThread-" + name, (BoundedMPSCQueue) null) ;
+		}
+
+		protected boolean doWithTheQueue() throws Exception {
+			for(Iterator i = openSegments.keySet().iterator() ; i.hasNext() ; ){
+				((Segment) i.next()).force() ;
+			}
+			
+			return false ;
+		}
+
+		protected int getMillSecondsToSleep() {
+			return fsyncInterval ;
+		}
+	}
+
+	public int getRecordSize() {
+		return recordSize;
+	}
+
+	public void setRecordSize(int recordSize) {
+		this.recordSize = recordSize;
+	}
+
+	public int getRecordsPerSegment() {
+		return recordsPerSegment;
+	}
+
+	public void setRecordsPerSegment(int recordsPerSegment) {
+		this.recordsPerSegment = recordsPerSegment;
+	}
+
+	public String getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	public void setFsyncPolicy(String fsyncPolicy) {
+		if(fsyncPolicy != null){
+			this.fsyncPolicy = fsyncPolicy ;
+		}
+	}
+
+	public int getFsyncInterval() {
+		return fsyncInterval;
+	}
+
+	public void setFsyncInterval(int fsyncInterval) {
+		this.fsyncInterval = fsyncInterval;
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core.impl;
+
+/**
+ * 
+ * Identity of a row's column to update: (dbGroup, table, column, pk).
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+class IncUpdateKey {
+	
+	final String dbGroup ;
+	
+	final String tableName ;
+	
+	final String columnToUpdate ;
+	
+	/**not part of the identity. the pk column is fixed for a table.*/
+	final String pkColName ;
+	
+	final String pkValue ;
+	
+	private final int hash ;
+	
+	public IncUpdateKey(String dbGroup, String tableName, String columnToUpdate, String pkColName, String pkValue){
+		this.dbGroup = dbGroup ;
+		this.tableName = tableName ;
+		this.columnToUpdate = columnToUpdate ;
+		this.pkColName = pkColName ;
+		this.pkValue = pkValue ;
+		
+		int h = pkValue.hashCode() ;
+		h = 31 * h + columnToUpdate.hashCode() ;
+		h = 31 * h + tableName.hashCode() ;
+		h = 31 * h + (dbGroup == null ? 0 : dbGroup.hashCode()) ;
+		
+		this.hash = h ;
+	}
+	
+	public int hashCode(){
+		return hash ;
+	}
+	
+	public boolean equals(Object obj){
+		if(obj == this) return true ;
+		if(!(obj instanceof IncUpdateKey)) return false ;
+		
+		IncUpdateKey k = (IncUpdateKey) obj ;
+		
+		return hash == k.hash 
+			&& pkValue.equals(k.pkValue) 
+			&& columnToUpdate.equals(k.columnToUpdate) 
+			&& tableName.equals(k.tableName) 
+			&& (dbGroup == null ? k.dbGroup == null : dbGroup.equals(k.dbGroup)) ;
+	}
+	
+	public IncUpdateBusiness toBusiness(int countToInc){
+		IncUpdateBusiness ut = new IncUpdateBusiness(dbGroup) ;
+		ut.setTableName(tableName) ;
+		ut.setColumnToUpdate(columnToUpdate) ;
+		ut.setPkColunName(pkColName) ;
+		ut.setPkValue(pkValue) ;
+		ut.setCountToInc(countToInc) ;
+		
+		return ut ;
+	}
+}
@@ -16,8 +16,11 @@
  */
 package org.guzz.service.core.impl;
 
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Properties;
 
 import javax.sql.DataSource;
 
@@ -28,39 +31,151 @@ import org.guzz.connection.DataSourceProviderFactory;
 import org.guzz.exception.GuzzException;
 import org.guzz.service.AbstractService;
 import org.guzz.service.ServiceConfig;
-import org.guzz.service.core.DatabaseService;
+import org.guzz.service.core.ReplicatedDatabaseService;
 import org.guzz.util.ArrayUtil;
+import org.guzz.util.StringUtil;
 import org.guzz.util.lb.LBRound;
+import org.guzz.util.lb.LeastLoadRound;
 import org.guzz.util.lb.RoundCard;
+import org.guzz.util.lb.TwoChoicesRound;
+import org.guzz.util.thread.BoundedMPSCQueue;
+import org.guzz.util.thread.DemonQueuedThread;
 
 /**
  * 
  * 从数据库服务。从数据库服务器中可能存在多个从数据库，{@link MultiMachinesDatabaseServiceImpl} 负责管理按照负载进行调度使用。
+ * <p/>
+ * 每台数据库带有一个熔断器（见{@link DataSourceNode}）。连续连接失败（网络或者数据库故障，不包括连接池耗尽）的数据库被暂时移出轮询，由后台线程每probeInterval毫秒（默认1000）探测，恢复后重新加入。
+ * {@link #getConnection()}失败时自动尝试其他可用的数据库。
+ * <p/>
+ * 配置了lagSQL的数据库由{@link ReplicationLagMonitor}每lagCheckInterval毫秒（默认1000）检查主从同步延迟，{@link #getConnection(long)}跳过延迟超出限制或者未知的数据库。
+ * <p/>
+ * 配置balance选择负载均衡方式：
+ * <ul>
+ * <li>round: 按照maxLoad的比例轮询（默认）。</li>
+ * <li>leastConn: 选择借出连接数/maxLoad最小的数据库。处理快的数据库连接归还早，分配到更多的请求。</li>
+ * <li>latency: 随机挑选2台数据库，选择(借出连接数+1)*平均延迟/maxLoad较小的一台。平均延迟包括获取连接和执行查询的时间，避开正在备份、vacuum或者GC停顿的数据库。</li>
+ * </ul>
  *
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class MultiMachinesDatabaseServiceImpl extends AbstractService implements DatabaseService {
+public class MultiMachinesDatabaseServiceImpl extends AbstractService implements ReplicatedDatabaseService {
 	private static transient final Log log = LogFactory.getLog(MultiMachinesDatabaseServiceImpl.class) ;
 		
 	DataSourceProvider[] uniqueProviders = null ;
 	
+	DataSourceNode[] nodes = null ;
+	
+	/**card of {@link DataSourceNode}*/
 	private RoundCard card ;	
 	
 	/**
 	 * @link ServiceConfig.uniqueIdentifer vs DataSourceProvicer
 	 */
 	private Map configProviders = new HashMap() ;
+	
+	/**
+	 * @link ServiceConfig.uniqueIdentifer vs DataSourceNode
+	 */
+	private Map configNodes = new HashMap() ;
+	
+	public static final String BALANCE_ROUND = "round" ;
+	
+	public static final String BALANCE_LEAST_CONN = "leastConn" ;
+	
+	public static final String BALANCE_LATENCY = "latency" ;
+	
+	private int probeInterval = 1000 ;
+	
+	private ProbeThread probeThread ;
+	
+	private ReplicationLagMonitor lagMonitor ;
 		
 	public boolean isAvailable(){
 		return card != null ;
 	}
 	
 	public DataSource getDataSource() {
-		DataSourceProvider p = (DataSourceProvider) card.getCard() ;
-		if(p == null){
+		DataSourceNode n = chooseNode(-1) ;
+		
+		if(n == null){
+			//all ejected. leave the error to the caller.
+			n = (DataSourceNode) card.getCard() ;
+		}
+		
+		if(n == null){
+			return null ;
+		}
+		return n.provider.getDataSource() ;
+	}
+	
+	public Connection getConnection() throws SQLException {
+		Connection conn = getConnection(-1) ;
+		
+		if(conn == null){
+			throw new SQLException("no available datasource in service:" + this.getServiceInfo().getServiceName()) ;
+		}
+		
+		return conn ;
+	}
+	
+	public Connection getConnection(long maxLagMillis) throws SQLException {
+		DataSourceNode[] nodes = this.nodes ;
+		DataSourceNode first = chooseNode(maxLagMillis) ;
+		
+		if(first == null){
 			return null ;
 		}
-		return p.getDataSource() ;
+		
+		SQLException lastError = null ;
+		
+		try{
+			return first.getConnection() ;
+		}catch(SQLException e){
+			log.warn("fail to acquire a conn from [" + first + "], try others.", e) ;
+			lastError = e ;
+		}
+		
+		//retry the other available ones in turn.
+		for(int i = 0 ; i < nodes.length ; i++){
+			DataSourceNode n = nodes[i] ;
+			
+			if(n == first || !n.isAvailable() || !n.isLagWithin(maxLagMillis)) continue ;
+			
+			try{
+				return n.getConnection() ;
+			}catch(SQLException e){
+				log.warn("fail to acquire a conn from [" + n + "].", e) ;
+				lastError = e ;
+			}
+		}
+		
+		throw lastError ;
+	}
+	
+	/**
+	 * Choose an available node within the lag limit by the card.
+	 * 
+	 * @param maxLagMillis negative for no limit.
+	 * @return null if all nodes are ejected or too far behind.
+	 */
+	protected DataSourceNode chooseNode(long maxLagMillis){
+		RoundCard card = this.card ;
+		DataSourceNode[] nodes = this.nodes ;
+		
+		for(int i = 0 ; i < nodes.length ; i++){
+			DataSourceNode n = (DataSourceNode) card.getCard() ;
+			
+			if(n == null) break ;
+			if(n.isAvailable() && n.isLagWithin(maxLagMillis)) return n ;
+		}
+		
+		//the weight of the skipped ones is large.
+		for(int i = 0 ; i < nodes.length ; i++){
+			if(nodes[i].isAvailable() && nodes[i].isLagWithin(maxLagMillis)) return nodes[i] ;
+		}
+		
+		return null ;
 	}
 	
 	public synchronized boolean configure(ServiceConfig[] scs) {
@@ -72,11 +187,17 @@ public class MultiMachinesDatabaseServiceImpl extends AbstractService implements
 			}
 			
 			DataSourceProvider[] uniqueProviders = new DataSourceProvider[scs.length] ;
+			DataSourceNode[] nodes = new DataSourceNode[scs.length] ;
 			
+			String balance = scs[0].getProps().getProperty("balance") ;
+			boolean latency = BALANCE_LATENCY.equals(balance) ;
+			boolean leastConn = latency || BALANCE_LEAST_CONN.equals(balance) ;
 			LBRound lr = new LBRound() ;
+			LeastLoadRound llr = latency ? new TwoChoicesRound() : new LeastLoadRound() ;
 			
 			//创建数据源。如果以前申请过，仅仅调整配置参数，不再新建。
 			Map newConfigProviders = new HashMap() ;
+			Map newConfigNodes = new HashMap() ;
 			
 			for(int i = 0 ; i < scs.length ; i++){
 				ServiceConfig sc = scs[i] ;
@@ -89,22 +210,57 @@ public class MultiMachinesDatabaseServiceImpl extends AbstractService implements
 				}
 				
 				DataSourceProvider oldProvider = (DataSourceProvider) configProviders.get(sc.getUniqueIdentifer()) ;
+				DataSourceNode node = (DataSourceNode) configNodes.get(sc.getUniqueIdentifer()) ;
+				Properties dsProps = DataSourceNode.providerProps(sc.getProps()) ;
 				
 				if(oldProvider == null){
-					oldProvider = DataSourceProviderFactory.buildDataSourceProvicer(sc.getProps(), maxLoad) ;
+					oldProvider = DataSourceProviderFactory.buildDataSourceProvicer(dsProps, maxLoad) ;
+					node = new DataSourceNode(sc.getUniqueIdentifer(), oldProvider) ;
 				}else{
-					oldProvider.configure(sc.getProps(), maxLoad) ;
+					oldProvider.configure(dsProps, maxLoad) ;
 				}
 				
+				node.configure(sc.getProps()) ;
+				node.setTrackLoad(leastConn) ;
+				node.setTrackLatency(latency) ;
+				
 				uniqueProviders[i] = oldProvider ;
+				nodes[i] = node ;
 				newConfigProviders.put(sc.getUniqueIdentifer(), oldProvider) ;
+				newConfigNodes.put(sc.getUniqueIdentifer(), node) ;
 				
-				lr.addToPool(oldProvider, maxLoad) ;
+				if(leastConn){
+					llr.addToPool(node, maxLoad) ;
+				}else{
+					lr.addToPool(node, maxLoad) ;
+				}
+			}
+			
+			this.probeInterval = Math.max(10, StringUtil.toInt(scs[0].getProps().getProperty("probeInterval"), this.probeInterval)) ;
+			
+			if(this.lagMonitor == null && ReplicationLagMonitor.isLagMonitored(nodes)){
+				this.lagMonitor = new ReplicationLagMonitor("lagMonitor-" + this.getServiceInfo().getServiceName()) ;
+				this.lagMonitor.setNodes(nodes) ;
+				this.lagMonitor.start() ;
+			}
+			
+			if(this.lagMonitor != null){
+				this.lagMonitor.setCheckInterval(StringUtil.toInt(scs[0].getProps().getProperty("lagCheckInterval"), 1000)) ;
+				this.lagMonitor.setNodes(nodes) ;
+				//check the new nodes soon.
+				this.lagMonitor.wakeUp() ;
 			}
 			
-			lr.applyNewPool() ;
 			//更新到当前使用中
-			this.card = lr ;
+			this.nodes = nodes ;
+			
+			if(leastConn){
+				llr.applyNewPool() ;
+				this.card = llr ;
+			}else{
+				lr.applyNewPool() ;
+				this.card = lr ;
+			}
 			
 			DataSourceProvider[] oldProviders = this.uniqueProviders ;			
 			this.uniqueProviders = uniqueProviders ;
@@ -112,6 +268,7 @@ public class MultiMachinesDatabaseServiceImpl extends AbstractService implements
 			//重新创建现有的configProviders
 			configProviders.clear() ;
 			this.configProviders = newConfigProviders ;
+			this.configNodes = newConfigNodes ;
 			
 			//作废以前的连接池
 			if(oldProviders != null){
@@ -136,6 +293,16 @@ public class MultiMachinesDatabaseServiceImpl extends AbstractService implements
 	}
 	
 	public synchronized void shutdown() {
+		if(this.probeThread != null){
+			this.probeThread.shutdown() ;
+			this.probeThread = null ;
+		}
+		
+		if(this.lagMonitor != null){
+			this.lagMonitor.shutdown() ;
+			this.lagMonitor = null ;
+		}
+		
 		if(this.uniqueProviders != null){
 			if(log.isInfoEnabled()){
 				log.info("shutting down service:[" + this.getServiceInfo().getServiceName() + "->" + this.configProviders.keySet() + "]...") ;
@@ -151,8 +318,40 @@ public class MultiMachinesDatabaseServiceImpl extends AbstractService implements
 		}
 	}
 
-	public void startup() {
+	public synchronized void startup() {
+		if(this.probeThread == null){
+			this.probeThread = new ProbeThread("probe-" + this.getServiceInfo().getServiceName()) ;
+			this.probeThread.start() ;
+		}
+	}
+	
+	/**
+	 * Probe the ejected nodes.
+	 */
+	class ProbeThread extends DemonQueuedThread{
 		
+		public ProbeThread(String name){
+			super(name, (BoundedMPSCQueue) null) ;
+		}
+
+		protected boolean doWithTheQueue() throws Exception {
+			DataSourceNode[] nodes = MultiMachinesDatabaseServiceImpl.this.nodes ;
+			if(nodes == null) return false ;
+			
+			long now = System.currentTimeMillis() ;
+			
+			for(int i = 0 ; i < nodes.length && isAccepting() ; i++){
+				if(nodes[i].isProbeDue(now)){
+					nodes[i].probe() ;
+				}
+			}
+			
+			return false ;
+		}
+
+		protected int getMillSecondsToSleep() {
+			return probeInterval ;
+		}
 	}
 
 }
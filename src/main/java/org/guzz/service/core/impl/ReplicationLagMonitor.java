@@ -0,0 +1,91 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core.impl;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.guzz.util.thread.BoundedMPSCQueue;
+import org.guzz.util.thread.DemonQueuedThread;
+
+/**
+ * 
+ * Background thread to check the replication lag of the {@link DataSourceNode}s with a lagSQL every lagCheckInterval milliseconds.
+ * <p/>
+ * A lag not checked successfully in 3 intervals is treated as unknown, and the node is not used by the reads with a max staleness. 
+ * A new node is unknown until its first check, which is taken by this thread after {@link #wakeUp()}.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+class ReplicationLagMonitor extends DemonQueuedThread {
+	
+	private volatile DataSourceNode[] nodes ;
+	
+	private volatile int checkInterval = 1000 ;
+	
+	public ReplicationLagMonitor(String name){
+		super(name, (BoundedMPSCQueue) null) ;
+	}
+	
+	/**
+	 * @return true if any of the nodes has a lagSQL.
+	 */
+	public static boolean isLagMonitored(DataSourceNode[] nodes){
+		for(int i = 0 ; nodes != null && i < nodes.length ; i++){
+			if(nodes[i].isLagMonitored()) return true ;
+		}
+		
+		return false ;
+	}
+	
+	public void setNodes(DataSourceNode[] nodes){
+		this.nodes = nodes ;
+	}
+	
+	public void setCheckInterval(int checkInterval){
+		this.checkInterval = Math.max(10, checkInterval) ;
+	}
+	
+	/**
+	 * Check the nodes now in this thread, without waiting for the interval.
+	 */
+	public void wakeUp(){
+		LockSupport.unpark(this) ;
+	}
+
+	protected boolean doWithTheQueue() throws Exception {
+		checkNow() ;
+		
+		return false ;
+	}
+
+	protected int getMillSecondsToSleep() {
+		return checkInterval ;
+	}
+	
+	public void checkNow(){
+		DataSourceNode[] nodes = this.nodes ;
+		if(nodes == null) return ;
+		
+		for(int i = 0 ; i < nodes.length && isAccepting() ; i++){
+			//the lag of an ejected node is useless.
+			if(nodes[i].isLagMonitored() && nodes[i].isAvailable()){
+				nodes[i].checkLag(checkInterval * 3L) ;
+			}
+		}
+	}
+
+}
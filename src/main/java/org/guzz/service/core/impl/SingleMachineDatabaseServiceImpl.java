@@ -16,6 +16,9 @@
  */
 package org.guzz.service.core.impl;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+
 import javax.sql.DataSource;
 
 import org.apache.commons.logging.Log;
@@ -25,7 +28,8 @@ import org.guzz.connection.DataSourceProviderFactory;
 import org.guzz.exception.GuzzException;
 import org.guzz.service.AbstractService;
 import org.guzz.service.ServiceConfig;
-import org.guzz.service.core.DatabaseService;
+import org.guzz.service.core.ReplicatedDatabaseService;
+import org.guzz.util.StringUtil;
 
 /**
  * 
@@ -33,11 +37,16 @@ import org.guzz.service.core.DatabaseService;
  *
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class SingleMachineDatabaseServiceImpl extends AbstractService implements DatabaseService {
+public class SingleMachineDatabaseServiceImpl extends AbstractService implements ReplicatedDatabaseService {
 	private static transient final Log log = LogFactory.getLog(SingleMachineDatabaseServiceImpl.class) ;
 	
 	DataSourceProvider dsp = null ;
 	
+	/**monitor the replication lag only.*/
+	private DataSourceNode node ;
+	
+	private ReplicationLagMonitor lagMonitor ;
+	
 	private String serviceIdentifer ;
 	
 	public boolean isAvailable(){
@@ -48,6 +57,20 @@ public class SingleMachineDatabaseServiceImpl extends AbstractService implements
 		return dsp.getDataSource() ;
 	}
 	
+	public Connection getConnection() throws SQLException {
+		return dsp.getDataSource().getConnection() ;
+	}
+	
+	public Connection getConnection(long maxLagMillis) throws SQLException {
+		DataSourceNode n = this.node ;
+		
+		if(n != null && !n.isLagWithin(maxLagMillis)){
+			return null ;
+		}
+		
+		return getConnection() ;
+	}
+	
 	public boolean configure(ServiceConfig[] scs) {
 		if(scs == null || scs.length == 0){
 			throw new GuzzException("no serviceConfig found for single database.") ;
@@ -64,12 +87,12 @@ public class SingleMachineDatabaseServiceImpl extends AbstractService implements
 			if(this.serviceIdentifer != null){
 				if(this.serviceIdentifer.equals(sc.getUniqueIdentifer())){
 					//同一个连接池更新属性
-					this.dsp.configure(sc.getProps(), sc.getMaxLoad()) ;
+					this.dsp.configure(DataSourceNode.providerProps(sc.getProps()), sc.getMaxLoad()) ;
 				}else{
 					//销毁上一个连接池，并应用新的连接池。
 					DataSourceProvider oldDsp = this.dsp ;
 					
-					DataSourceProvider dsp = DataSourceProviderFactory.buildDataSourceProvicer(sc.getProps(), sc.getMaxLoad()) ;
+					DataSourceProvider dsp = DataSourceProviderFactory.buildDataSourceProvicer(DataSourceNode.providerProps(sc.getProps()), sc.getMaxLoad()) ;
 					this.dsp = dsp ;
 					this.serviceIdentifer = sc.getUniqueIdentifer() ;
 					
@@ -78,16 +101,56 @@ public class SingleMachineDatabaseServiceImpl extends AbstractService implements
 					}
 				}
 			}else{ //第一次初始化
-				DataSourceProvider dsp = DataSourceProviderFactory.buildDataSourceProvicer(sc.getProps(), sc.getMaxLoad()) ;
+				DataSourceProvider dsp = DataSourceProviderFactory.buildDataSourceProvicer(DataSourceNode.providerProps(sc.getProps()), sc.getMaxLoad()) ;
 				this.dsp = dsp ;
 				this.serviceIdentifer = sc.getUniqueIdentifer() ;
-			}			
+			}
+			
+			configureLagMonitor(sc) ;
 		} catch (Exception e) {
 			throw new GuzzException("fail to set up  single database service.", e) ;
 		}
 	}
 
+	protected synchronized void configureLagMonitor(ServiceConfig sc){
+		DataSourceNode node = this.node ;
+		
+		//keep the checked lag if the datasource is not changed.
+		if(node == null || node.provider != this.dsp){
+			node = new DataSourceNode(sc.getUniqueIdentifer(), this.dsp) ;
+		}
+		
+		node.configure(sc.getProps()) ;
+		
+		if(!node.isLagMonitored()){
+			this.node = null ;
+			
+			if(this.lagMonitor != null){
+				this.lagMonitor.setNodes(null) ;
+			}
+			
+			return ;
+		}
+		
+		if(this.lagMonitor == null){
+			this.lagMonitor = new ReplicationLagMonitor("lagMonitor-" + this.getServiceInfo().getServiceName()) ;
+			this.lagMonitor.start() ;
+		}
+		
+		this.lagMonitor.setCheckInterval(StringUtil.toInt(sc.getProps().getProperty("lagCheckInterval"), 1000)) ;
+		
+		//the lag is unknown until the monitor checks it, and the reads with a max staleness are not served until then.
+		this.lagMonitor.setNodes(new DataSourceNode[]{node}) ;
+		this.node = node ;
+		this.lagMonitor.wakeUp() ;
+	}
+
 	public void shutdown() {
+		if(lagMonitor != null){
+			lagMonitor.shutdown() ;
+			lagMonitor = null ;
+		}
+		
 		if(log.isInfoEnabled()){
 			log.info("shutting down service:[" + this.getServiceInfo().getServiceName() + "->" + serviceIdentifer + "]...") ;
 		}
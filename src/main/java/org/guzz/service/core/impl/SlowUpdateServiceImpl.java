@@ -17,25 +17,22 @@
 package org.guzz.service.core.impl;
 
 import java.io.Serializable;
-import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.guzz.Guzz;
-import org.guzz.GuzzContext;
 import org.guzz.exception.GuzzException;
-import org.guzz.exception.ORMException;
+import org.guzz.jdbc.AdaptiveBatchSizePolicy;
+import org.guzz.jdbc.AdaptiveBatcher;
 import org.guzz.jdbc.ObjectBatcher;
-import org.guzz.orm.mapping.ObjectMappingManager;
-import org.guzz.orm.mapping.POJOBasedObjectMapping;
-import org.guzz.service.AbstractService;
 import org.guzz.service.ServiceConfig;
-import org.guzz.service.core.SlowUpdateService;
-import org.guzz.transaction.TransactionManager;
 import org.guzz.transaction.WriteTranSession;
 import org.guzz.util.StringUtil;
+import org.guzz.util.thread.BoundedMPSCQueue;
 import org.guzz.util.thread.DemonQueuedThread;
-import org.guzz.web.context.GuzzContextAware;
 
 /**
  * 
@@ -43,41 +40,32 @@ import org.guzz.web.context.GuzzContextAware;
  *
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class SlowUpdateServiceImpl extends AbstractService implements GuzzContextAware, SlowUpdateService {
+public class SlowUpdateServiceImpl extends AbstractSlowUpdateService {
 	private static transient final Log log = LogFactory.getLog(SlowUpdateServiceImpl.class) ;
 	
 	public static final String QUEUE_MAX_SIZE = "queueSize" ;
 	
-	private TransactionManager tm ;
-	
-	private ObjectMappingManager omm ;
-		
 	protected UpdateToDBThread updateThread ;
 	
 	private int batchSize = 2048 ;
+	
+	/**jdbc batch size within a commit of batchSize, adjusted by the insert latency. null to use the dialect's default batch size.*/
+	private AdaptiveBatchSizePolicy batchSizePolicy ;
 	private int queueSize = 20480 ;
 	
-	public void updateCount(String businessName, Object tableCondition, String propToUpdate, Serializable pkValue, int countToInc){
-		tableCondition = tableCondition == null ? Guzz.getTableCondition() : tableCondition ;
-		
-		POJOBasedObjectMapping mapping = (POJOBasedObjectMapping) omm.getObjectMapping(businessName, tableCondition) ;
-		
-		if(mapping == null){
-			throw new ORMException("unknown business:[" + businessName + "]") ;
-		}
-		
-		String columnToUpdate = mapping.getColNameByPropNameForSQL(propToUpdate) ;
-		
-		if(columnToUpdate == null){
-			throw new ORMException("unknown property:[" + propToUpdate + "], business name:[" + businessName + "]") ;
-		}
-		
-		updateCount(mapping.getDbGroup().getPhysicsGroupName(tableCondition), mapping.getTable().getTableName(tableCondition), columnToUpdate, mapping.getTable().getPKColumn().getColNameForSQL(), pkValue, countToInc) ;
-	}
+	/**dropNewest, block or callerRuns. see {@link DemonQueuedThread#setOverflowPolicy(String)}*/
+	private String overflowPolicy ;
+	private int overflowTimeout = 1000 ;
 	
-	public void updateCount(Class domainClass, Object tableCondtion, String propToUpdate, Serializable pkValue, int countToInc){
-		updateCount(domainClass.getName(), tableCondtion, propToUpdate, pkValue, countToInc) ;
-	}
+	private IncUpdateJournal journal ;
+	
+	/**milliseconds to wait for the queued updates to be written on shutdown.*/
+	private int shutdownTimeout = 5000 ;
+	
+	/**IncUpdateKey -> PendingCounter. increments queued and not written yet. a counter is removed once no update is counted in it.*/
+	private final ConcurrentHashMap pendingIncrements = new ConcurrentHashMap() ;
+	
+	private IncUpdateJournal.Generation journalGeneration ;
 	
 	public void updateCount(String dbGroup, String tableName, String columnToUpdate, String pkColName, Serializable pkValue, int countToInc) {
 		if(!isAvailable()){
@@ -93,14 +81,135 @@ public class SlowUpdateServiceImpl extends AbstractService implements GuzzContex
 		ut.setPkValue(pkValue.toString()) ;
 		ut.setCountToInc(countToInc) ;
 		
-		this.updateThread.addToQueue(ut) ;
+		ut.setPendingCounter(addPending(new IncUpdateKey(dbGroup, tableName, columnToUpdate, pkColName, ut.getPkValue()), countToInc)) ;
 		
-		if(this.updateThread.isSleeping()){
-			synchronized (updateThread) {
-				try{
-					this.updateThread.notify() ;
-				}catch(Exception e){}
+		if(journalGeneration != null){
+			try{
+				ut.setJournalRecord(journalGeneration.append(dbGroup, tableName, columnToUpdate, pkColName, ut.getPkValue(), countToInc)) ;
+			}catch(Exception e){
+				log.error("fail to journal the increment:" + tableName + ", pk:" + pkValue, e) ;
+			}
+		}
+		
+		UpdateToDBThread t = this.updateThread ;
+		
+		//the thread is woken up by the queue.
+		if(t == null || !t.offerToQueue(ut)){
+			if(t != null && t.isAccepting()){
+				//dropped, same as an update never happened.
+				markDone(ut) ;
+			}else{
+				//shutting down. the caller is told the update failed, so it must not be replayed either.
+				markDone(ut) ;
+				throw new GuzzException("slowUpdateService is shutting down.") ;
+			}
+		}
+	}
+	
+	/**
+	 * The update is written, or dropped. 
+	 */
+	protected void markDone(IncUpdateBusiness ut){
+		releasePending(ut) ;
+		
+		if(journal != null && ut.getJournalRecord() != null){
+			journal.markDone(ut.getJournalRecord()) ;
+			ut.setJournalRecord(null) ;
+		}
+	}
+	
+	/**
+	 * The update is not written now, but it is not dropped either. Its journal record, if any, is left open and replayed on the next startup.
+	 */
+	protected void keepForReplay(IncUpdateBusiness ut){
+		releasePending(ut) ;
+		ut.setJournalRecord(null) ;
+	}
+	
+	/**
+	 * Remove the update from the pending increments. The same counter it was counted in is always used, and the counter is removed from the map with its last update.
+	 */
+	protected void releasePending(IncUpdateBusiness ut){
+		PendingCounter counter = ut.getPendingCounter() ;
+		
+		if(counter != null){
+			if(counter.release(ut.getCountToInc())){
+				pendingIncrements.remove(counter.key, counter) ;
+			}
+			
+			ut.setPendingCounter(null) ;
+		}
+	}
+	
+	protected PendingCounter addPending(IncUpdateKey key, int countToInc){
+		while(true){
+			PendingCounter c = (PendingCounter) pendingIncrements.get(key) ;
+			
+			if(c == null){
+				c = new PendingCounter(key) ;
+				PendingCounter old = (PendingCounter) pendingIncrements.putIfAbsent(key, c) ;
+				
+				if(old != null){
+					c = old ;
+				}
+			}
+			
+			if(c.add(countToInc)){
+				return c ;
+			}
+			
+			//released by its last update and being removed. help the removal, and retry with a new counter.
+			pendingIncrements.remove(key, c) ;
+		}
+	}
+	
+	protected long getPendingIncrement(IncUpdateKey key){
+		PendingCounter c = (PendingCounter) pendingIncrements.get(key) ;
+		
+		return c == null ? 0 : c.get() ;
+	}
+	
+	/**
+	 * Sum of the increments counted in, and the number of updates holding it. 
+	 * Once the last update is released, the counter is dead and nothing can be added to it any more.
+	 */
+	static class PendingCounter {
+		final IncUpdateKey key ;
+		
+		private long increment ;
+		
+		private int holders ;
+		
+		private boolean released ;
+		
+		PendingCounter(IncUpdateKey key){
+			this.key = key ;
+		}
+		
+		synchronized boolean add(int countToInc){
+			if(released) return false ;
+			
+			increment += countToInc ;
+			holders++ ;
+			
+			return true ;
+		}
+		
+		/**
+		 * @return true if this is the last update, and the counter should be removed.
+		 */
+		synchronized boolean release(int countToInc){
+			increment -= countToInc ;
+			
+			if(--holders == 0){
+				released = true ;
 			}
+			
+			return released ;
+		}
+		
+		synchronized long get(){
+			return increment ;
 		}
 	}
 
@@ -119,6 +228,11 @@ public class SlowUpdateServiceImpl extends AbstractService implements GuzzContex
 		
 		this.queueSize = StringUtil.toInt(m_queueSize, this.queueSize) ;
 		this.batchSize = StringUtil.toInt(m_batchSize, this.batchSize) ;
+		this.overflowPolicy = (String) sc.getProps().get("overflowPolicy") ;
+		this.overflowTimeout = StringUtil.toInt((String) sc.getProps().get("overflowTimeout"), this.overflowTimeout) ;
+		this.journal = IncUpdateJournal.configure(sc.getProps(), "slowUpdate") ;
+		this.batchSizePolicy = AdaptiveBatchSizePolicy.configure(sc.getProps(), this.batchSize) ;
+		this.shutdownTimeout = StringUtil.toInt((String) sc.getProps().get("shutdownTimeout"), this.shutdownTimeout) ;
 		
 		return true ;
 	}
@@ -126,16 +240,30 @@ public class SlowUpdateServiceImpl extends AbstractService implements GuzzContex
 	public void startup() {
 		//启动更新线程
 		if(updateThread == null){
+			if(journal != null){
+				journal.open() ;
+				journalGeneration = journal.newGeneration() ;
+			}
+			
 			updateThread = new UpdateToDBThread(this.queueSize) ;
+			updateThread.setOverflowPolicy(this.overflowPolicy) ;
+			updateThread.setOverflowTimeoutMillis(this.overflowTimeout) ;
 			updateThread.start() ;
 		}
 	}
 	
 	public void shutdown() {		
 		if(updateThread != null){
-			updateThread.shutdown() ;
+			//stop accepting new updates, and write the queued ones.
+			updateThread.shutdown(shutdownTimeout) ;
 			updateThread = null ;
 		}
+		
+		if(journal != null){
+			//increments still in the queue are replayed on the next startup.
+			journal.close() ;
+			journalGeneration = null ;
+		}
 	}
 
 	public boolean isAvailable() {
@@ -144,30 +272,48 @@ public class SlowUpdateServiceImpl extends AbstractService implements GuzzContex
 	
 	class UpdateToDBThread extends DemonQueuedThread{
 		
+		/**updates of failed batches, written first in the next round. accessed in this thread only.*/
+		private final LinkedList retries = new LinkedList() ;
+		
+		private final int maxRetries ;
+		
 		public UpdateToDBThread(int queueSize){
-			super("slowUpdateThread", queueSize) ;
+			super("slowUpdateThread", queueSize > 0 ? new BoundedMPSCQueue(queueSize) : null) ;
+			
+			this.maxRetries = Math.max(queueSize, batchSize) ;
+		}
+		
+		protected boolean hasPendingWork() {
+			return super.hasPendingWork() || !retries.isEmpty() ;
 		}
 		
-		protected boolean doWithTheQueue() throws SQLException{			
-			if(queues == null){
-				return false ;
+		protected Object pollQueue() {
+			if(!retries.isEmpty()){
+				return retries.removeFirst() ;
+			}
+			
+			return super.pollQueue() ;
+		}
+		
+		protected boolean doWithTheQueue() throws Exception{
+			if(journal != null && journal.hasReplay()){
+				//increments left by the last run go to the temp table first.
+				journal.replay(tm, batchSize) ;
 			}
 			
-			int length = queues.length ;			
 			boolean processSomething = false ;
 								
 			WriteTranSession tran = null ;
 			IncUpdateBusiness ut = null ;
 			
+			//inserted but not committed yet.
+			List uncommitted = new LinkedList() ;
+			
 			try{
 				ObjectBatcher batcher = null ;
 				int addedCount = 0 ;
 				
-				for(int i = 0 ; i < length; i++){
-					ut = (IncUpdateBusiness) queues[i] ;
-					if(ut == null) continue ;
-					queues[i] = null ; //释放队列空间
-										
+				while((ut = (IncUpdateBusiness) pollQueue()) != null){
 					processSomething = true ;
 					
 					if(tran == null){
@@ -175,14 +321,19 @@ public class SlowUpdateServiceImpl extends AbstractService implements GuzzContex
 					}
 					if(batcher == null){
 						batcher = tran.createObjectBatcher() ;
+						if(batcher instanceof AdaptiveBatcher){
+							((AdaptiveBatcher) batcher).setBatchSizePolicy(batchSizePolicy) ;
+						}
 					}
 					
+					uncommitted.add(ut) ;
 					batcher.insert(ut) ;
 					addedCount++ ;
 					
 					if(addedCount >= batchSize){
 						batcher.executeBatch() ;
 						tran.commit() ;
+						markCommitted(uncommitted) ;
 						
 						addedCount = 0 ;
 					}
@@ -191,6 +342,7 @@ public class SlowUpdateServiceImpl extends AbstractService implements GuzzContex
 				if(addedCount > 0){
 					batcher.executeBatch() ;
 					tran.commit() ;
+					markCommitted(uncommitted) ;
 				}
 			}catch(Exception e){
 				log.error(ut, e) ;
@@ -198,6 +350,28 @@ public class SlowUpdateServiceImpl extends AbstractService implements GuzzContex
 				if(tran != null){
 					tran.rollback() ;
 				}
+				
+				//not written. retry them in the next round, after the sleep. 
+				retries.addAll(0, uncommitted) ;
+				
+				//too many to hold in memory, eg: the database is down for a long time. the journal replays the oldest ones on the next startup.
+				int giveUps = 0 ;
+				while(retries.size() > maxRetries){
+					IncUpdateBusiness old = (IncUpdateBusiness) retries.removeFirst() ;
+					
+					if(old.getJournalRecord() == null){
+						giveUps++ ;
+					}
+					
+					keepForReplay(old) ;
+				}
+				
+				if(giveUps > 0){
+					log.error(giveUps + " slow updates dropped. no journal to replay them.") ;
+				}
+				
+				//sleep before the retry.
+				processSomething = false ;
 			}finally{
 				if(tran != null){
 					tran.close() ;
@@ -207,11 +381,36 @@ public class SlowUpdateServiceImpl extends AbstractService implements GuzzContex
 			return processSomething ;
 		}
 		
-	}
-
-	public void setGuzzContext(GuzzContext guzzContext) {
-		this.tm = guzzContext.getTransactionManager() ;
-		this.omm = guzzContext.getObjectMappingManager() ;
+		protected void markCommitted(List committed){
+			for(Iterator i = committed.iterator() ; i.hasNext() ; ){
+				markDone((IncUpdateBusiness) i.next()) ;
+			}
+			
+			committed.clear() ;
+		}
+		
+		protected boolean processInCaller(Object obj) throws Exception {
+			IncUpdateBusiness ut = (IncUpdateBusiness) obj ;
+			
+			try{
+				WriteTranSession tran = tm.openRWTran(true) ;
+				
+				try{
+					tran.insert(ut) ;
+				}finally{
+					tran.close() ;
+				}
+			}catch(Exception e){
+				//not written. left to the journal.
+				keepForReplay(ut) ;
+				throw e ;
+			}
+			
+			markDone(ut) ;
+			
+			return true ;
+		}
+		
 	}
 }
 
@@ -17,9 +17,13 @@
 package org.guzz.service.core.impl;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.guzz.Service;
 import org.guzz.service.ProxyService;
+import org.guzz.service.core.PendingSlowUpdateService;
 import org.guzz.service.core.SlowUpdateService;
 
 /**
@@ -28,7 +32,7 @@ import org.guzz.service.core.SlowUpdateService;
  *
  * @author liu kaixuan(liukaixuan@gmail.com)
  */
-public class SlowUpdateServiceProxy extends ProxyService implements SlowUpdateService {
+public class SlowUpdateServiceProxy extends ProxyService implements PendingSlowUpdateService {
 
 	private SlowUpdateService slowUpdateService ;
 	
@@ -59,4 +63,33 @@ public class SlowUpdateServiceProxy extends ProxyService implements SlowUpdateSe
 		slowUpdateService.updateCount(domainClass, tableCondition, propToUpdate, pkValue, countToInc) ;
 	}
 
+	/**
+	 * The pending increments are read from the {@link PendingSlowUpdateService}s only; other implementations hold nothing to read.
+	 */
+	public long getPendingIncrement(String businessName, Object tableCondition, String propToUpdate, Serializable pkValue) {
+		if(slowUpdateService instanceof PendingSlowUpdateService){
+			return ((PendingSlowUpdateService) slowUpdateService).getPendingIncrement(businessName, tableCondition, propToUpdate, pkValue) ;
+		}
+		
+		return 0 ;
+	}
+
+	public long getPendingIncrement(Class domainClass, Object tableCondition, String propToUpdate, Serializable pkValue) {
+		return getPendingIncrement(domainClass.getName(), tableCondition, propToUpdate, pkValue) ;
+	}
+
+	public Map getPendingIncrements(String businessName, Object tableCondition, String propToUpdate, Collection pkValues) {
+		if(slowUpdateService instanceof PendingSlowUpdateService){
+			return ((PendingSlowUpdateService) slowUpdateService).getPendingIncrements(businessName, tableCondition, propToUpdate, pkValues) ;
+		}
+		
+		return new HashMap() ;
+	}
+
+	public void applyPendingIncrements(Collection objects, Object tableCondition, String propToUpdate) {
+		if(slowUpdateService instanceof PendingSlowUpdateService){
+			((PendingSlowUpdateService) slowUpdateService).applyPendingIncrements(objects, tableCondition, propToUpdate) ;
+		}
+	}
+
 }
@@ -17,138 +17,176 @@
 package org.guzz.service.core.impl;
 
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.guzz.Guzz;
-import org.guzz.GuzzContext;
 import org.guzz.exception.GuzzException;
-import org.guzz.exception.ORMException;
+import org.guzz.jdbc.AdaptiveBatchSizePolicy;
+import org.guzz.jdbc.AdaptiveBatcher;
 import org.guzz.jdbc.ObjectBatcher;
-import org.guzz.orm.mapping.ObjectMappingManager;
-import org.guzz.orm.mapping.POJOBasedObjectMapping;
-import org.guzz.service.AbstractService;
 import org.guzz.service.ServiceConfig;
-import org.guzz.service.core.SlowUpdateService;
-import org.guzz.transaction.TransactionManager;
 import org.guzz.transaction.WriteTranSession;
 import org.guzz.util.StringUtil;
+import org.guzz.util.thread.BoundedMPSCQueue;
 import org.guzz.util.thread.DemonQueuedThread;
-import org.guzz.web.context.GuzzContextAware;
+import org.guzz.util.thread.StripedCounter;
 
 /**
  * 
  * 在写入前进行操作合并的update服务。
  * <p/>
- * 进行数据合并时，将创建Map保存临时对象，更新数据一般不会出现错误和丢失（无锁操作，不能确保不出任何差错）；但数据全部存放在内存，如果项目较多可能出现内存不足。
+ * 进行数据合并时，将创建Map保存临时对象，更新数据不会出现丢失或重复计算；但数据全部存放在内存，如果项目较多可能出现内存不足。
  * <p/>
  * 建议用在更新项目较少，但更新频率非常高的场景下。
  * <p/>
  * 实现方式：
  * <lo>
- * <li>获取到更新操作后，根据key从Map中读取以往的操作</li>
- * <li>如果操作存在，增加本次操作的count值；如果不存在，当前对象写入Map中。</li>
- * <li>后台进程获取更新Map，并创建新的Map供新的update操作使用，保证当前处理的Map不再更新。</li>
- * <li>后台进程遍历Map，并将操作写入临时数据库。</li>
+ * <li>更新操作按照(dbGroup, table, column, pk)组成的key，从当前周期(epoch)的ConcurrentHashMap中读取计数器，不存在时使用putIfAbsent创建。</li>
+ * <li>计数器为{@link StripedCounter}，多个CPU同时更新同一条记录时分散到不同的cell中，避免竞争。</li>
+ * <li>后台进程将当前周期替换为新的周期，并等待所有仍在操作旧周期的线程完成，之后旧周期不会再有任何改动。</li>
+ * <li>后台进程遍历旧周期的Map，并将操作写入临时数据库。写入失败的增量重新加入当前周期，下次重试。</li>
  * <li>后台进行休眠@param updateInterval 毫秒，重复执行。</li>
  * </lo>
+ * <p/>
+ * 配置journalDir后，每个周期对应一组本地日志({@link IncUpdateJournal.Generation})。更新操作在进入计数器的临界区之前，先将增量追加到当前周期的日志中；
+ * 周期的增量提交到临时数据库（或者写入失败重新加入新的周期并再次记录日志）后，删除该周期的日志。重启时先将上次未提交的日志写入临时数据库。
  * 
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class SuperSlowUpdateServiceImpl extends AbstractService implements GuzzContextAware, SlowUpdateService {
+public class SuperSlowUpdateServiceImpl extends AbstractSlowUpdateService {
 	private static transient final Log log = LogFactory.getLog(SuperSlowUpdateServiceImpl.class) ;
-		
-	private Map updateOperations = new HashMap(2048) ;
-		
-	private TransactionManager tm ;
 	
-	private ObjectMappingManager omm ;
+	private volatile Epoch currentEpoch = new Epoch() ;
+	
+	/**the retired epoch being written to the temp table. null if not flushing.*/
+	private volatile Epoch flushingEpoch ;
+	
+	private IncUpdateJournal journal ;
 		
 	protected UpdateToDBThread updateThread ;
 	
 	private int batchSize = 2048 ;
 	
+	/**jdbc batch size within a commit of batchSize, adjusted by the insert latency. null to use the dialect's default batch size.*/
+	private AdaptiveBatchSizePolicy batchSizePolicy ;
+	
 	/**后台更新频率，默认500毫秒。*/
 	private int updateInterval = 500 ;
 	
-	private Object insertLock = new Object() ;
+	/**milliseconds to wait for the counted updates to be written on shutdown.*/
+	private int shutdownTimeout = 5000 ;
 	
-	public void updateCount(String businessName, Object tableCondition, String propToUpdate, Serializable pkValue, int countToInc){
-		tableCondition = tableCondition == null ? Guzz.getTableCondition() : tableCondition ;
-		POJOBasedObjectMapping mapping = (POJOBasedObjectMapping) omm.getObjectMapping(businessName, tableCondition) ;
-		
-		if(mapping == null){
-			throw new ORMException("unknown business:[" + businessName + "]") ;
+	public void updateCount(String dbGroup, String tableName, String columnToUpdate, String pkColName, Serializable pkValue, int countToInc) {
+		if(!isAvailable()){
+			throw new GuzzException("superSlowUpdateService is not available. use the config server's [" + FAMOUSE_SERVICE.SLOW_UPDATE + "] to active this service.") ;
 		}
 		
-		String columnToUpdate = mapping.getColNameByPropNameForSQL(propToUpdate) ;
+		addDelta(new IncUpdateKey(dbGroup, tableName, columnToUpdate, pkColName, pkValue.toString()), countToInc) ;
+	}
+	
+	protected void addDelta(IncUpdateKey key, long delta){
+		int stripe = StripedCounter.stripeIndex() ;
 		
-		if(columnToUpdate == null){
-			throw new ORMException("unknown property:[" + propToUpdate + "], business name:[" + businessName + "]") ;
+		for(;;){
+			Epoch e = this.currentEpoch ;
+			
+			//journal it before counting it, outside the critical section. The generation of the epoch is released after the epoch is committed or put back.
+			IncUpdateJournal.JournalRecord record = journalDelta(e, key, delta) ;
+			
+			e.enter(stripe) ;
+			
+			try{
+				//the epoch is retired before we entered. try the new one.
+				if(e != this.currentEpoch){
+					//not counted in the old epoch. don't replay it twice after a crash.
+					if(record != null){
+						journal.markDone(record) ;
+					}
+					
+					continue ;
+				}
+				
+				e.getCounter(key).add(delta) ;
+				
+				return ;
+			}finally{
+				e.exit(stripe) ;
+			}
+		}
+	}
+	
+	/**
+	 * @return null if the journal is disabled or fails.
+	 */
+	protected IncUpdateJournal.JournalRecord journalDelta(Epoch e, IncUpdateKey key, long delta){
+		if(e.generation == null){
+			return null ;
+		}
+		
+		try{
+			return e.generation.append(key.dbGroup, key.tableName, key.columnToUpdate, key.pkColName, key.pkValue, delta) ;
+		}catch(Exception ex){
+			//released if the epoch is retired and flushed meanwhile. the delta goes to the new epoch then.
+			if(e == this.currentEpoch){
+				log.error("fail to journal the increment:" + key.tableName + ", pk:" + key.pkValue, ex) ;
+			}
+			
+			return null ;
 		}
+	}
+	
+	/**
+	 * Open the journal, and journal the updates from now on.
+	 */
+	protected void openJournal(IncUpdateJournal journal){
+		this.journal = journal ;
+		journal.open() ;
 		
-		updateCount(mapping.getDbGroup().getPhysicsGroupName(tableCondition), mapping.getTable().getTableName(tableCondition), columnToUpdate, mapping.getTable().getPKColumn().getColNameForSQL(), pkValue, countToInc) ;
+		this.currentEpoch = newEpoch() ;
 	}
 	
-	public void updateCount(Class domainClass, Object tableCondtion, String propToUpdate, Serializable pkValue, int countToInc){
-		updateCount(domainClass.getName(), tableCondtion, propToUpdate, pkValue, countToInc) ;
+	protected Epoch newEpoch(){
+		return new Epoch(journal == null ? null : journal.newGeneration()) ;
 	}
 	
-	public void updateCount(String dbGroup, String tableName, String columnToUpdate, String pkColName, Serializable pkValue, int countToInc) {
-		if(!isAvailable()){
-			throw new GuzzException("superSlowUpdateService is not available. use the config server's [" + FAMOUSE_SERVICE.SLOW_UPDATE + "] to active this service.") ;
+	/**
+	 * Retire the current epoch and wait until no thread is still updating it.
+	 * 
+	 * @return the retired epoch. Its counters won't change any more.
+	 */
+	protected Epoch retireEpoch(){
+		Epoch old = this.currentEpoch ;
+		
+		//keep the counts readable while they are written.
+		this.flushingEpoch = old ;
+		this.currentEpoch = newEpoch() ;
+		
+		//writers entered the old epoch before the switch finish in a few instructions.
+		while(old.isActive()){
+			Thread.yield() ;
 		}
 		
-		//key
-		StringBuffer sb = new StringBuffer(32) ;		
-		sb.append(pkValue)
-		  .append(columnToUpdate) 
-		  .append(tableName)
-		  .append(dbGroup) ;
-		
-		String key = sb.toString() ;
-		
-		IncUpdateBusiness ut = (IncUpdateBusiness) this.updateOperations.get(key) ;
-		if(ut != null){
-			ut.incCount(countToInc) ;
-		}else{
-			synchronized(insertLock){
-				//read again
-				ut = (IncUpdateBusiness) this.updateOperations.get(key) ;
-				
-				if(ut != null){//already created while waiting for the lock
-					//do nothing
-				}else{
-					ut = new IncUpdateBusiness(dbGroup) ;
-					
-					//put it into the map as soon as possible. 
-					this.updateOperations.put(key, ut) ;
-				}
-			}
-			
-			//release lock as soon as possible.
-			ut.setTableName(tableName) ;
-			ut.setPkColunName(pkColName) ;
-			
-			ut.setColumnToUpdate(columnToUpdate) ;
-			ut.setPkValue(pkValue.toString()) ;
-			
-			//use thread safe method to inc count. Other threads may have already changed the count.
-			ut.incCount(countToInc) ;
+		return old ;
+	}
+
+	protected long getPendingIncrement(IncUpdateKey key){
+		//read the flushing one first. It was the current one before the switch.
+		Epoch flushing = this.flushingEpoch ;
+		Epoch current = this.currentEpoch ;
+		
+		long inc = current.sum(key) ;
+		
+		if(flushing != null && flushing != current){
+			inc += flushing.sum(key) ;
 		}
 		
-		//just let it sleep. The delay is fine, a big batch is preferred.
-//		if(this.updateThread.isSleeping()){
-//			synchronized (updateThread) {
-//				try{
-//					this.updateThread.notify() ;
-//				}catch(Exception e){}
-//			}
-//		}
+		return inc ;
 	}
 
 	public boolean configure(ServiceConfig[] scs) {
@@ -166,6 +204,9 @@ public class SuperSlowUpdateServiceImpl extends AbstractService implements GuzzC
 		
 		this.batchSize = StringUtil.toInt(m_batchSize, this.batchSize) ;
 		this.updateInterval = StringUtil.toInt(m_updateInterval, this.updateInterval) ;
+		this.journal = IncUpdateJournal.configure(sc.getProps(), "superSlowUpdate") ;
+		this.batchSizePolicy = AdaptiveBatchSizePolicy.configure(sc.getProps(), this.batchSize) ;
+		this.shutdownTimeout = StringUtil.toInt((String) sc.getProps().get("shutdownTimeout"), this.shutdownTimeout) ;
 		
 		return true ;
 	}
@@ -173,6 +214,10 @@ public class SuperSlowUpdateServiceImpl extends AbstractService implements GuzzC
 	public void startup() {		
 		//启动更新线程
 		if(updateThread == null){
+			if(journal != null){
+				openJournal(journal) ;
+			}
+			
 			updateThread = new UpdateToDBThread() ;
 			updateThread.start() ;
 			
@@ -182,8 +227,16 @@ public class SuperSlowUpdateServiceImpl extends AbstractService implements GuzzC
 	
 	public void shutdown() {		
 		if(updateThread != null){
-			updateThread.shutdown() ;
+			UpdateToDBThread t = updateThread ;
+			
+			//stop accepting new updates, and flush the counted ones.
 			updateThread = null ;
+			t.shutdown(shutdownTimeout) ;
+		}
+		
+		if(journal != null){
+			//increments not flushed in time are already journaled, and replayed on the next startup.
+			journal.close() ;
 		}
 	}
 
@@ -191,102 +244,180 @@ public class SuperSlowUpdateServiceImpl extends AbstractService implements GuzzC
 		return this.tm != null && updateThread != null;
 	}
 	
+	/**
+	 * A generation of counters. Writers register themselves in a striped in-flight counter before touching the counters, 
+	 * so the flush thread knows when a retired epoch is stable.
+	 */
+	protected static class Epoch {
+		
+		private static final int PADDING = 8 ;
+		
+		/**journal of the updates counted in this epoch. null if the journal is disabled.*/
+		final IncUpdateJournal.Generation generation ;
+		
+		Epoch(IncUpdateJournal.Generation generation){
+			this.generation = generation ;
+		}
+		
+		Epoch(){
+			this(null) ;
+		}
+		
+		private final ConcurrentHashMap counters = new ConcurrentHashMap(2048, 0.75f, 64) ;
+		
+		private final AtomicLongArray inFlight = new AtomicLongArray(StripedCounter.getMaxStripes() * PADDING) ;
+		
+		void enter(int stripe){
+			inFlight.incrementAndGet(stripe * PADDING) ;
+		}
+		
+		void exit(int stripe){
+			inFlight.decrementAndGet(stripe * PADDING) ;
+		}
+		
+		boolean isActive(){
+			for(int i = StripedCounter.getMaxStripes() - 1 ; i >= 0 ; i--){
+				if(inFlight.get(i * PADDING) != 0){
+					return true ;
+				}
+			}
+			
+			return false ;
+		}
+		
+		StripedCounter getCounter(IncUpdateKey key){
+			StripedCounter c = (StripedCounter) counters.get(key) ;
+			
+			if(c == null){
+				c = new StripedCounter() ;
+				StripedCounter old = (StripedCounter) counters.putIfAbsent(key, c) ;
+				
+				if(old != null){
+					c = old ;
+				}
+			}
+			
+			return c ;
+		}
+		
+		long sum(IncUpdateKey key){
+			StripedCounter c = (StripedCounter) counters.get(key) ;
+			
+			return c == null ? 0 : c.sum() ;
+		}
+		
+		public Map getCounters(){
+			return counters ;
+		}
+		
+		public boolean isEmpty(){
+			return counters.isEmpty() ;
+		}
+	}
+	
 	class UpdateToDBThread extends DemonQueuedThread{
 		
 		public UpdateToDBThread(){
-			super("superSlowUpdateThread", 0) ;
+			super("superSlowUpdateThread", (BoundedMPSCQueue) null) ;
 		}
 		
 		protected boolean doWithTheQueue() throws Exception{
-			Map oldOperations = updateOperations ;
-			
-			if(oldOperations == null || oldOperations.isEmpty()){
-				return false ;
+			if(journal != null && journal.hasReplay()){
+				//increments left by the last run go to the temp table first.
+				journal.replay(tm, batchSize) ;
 			}
 			
-			//将操作Map挪出来，同时生成1个新的Map供update操作计算增量。
-			//在生成新的Map的时候，将旧Map中count != 0的记录（认为更新频繁记录）提前存放进去，避免在update操作发现没有此记录，从而多线程并发生成，相互覆盖，造成数据不准确。
-			HashMap newMap = new HashMap(2048) ;
-		
-			/*
-			 * 20091231 BUG注意：最初设计没有使用同步，寄希望于 “就算抛出异常，抛出异常后本方法等待interval毫秒后还会重新执行，不影响使用。因此没有必要浪费同步资源”。
-			 * 但在实际使用中发现：高并发下，的确可能出现ConcurrentModifyException，而一旦出现ConcurrentModifyException，就会重复的抛出此异常，并导致CPU资源全部耗尽；
-			 * CPU上升到150%以上，系统无法继续工作，造成宕机。具体原因不详，推测是JDK HashMap的bug。
-			 */
-			synchronized(insertLock){
-				Iterator it = oldOperations.entrySet().iterator() ;
-				
-				while(it.hasNext()){
-					Map.Entry e = (Entry) it.next() ; //
-					String key = (String) e.getKey() ;				
-					IncUpdateBusiness value = (IncUpdateBusiness) e.getValue() ;
-					
-					if(value.getCountToInc() != 0){
-						IncUpdateBusiness newValue = new IncUpdateBusiness() ;
-						newValue.setColumnToUpdate(value.getColumnToUpdate()) ;
-						newValue.setCountToInc(0) ;
-						newValue.setDbGroup(value.getDbGroup()) ;
-						newValue.setId(value.getId()) ;
-						newValue.setPkColunName(value.getPkColunName()) ;
-						newValue.setPkValue(value.getPkValue()) ;
-						newValue.setTableName(value.getTableName()) ;
-						
-						newMap.put(key, newValue) ;
-					}
-				}
+			if(currentEpoch.isEmpty()){
+				return false ;
 			}
 			
-			//使用新的Map
 			WriteTranSession tran = tm.openRWTran(false) ; //如果数据库连接打开失败，旧的数据保持不变，避免数据丢失。
-			updateOperations = newMap ;
 			
+			Epoch old = retireEpoch() ;
+			Iterator i = old.getCounters().entrySet().iterator() ;
 			
-			//旧的Map中的值，可能某些线程已经获取到，但由于CPU调度还没有执行incCount操作。执行其他代码等待一下所有旧记录不在变化。
-			Iterator i = oldOperations.values().iterator() ;			
+			//written to the batch but not committed yet.
+			List uncommitted = new LinkedList() ;
 			ObjectBatcher batcher = null ;
-			int addedCount = 0 ;
-			IncUpdateBusiness ut = null ;
 			
 			try{
 				while(i.hasNext()){
-					ut = (IncUpdateBusiness) i.next() ;
-					if(ut == null) continue ;
+					Map.Entry e = (Map.Entry) i.next() ;
+					long count = ((StripedCounter) e.getValue()).sum() ;
 					
-					//执行一次同步等待，使得没有来得及完成CPU指令周期的更新操作得以执行。
-					ut.incCount(0) ;
+					if(count == 0) continue ;
 					
-					if(ut.getCountToInc() == 0) continue ;
+					//the table column is an int.
+					int countToInc = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, count)) ;
+					IncUpdateKey key = (IncUpdateKey) e.getKey() ;
 					
 					if(batcher == null){
 						batcher = tran.createObjectBatcher() ;
+						if(batcher instanceof AdaptiveBatcher){
+							((AdaptiveBatcher) batcher).setBatchSizePolicy(batchSizePolicy) ;
+						}
 					}
 					
-					batcher.insert(ut) ;
-					addedCount++ ;
+					//track it before inserting. the entry is consumed, and a failed insert must find it to put it back.
+					uncommitted.add(new Object[]{key, new Long(countToInc)}) ;
 					
-					if(addedCount >= batchSize){
+					if(count != countToInc){
+						//overflowed. leave the rest to the next round.
+						addDelta(key, count - countToInc) ;
+					}
+					
+					batcher.insert(key.toBusiness(countToInc)) ;
+					
+					if(uncommitted.size() >= batchSize){
 						batcher.executeBatch() ;
 						tran.commit() ;
 						
-						addedCount = 0 ;
+						uncommitted.clear() ;
 					}
 				}
 				
-				if(addedCount > 0){
+				if(!uncommitted.isEmpty()){
 					batcher.executeBatch() ;
 					tran.commit() ;
+					
+					uncommitted.clear() ;
 				}
 			}catch(Exception e){
-				log.error(ut, e) ;
-				//成功1个是1个，不进行回滚。
+				log.error("fail to save slow updates. the uncommitted ones are kept for the next round.", e) ;
+				
+				try{
+					tran.rollback() ;
+				}catch(Exception e2){
+					log.error("rollback failed.", e2) ;
+				}
+				
+				//put back the deltas not committed, so no increment is lost.
+				for(Iterator j = uncommitted.iterator() ; j.hasNext() ; ){
+					Object[] item = (Object[]) j.next() ;
+					addDelta((IncUpdateKey) item[0], ((Long) item[1]).longValue()) ;
+				}
+				
+				while(i.hasNext()){
+					Map.Entry e2 = (Map.Entry) i.next() ;
+					long count = ((StripedCounter) e2.getValue()).sum() ;
+					
+					if(count != 0){
+						addDelta((IncUpdateKey) e2.getKey(), count) ;
+					}
+				}
 			}finally{
 				if(tran != null){
 					tran.close() ;
 				}
 			}
 			
-			oldOperations.clear() ;
-			oldOperations = null ;
+			//the uncommitted ones are moved back to the current epoch now. don't count them twice.
+			flushingEpoch = null ;
+			
+			//committed, or put back to the current epoch and journaled again there.
+			if(old.generation != null){
+				old.generation.release() ;
+			}
 			
 			//force sleep to reduce conflict.
 			return false ;
@@ -296,10 +427,13 @@ public class SuperSlowUpdateServiceImpl extends AbstractService implements GuzzC
 			return updateInterval ;
 		}
 		
-	}
-
-	public void setGuzzContext(GuzzContext guzzContext) {
-		this.tm = guzzContext.getTransactionManager() ;
-		this.omm = guzzContext.getObjectMappingManager() ;
+		protected boolean hasPendingWork() {
+			return !currentEpoch.isEmpty() ;
+		}
+		
+		protected int getPendingCount() {
+			return currentEpoch.getCounters().size() ;
+		}
+		
 	}
 }
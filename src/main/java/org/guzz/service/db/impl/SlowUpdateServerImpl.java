@@ -16,15 +16,27 @@
  */
 package org.guzz.service.db.impl;
 
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +46,7 @@ import org.guzz.connection.DBGroup;
 import org.guzz.exception.DataTypeException;
 import org.guzz.exception.GuzzException;
 import org.guzz.jdbc.JDBCTemplate;
+import org.guzz.jdbc.SQLBatcher;
 import org.guzz.orm.se.SearchExpression;
 import org.guzz.orm.sql.CompiledSQL;
 import org.guzz.orm.sql.SQLQueryCallBack;
@@ -50,7 +63,9 @@ import org.guzz.service.db.SlowUpdateServer;
 import org.guzz.transaction.ReadonlyTranSession;
 import org.guzz.transaction.TransactionManager;
 import org.guzz.transaction.WriteTranSession;
+import org.guzz.util.CloseUtil;
 import org.guzz.util.StringUtil;
+import org.guzz.util.thread.BoundedMPSCQueue;
 import org.guzz.util.thread.DemonQueuedThread;
 import org.guzz.web.context.GuzzContextAware;
 
@@ -77,11 +92,73 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 	/**Millseconds to wait for the next round of updates checking.*/
 	public static final String CONFIG_UPDATE_INTERVAL = "updateInterval" ;
 	
+	/**Max threads to flush updates of different physical database groups in parallel. Default: 4. Set to 1 to flush them one by one.*/
+	public static final String CONFIG_FLUSH_THREADS = "flushThreads" ;
+	
 	private int batchSize = 100 ;
 	
+	/**Adjust the pageSize, combinePageCount and updateInterval by the backlog. Default: true*/
+	public static final String CONFIG_ADAPTIVE = "adaptive" ;
+	
+	/**Upper bound of the adaptive pageSize. Default: 10 times of the pageSize.*/
+	public static final String CONFIG_MAX_PAGE_SIZE = "maxPageSize" ;
+	
+	/**Upper bound of the adaptive combinePageCount. Default: 8 times of the combinePageCount.*/
+	public static final String CONFIG_MAX_COMBINE_PAGE_COUNT = "maxCombinePageCount" ;
+	
+	/**Lower bound of the adaptive updateInterval in milliseconds. Default: 50*/
+	public static final String CONFIG_MIN_UPDATE_INTERVAL = "minUpdateInterval" ;
+	
+	/**
+	 * Min milliseconds between two counts of the temp table while the server is behind. Default: 60000. 
+	 * Between two counts, the backlog is estimated by subtracting the rows applied.
+	 */
+	public static final String CONFIG_BACKLOG_SAMPLE_INTERVAL = "backlogSampleInterval" ;
+	
 	private int pageSize = 100 ;
 	
 	private int combinePageCount = 1 ;
+	
+	private int updateInterval = 500 ;
+	
+	private boolean adaptive = true ;
+	
+	/**configured values. the adaptive ones never go below them.*/
+	private int basePageSize ;
+	
+	private int baseCombinePageCount ;
+	
+	private int baseUpdateInterval ;
+	
+	private int maxPageSize ;
+	
+	private int maxCombinePageCount ;
+	
+	private int minUpdateInterval = 50 ;
+	
+	private int backlogSampleInterval = 60000 ;
+	
+	//metrics of the last cycle
+	
+	private volatile long backlog ;
+	
+	/**when the server started to fall behind. 0 means all rows seen are applied.*/
+	private volatile long behindSince ;
+	
+	private volatile int lastRowsRead ;
+	
+	private volatile int lastRowsCombined ;
+	
+	private volatile long lastUpdateTime ;
+	
+	/**rows applied per millisecond, moving average.*/
+	private volatile double applyRate ;
+	
+	private final AtomicLong totalRowsApplied = new AtomicLong(0) ;
+	
+	private int flushThreads = 4 ;
+	
+	private ExecutorService flushExecutor ;
 		
 	protected UpdateToMasterDBThread updateThread ;
 	
@@ -89,9 +166,163 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 	
 	private LeaderService leaderService ;
 	
+	/**
+	 * Estimated by the backlog and the average rate of applying rows.
+	 */
 	public int getLatency() {
-		//FIXME: implemement this
-		return 0;
+		long m_backlog = this.backlog ;
+		double rate = this.applyRate ;
+		
+		if(m_backlog <= 0){
+			return 0 ;
+		}
+		
+		if(rate <= 0){
+			return Integer.MAX_VALUE ;
+		}
+		
+		return (int) Math.min(Integer.MAX_VALUE, m_backlog / rate + this.updateInterval) ;
+	}
+	
+	public long getBacklog() {
+		return backlog ;
+	}
+	
+	public long getOldestPendingAge() {
+		long since = this.behindSince ;
+		
+		return since == 0 ? 0 : System.currentTimeMillis() - since ;
+	}
+	
+	/**rows read from the temp table in the last cycle.*/
+	public int getLastRowsRead() {
+		return lastRowsRead ;
+	}
+	
+	/**rows read / updates executed in the last cycle. 1 means nothing combined.*/
+	public double getLastCombineRatio() {
+		int combined = this.lastRowsCombined ;
+		
+		return combined == 0 ? 1 : ((double) this.lastRowsRead) / combined ;
+	}
+	
+	/**milliseconds to update the master databases in the last cycle.*/
+	public long getLastUpdateTime() {
+		return lastUpdateTime ;
+	}
+	
+	public long getTotalRowsApplied() {
+		return totalRowsApplied.get() ;
+	}
+	
+	public int getPageSize() {
+		return pageSize ;
+	}
+	
+	public int getCombinePageCount() {
+		return combinePageCount ;
+	}
+	
+	public int getUpdateInterval() {
+		return updateInterval ;
+	}
+	
+	/**
+	 * Record the metrics of a finished cycle, and adjust the reading window for the next one.
+	 * 
+	 * @param rowsRead rows read from the temp table.
+	 * @param rowsCombined updates executed after combining.
+	 * @param cycleTime milliseconds of the whole cycle.
+	 * @param updateTime milliseconds to update the master databases.
+	 * @param backlog rows left in the temp table. -1 if unknown.
+	 * @param cycleStartTime time the rows were read.
+	 */
+	protected void recordCycle(int rowsRead, int rowsCombined, long cycleTime, long updateTime, long backlog, long cycleStartTime){
+		int window = this.pageSize * this.combinePageCount ;
+		
+		this.lastRowsRead = rowsRead ;
+		this.lastRowsCombined = rowsCombined ;
+		this.lastUpdateTime = updateTime ;
+		this.totalRowsApplied.addAndGet(rowsRead) ;
+		
+		//idle cycles tell nothing about the speed of applying rows.
+		if(rowsRead > 0){
+			double rate = ((double) rowsRead) / Math.max(1, cycleTime) ;
+			this.applyRate = this.applyRate <= 0 ? rate : this.applyRate * 0.8 + rate * 0.2 ;
+		}
+		
+		if(rowsRead < window){
+			//all rows seen are applied.
+			this.backlog = 0 ;
+			this.behindSince = 0 ;
+		}else{
+			this.backlog = backlog < 0 ? window : backlog ;
+			
+			if(this.behindSince == 0){
+				this.behindSince = cycleStartTime ;
+			}
+		}
+		
+		if(log.isDebugEnabled()){
+			log.debug("slow update cycle. read:[" + rowsRead + "], combined to:[" + rowsCombined + "], update time:[" + updateTime + "]ms, backlog:[" + this.backlog + "], latency:[" + getLatency() + "]ms.") ;
+		}
+		
+		if(adaptive){
+			adjustWindow(this.backlog, window) ;
+		}
+	}
+	
+	/**
+	 * Read more and sleep less when the backlog grows, and go back to the configured values when it is consumed.
+	 */
+	protected void adjustWindow(long backlog, int window){
+		if(backlog > window * 2L){
+			if(combinePageCount < maxCombinePageCount){
+				combinePageCount = Math.min(maxCombinePageCount, combinePageCount * 2) ;
+			}else if(pageSize < maxPageSize){
+				pageSize = Math.min(maxPageSize, pageSize * 2) ;
+			}
+			
+			updateInterval = Math.max(minUpdateInterval, updateInterval / 2) ;
+		}else if(backlog < window / 4){
+			if(pageSize > basePageSize){
+				pageSize = Math.max(basePageSize, pageSize / 2) ;
+			}else if(combinePageCount > baseCombinePageCount){
+				combinePageCount = Math.max(baseCombinePageCount, combinePageCount / 2) ;
+			}
+			
+			updateInterval = Math.min(baseUpdateInterval, updateInterval * 2) ;
+		}
+		
+		if(updateThread != null){
+			updateThread.setMillSecondsToSleep(updateInterval) ;
+		}
+	}
+
+	/**
+	 * Read the pageSize, combinePageCount, updateInterval and the bounds to adjust them.
+	 */
+	protected void configureWindow(Map props){
+		String m_pageSize = (String) props.remove(CONFIG_PAGE_SIZE) ;
+		String m_combinePageCount = (String) props.remove(CONFIG_COMBINE_PAGE_COUNT) ;
+		String m_updateInterval = (String) props.remove(CONFIG_UPDATE_INTERVAL) ;
+		
+		this.pageSize = StringUtil.toInt(m_pageSize, this.pageSize) ;
+		this.combinePageCount = StringUtil.toInt(m_combinePageCount, this.combinePageCount) ;
+		
+		int m_interval = StringUtil.toInt(m_updateInterval, -1) ;
+		if(m_interval > 10){
+			this.updateInterval = m_interval ;
+		}
+		
+		this.adaptive = !"false".equalsIgnoreCase((String) props.remove(CONFIG_ADAPTIVE)) ;
+		this.basePageSize = this.pageSize ;
+		this.baseCombinePageCount = this.combinePageCount ;
+		this.baseUpdateInterval = this.updateInterval ;
+		this.maxPageSize = Math.max(this.pageSize, StringUtil.toInt((String) props.remove(CONFIG_MAX_PAGE_SIZE), this.pageSize * 10)) ;
+		this.maxCombinePageCount = Math.max(this.combinePageCount, StringUtil.toInt((String) props.remove(CONFIG_MAX_COMBINE_PAGE_COUNT), this.combinePageCount * 8)) ;
+		this.minUpdateInterval = Math.min(this.updateInterval, StringUtil.toInt((String) props.remove(CONFIG_MIN_UPDATE_INTERVAL), this.minUpdateInterval)) ;
+		this.backlogSampleInterval = StringUtil.toInt((String) props.remove(CONFIG_BACKLOG_SAMPLE_INTERVAL), this.backlogSampleInterval) ;
 	}
 
 	public boolean configure(ServiceConfig[] scs) {			
@@ -104,25 +335,37 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 		ServiceConfig sc = scs[0] ;
 		
 		String m_batchSize = (String) sc.getProps().remove(CONFIG_BATCH_SIZE) ;
-		String m_pageSize = (String) sc.getProps().remove(CONFIG_PAGE_SIZE) ;
-		String m_combinePageCount = (String) sc.getProps().remove(CONFIG_COMBINE_PAGE_COUNT) ;
-		String m_updateInterval = (String) sc.getProps().remove(CONFIG_UPDATE_INTERVAL) ;
+		String m_flushThreads = (String) sc.getProps().remove(CONFIG_FLUSH_THREADS) ;
 		
 		this.batchSize = StringUtil.toInt(m_batchSize, this.batchSize) ;
-		this.pageSize = StringUtil.toInt(m_pageSize, this.pageSize) ;
-		this.combinePageCount = StringUtil.toInt(m_combinePageCount, this.combinePageCount) ;
+		this.flushThreads = StringUtil.toInt(m_flushThreads, this.flushThreads) ;
+		
+		if(this.batchSize < 1){
+			this.batchSize = 1 ;
+		}
 		
-		int updateInterval = StringUtil.toInt(m_updateInterval, -1) ;
+		if(this.flushThreads > 1 && this.flushExecutor == null){
+			this.flushExecutor = Executors.newFixedThreadPool(this.flushThreads, new ThreadFactory(){
+				private int index ;
+				
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "slowUpdateServerFlushThread-" + (++index)) ;
+					t.setDaemon(true) ;
+					
+					return t ;
+				}
+			}) ;
+		}
+		
+		configureWindow(sc.getProps()) ;
 		
 		//启动更新线程
 		if(updateThread == null){
-			updateThread = new UpdateToMasterDBThread(10) ;
+			updateThread = new UpdateToMasterDBThread() ;
 			updateThread.start() ;
 		}
 		
-		if(updateInterval > 10){
-			updateThread.setMillSecondsToSleep(updateInterval) ;
-		}
+		updateThread.setMillSecondsToSleep(this.updateInterval) ;
 		
 		return true ;
 	}
@@ -144,6 +387,11 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 			updateThread.shutdown() ;
 			updateThread = null ;
 		}
+		
+		if(flushExecutor != null){
+			flushExecutor.shutdown() ;
+			flushExecutor = null ;
+		}
 	}
 
 	public void setUpdateExceptionHandlerService(UpdateExceptionHandlerService updateExceptionHandlerService) {
@@ -154,11 +402,38 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 		
 		protected CompiledSQL deleteTempSQL ;
 		
-		public UpdateToMasterDBThread(int queueSize){
-			super("slowUpdateServerThread", queueSize) ;
+		protected CompiledSQL deleteTempByIdSQL ;
+		
+		protected CompiledSQL countTempSQL ;
+		
+		/**updates left after the last combining.*/
+		protected int lastCombinedSize ;
+		
+		/**dbGroup -> List of the ids(Long) of the temp rows read by the last combining.*/
+		protected Map lastCombinedIds ;
+		
+		/**the physical dbGroup holding the temp table.*/
+		protected String tempDBGroup ;
+		
+		/**rows counted in the temp table by the last sample, and the rows applied since then.*/
+		protected long sampledBacklog ;
+		
+		protected long rowsAppliedSinceSample ;
+		
+		protected long lastBacklogSampleTime ;
+		
+		public UpdateToMasterDBThread(){
+			super("slowUpdateServerThread", (BoundedMPSCQueue) null) ;
 			
 			deleteTempSQL = tm.getCompiledSQLBuilder().buildCompiledSQL(IncUpdateBusiness.class, "delete from @@" + IncUpdateBusiness.class.getName() + " where @id <= :id") ;
 			deleteTempSQL.addParamPropMapping("id", "id") ;
+			
+			deleteTempByIdSQL = tm.getCompiledSQLBuilder().buildCompiledSQL(IncUpdateBusiness.class, "delete from @@" + IncUpdateBusiness.class.getName() + " where @id = :id") ;
+			deleteTempByIdSQL.addParamPropMapping("id", "id") ;
+			
+			tempDBGroup = guzzContext.getObjectMappingManager().getObjectMapping(IncUpdateBusiness.class.getName(), null).getDbGroup().getPhysicsDBGroup(null).getGroupName() ;
+			
+			countTempSQL = tm.getCompiledSQLBuilder().buildCompiledSQL(IncUpdateBusiness.class, "select count(*) from @@" + IncUpdateBusiness.class.getName()) ;
 		}
 		
 		protected boolean doWithTheQueue() throws SQLException{
@@ -175,75 +450,89 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 			
 			ReadonlyTranSession readSession = null ;
 			WriteTranSession writeSession = null ;
+			List groupFlushes = new LinkedList() ;
 			
 			try{
 				LinkedList updates = new LinkedList() ;				
 				long maxIdNum = 0 ;
+				long startTime = System.currentTimeMillis() ;
+				int m_pageSize = pageSize ;
 				
 				readSession = tm.openDelayReadTran() ;
 				
 				//读取一次批量处理的数据
 				for(int i = 1 ; i <= combinePageCount ; i++){
-					SearchExpression se = SearchExpression.forClass(IncUpdateBusiness.class, i, pageSize) ;
+					SearchExpression se = SearchExpression.forClass(IncUpdateBusiness.class, i, m_pageSize) ;
 					se.setOrderBy("id asc") ;
 					List m_updates = readSession.list(se) ;
 					
 					updates.addAll(m_updates) ;
 					
-					if(m_updates.size() < pageSize){
+					if(m_updates.size() < m_pageSize){
 						break ;
 					}
 				}
 								
 				if(updates.isEmpty()){
+					recordCycle(0, 0, 0, 0, 0, startTime) ;
 					return false ;
 				}
 				
 				//记录下最大的id
-				maxIdNum = ((IncUpdateBusiness) updates.get(updates.size() - 1)).getId() ;
+				maxIdNum = ((IncUpdateBusiness) updates.getLast()).getId() ;
+				int rowsRead = updates.size() ;
+				boolean windowFull = rowsRead >= m_pageSize * combinePageCount ;
 				
-				//合并数据
-				List combinedUpdates = combineIncUpdateOperations(updates) ;
+				//合并数据，并按照物理数据库分组
+				Map dbGroupUpdates = combineIncUpdateOperations(updates) ;
+				int rowsCombined = this.lastCombinedSize ;
+				long updateStartTime = System.currentTimeMillis() ;
 				
-				//更新到主数据库
-				writeSession =tm.openRWTran(false) ;
-				for(int i = 0 ; i < combinedUpdates.size() ;i++){
-					IncUpdateBusiness obj = (IncUpdateBusiness) combinedUpdates.get(i) ;
-					
-					if(obj.getCountToInc() == 0) continue ;
-					
-					MasterIncTableModel tableModel = this.getTableModel(obj) ;
+				if(dbGroupUpdates.size() == 1){
+					//更新到主数据库，并从临时表删除数据，同一个事务提交。
+					writeSession =tm.openRWTran(false) ;
 					
-					//The stored dbGroup is physics
-					JDBCTemplate masterJDBC = writeSession.createJDBCTemplateByDbGroup(obj.getDbGroup(), null) ;
+					Map.Entry e = (Map.Entry) dbGroupUpdates.entrySet().iterator().next() ;
+					DBGroupFlush flush = new DBGroupFlush((String) e.getKey(), (List) e.getValue(), writeSession) ;
+					flush.call() ;
 					
-					try{
-						int affectedRows = masterJDBC.executeUpdate(
-								tableModel.sqlToUpdate, 
-								new SQLDataType[]{tableModel.incCountDataType, tableModel.pkDataType},
-								new Object[]{new Integer(obj.getCountToInc()), obj.getPkValue()}
-							) ;
+					writeSession.executeUpdate(deleteTempSQL.bind("id", maxIdNum)) ;
+					writeSession.commit() ;
+				}else{
+					//更新到主数据库。每个物理数据库使用独立的事务，并行执行；全部成功后逐个提交。
+					Iterator it = dbGroupUpdates.entrySet().iterator() ;
+					while(it.hasNext()){
+						Map.Entry e = (Map.Entry) it.next() ;
 						
-						if(affectedRows == 0 && updateExceptionHandlerService != null){
-							if(updateExceptionHandlerService.recordNotFoundInMainDB(writeSession, masterJDBC, obj)){
-								//go back to re-execute this again
-								i-- ;
-							}
-						}
-					}catch(Exception e){
-						if(updateExceptionHandlerService != null){
-							updateExceptionHandlerService.exceptionCaught(e) ;
-						}else{
-							throw e ;
-						}
+						groupFlushes.add(new DBGroupFlush((String) e.getKey(), (List) e.getValue(), null)) ;
 					}
+					
+					runGroupFlushes(groupFlushes) ;
+					
+					writeSession =tm.openRWTran(false) ;
+					commitGroupFlushes(groupFlushes, writeSession) ;
 				}
 				
-				//从临时表删除数据
-				writeSession.executeUpdate(deleteTempSQL.bind("id", maxIdNum)) ;
+				long endTime = System.currentTimeMillis() ;
+				long m_backlog = windowFull ? estimateBacklog(writeSession, rowsRead, endTime) : -1 ;
+				
+				recordCycle(rowsRead, rowsCombined, endTime - startTime, endTime - updateStartTime, m_backlog, startTime) ;
 				
-				writeSession.commit() ;
+				//pause the updateInterval adjusted by the backlog. it's short while the server is behind.
+				return false ;
 			}catch(Exception e){
+				for(int i = 0 ; i < groupFlushes.size() ; i++){
+					DBGroupFlush flush = (DBGroupFlush) groupFlushes.get(i) ;
+					
+					if(flush.session != null){
+						try{
+							flush.session.rollback() ;
+						}catch(Exception e2){
+							log.error("fail to rollback the updates of dbGroup:" + flush.dbGroup, e2) ;
+						}
+					}
+				}
+				
 				if(writeSession != null){
 					writeSession.rollback() ;
 				}
@@ -254,6 +543,14 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 				
 				throw new GuzzException(e) ;
 			}finally{
+				for(int i = 0 ; i < groupFlushes.size() ; i++){
+					DBGroupFlush flush = (DBGroupFlush) groupFlushes.get(i) ;
+					
+					if(flush.session != null){
+						flush.session.close() ;
+					}
+				}
+				
 				if(writeSession != null){
 					writeSession.close() ;
 				}
@@ -262,16 +559,112 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 					readSession.close() ;
 				}
 			}
+		}
+		
+		/**
+		 * Rows left in the temp table while we are behind. The table is counted(a full scan on the master) no more than once every 
+		 * backlogSampleInterval milliseconds, and the rows applied are subtracted from the last count in between.
+		 * 
+		 * @return -1 if unknown.
+		 */
+		protected long estimateBacklog(WriteTranSession session, int rowsApplied, long now){
+			if(now - lastBacklogSampleTime >= backlogSampleInterval){
+				lastBacklogSampleTime = now ;
+				
+				try{
+					Object count = session.findCell00(countTempSQL.bind(new HashMap()), "long") ;
+					sampledBacklog = count == null ? 0 : ((Number) count).longValue() ;
+					rowsAppliedSinceSample = 0 ;
+					
+					return sampledBacklog ;
+				}catch(Exception e){
+					log.warn("fail to count the slow update backlog.", e) ;
+					sampledBacklog = 0 ;
+					
+					return -1 ;
+				}
+			}
+			
+			rowsAppliedSinceSample += rowsApplied ;
+			long left = sampledBacklog - rowsAppliedSinceSample ;
+			
+			//new rows are not counted. we are still behind.
+			return left > 0 ? left : -1 ;
+		}
+		
+		/**
+		 * Commit the groups one by one, and delete the temp rows of a group only after the group is committed.
+		 * <p/>
+		 * The rows of the group holding the temp table are deleted in its own transaction. The rows of the other groups are deleted in the tempSession
+		 * right after their commit, so a failed group doesn't bring back the rows of the groups committed before it. 
+		 * Only a crash between a group's commit and the delete of its rows lets them be applied again.
+		 */
+		protected void commitGroupFlushes(List groupFlushes, WriteTranSession tempSession){
+			for(int i = 0 ; i < groupFlushes.size() ; i++){
+				DBGroupFlush flush = (DBGroupFlush) groupFlushes.get(i) ;
+				List ids = (List) lastCombinedIds.get(flush.dbGroup) ;
+				
+				if(flush.dbGroup.equals(tempDBGroup)){
+					deleteTempRows(flush.session, ids) ;
+					flush.session.commit() ;
+				}else{
+					flush.session.commit() ;
+					
+					deleteTempRows(tempSession, ids) ;
+					tempSession.commit() ;
+				}
+			}
+		}
+		
+		protected void deleteTempRows(WriteTranSession session, List ids){
+			SQLBatcher batcher = session.createCompiledSQLBatcher(deleteTempByIdSQL) ;
+			
+			for(int i = 0 ; i < ids.size() ; i++){
+				batcher.addNewBatchParams("id", ids.get(i)) ;
+			}
+			
+			batcher.executeBatch() ;
+		}
+		
+		/**
+		 * Run the updates of each physical database group. Groups are flushed in parallel if more than one exist.
+		 * 
+		 * @throws Exception the first exception raised by any group.
+		 */
+		protected void runGroupFlushes(List groupFlushes) throws Exception{
+			if(groupFlushes.size() == 1 || flushExecutor == null){
+				for(int i = 0 ; i < groupFlushes.size() ; i++){
+					((DBGroupFlush) groupFlushes.get(i)).call() ;
+				}
+				
+				return ;
+			}
 			
-			return true ;
+			List futures = flushExecutor.invokeAll(groupFlushes) ;
+			
+			for(int i = 0 ; i < futures.size() ; i++){
+				try{
+					((Future) futures.get(i)).get() ;
+				}catch(ExecutionException e){
+					Throwable t = e.getCause() ;
+					
+					if(t instanceof Exception){
+						throw (Exception) t ;
+					}
+					
+					throw new GuzzException(t) ;
+				}
+			}
 		}
 		
-		/**合并对同一表同一字段的更新操作*/
-		protected List combineIncUpdateOperations(List updates){
+		/**合并对同一表同一字段的更新操作，并按照(dbGroup, table, column)分组。返回 dbGroup -> List of {@link UpdateGroup}*/
+		protected Map combineIncUpdateOperations(List updates){
 			int orgSize = updates.size() ;
+			int combinedSize = 0 ;
 			
-			LinkedList combinedUpdates = new LinkedList() ;
-			HashMap ups = new HashMap() ;
+			//dbGroup -> (table@column -> UpdateGroup)
+			HashMap groups = new HashMap() ;
+			HashMap ids = new HashMap() ;
 			
 			Iterator i = updates.iterator() ;
 			
@@ -279,22 +672,206 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 				IncUpdateBusiness obj = (IncUpdateBusiness) i.next() ;
 				i.remove() ;
 				
-				String key = obj.getTableName() + "@ " + obj.getColumnToUpdate() + "@ " + obj.getPkValue() ;
+				Map dbGroupUpdates = (Map) groups.get(obj.getDbGroup()) ;
+				if(dbGroupUpdates == null){
+					dbGroupUpdates = new HashMap() ;
+					groups.put(obj.getDbGroup(), dbGroupUpdates) ;
+					ids.put(obj.getDbGroup(), new ArrayList()) ;
+				}
+				
+				((List) ids.get(obj.getDbGroup())).add(new Long(obj.getId())) ;
+				
+				String tableColumn = obj.getTableName() + "@ " + obj.getColumnToUpdate() ;
+				UpdateGroup group = (UpdateGroup) dbGroupUpdates.get(tableColumn) ;
+				if(group == null){
+					group = new UpdateGroup(getTableModel(obj)) ;
+					dbGroupUpdates.put(tableColumn, group) ;
+				}
 				
-				IncUpdateBusiness oldObj = (IncUpdateBusiness) ups.get(key) ;
+				IncUpdateBusiness oldObj = (IncUpdateBusiness) group.updates.get(obj.getPkValue()) ;
 				if(oldObj == null){
-					ups.put(key, obj) ;
-					combinedUpdates.addLast(obj) ;
+					group.updates.put(obj.getPkValue(), obj) ;
+					combinedSize++ ;
 				}else{
 					oldObj.setCountToInc(oldObj.getCountToInc() + obj.getCountToInc()) ;
 				}	
 			}
 			
+			HashMap result = new HashMap() ;
+			Iterator it = groups.entrySet().iterator() ;
+			while(it.hasNext()){
+				Map.Entry e = (Map.Entry) it.next() ;
+				
+				result.put(e.getKey(), new ArrayList(((Map) e.getValue()).values())) ;
+			}
+			
+			this.lastCombinedSize = combinedSize ;
+			this.lastCombinedIds = ids ;
+			
 			if(log.isDebugEnabled()){
-				log.debug("combine inc updates. compress from [" + orgSize + "] sqls to [" + combinedUpdates.size() + "] sqls.") ;
+				log.debug("combine inc updates. compress from [" + orgSize + "] sqls to [" + combinedSize + "] sqls in [" + result.size() + "] db groups.") ;
 			}
 			
-			return combinedUpdates ;
+			return result ;
+		}
+		
+		/**
+		 * Apply the updates of one physical database group in batches. The transaction is left open for the caller to commit.
+		 */
+		class DBGroupFlush implements Callable{
+			
+			final String dbGroup ;
+			
+			final List updateGroups ;
+			
+			WriteTranSession session ;
+			
+			/**
+			 * @param session the session to use. null to open a new one, closed by the caller.
+			 */
+			public DBGroupFlush(String dbGroup, List updateGroups, WriteTranSession session){
+				this.dbGroup = dbGroup ;
+				this.updateGroups = updateGroups ;
+				this.session = session ;
+			}
+
+			public Object call() throws Exception {
+				if(session == null){
+					session = tm.openRWTran(false) ;
+				}
+				
+				//The stored dbGroup is physics
+				JDBCTemplate masterJDBC = session.createJDBCTemplateByDbGroup(dbGroup, null) ;
+				
+				for(int i = 0 ; i < updateGroups.size() ; i++){
+					UpdateGroup group = (UpdateGroup) updateGroups.get(i) ;
+					
+					executeUpdateGroup(session, masterJDBC, group) ;
+				}
+				
+				return null ;
+			}
+		}
+		
+		protected void executeUpdateGroup(WriteTranSession writeSession, JDBCTemplate masterJDBC, UpdateGroup group) throws Exception{
+			MasterIncTableModel tableModel = group.tableModel ;
+			PreparedStatement pstm = masterJDBC.getConnection().prepareStatement(tableModel.sqlToUpdate) ;
+			
+			try{
+				IncUpdateBusiness[] batch = new IncUpdateBusiness[batchSize] ;
+				int countInBatch = 0 ;
+				
+				Iterator i = group.updates.values().iterator() ;
+				while(i.hasNext()){
+					IncUpdateBusiness obj = (IncUpdateBusiness) i.next() ;
+					
+					if(obj.getCountToInc() == 0) continue ;
+					
+					tableModel.incCountDataType.setSQLValue(pstm, 1, new Integer(obj.getCountToInc())) ;
+					tableModel.pkDataType.setSQLValue(pstm, 2, obj.getPkValue()) ;
+					pstm.addBatch() ;
+					
+					batch[countInBatch++] = obj ;
+					
+					if(countInBatch == batchSize){
+						executeBatch(writeSession, masterJDBC, tableModel, pstm, batch, countInBatch) ;
+						countInBatch = 0 ;
+					}
+				}
+				
+				if(countInBatch > 0){
+					executeBatch(writeSession, masterJDBC, tableModel, pstm, batch, countInBatch) ;
+				}
+			}finally{
+				CloseUtil.close(pstm) ;
+			}
+		}
+		
+		protected void executeBatch(WriteTranSession writeSession, JDBCTemplate masterJDBC, MasterIncTableModel tableModel, PreparedStatement pstm, IncUpdateBusiness[] batch, int countInBatch) throws Exception{
+			int[] affectedRows ;
+			
+			try{
+				affectedRows = pstm.executeBatch() ;
+			}catch(BatchUpdateException e){
+				pstm.clearBatch() ;
+				
+				if(updateExceptionHandlerService == null){
+					throw e ;
+				}
+				
+				//Drivers continuing after the broken row have applied the others. Drivers stopping at it report the rows executed before.
+				//Only retry the failed rows and the ones never executed, or they would be counted twice.
+				int[] counts = e.getUpdateCounts() ;
+				if(counts == null){
+					counts = new int[0] ;
+				}
+				
+				for(int i = 0 ; i < countInBatch ; i++){
+					int rows = i < counts.length ? counts[i] : Statement.EXECUTE_FAILED ;
+					
+					if(rows == Statement.EXECUTE_FAILED){
+						executeSingleUpdate(writeSession, masterJDBC, tableModel, batch[i]) ;
+					}else{
+						checkBatchedUpdate(writeSession, masterJDBC, tableModel, batch[i], rows) ;
+					}
+				}
+				
+				return ;
+			}catch(SQLException e){
+				//not a batch failure. we cann't tell which rows are applied, let the caller rollback all of them.
+				pstm.clearBatch() ;
+				
+				throw e ;
+			}
+			
+			for(int i = 0 ; i < countInBatch ; i++){
+				int rows = i < affectedRows.length ? affectedRows[i] : Statement.SUCCESS_NO_INFO ;
+				
+				if(rows == Statement.EXECUTE_FAILED){
+					executeSingleUpdate(writeSession, masterJDBC, tableModel, batch[i]) ;
+				}else{
+					checkBatchedUpdate(writeSession, masterJDBC, tableModel, batch[i], rows) ;
+				}
+			}
+		}
+		
+		/**
+		 * Handle the update applied in a batch with the given affected rows.
+		 */
+		protected void checkBatchedUpdate(WriteTranSession writeSession, JDBCTemplate masterJDBC, MasterIncTableModel tableModel, IncUpdateBusiness obj, int rows) throws Exception{
+			if(rows == 0 && updateExceptionHandlerService != null){
+				if(updateExceptionHandlerService.recordNotFoundInMainDB(writeSession, masterJDBC, obj)){
+					//go back to re-execute this again
+					executeSingleUpdate(writeSession, masterJDBC, tableModel, obj) ;
+				}
+			}
+		}
+		
+		protected void executeSingleUpdate(WriteTranSession writeSession, JDBCTemplate masterJDBC, MasterIncTableModel tableModel, IncUpdateBusiness obj) throws Exception{
+			for(;;){
+				try{
+					int affectedRows = masterJDBC.executeUpdate(
+							tableModel.sqlToUpdate, 
+							new SQLDataType[]{tableModel.incCountDataType, tableModel.pkDataType},
+							new Object[]{new Integer(obj.getCountToInc()), obj.getPkValue()}
+						) ;
+					
+					if(affectedRows == 0 && updateExceptionHandlerService != null){
+						if(updateExceptionHandlerService.recordNotFoundInMainDB(writeSession, masterJDBC, obj)){
+							//go back to re-execute this again
+							continue ;
+						}
+					}
+				}catch(Exception e){
+					if(updateExceptionHandlerService != null){
+						updateExceptionHandlerService.exceptionCaught(e) ;
+					}else{
+						throw e ;
+					}
+				}
+				
+				return ;
+			}
 		}
 		
 		private Map tableCache = new HashMap() ;
@@ -358,6 +935,17 @@ public class SlowUpdateServerImpl extends AbstractService implements SlowUpdateS
 		}
 	}
 
+	static class UpdateGroup{
+		public final MasterIncTableModel tableModel ;
+		
+		/**pkValue -> combined IncUpdateBusiness*/
+		public final LinkedHashMap updates = new LinkedHashMap() ;
+		
+		public UpdateGroup(MasterIncTableModel tableModel){
+			this.tableModel = tableModel ;
+		}
+	}
+
 	static class MasterIncTableModel{
 		public SQLDataType pkDataType ;
 		
@@ -16,8 +16,20 @@
  */
 package org.guzz.service.log.impl;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.guzz.Guzz;
 import org.guzz.GuzzContext;
+import org.guzz.jdbc.AdaptiveBatchSizePolicy;
+import org.guzz.jdbc.AdaptiveBatcher;
+import org.guzz.jdbc.ObjectBatcher;
+import org.guzz.orm.ObjectMapping;
 import org.guzz.service.AbstractService;
 import org.guzz.service.ServiceConfig;
 import org.guzz.service.db.impl.InsertQueueServiceImpl;
@@ -25,13 +37,19 @@ import org.guzz.service.log.LogService;
 import org.guzz.transaction.TransactionManager;
 import org.guzz.transaction.WriteTranSession;
 import org.guzz.util.StringUtil;
+import org.guzz.util.thread.BoundedMPSCQueue;
 import org.guzz.util.thread.DemonQueuedThread;
 import org.guzz.web.context.GuzzContextAware;
 
 /**
  * 
  * 将日志对象写入日志数据库。{@link InsertQueueServiceImpl}只需要连接日志数据库主库，不需要从数据库，也不需要业务数据库任何资料。
- * 
+ * <p/>
+ * 配置partitions大于1时，启动多个写入线程，每个线程拥有独立的队列、commitSize和检查间隔。对象按照partitionBy分配到线程：
+ * <ul>
+ * <li>dbGroup: 按照对象写入的物理数据库分组分配（默认）。一个数据库变慢时，不影响写入其他数据库的对象。</li>
+ * <li>business: 按照对象的业务类名的hash值分配。</li>
+ * </ul>
  *
  * @author liukaixuan(liukaixuan@gmail.com)
  */
@@ -41,11 +59,37 @@ public class DBLogServiceImpl extends AbstractService implements LogService, Guz
 	
 	protected TransactionManager tm ;
 	
+	public static final String PARTITION_BY_DB_GROUP = "dbGroup" ;
+	
+	public static final String PARTITION_BY_BUSINESS = "business" ;
+	
+	/**the first partition.*/
 	protected DBLogThread updateThread ;
 	
+	protected DBLogThread[] partitionThreads ;
+	
+	private int partitions = 1 ;
+	
+	private String partitionBy = PARTITION_BY_DB_GROUP ;
+	
+	/**physics db group name -> Integer(partition index)*/
+	private final ConcurrentHashMap groupPartitions = new ConcurrentHashMap() ;
+	
+	private final AtomicInteger nextGroupPartition = new AtomicInteger(0) ;
+	
 	private int commitSize = 2048 ;
 	private int queueSize = 20480 ;
 	private int updateInterval ;
+	
+	/**dropNewest, block or callerRuns. see {@link DemonQueuedThread#setOverflowPolicy(String)}*/
+	private String overflowPolicy ;
+	private int overflowTimeout = 1000 ;
+	
+	/**milliseconds to wait for the queued objects to be written on shutdown.*/
+	private int shutdownTimeout = 5000 ;
+	
+	/**jdbc batch size adjusted by the insert latency. null to use the dialect's default batch size.*/
+	private AdaptiveBatchSizePolicy batchSizePolicy ;
 
 	public boolean configure(ServiceConfig[] scs) {
 		if(scs != null && scs.length > 0){
@@ -58,9 +102,21 @@ public class DBLogServiceImpl extends AbstractService implements LogService, Guz
 			this.commitSize = StringUtil.toInt(m_commitSize, this.commitSize) ;
 			this.queueSize = StringUtil.toInt(m_queueSize, this.queueSize) ;
 			this.updateInterval = StringUtil.toInt(m_checkInterval, -1) ;
+			this.overflowPolicy = (String) sc.getProps().get("overflowPolicy") ;
+			this.overflowTimeout = StringUtil.toInt((String) sc.getProps().get("overflowTimeout"), this.overflowTimeout) ;
+			this.shutdownTimeout = StringUtil.toInt((String) sc.getProps().get("shutdownTimeout"), this.shutdownTimeout) ;
+			this.partitions = Math.max(1, StringUtil.toInt((String) sc.getProps().get("partitions"), this.partitions)) ;
+			this.batchSizePolicy = AdaptiveBatchSizePolicy.configure(sc.getProps(), this.commitSize) ;
 			
-			if(this.updateThread != null && this.updateInterval > 10){
-				this.updateThread.setMillSecondsToSleep(updateInterval) ;
+			String m_partitionBy = (String) sc.getProps().get("partitionBy") ;
+			if(StringUtil.notEmpty(m_partitionBy)){
+				this.partitionBy = m_partitionBy.trim() ;
+			}
+			
+			if(this.partitionThreads != null && this.updateInterval > 10){
+				for(int i = 0 ; i < this.partitionThreads.length ; i++){
+					this.partitionThreads[i].setMillSecondsToSleep(updateInterval) ;
+				}
 			}
 		}
 		
@@ -69,27 +125,94 @@ public class DBLogServiceImpl extends AbstractService implements LogService, Guz
 
 	public void startup(){				
 		//启动更新线程
-		if(updateThread == null){
-			updateThread = new DBLogThread(queueSize) ;
-			updateThread.start() ;
-		}
-		
-		if(updateInterval > 10){
-			updateThread.setMillSecondsToSleep(updateInterval) ;
+		if(partitionThreads == null){
+			DBLogThread[] threads = new DBLogThread[this.partitions] ;
+			
+			for(int i = 0 ; i < threads.length ; i++){
+				DBLogThread t = new DBLogThread(threads.length == 1 ? "dbLogClientThread" : "dbLogClientThread-" + i, queueSize) ;
+				t.setOverflowPolicy(this.overflowPolicy) ;
+				t.setOverflowTimeoutMillis(this.overflowTimeout) ;
+				//wait for a full batch, or the checkInterval.
+				t.setWakeUpThreshold(this.commitSize) ;
+				
+				if(updateInterval > 10){
+					t.setMillSecondsToSleep(updateInterval) ;
+				}
+				
+				t.start() ;
+				threads[i] = t ;
+			}
+			
+			partitionThreads = threads ;
+			updateThread = threads[0] ;
 		}
 	}
 
 	public void log(Object logObject) {
-		updateThread.addToQueue(new LogObject(logObject, Guzz.getTableCondition())) ;
+		log(logObject, Guzz.getTableCondition()) ;
 	}
 	
 	public void log(Object logObject, Object tableCondition) {
-		updateThread.addToQueue(new LogObject(logObject, tableCondition)) ;
+		choosePartition(logObject, tableCondition).addToQueue(new LogObject(logObject, tableCondition)) ;
+	}
+	
+	protected DBLogThread choosePartition(Object logObject, Object tableCondition){
+		DBLogThread[] threads = this.partitionThreads ;
+		
+		if(threads.length == 1){
+			return threads[0] ;
+		}
+		
+		if(PARTITION_BY_BUSINESS.equals(partitionBy)){
+			int h = logObject.getClass().getName().hashCode() ;
+			h ^= (h >>> 16) ;
+			
+			return threads[(h & 0x7fffffff) % threads.length] ;
+		}
+		
+		String group = getPhysicsGroupName(logObject, tableCondition) ;
+		if(group == null){
+			return threads[0] ;
+		}
+		
+		//assign the groups to partitions in turn, so a few groups never share a partition by hash collisions.
+		Integer index = (Integer) groupPartitions.get(group) ;
+		if(index == null){
+			index = new Integer(nextGroupPartition.getAndIncrement() % threads.length) ;
+			Integer old = (Integer) groupPartitions.putIfAbsent(group, index) ;
+			
+			if(old != null){
+				index = old ;
+			}
+		}
+		
+		return threads[index.intValue()] ;
+	}
+	
+	/**
+	 * @return the name of the physical database group the object goes to, or null if the object is unknown.
+	 */
+	protected String getPhysicsGroupName(Object logObject, Object tableCondition){
+		if(guzzContext == null) return null ;
+		
+		ObjectMapping mapping = guzzContext.getObjectMappingManager().getObjectMapping(logObject.getClass().getName(), tableCondition) ;
+		if(mapping == null) return null ;
+		
+		return mapping.getDbGroup().getPhysicsGroupName(tableCondition) ;
 	}
 
 	public void shutdown() {
-		if(updateThread != null){
-			updateThread.shutdown() ;
+		if(partitionThreads != null){
+			//stop accepting new objects, and let all partitions drain at the same time.
+			for(int i = 0 ; i < partitionThreads.length ; i++){
+				partitionThreads[i].startShutdown(shutdownTimeout) ;
+			}
+			
+			for(int i = 0 ; i < partitionThreads.length ; i++){
+				partitionThreads[i].awaitShutdown() ;
+			}
+			
+			partitionThreads = null ;
 			updateThread = null ;
 		}
 	}
@@ -106,60 +229,135 @@ public class DBLogServiceImpl extends AbstractService implements LogService, Guz
 		public Object tableCondition ;
 	}
 	
+	/**
+	 * Objects of the same domain class and tableCondition go to the same table, and are inserted in one batch.
+	 */
+	static class LogGroupKey{
+		
+		public final Class domainClass ;
+		
+		public final Object tableCondition ;
+		
+		public LogGroupKey(Class domainClass, Object tableCondition){
+			this.domainClass = domainClass ;
+			this.tableCondition = tableCondition ;
+		}
+
+		public boolean equals(Object obj) {
+			if(!(obj instanceof LogGroupKey)) return false ;
+			
+			LogGroupKey k = (LogGroupKey) obj ;
+			
+			if(this.domainClass != k.domainClass) return false ;
+			
+			return this.tableCondition == null ? k.tableCondition == null : this.tableCondition.equals(k.tableCondition) ;
+		}
+
+		public int hashCode() {
+			return this.domainClass.hashCode() * 31 + (this.tableCondition == null ? 0 : this.tableCondition.hashCode()) ;
+		}
+	}
+	
 	class DBLogThread extends DemonQueuedThread {
 				
-		public DBLogThread(int maxQueueSize){
-			super("dbLogClientThread", maxQueueSize) ;
+		public DBLogThread(String threadName, int maxQueueSize){
+			super(threadName, maxQueueSize > 0 ? new BoundedMPSCQueue(maxQueueSize) : null) ;
 		}
 		
 		protected boolean doWithTheQueue() throws Exception{
-			WriteTranSession tran = null ;
-			boolean doSomething = false ;
+			//drain no more than commitSize objects a round, grouped by the target table.
+			LinkedHashMap groups = new LinkedHashMap() ;
+			int drained = 0 ;
+			LogObject lo = null ;
+			
+			while(drained < commitSize && (lo = (LogObject) pollQueue()) != null){
+				LogGroupKey key = new LogGroupKey(lo.logObject.getClass(), lo.tableCondition) ;
+				List objects = (List) groups.get(key) ;
+				
+				if(objects == null){
+					objects = new LinkedList() ;
+					groups.put(key, objects) ;
+				}
+				
+				objects.add(lo.logObject) ;
+				drained++ ;
+			}
+			
+			if(drained == 0){
+				return false ;
+			}
+			
+			WriteTranSession tran = tm.openRWTran(false) ;
 			
 			try{
-				int addedCount = 0 ;
+				Iterator i = groups.entrySet().iterator() ;
 				
-				for(int i = 0 ; i < this.queues.length ; i++){
-					LogObject log = (LogObject) this.queues[i] ;
-					if(log == null) continue ;
-					this.queues[i] = null ;
-					
-					if(tran == null){
-						tran = tm.openRWTran(false) ;
-					}
+				while(i.hasNext()){
+					Entry e = (Entry) i.next() ;
 					
-					doSomething = true ;
-					
-					Guzz.setTableCondition(log.tableCondition) ;
-					tran.insert(log.logObject) ;
-					addedCount++ ;
-					
-					if(addedCount >= commitSize){
-						tran.commit() ;
-						
-						addedCount = 0 ;
-					}
+					insertGroup(tran, (LogGroupKey) e.getKey(), (List) e.getValue()) ;
+				}
+			}finally{
+				tran.close() ;
+			}
+			
+			return true ;
+		}
+		
+		/**
+		 * Insert and commit the objects of one group in a jdbc batch. Failures only affect the group itself.
+		 */
+		protected void insertGroup(WriteTranSession tran, LogGroupKey key, List objects){
+			Object oldTableCondition = Guzz.getTableCondition() ;
+			
+			try{
+				Guzz.setTableCondition(key.tableCondition) ;
+				
+				ObjectBatcher batcher = tran.createObjectBatcher() ;
+				if(batcher instanceof AdaptiveBatcher){
+					((AdaptiveBatcher) batcher).setBatchSizePolicy(batchSizePolicy) ;
 				}
 				
-				if(addedCount > 0){
-					tran.commit() ;
+				if(key.tableCondition != null){
+					batcher.setTableCondition(key.tableCondition) ;
 				}
+				
+				Iterator i = objects.iterator() ;
+				while(i.hasNext()){
+					batcher.insert(i.next()) ;
+				}
+				
+				batcher.executeBatch() ;
+				tran.commit() ;
 			}catch(Exception e){
-				if(tran != null){
+				try{
 					tran.rollback() ;
+				}catch(Exception e2){
+					log.error("failed to rollback the insertion of [" + key.domainClass.getName() + "].", e2) ;
 				}
-				throw e ;
+				
+				log.error("failed to insert " + objects.size() + " objects of [" + key.domainClass.getName() + "], tableCondition:[" + key.tableCondition + "]. The group is dropped.", e) ;
 			}finally{
-				if(tran != null){
-					tran.close() ;
-				}
+				Guzz.setTableCondition(oldTableCondition) ;
+			}
+		}
+		
+		protected boolean processInCaller(Object obj) throws Exception {
+			LogObject logObject = (LogObject) obj ;
+			WriteTranSession tran = tm.openRWTran(true) ;
+			
+			try{
+				tran.insert(logObject.logObject, logObject.tableCondition) ;
+			}finally{
+				tran.close() ;
 			}
 			
-			return doSomething ;
+			return true ;
 		}
 	}
 
 	public void setGuzzContext(GuzzContext guzzContext) {
+		this.guzzContext = guzzContext ;
 		this.tm = guzzContext.getTransactionManager() ;
 	}
 
@@ -25,6 +25,14 @@ import java.sql.Statement;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +42,7 @@ import org.guzz.connection.DBGroup;
 import org.guzz.connection.DBGroupManager;
 import org.guzz.connection.PhysicsDBGroup;
 import org.guzz.dao.PageFlip;
+import org.guzz.dialect.AbstractDialect;
 import org.guzz.dialect.Dialect;
 import org.guzz.exception.DaoException;
 import org.guzz.exception.GuzzException;
@@ -44,16 +53,17 @@ import org.guzz.jdbc.JDBCTemplateImpl;
 import org.guzz.orm.ObjectMapping;
 import org.guzz.orm.mapping.ObjectMappingManager;
 import org.guzz.orm.mapping.POJOBasedObjectMapping;
+import org.guzz.orm.mapping.RowLoadPlan;
 import org.guzz.orm.mapping.RowDataLoader;
 import org.guzz.orm.rdms.Table;
 import org.guzz.orm.se.SearchExpression;
-import org.guzz.orm.se.SearchParams;
 import org.guzz.orm.sql.BindedCompiledSQL;
 import org.guzz.orm.sql.CompiledSQL;
 import org.guzz.orm.sql.CompiledSQLBuilder;
 import org.guzz.orm.sql.CompiledSQLManager;
-import org.guzz.orm.sql.MarkedSQL;
 import org.guzz.orm.sql.NormalCompiledSQL;
+import org.guzz.orm.sql.ResultCursor;
+import org.guzz.orm.sql.RowCallback;
 import org.guzz.orm.type.SQLDataType;
 import org.guzz.pojo.GuzzProxy;
 import org.guzz.service.core.DebugService;
@@ -85,9 +95,33 @@ public class AbstractTranSessionImpl {
 	protected final CompiledSQLBuilder compiledSQLBuilder ;
 	
 	protected final ConnectionsGroup connectionsGroup ;	
+	
+	private static final ResultCursor EMPTY_CURSOR = new ResultCursor(){
+		public boolean hasNext() {
+			return false;
+		}
+		
+		public Object next() {
+			throw new NoSuchElementException() ;
+		}
+		
+		public void remove() {
+			throw new UnsupportedOperationException("ResultCursor is readonly.") ;
+		}
+		
+		public int getRowIndex() {
+			return 0;
+		}
+		
+		public void close() {
+		}
+	} ;
 
 	private int queryTimeoutInSeconds ;
 	
+	/**executor to run the count query of {@link #page(SearchExpression)} concurrently. null to disable it.*/
+	private ExecutorService pageCountExecutor ;
+	
 	public AbstractTranSessionImpl(ObjectMappingManager omm, CompiledSQLManager compiledSQLManager, ConnectionFetcher connectionFetcher, DebugService debugService, DBGroupManager dbGroupManager, boolean isReadonly) {
 		this.omm = omm ;
 		this.compiledSQLManager = compiledSQLManager ;
@@ -111,6 +145,7 @@ public class AbstractTranSessionImpl {
 		this.isReadonly = sessionImpl.isReadonly ;
 		this.compiledSQLBuilder = sessionImpl.compiledSQLBuilder ;
 		this.connectionsGroup = sessionImpl.connectionsGroup ;
+		this.pageCountExecutor = sessionImpl.pageCountExecutor ;
 	}
 	
 	public Class getRealDomainClass(Object domainObject){
@@ -125,8 +160,12 @@ public class AbstractTranSessionImpl {
 		this.connectionsGroup.close() ;
 	}
 	
+	/**
+	 * Get the connection of the group for the caller's own use. The connection is held by this session until {@link #close()}.
+	 */
 	public Connection getConnection(DBGroup group, Object tableCondition){
 		PhysicsDBGroup fdb = group.getPhysicsDBGroup(tableCondition) ;
+		this.connectionsGroup.connectionsHandedOut() ;
 		
 		return getConnection(fdb) ;
 	}
@@ -201,47 +240,33 @@ public class AbstractTranSessionImpl {
 		
 		//TODO: check if the defaultDialect supports prepared bind in limit clause, and put the limit to compiledSQL
 				
+		//the limit clause changes with the page, cache the row mapping plan by the sql without it.
+		String sqlForPlan = rawSQL ;
+		
 		//add limit clause.	
 		if(!(startPos == 1 && maxSize == Integer.MAX_VALUE)){
 			rawSQL = db.getDialect().getLimitedString(rawSQL, startPos - 1, maxSize) ;
 		}
 		
-		boolean measureTime = this.debugService.isMeasureTime() ;
-		long startTime = 0L ;
-		if(measureTime){
-			startTime = System.nanoTime() ;
-		}
-		
 		PreparedStatement pstm = null ;
 		ResultSet rs = null ;
+		this.connectionsGroup.statementStarted() ;
 		
 		try{
-			Connection conn = getConnection(db, bsql.getTableCondition()) ;
-			pstm = conn.prepareStatement(rawSQL) ;
+			Connection conn = getConnection(db.getPhysicsDBGroup(bsql.getTableCondition())) ;
+			pstm = this.connectionsGroup.prepareStatement(conn, rawSQL) ;
 			this.applyQueryTimeout(pstm) ;
 			
 			bsql.prepareNamedParams(db.getDialect(), pstm) ;
 			
-			rs = pstm.executeQuery() ;
-			
-			if(this.debugService.isLogSQL()){
-				long timeCost = 0 ;
-				if(measureTime){
-					timeCost = System.nanoTime() - startTime ;
-				}
-				
-				this.debugService.logSQL(bsql, rawSQL, timeCost) ;
-			}
+			rs = executeQuery(conn, pstm, bsql, rawSQL) ;
 			
 			//do ORM
 			LinkedList results = new LinkedList() ;
+			RowLoadPlan plan = RowLoadPlan.forQuery(m, loader, bsql.getResultClass(), sqlForPlan, rs) ;
 			
 			while(rs.next()){
-				if(loader == null){
-					results.addLast(m.rs2Object(rs, bsql.getResultClass())) ;
-				}else{
-					results.addLast(loader.rs2Object(m, rs)) ;
-				}
+				results.addLast(plan.rs2Object(rs)) ;
 			}
 			
 			return results ;
@@ -249,7 +274,8 @@ public class AbstractTranSessionImpl {
 			throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
 		}finally{
 			CloseUtil.close(rs) ;
-			CloseUtil.close(pstm) ;
+			this.connectionsGroup.releaseStatement(pstm) ;
+			this.connectionsGroup.statementFinished() ;
 		}
 	}
 	
@@ -259,18 +285,141 @@ public class AbstractTranSessionImpl {
 			return new LinkedList() ;
 		}
 		
+		return list(bindLoadRecordsSQL(se), se.getStartPos(), se.getPageSize()) ;
+	}
+	
+	/**
+	 * Build the query to load the records of the {@link SearchExpression}.
+	 */
+	protected BindedCompiledSQL bindLoadRecordsSQL(SearchExpression se){
 		ObjectMapping m = omm.getObjectMapping(se.getFrom(), se.getTableCondition()) ;
 		
 		if(m == null){
 			throw new ORMException("unknow object:" + se.getFrom()) ;
 		}
 		
-		SearchParams sp = new SearchParams() ;
-		MarkedSQL ms = se.toLoadRecordsMarkedSQL((POJOBasedObjectMapping) m, sp) ;
+		BindedCompiledSQL bsql = this.compiledSQLManager.bindSearchExpressionSQL(se, (POJOBasedObjectMapping) m, SearchExpression.SQL_LOAD_RECORDS) ;
+		
+		return se.prepareHits(bsql) ;
+	}
+	
+	public ResultCursor iterate(BindedCompiledSQL bsql){
+		return iterate(bsql, 1, Integer.MAX_VALUE) ;
+	}
+	
+	public ResultCursor iterate(SearchExpression se){
+		if(se.isEmptyQuery()){
+			//must resulted in no results.
+			return EMPTY_CURSOR ;
+		}
 		
-		CompiledSQL sql = this.compiledSQLBuilder.buildCompiledSQL(ms).setParamPropMapping(sp.getParamPropMapping()) ;
+		return iterate(bindLoadRecordsSQL(se), se.getStartPos(), se.getPageSize()) ;
+	}
+	
+	/**
+	 * Execute the query, and map the rows one at a time while iterating the returned cursor.
+	 * <p/>
+	 * The statement is created with the dialect's streaming fetch size, and is not shared with other queries.
+	 * Some drivers (eg: mysql) can't execute other statements on the same connection until the cursor is closed.
+	 * 
+	 * @param bsql
+	 * @param startPos the first is 1, the second is 2...
+	 * @param maxSize
+	 */
+	public ResultCursor iterate(BindedCompiledSQL bsql, int startPos, int maxSize){
+		ObjectMapping m = bsql.getCompiledSQLToRun().getMapping() ;
+		String rawSQL = bsql.getSQLToRun() ;
+		if(m == null){
+			throw new ORMException("ObjectMapping is null. sql is:" + rawSQL) ;
+		}
 		
-		return list(se.prepareHits(sql.bind(sp.getSearchParams())), se.getStartPos(), se.getPageSize()) ;
+		DBGroup db = m.getDbGroup() ;		
+		Dialect dialect = db.getDialect() ;
+
+		//强制锁机制
+		LockMode lock = bsql.getLockMode() ;
+		
+		if(lock == LockMode.UPGRADE){
+			rawSQL = dialect.getForUpdateString(rawSQL) ;
+		}else if(lock == LockMode.UPGRADE_NOWAIT){
+			rawSQL = dialect.getForUpdateNoWaitString(rawSQL) ;
+		}
+				
+		String sqlForPlan = rawSQL ;
+		
+		//add limit clause.	
+		if(!(startPos == 1 && maxSize == Integer.MAX_VALUE)){
+			rawSQL = dialect.getLimitedString(rawSQL, startPos - 1, maxSize) ;
+		}
+		
+		PreparedStatement pstm = null ;
+		ResultSet rs = null ;
+		this.connectionsGroup.statementStarted() ;
+		
+		try{
+			Connection conn = getConnection(db.getPhysicsDBGroup(bsql.getTableCondition())) ;
+			pstm = conn.prepareStatement(rawSQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY) ;
+			this.applyQueryTimeout(pstm) ;
+			
+			int fetchSize = (dialect instanceof AbstractDialect) ? ((AbstractDialect) dialect).getStreamingFetchSize() : 0 ;
+			if(fetchSize != 0){
+				pstm.setFetchSize(fetchSize) ;
+			}
+			
+			bsql.prepareNamedParams(dialect, pstm) ;
+			
+			rs = executeQuery(conn, pstm, bsql, rawSQL) ;
+			
+			RowLoadPlan plan = RowLoadPlan.forQuery(m, bsql.getRowDataLoader(), bsql.getResultClass(), sqlForPlan, rs) ;
+			
+			//the cursor finishes the statement on close.
+			return new ResultCursorImpl(pstm, rs, plan, rawSQL, this.connectionsGroup) ;
+		}catch(SQLException e){
+			CloseUtil.close(rs) ;
+			CloseUtil.close(pstm) ;
+			this.connectionsGroup.statementFinished() ;
+			
+			throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
+		}catch(RuntimeException e){
+			CloseUtil.close(rs) ;
+			CloseUtil.close(pstm) ;
+			this.connectionsGroup.statementFinished() ;
+			
+			throw e ;
+		}
+	}
+	
+	public int forEach(BindedCompiledSQL bsql, RowCallback callback){
+		return forEach(iterate(bsql), callback) ;
+	}
+	
+	public int forEach(SearchExpression se, RowCallback callback){
+		return forEach(iterate(se), callback) ;
+	}
+	
+	/**
+	 * Pass each row of the cursor to the callback, and close the cursor on return.
+	 * 
+	 * @return how many rows have been handled.
+	 */
+	protected int forEach(ResultCursor cursor, RowCallback callback){
+		try{
+			while(cursor.hasNext()){
+				Object row = cursor.next() ;
+				
+				if(!callback.handleRow(row, cursor.getRowIndex())){
+					break ;
+				}
+			}
+			
+			return cursor.getRowIndex() ;
+		}catch(GuzzException e){
+			throw e ;
+		}catch(Exception e){
+			throw new DaoException("failed to handle row:" + cursor.getRowIndex(), e) ;
+		}finally{
+			cursor.close() ;
+		}
 	}
 	
 	public long count(SearchExpression se) {
@@ -285,13 +434,9 @@ public class AbstractTranSessionImpl {
 			throw new ORMException("unknown business:" + se.getFrom()) ;
 		}
 		
-		SearchParams sp = new SearchParams() ;
-		
-		MarkedSQL ms = se.toComputeRecordNumberSQL((POJOBasedObjectMapping) m, sp) ;
-		
-		CompiledSQL sql = this.compiledSQLBuilder.buildCompiledSQL(ms).setParamPropMapping(sp.getParamPropMapping()) ;
+		BindedCompiledSQL bsql = this.compiledSQLManager.bindSearchExpressionSQL(se, (POJOBasedObjectMapping) m, SearchExpression.SQL_COMPUTE_RECORD_NUMBER) ;
 		
-		Object ret = findCell00(se.prepareHits(sql.bind(sp.getSearchParams())), Long.class.getName()) ;
+		Object ret = findCell00(se.prepareHits(bsql), Long.class.getName()) ;
 		
 		if(ret == null){
 			return 0L ;
@@ -333,21 +478,35 @@ public class AbstractTranSessionImpl {
 		}
 		
 		List records = null ;
-		
-		if(se.isLoadRecords()){
-			records = list(se) ;
-		}
-		
 		int recordCount = 0 ;
+		BindedCompiledSQL countSQL = null ;
+		Future countResult = null ;
 		
 		if(se.isComputeRecordNumber()){
-			SearchParams sp = new SearchParams() ;
-			MarkedSQL ms = se.toComputeRecordNumberSQL((POJOBasedObjectMapping) m, sp) ;
+			countSQL = se.prepareHits(this.compiledSQLManager.bindSearchExpressionSQL(se, (POJOBasedObjectMapping) m, SearchExpression.SQL_COMPUTE_RECORD_NUMBER)) ;
 			
-			CompiledSQL sql = this.compiledSQLBuilder.buildCompiledSQL(ms).setParamPropMapping(sp.getParamPropMapping()) ;
+			if(se.isLoadRecords() && se.isConcurrentCount()){
+				countResult = submitCountQuery(countSQL) ;
+			}
+		}
+		
+		try{
+			if(se.isLoadRecords()){
+				records = list(se) ;
+			}
 			
-			Integer count = (Integer) findCell00(se.prepareHits(sql.bind(sp.getSearchParams())), "int") ;
-			recordCount = count.intValue() ;
+			if(countResult != null){
+				recordCount = waitForCount(countResult, countSQL) ;
+				countResult = null ;
+			}else if(countSQL != null){
+				Integer count = (Integer) findCell00(countSQL, "int") ;
+				recordCount = count.intValue() ;
+			}
+		}finally{
+			//the records query failed.
+			if(countResult != null){
+				countResult.cancel(true) ;
+			}
 		}
 		
 		pf.setResult(recordCount, se.getPageNo(), se.getPageSize(), records) ;
@@ -355,6 +514,113 @@ public class AbstractTranSessionImpl {
 		return pf;
 	}
 
+	/**
+	 * Run the count query on a detached connection in the {@link #pageCountExecutor}.
+	 * <p/>
+	 * The task never touches the state of this session. Everything it needs is read here, in the caller's thread.
+	 * 
+	 * @return null if the query cannot be executed concurrently. The caller should execute it in the current thread.
+	 */
+	protected Future submitCountQuery(final BindedCompiledSQL bsql){
+		//a detached connection cannot see the uncommitted changes of a writing transaction.
+		if(this.pageCountExecutor == null || !this.isReadonly){
+			return null ;
+		}
+		
+		final ConnectionFetcher fetcher = this.connectionsGroup.getDetachedConnectionFetcher() ;
+		if(fetcher == null){
+			return null ;
+		}
+		
+		ObjectMapping m = bsql.getCompiledSQLToRun().getMapping() ;
+		final Dialect dialect = m.getDbGroup().getDialect() ;
+		final String rawSQL = bsql.getSQLToRun() ;
+		final PhysicsDBGroup fdb = m.getDbGroup().getPhysicsDBGroup(bsql.getTableCondition()) ;
+		final int queryTimeout = getQueryTimeoutInSeconds() ;
+		final boolean measureTime = this.debugService.isMeasureTime() ;
+		final boolean logSQL = this.debugService.isLogSQL() ;
+		final DebugService debugService = this.debugService ;
+		
+		Callable task = new Callable(){
+			public Object call() throws Exception {
+				Connection conn = fetcher.getConnection(fdb) ;
+				
+				long startTime = measureTime ? System.nanoTime() : 0L ;
+				PreparedStatement pstm = null ;
+				ResultSet rs = null ;
+				
+				try{
+					pstm = conn.prepareStatement(rawSQL) ;
+					if(queryTimeout > 0){
+						pstm.setQueryTimeout(queryTimeout) ;
+					}
+					bsql.prepareNamedParams(dialect, pstm) ;
+					
+					rs = pstm.executeQuery() ;
+					
+					if(logSQL){
+						debugService.logSQL(bsql, rawSQL, measureTime ? System.nanoTime() - startTime : 0L) ;
+					}
+					
+					return rs.next() ? dialect.getDataType("int").getSQLValue(rs, 1) : null ;
+				}catch(SQLException e){
+					throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
+				}finally{
+					CloseUtil.close(rs) ;
+					CloseUtil.close(pstm) ;
+					CloseUtil.close(conn) ;
+				}
+			}
+		} ;
+		
+		try{
+			return this.pageCountExecutor.submit(task) ;
+		}catch(RejectedExecutionException e){
+			log.warn("pageCountExecutor is busy, count in the current thread. sql:" + rawSQL) ;
+			
+			return null ;
+		}
+	}
+	
+	/**
+	 * Wait for the count query submitted by {@link #submitCountQuery(BindedCompiledSQL)}, no longer than the query timeout.
+	 */
+	protected int waitForCount(Future countResult, BindedCompiledSQL bsql){
+		Object count = null ;
+		
+		try {
+			if(hasQueryTimeout()){
+				count = countResult.get(getQueryTimeoutInSeconds(), TimeUnit.SECONDS) ;
+			}else{
+				count = countResult.get() ;
+			}
+		} catch (TimeoutException e) {
+			countResult.cancel(true) ;
+			
+			throw new DaoException("count query timeout after " + getQueryTimeoutInSeconds() + " seconds. sql:" + bsql.getSQLToRun(), e) ;
+		} catch (InterruptedException e) {
+			countResult.cancel(true) ;
+			Thread.currentThread().interrupt() ;
+			
+			throw new DaoException("interrupted while waiting for the count query. sql:" + bsql.getSQLToRun(), e) ;
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause() ;
+			
+			if(t instanceof GuzzException){
+				throw (GuzzException) t ;
+			}
+			
+			throw new DaoException("failed to execute the count query. sql:" + bsql.getSQLToRun(), t) ;
+		}
+		
+		if(count == null){
+			//no row returned. count in this session as the sequential way does.
+			count = findCell00(bsql, "int") ;
+		}
+		
+		return ((Integer) count).intValue() ;
+	}
+
 	public Object findCell00(String id, Map params, String returnType){
 		CompiledSQL sql = compiledSQLManager.getSQL(id) ;
 		if(sql == null){
@@ -385,31 +651,17 @@ public class AbstractTranSessionImpl {
 		RowDataLoader loader = bsql.getRowDataLoader() ;
 		DBGroup db = m.getDbGroup() ;
 				
-		boolean measureTime = this.debugService.isMeasureTime() ;
-		long startTime = 0L ;
-		if(measureTime){
-			startTime = System.nanoTime() ;
-		}
-		
 		PreparedStatement pstm = null ;
 		ResultSet rs = null ;
+		this.connectionsGroup.statementStarted() ;
 		
 		try{
-			Connection conn = getConnection(db, bsql.getTableCondition()) ;
-			pstm = conn.prepareStatement(rawSQL) ;
+			Connection conn = getConnection(db.getPhysicsDBGroup(bsql.getTableCondition())) ;
+			pstm = this.connectionsGroup.prepareStatement(conn, rawSQL) ;
 			this.applyQueryTimeout(pstm) ;
 			bsql.prepareNamedParams(db.getDialect(), pstm) ;
 			
-			rs = pstm.executeQuery() ;
-			
-			if(this.debugService.isLogSQL()){
-				long timeCost = 0 ;
-				if(measureTime){
-					timeCost = System.nanoTime() - startTime ;
-				}
-				
-				this.debugService.logSQL(bsql, rawSQL, timeCost) ;
-			}
+			rs = executeQuery(conn, pstm, bsql, rawSQL) ;
 			
 			if(rs.next()){
 				if(loader != null){
@@ -432,7 +684,8 @@ public class AbstractTranSessionImpl {
 			throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
 		}finally{
 			CloseUtil.close(rs) ;
-			CloseUtil.close(pstm) ;
+			this.connectionsGroup.releaseStatement(pstm) ;
+			this.connectionsGroup.statementFinished() ;
 		}
 	}
 	
@@ -461,31 +714,17 @@ public class AbstractTranSessionImpl {
 		RowDataLoader loader = bsql.getRowDataLoader() ;
 		DBGroup db = m.getDbGroup() ;
 		
-		boolean measureTime = this.debugService.isMeasureTime() ;
-		long startTime = 0L ;
-		if(measureTime){
-			startTime = System.nanoTime() ;
-		}
-		
 		PreparedStatement pstm = null ;
 		ResultSet rs = null ;
+		this.connectionsGroup.statementStarted() ;
 		
 		try{
-			Connection conn = getConnection(db, bsql.getTableCondition()) ;
-			pstm = conn.prepareStatement(rawSQL) ;
+			Connection conn = getConnection(db.getPhysicsDBGroup(bsql.getTableCondition())) ;
+			pstm = this.connectionsGroup.prepareStatement(conn, rawSQL) ;
 			this.applyQueryTimeout(pstm) ;
 			bsql.prepareNamedParams(db.getDialect(), pstm) ;
 			
-			rs = pstm.executeQuery() ;
-			
-			if(this.debugService.isLogSQL()){
-				long timeCost = 0 ;
-				if(measureTime){
-					timeCost = System.nanoTime() - startTime ;
-				}
-				
-				this.debugService.logSQL(bsql, rawSQL, timeCost) ;
-			}
+			rs = executeQuery(conn, pstm, bsql, rawSQL) ;
 			
 			if(rs.next()){
 				if(loader != null){
@@ -506,7 +745,8 @@ public class AbstractTranSessionImpl {
 			throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
 		}finally{
 			CloseUtil.close(rs) ;
-			CloseUtil.close(pstm) ;
+			this.connectionsGroup.releaseStatement(pstm) ;
+			this.connectionsGroup.statementFinished() ;
 		}
 	}
 
@@ -544,40 +784,22 @@ public class AbstractTranSessionImpl {
 		//TODO: check if the defaultDialect supports prepared bind in limit clause, and put the limit to compiledSQL
 		rawSQL = db.getDialect().getLimitedString(rawSQL, 0, 1) ;
 		
-		boolean measureTime = this.debugService.isMeasureTime() ;
-		long startTime = 0L ;
-		if(measureTime){
-			startTime = System.nanoTime() ;
-		}
-		
 		PreparedStatement pstm = null ;
 		ResultSet rs = null ;
+		this.connectionsGroup.statementStarted() ;
 		
 		try{
-			Connection conn = getConnection(db, bsql.getTableCondition()) ;
-			pstm = conn.prepareStatement(rawSQL) ;
+			Connection conn = getConnection(db.getPhysicsDBGroup(bsql.getTableCondition())) ;
+			pstm = this.connectionsGroup.prepareStatement(conn, rawSQL) ;
 			this.applyQueryTimeout(pstm) ;
 			
 			bsql.prepareNamedParams(db.getDialect(), pstm) ;
 			
-			rs = pstm.executeQuery() ;
-			
-			if(this.debugService.isLogSQL()){
-				long timeCost = 0 ;
-				if(measureTime){
-					timeCost = System.nanoTime() - startTime ;
-				}
-				
-				this.debugService.logSQL(bsql, rawSQL, timeCost) ;
-			}
+			rs = executeQuery(conn, pstm, bsql, rawSQL) ;
 			
 			//do ORM		
 			if(rs.next()){
-				if(loader == null){
-					return m.rs2Object(rs, bsql.getResultClass()) ;
-				}else{
-					return loader.rs2Object(m, rs) ;
-				}
+				return RowLoadPlan.forQuery(m, loader, bsql.getResultClass(), rawSQL, rs).rs2Object(rs) ;
 			}else{
 				if(bsql.isExceptionOnNoRecordFound()){
 					throw new DaoException("record not found for the query:[" + rawSQL + "], params:[" + bsql.getBindedParams() + "].") ;
@@ -589,7 +811,8 @@ public class AbstractTranSessionImpl {
 			throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
 		}finally{
 			CloseUtil.close(rs) ;
-			CloseUtil.close(pstm) ;
+			this.connectionsGroup.releaseStatement(pstm) ;
+			this.connectionsGroup.statementFinished() ;
 		}
 	}
 
@@ -743,6 +966,33 @@ public class AbstractTranSessionImpl {
 		}
 	}
 	
+	/**
+	 * Execute the query, and report its time cost to the connection and to the sql log.
+	 * <p/>
+	 * The time is always measured, even if the {@link DebugService} doesn't need it, as the balancer of the datasources reads it through {@link ConnectionsGroup#queryExecuted(Connection, long)}.
+	 */
+	protected ResultSet executeQuery(Connection conn, PreparedStatement pstm, BindedCompiledSQL bsql, String rawSQL) throws SQLException{
+		long startTime = System.nanoTime() ;
+		ResultSet rs = pstm.executeQuery() ;
+		long timeCost = System.nanoTime() - startTime ;
+		
+		this.connectionsGroup.queryExecuted(conn, timeCost) ;
+		
+		if(this.debugService.isLogSQL()){
+			this.debugService.logSQL(bsql, rawSQL, this.debugService.isMeasureTime() ? timeCost : 0L) ;
+		}
+		
+		return rs ;
+	}
+	
+	public ExecutorService getPageCountExecutor() {
+		return pageCountExecutor;
+	}
+
+	public void setPageCountExecutor(ExecutorService pageCountExecutor) {
+		this.pageCountExecutor = pageCountExecutor;
+	}
+	
 	public final boolean hasQueryTimeout(){
 		return this.queryTimeoutInSeconds > 0 ;
 	}
@@ -17,8 +17,10 @@
 package org.guzz.transaction;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -26,6 +28,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.guzz.connection.ConnectionFetcher;
 import org.guzz.connection.PhysicsDBGroup;
+import org.guzz.connection.QueryTimeListener;
 import org.guzz.exception.DaoException;
 import org.guzz.exception.JDBCException;
 import org.guzz.util.CloseUtil;
@@ -39,6 +42,9 @@ import org.guzz.util.CloseUtil;
 public class ConnectionsGroup {
 	protected transient final Log log = LogFactory.getLog(getClass()) ;	
 	
+	/**Max PreparedStatements cached for each openned connection.*/
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32 ;
+	
 	private final ConnectionFetcher connectionFetcher ;
 			
 	private IsolationsSavePointer isp ;
@@ -49,6 +55,25 @@ public class ConnectionsGroup {
 	/**保存已经打开的连接。针对同一个数据库只打开一个连接（保证事务提交）。*/
 	protected final Map opennedConnections = new HashMap() ;
 	
+	/**Connection -> PreparedStatementCache*/
+	protected final Map statementCaches = new IdentityHashMap() ;
+	
+	/**PreparedStatement lent out -> PreparedStatementCache it belongs to*/
+	protected final Map lentStatements = new IdentityHashMap() ;
+	
+	private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE ;
+	
+	/**
+	 * Give the connections back to the pool after every statement. Only for read-only sessions without transactions.
+	 */
+	private boolean releaseAfterStatement ;
+	
+	/**statements and cursors still reading from the connections.*/
+	private int activeStatements ;
+	
+	/**a connection is used by code not counted in the activeStatements.*/
+	private boolean connectionsHandedOut ;
+	
 	public ConnectionsGroup(ConnectionFetcher connectionFetcher){
 		this.connectionFetcher = connectionFetcher ;
 	}
@@ -106,7 +131,22 @@ public class ConnectionsGroup {
 			log.warn("Some connections' transaction isolations have changed but never reset back before closing.") ;
 		}
 		
-		Iterator i = this.opennedConnections.values().iterator() ;
+		closeConnections() ;
+	}
+	
+	protected void closeConnections(){
+		Iterator i = this.statementCaches.values().iterator() ;
+		
+		while(i.hasNext()){
+			PreparedStatementCache cache = (PreparedStatementCache) i.next() ;
+			
+			cache.close() ;
+		}
+		
+		this.statementCaches.clear() ;
+		this.lentStatements.clear() ;
+		
+		i = this.opennedConnections.values().iterator() ;
 		
 		while(i.hasNext()){
 			Connection conn = (Connection) i.next() ;
@@ -116,6 +156,86 @@ public class ConnectionsGroup {
 		
 		this.opennedConnections.clear() ;
 	}
+	
+	/**
+	 * Prepare a statement on the given connection. The statement is reused within this group if the same sql is prepared again.
+	 * <p/>
+	 * The returned statement must be given back by {@link #releaseStatement(PreparedStatement)} instead of closing it.
+	 * 
+	 * @param conn Connection opened by this group.
+	 * @param sql the sql to prepare
+	 */
+	public PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException{
+		if(this.statementCacheSize <= 0){
+			return conn.prepareStatement(sql) ;
+		}
+		
+		PreparedStatementCache cache = (PreparedStatementCache) this.statementCaches.get(conn) ;
+		
+		if(cache == null){
+			cache = new PreparedStatementCache(conn, this.statementCacheSize) ;
+			this.statementCaches.put(conn, cache) ;
+		}
+		
+		PreparedStatement pstm = cache.borrowStatement(sql) ;
+		this.lentStatements.put(pstm, cache) ;
+		
+		return pstm ;
+	}
+	
+	/**
+	 * Give back the statement returned by {@link #prepareStatement(Connection, String)}. 
+	 * Statements not cached are closed.
+	 */
+	public void releaseStatement(PreparedStatement pstm){
+		if(pstm == null) return ;
+		
+		PreparedStatementCache cache = (PreparedStatementCache) this.lentStatements.remove(pstm) ;
+		
+		if(cache == null || !cache.returnStatement(pstm)){
+			CloseUtil.close(pstm) ;
+		}
+	}
+
+	/**
+	 * Report the time cost of a query to the connection, if it wants it.
+	 * 
+	 * @see QueryTimeListener
+	 */
+	public void queryExecuted(Connection conn, long nanos){
+		if(conn instanceof QueryTimeListener){
+			((QueryTimeListener) conn).onQueryExecuted(nanos) ;
+		}
+	}
+
+	/**
+	 * Called before a statement fetches its connection. Every call must be paired with a {@link #statementFinished()}.
+	 */
+	public void statementStarted(){
+		activeStatements++ ;
+	}
+	
+	/**
+	 * Called when a statement finishes, or a cursor is closed. Close the connections if releaseAfterStatement is on, 
+	 * and no other statement(eg: an outer query loading lazy properties) and no isolation change depends on them.
+	 */
+	public void statementFinished(){
+		if(activeStatements > 0){
+			activeStatements-- ;
+		}
+		
+		if(releaseAfterStatement && activeStatements == 0 && isp == null && !connectionsHandedOut && !opennedConnections.isEmpty()){
+			closeConnections() ;
+		}
+	}
+
+	/**
+	 * A connection of the group is given to code whose statements are not counted, eg: a {@link org.guzz.jdbc.JDBCTemplate}. 
+	 * The connections are kept until {@link #close()} from now on, even if releaseAfterStatement is on.
+	 */
+	public void connectionsHandedOut(){
+		this.connectionsHandedOut = true ;
+	}
 
 	public Connection getConnection(PhysicsDBGroup fdb) {
 		Connection conn = (Connection) this.opennedConnections.get(fdb.getGroupName()) ;
@@ -136,6 +256,23 @@ public class ConnectionsGroup {
 		return conn ;
 	}
 	
+	/**
+	 * The fetcher to open new connections besides the ones held by this group. 
+	 * <p/>
+	 * Connections opened by it are not managed by this group. The caller must close them, and they don't join the transaction of this group.
+	 * <p/>
+	 * Call it in the thread owning this group, and pass the fetcher to other threads.
+	 * 
+	 * @return null if the transaction isolation of this group has been changed, as the new connections cannot follow it.
+	 */
+	public ConnectionFetcher getDetachedConnectionFetcher(){
+		if(this.isp != null){
+			return null ;
+		}
+		
+		return connectionFetcher ;
+	}
+	
 	public void setTransactionIsolation(Connection conn, int level) throws SQLException{
 		if(isp != null){
 			isp.setIsolation(conn, level) ;
@@ -185,4 +322,29 @@ public class ConnectionsGroup {
 		this.resetTransactionIsolationTo(this.isp) ;
 	}
 
+	public boolean isReleaseAfterStatement() {
+		return releaseAfterStatement;
+	}
+
+	/**
+	 * Give the connections back to the pool after every statement, and fetch new ones for the next statement. 
+	 * The pool usage then follows the running queries instead of the life of the session.
+	 * <p/>
+	 * Only for read-only sessions without transactions. The release stops once a connection is handed out, see {@link #connectionsHandedOut()}.
+	 */
+	public void setReleaseAfterStatement(boolean releaseAfterStatement) {
+		this.releaseAfterStatement = releaseAfterStatement;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * Set the max PreparedStatements cached for each connection. 0 to disable the cache.
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
 }
@@ -16,6 +16,8 @@
  */
 package org.guzz.transaction;
 
+import java.util.concurrent.ExecutorService;
+
 import org.guzz.connection.DBGroupManager;
 import org.guzz.dao.WriteTemplate;
 import org.guzz.orm.mapping.ObjectMappingManager;
@@ -29,7 +31,7 @@ import org.guzz.service.core.DebugService;
  *
  * @author liukaixuan(liukaixuan@gmail.com)
  */
-public class DataSourceTransactionManager implements TransactionManager {
+public class DataSourceTransactionManager implements ReadTransactionManager {
 	
 	private CompiledSQLManager compiledSQLManager ;
 	
@@ -44,6 +46,9 @@ public class DataSourceTransactionManager implements TransactionManager {
 	
 	protected final TranSessionLocator tranSessionLocator ;
 	
+	/**executor to run the count queries of paged queries concurrently.*/
+	private ExecutorService pageCountExecutor ;
+	
 	public DataSourceTransactionManager(ObjectMappingManager omm, CompiledSQLManager compiledSQLManager,
 			CompiledSQLBuilder compiledSQLBuilder, DebugService debugService, DBGroupManager dbGroupManager, 
 			TranSessionLocator tranSessionLocator) {
@@ -56,7 +61,24 @@ public class DataSourceTransactionManager implements TransactionManager {
 	}
 	
 	public ReadonlyTranSession openDelayReadTran() {
-		return new ReadonlyTranSessionImpl(omm, compiledSQLManager, debugService, dbGroupManager, true) ;
+		ReadonlyTranSessionImpl session = new ReadonlyTranSessionImpl(omm, compiledSQLManager, debugService, dbGroupManager, true) ;
+		session.setPageCountExecutor(pageCountExecutor) ;
+		
+		return session ;
+	}
+	
+	public ReadonlyTranSession openDelayReadTran(long maxStaleMillis) {
+		ReadonlyTranSessionImpl session = new ReadonlyTranSessionImpl(omm, compiledSQLManager, debugService, dbGroupManager, true, maxStaleMillis) ;
+		session.setPageCountExecutor(pageCountExecutor) ;
+		
+		return session ;
+	}
+
+	public ReadonlyTranSession openDelayReadTran(long maxStaleMillis, boolean releaseConnectionAfterStatement) {
+		ReadonlyTranSessionImpl session = (ReadonlyTranSessionImpl) openDelayReadTran(maxStaleMillis) ;
+		session.setReleaseConnectionAfterStatement(releaseConnectionAfterStatement) ;
+		
+		return session ;
 	}
 
 	public WriteTranSession openRWTran(boolean autoCommit)  {
@@ -64,7 +86,17 @@ public class DataSourceTransactionManager implements TransactionManager {
 	}
 
 	public ReadonlyTranSession openNoDelayReadonlyTran() {
-		return new ReadonlyTranSessionImpl(omm, compiledSQLManager, debugService, dbGroupManager, false) ;
+		ReadonlyTranSessionImpl session = new ReadonlyTranSessionImpl(omm, compiledSQLManager, debugService, dbGroupManager, false) ;
+		session.setPageCountExecutor(pageCountExecutor) ;
+		
+		return session ;
+	}
+	
+	public ReadonlyTranSession openNoDelayReadonlyTran(boolean releaseConnectionAfterStatement) {
+		ReadonlyTranSessionImpl session = (ReadonlyTranSessionImpl) openNoDelayReadonlyTran() ;
+		session.setReleaseConnectionAfterStatement(releaseConnectionAfterStatement) ;
+		
+		return session ;
 	}
 	
 	public CompiledSQLBuilder getCompiledSQLBuilder() {
@@ -75,4 +107,16 @@ public class DataSourceTransactionManager implements TransactionManager {
 		return tranSessionLocator.currentWriteTemplate() ;
 	}
 
+	public ExecutorService getPageCountExecutor() {
+		return pageCountExecutor;
+	}
+
+	/**
+	 * Set the executor to run the count query of {@link ReadonlyTranSession#page(org.guzz.orm.se.SearchExpression)} 
+	 * concurrently with the records query. Only applied to the SearchExpressions with concurrentCount enabled.
+	 */
+	public void setPageCountExecutor(ExecutorService pageCountExecutor) {
+		this.pageCountExecutor = pageCountExecutor;
+	}
+
 }
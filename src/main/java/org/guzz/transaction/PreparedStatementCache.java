@@ -0,0 +1,175 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.transaction;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.guzz.util.CloseUtil;
+
+/**
+ *
+ * LRU cache of {@link PreparedStatement}s for one physical connection, keyed by the sql text to run.
+ * <p/>
+ * A cached statement is lent to one caller at a time. If the same sql is requested while the cached one is still in use
+ * (eg: a nested query executed in a PersistListener), a new uncached statement is prepared.
+ * <p/>
+ * The query timeout, fetch size and max rows of a reused statement are reset to 0 on every checkout, 
+ * so the settings of the last borrower never leak to the next one.
+ * <p/>
+ * Not thread-safe. The cache lives as long as the {@link ConnectionsGroup} holding it.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+class PreparedStatementCache {
+
+	private final Connection conn ;
+
+	private final int maxSize ;
+
+	/**sql -> PreparedStatement, in access order.*/
+	private final LinkedHashMap statements ;
+
+	/**statements lent out. PreparedStatement -> Boolean(cached or not)*/
+	private final Map inUse = new IdentityHashMap() ;
+
+	public PreparedStatementCache(Connection conn, int maxSize){
+		this.conn = conn ;
+		this.maxSize = maxSize ;
+		this.statements = new LinkedHashMap(16, 0.75f, true) ;
+	}
+
+	public PreparedStatement borrowStatement(String sql) throws SQLException{
+		PreparedStatement pstm = (PreparedStatement) this.statements.get(sql) ;
+
+		if(pstm != null && !this.inUse.containsKey(pstm)){
+			try{
+				resetStatement(pstm) ;
+			}catch(SQLException e){
+				//the statement is broken. prepare a new one.
+				this.statements.remove(sql) ;
+				CloseUtil.close(pstm) ;
+				
+				return borrowStatement(sql) ;
+			}
+			
+			this.inUse.put(pstm, Boolean.TRUE) ;
+
+			return pstm ;
+		}
+
+		pstm = this.conn.prepareStatement(sql) ;
+
+		if(this.statements.containsKey(sql)){
+			//the cached one is busy.
+			this.inUse.put(pstm, Boolean.FALSE) ;
+		}else{
+			this.statements.put(sql, pstm) ;
+			this.inUse.put(pstm, Boolean.TRUE) ;
+
+			evictEldest() ;
+		}
+
+		return pstm ;
+	}
+
+	/**
+	 * Return the borrowed statement. Cached statements are kept open for reuse, others are closed.
+	 *
+	 * @return false if the statement is not borrowed from this cache.
+	 */
+	public boolean returnStatement(PreparedStatement pstm){
+		Boolean cached = (Boolean) this.inUse.remove(pstm) ;
+
+		if(cached == null){
+			return false ;
+		}
+
+		if(!cached.booleanValue()){
+			CloseUtil.close(pstm) ;
+			return true ;
+		}
+
+		if(!this.statements.containsValue(pstm)){
+			//evicted while in use.
+			CloseUtil.close(pstm) ;
+			return true ;
+		}
+
+		try {
+			pstm.clearParameters() ;
+		} catch (SQLException e) {
+			//the statement is broken. drop it.
+			this.statements.values().remove(pstm) ;
+			CloseUtil.close(pstm) ;
+		}
+
+		return true ;
+	}
+
+	protected void resetStatement(PreparedStatement pstm) throws SQLException{
+		pstm.setQueryTimeout(0) ;
+		pstm.setFetchSize(0) ;
+		pstm.setMaxRows(0) ;
+	}
+
+	protected void evictEldest(){
+		Iterator i = this.statements.values().iterator() ;
+
+		while(this.statements.size() > this.maxSize && i.hasNext()){
+			PreparedStatement pstm = (PreparedStatement) i.next() ;
+			i.remove() ;
+
+			//statements in use are closed on returning.
+			if(!this.inUse.containsKey(pstm)){
+				CloseUtil.close(pstm) ;
+			}
+		}
+	}
+
+	public Connection getConnection(){
+		return conn ;
+	}
+
+	public int size(){
+		return this.statements.size() ;
+	}
+
+	/**
+	 * Close all statements, including the ones still lent out.
+	 */
+	public void close(){
+		Iterator i = this.statements.values().iterator() ;
+		while(i.hasNext()){
+			CloseUtil.close((PreparedStatement) i.next()) ;
+		}
+
+		i = this.inUse.keySet().iterator() ;
+		while(i.hasNext()){
+			CloseUtil.close((PreparedStatement) i.next()) ;
+		}
+
+		this.statements.clear() ;
+		this.inUse.clear() ;
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.transaction;
+
+/**
+ * 
+ * 可以设定更多读取选项的{@link TransactionManager}。
+ * <p/>
+ * 单独的接口，避免已有的{@link TransactionManager}实现需要增加新的方法。guzz的TransactionManager实现了本接口，使用时先判断是否实现了本接口。
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface ReadTransactionManager extends TransactionManager {
+	
+	/**
+	 * 打开一个只读并允许有限数据延迟的事务。主从同步延迟超过maxStaleMillis或者延迟未知的从数据库不被使用；没有满足条件的从数据库时，从主数据库读取（同{@link #openNoDelayReadonlyTran()}）。
+	 * <p/>
+	 * 从数据库的延迟通过数据库配置中的lagSQL检测，没有配置lagSQL的从数据库视为没有延迟。
+	 * 
+	 * @param maxStaleMillis 允许的最大延迟毫秒数。负数表示不限制，同{@link #openDelayReadTran()}。
+	 * */
+	public ReadonlyTranSession openDelayReadTran(long maxStaleMillis) ;
+	
+	/**
+	 * 同{@link #openDelayReadTran(long)}。releaseConnectionAfterStatement为true时，每次查询结束（迭代查询在{@link org.guzz.orm.sql.ResultCursor}关闭后）即将连接归还连接池，下次查询重新获取连接，而不是持有到事务关闭；
+	 * 适用于两次查询之间有较长时间其他工作的事务。一旦通过事务获取了连接（如{@link ReadonlyTranSession#getConnection(org.guzz.connection.DBGroup, Object)}或者JDBCTemplate），连接保持到事务关闭。
+	 * 
+	 * @param maxStaleMillis 允许的最大延迟毫秒数。负数表示不限制，同{@link #openDelayReadTran()}。
+	 * @param releaseConnectionAfterStatement 是否在每次查询后释放连接。
+	 * */
+	public ReadonlyTranSession openDelayReadTran(long maxStaleMillis, boolean releaseConnectionAfterStatement) ;
+	
+	/**
+	 * 同{@link #openNoDelayReadonlyTran()}，连接的释放方式见{@link #openDelayReadTran(long, boolean)}。
+	 * 
+	 * @param releaseConnectionAfterStatement 是否在每次查询后释放连接。
+	 * */
+	public ReadonlyTranSession openNoDelayReadonlyTran(boolean releaseConnectionAfterStatement) ;
+
+}
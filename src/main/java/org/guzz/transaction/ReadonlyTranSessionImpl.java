@@ -19,6 +19,8 @@ package org.guzz.transaction;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.guzz.connection.ConnectionFetcher;
 import org.guzz.connection.DBGroupManager;
 import org.guzz.connection.PhysicsDBGroup;
@@ -27,6 +29,7 @@ import org.guzz.orm.mapping.ObjectMappingManager;
 import org.guzz.orm.sql.CompiledSQLManager;
 import org.guzz.service.core.DatabaseService;
 import org.guzz.service.core.DebugService;
+import org.guzz.service.core.ReplicatedDatabaseService;
 import org.guzz.util.CloseUtil;
 
 /**
@@ -41,27 +44,64 @@ public class ReadonlyTranSessionImpl extends AbstractTranSessionImpl implements
 	private final boolean allowDelay ;
 	
 	public ReadonlyTranSessionImpl(ObjectMappingManager omm, CompiledSQLManager compiledSQLManager, DebugService debugService, DBGroupManager dbGroupManager, boolean allowDelay){
-		super(omm, compiledSQLManager, new ReadonlyConnectionFetcher(allowDelay), debugService, dbGroupManager, true) ;
+		this(omm, compiledSQLManager, debugService, dbGroupManager, allowDelay, -1) ;
+	}
+	
+	/**
+	 * @param maxStaleMillis max milliseconds the slave can be behind the master. negative for no limit.
+	 */
+	public ReadonlyTranSessionImpl(ObjectMappingManager omm, CompiledSQLManager compiledSQLManager, DebugService debugService, DBGroupManager dbGroupManager, boolean allowDelay, long maxStaleMillis){
+		super(omm, compiledSQLManager, new ReadonlyConnectionFetcher(allowDelay, maxStaleMillis), debugService, dbGroupManager, true) ;
 		this.allowDelay = allowDelay ;
+		this.sharedConnections = false ;
 	}
 	
+	/**the connections are shared with a write session.*/
+	private final boolean sharedConnections ;
+	
 	public ReadonlyTranSessionImpl(WriteTranSessionImpl writeSessionImpl){
 		super(writeSessionImpl) ;
 		this.allowDelay = false ;
+		this.sharedConnections = true ;
 	}
 
 	public boolean allowDelayRead() {
 		return allowDelay ;
 	}
 	
+	/**
+	 * Give the connection back to the pool after every query (after the {@link org.guzz.orm.sql.ResultCursor} is closed for iterations), instead of holding it until {@link #close()}.
+	 * Useful for sessions kept open during long work between queries. Opened by {@link ReadTransactionManager#openDelayReadTran(long, boolean)} or {@link ReadTransactionManager#openNoDelayReadonlyTran(boolean)}.
+	 * <p/>
+	 * Not allowed for the read sessions sharing the connections of a {@link WriteTranSession}. Once a connection is handed out by the session, 
+	 * eg: by {@link #getConnection(org.guzz.connection.DBGroup, Object)} or {@link #createJDBCTemplate(String, Object)}, the connections are kept until the session is closed.
+	 * 
+	 * @param release true to release the connections after every query.
+	 */
+	public void setReleaseConnectionAfterStatement(boolean release) {
+		if(release && sharedConnections){
+			throw new DaoException("the connections of a write session cann't be released after statements.") ;
+		}
+		
+		this.connectionsGroup.setReleaseAfterStatement(release) ;
+	}
+	
 }
 
 class ReadonlyConnectionFetcher implements ConnectionFetcher{
+	private static transient final Log log = LogFactory.getLog(ReadonlyConnectionFetcher.class) ;
 	
 	private final boolean allowDelay ;
 	
+	private final long maxStaleMillis ;
+	
 	public ReadonlyConnectionFetcher(boolean allowDelay){
+		this(allowDelay, -1) ;
+	}
+	
+	public ReadonlyConnectionFetcher(boolean allowDelay, long maxStaleMillis){
 		this.allowDelay = allowDelay ;
+		this.maxStaleMillis = maxStaleMillis ;
 	}
 	
 	public Connection getConnection(PhysicsDBGroup dbGroup) {
@@ -78,13 +118,24 @@ class ReadonlyConnectionFetcher implements ConnectionFetcher{
 		if(slaveDatabaseService != null && slaveDatabaseService.isAvailable()){
 			Connection conn = null;
 			try {
-				conn = slaveDatabaseService.getDataSource().getConnection();
+				//the slave service retries the other slaves itself.
+				if(maxStaleMillis < 0){
+					conn = connectionOf(slaveDatabaseService) ;
+				}else{
+					conn = connectionOf(slaveDatabaseService, maxStaleMillis) ;
+					
+					if(conn == null){
+						//all slaves are too far behind.
+						return openNoDelayReadonlyConn(dbGroup) ;
+					}
+				}
 			} catch (SQLException e) {
 				//be careful of conn leak.
 				CloseUtil.close(conn) ;
 				
-				//TODO: add a check job to diagnose the datasource. refetch the connection from another slave datasource.
-				throw new DaoException("failed to acquire a readonly conn.", e) ;
+				log.warn("no slave db is available for group:[" + dbGroup.getGroupName() + "], read from the master.", e) ;
+				
+				return openNoDelayReadonlyConn(dbGroup) ;
 			}
 
 			try {
@@ -108,7 +159,7 @@ class ReadonlyConnectionFetcher implements ConnectionFetcher{
 		if(masterDatabaseService != null && masterDatabaseService.isAvailable()){
 			Connection conn = null;
 			try {
-				conn = masterDatabaseService.getDataSource().getConnection();
+				conn = connectionOf(masterDatabaseService) ;
 				
 				//were not make master database's connection to readonly
 				return conn ;
@@ -124,6 +175,29 @@ class ReadonlyConnectionFetcher implements ConnectionFetcher{
 		throw new DaoException("No DataSource is available for no-delay readonly conns.") ;
 	}
 
+	/**
+	 * Services not acquiring connections by themselves are used through the datasource.
+	 */
+	protected Connection connectionOf(DatabaseService service) throws SQLException{
+		if(service instanceof ReplicatedDatabaseService){
+			return ((ReplicatedDatabaseService) service).getConnection() ;
+		}
+		
+		return service.getDataSource().getConnection() ;
+	}
+	
+	/**
+	 * @return null if no machine is within the limit.
+	 */
+	protected Connection connectionOf(DatabaseService service, long maxLagMillis) throws SQLException{
+		if(service instanceof ReplicatedDatabaseService){
+			return ((ReplicatedDatabaseService) service).getConnection(maxLagMillis) ;
+		}
+		
+		//no lag monitor. treated as no lag.
+		return service.getDataSource().getConnection() ;
+	}
+
 	public boolean isAllowDelay() {
 		return allowDelay;
 	}
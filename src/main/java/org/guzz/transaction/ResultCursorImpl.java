@@ -0,0 +1,134 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.transaction;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+import org.guzz.exception.JDBCException;
+import org.guzz.orm.mapping.RowLoadPlan;
+import org.guzz.orm.sql.ResultCursor;
+import org.guzz.util.CloseUtil;
+
+/**
+ * 
+ * {@link ResultCursor} over a opened {@link ResultSet}. The statement is owned by the cursor and closed with it.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+class ResultCursorImpl implements ResultCursor {
+	
+	private final PreparedStatement pstm ;
+	
+	private final ResultSet rs ;
+	
+	private final RowLoadPlan plan ;
+	
+	private final String rawSQL ;
+	
+	private boolean fetched ;
+	
+	private boolean hasNext ;
+	
+	private boolean closed ;
+	
+	private int rowIndex ;
+	
+	/**notified on close. may be null.*/
+	private final ConnectionsGroup connectionsGroup ;
+	
+	public ResultCursorImpl(PreparedStatement pstm, ResultSet rs, RowLoadPlan plan, String rawSQL){
+		this(pstm, rs, plan, rawSQL, null) ;
+	}
+	
+	/**
+	 * @param connectionsGroup the group the connection of the cursor belongs to. The cursor calls its {@link ConnectionsGroup#statementFinished()} on close.
+	 */
+	public ResultCursorImpl(PreparedStatement pstm, ResultSet rs, RowLoadPlan plan, String rawSQL, ConnectionsGroup connectionsGroup){
+		this.pstm = pstm ;
+		this.rs = rs ;
+		this.plan = plan ;
+		this.rawSQL = rawSQL ;
+		this.connectionsGroup = connectionsGroup ;
+	}
+
+	public boolean hasNext() {
+		if(closed){
+			return false ;
+		}
+		
+		if(!fetched){
+			try {
+				hasNext = rs.next() ;
+			} catch (SQLException e) {
+				close() ;
+				
+				throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
+			}
+			
+			fetched = true ;
+			
+			if(!hasNext){
+				close() ;
+			}
+		}
+		
+		return hasNext ;
+	}
+
+	public Object next() {
+		if(!hasNext()){
+			throw new NoSuchElementException("no more rows. sql:" + rawSQL) ;
+		}
+		
+		fetched = false ;
+		rowIndex++ ;
+		
+		try {
+			return plan.rs2Object(rs) ;
+		} catch (SQLException e) {
+			close() ;
+			
+			throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
+		}
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException("ResultCursor is readonly.") ;
+	}
+
+	public int getRowIndex() {
+		return rowIndex ;
+	}
+
+	public void close() {
+		if(closed) return ;
+		
+		closed = true ;
+		hasNext = false ;
+		
+		CloseUtil.close(rs) ;
+		CloseUtil.close(pstm) ;
+		
+		if(connectionsGroup != null){
+			connectionsGroup.statementFinished() ;
+		}
+	}
+
+}
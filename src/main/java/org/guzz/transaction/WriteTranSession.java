@@ -27,6 +27,8 @@ import org.guzz.orm.ColumnDataLoader;
 import org.guzz.orm.se.SearchExpression;
 import org.guzz.orm.sql.BindedCompiledSQL;
 import org.guzz.orm.sql.CompiledSQL;
+import org.guzz.orm.sql.ResultCursor;
+import org.guzz.orm.sql.RowCallback;
 
 /**
  * 
@@ -94,6 +96,44 @@ public interface WriteTranSession extends TranSession{
 	 * fetch the first column of the first row in the query.
 	 */
 	public Object findCell00(BindedCompiledSQL bsql, String returnType) ;
+	
+	/**
+	 * Execute query without pagination, and map the rows one at a time while iterating.
+	 * <p/>
+	 * Close the returned cursor in a finally block if the iteration may stop before the last row.
+	 * 
+	 * @param bsql
+	 **/
+	public ResultCursor iterate(BindedCompiledSQL bsql) ;
+	
+	/**
+	 * @param bsql
+	 * @param startPos the first is 1, the second is 2...
+	 * @param maxSize
+	 * @see #iterate(BindedCompiledSQL)
+	 **/
+	public ResultCursor iterate(BindedCompiledSQL bsql, int startPos, int maxSize) ;
+	
+	/**
+	 * Iterate the records of the SearchExpression. Use {@link SearchExpression#forLoadAll(Class)} to scan the whole table.
+	 * 
+	 * @see #iterate(BindedCompiledSQL)
+	 */
+	public ResultCursor iterate(SearchExpression se) ;
+	
+	/**
+	 * Pass the mapped rows to the callback one at a time.
+	 * 
+	 * @return how many rows have been handled.
+	 */
+	public int forEach(BindedCompiledSQL bsql, RowCallback callback) ;
+	
+	/**
+	 * Pass the mapped rows of the SearchExpression to the callback one at a time.
+	 * 
+	 * @return how many rows have been handled.
+	 */
+	public int forEach(SearchExpression se, RowCallback callback) ;
 		
 	//insert
 	public Serializable insert(Object domainObject) ;
@@ -51,11 +51,9 @@ import org.guzz.orm.mapping.POJOBasedObjectMapping;
 import org.guzz.orm.rdms.Table;
 import org.guzz.orm.rdms.TableColumn;
 import org.guzz.orm.se.SearchExpression;
-import org.guzz.orm.se.SearchParams;
 import org.guzz.orm.sql.BindedCompiledSQL;
 import org.guzz.orm.sql.CompiledSQL;
 import org.guzz.orm.sql.CompiledSQLManager;
-import org.guzz.orm.sql.MarkedSQL;
 import org.guzz.orm.sql.NormalCompiledSQL;
 import org.guzz.pojo.DynamicUpdatable;
 import org.guzz.service.core.DatabaseService;
@@ -283,11 +281,9 @@ public class WriteTranSessionImpl extends AbstractTranSessionImpl implements Wri
 			throw new ORMException("unknown business:" + se.getFrom()) ;
 		}
 		
-		SearchParams sp = new SearchParams() ;
-		MarkedSQL ms = se.toDeleteRecordString((POJOBasedObjectMapping) m, sp) ;
-		CompiledSQL sql = this.compiledSQLBuilder.buildCompiledSQL(ms).setParamPropMapping(sp.getParamPropMapping()) ;
+		BindedCompiledSQL bsql = this.compiledSQLManager.bindSearchExpressionSQL(se, (POJOBasedObjectMapping) m, SearchExpression.SQL_DELETE_RECORDS) ;
 		
-		return this.executeUpdate(se.prepareHits(sql.bind(sp.getSearchParams()))) ;
+		return this.executeUpdate(se.prepareHits(bsql)) ;
 	}
 	
 	/**
@@ -313,7 +309,7 @@ public class WriteTranSessionImpl extends AbstractTranSessionImpl implements Wri
 		
 		try {
 			Connection conn = getConnection(db, bsql.getTableCondition()) ;
-			pstm = conn.prepareStatement(rawSQL);		
+			pstm = this.connectionsGroup.prepareStatement(conn, rawSQL) ;		
 			this.applyQueryTimeout(pstm) ;	
 			bsql.prepareNamedParams(db.getDialect(), pstm) ;
 			
@@ -346,7 +342,7 @@ public class WriteTranSessionImpl extends AbstractTranSessionImpl implements Wri
 		}catch(SQLException e){
 			throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
 		}finally{
-			CloseUtil.close(pstm) ;
+			this.connectionsGroup.releaseStatement(pstm) ;
 		}
 	}
 	
@@ -369,7 +365,7 @@ public class WriteTranSessionImpl extends AbstractTranSessionImpl implements Wri
 		
 		try {
 			Connection conn = getConnection(db, bsql.getTableCondition()) ;
-			pstm = conn.prepareStatement(rawSQL);
+			pstm = this.connectionsGroup.prepareStatement(conn, rawSQL) ;
 			this.applyQueryTimeout(pstm) ;
 			bsql.prepareNamedParams(db.getDialect(), pstm) ;
 			
@@ -388,7 +384,7 @@ public class WriteTranSessionImpl extends AbstractTranSessionImpl implements Wri
 		}catch(SQLException e){
 			throw new JDBCException("Error Code:" + e.getErrorCode() + ", sql:" + rawSQL, e, e.getSQLState()) ;
 		}finally{
-			CloseUtil.close(pstm) ;
+			this.connectionsGroup.releaseStatement(pstm) ;
 		}
 	}
 
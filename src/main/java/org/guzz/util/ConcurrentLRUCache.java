@@ -0,0 +1,142 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 
+ * Thread-safe LRU map with a bounded size.
+ * <p/>
+ * Entries are spread over several segments each guarded by its own lock, and the eldest entry of a segment is evicted when
+ * the segment is full. The eviction order is only approximately LRU over the whole cache.
+ * <p/>
+ * null keys and values are not supported.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class ConcurrentLRUCache {
+	
+	private final Segment[] segments ;
+	
+	private final int segmentMask ;
+	
+	public ConcurrentLRUCache(int maxSize){
+		this(maxSize, 16) ;
+	}
+	
+	/**
+	 * @param maxSize max number of entries to keep.
+	 * @param concurrencyLevel estimated number of concurrently updating threads.
+	 */
+	public ConcurrentLRUCache(int maxSize, int concurrencyLevel){
+		if(maxSize < 1){
+			throw new IllegalArgumentException("maxSize must be greater than 0. passed:" + maxSize) ;
+		}
+		
+		int count = 1 ;
+		while(count < concurrencyLevel && count < maxSize){
+			count <<= 1 ;
+		}
+		
+		int segmentSize = (maxSize + count - 1) / count ;
+		
+		this.segments = new Segment[count] ;
+		for(int i = 0 ; i < count ; i++){
+			this.segments[i] = new Segment(segmentSize) ;
+		}
+		
+		this.segmentMask = count - 1 ;
+	}
+	
+	protected Segment segmentFor(Object key){
+		int h = key.hashCode() ;
+		
+		//spread the bits, same as the HashMap in jdk.
+		h ^= (h >>> 20) ^ (h >>> 12) ;
+		h ^= (h >>> 7) ^ (h >>> 4) ;
+		
+		return this.segments[h & this.segmentMask] ;
+	}
+	
+	public Object get(Object key){
+		Segment s = segmentFor(key) ;
+		
+		synchronized(s){
+			return s.get(key) ;
+		}
+	}
+	
+	/**
+	 * @return the previous value of the key, or null.
+	 */
+	public Object put(Object key, Object value){
+		Segment s = segmentFor(key) ;
+		
+		synchronized(s){
+			return s.put(key, value) ;
+		}
+	}
+	
+	public Object remove(Object key){
+		Segment s = segmentFor(key) ;
+		
+		synchronized(s){
+			return s.remove(key) ;
+		}
+	}
+	
+	public void clear(){
+		for(int i = 0 ; i < this.segments.length ; i++){
+			Segment s = this.segments[i] ;
+			
+			synchronized(s){
+				s.clear() ;
+			}
+		}
+	}
+	
+	public int size(){
+		int size = 0 ;
+		
+		for(int i = 0 ; i < this.segments.length ; i++){
+			Segment s = this.segments[i] ;
+			
+			synchronized(s){
+				size += s.size() ;
+			}
+		}
+		
+		return size ;
+	}
+	
+	static class Segment extends LinkedHashMap{
+		
+		private final int maxSize ;
+		
+		public Segment(int maxSize){
+			super(16, 0.75f, true) ;
+			this.maxSize = maxSize ;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > this.maxSize ;
+		}
+	}
+
+}
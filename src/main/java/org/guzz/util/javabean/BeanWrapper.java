@@ -18,6 +18,8 @@ package org.guzz.util.javabean;
 
 import java.lang.reflect.Method;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.guzz.util.JRTInfo;
 
 /**
@@ -27,10 +29,87 @@ import org.guzz.util.JRTInfo;
  * @author liukaixuan(liukaixuan@gmail.com)
  */
 public abstract class BeanWrapper {
+	private static final Log log = LogFactory.getLog(BeanWrapper.class) ;
+	
+	/**
+	 * Whether to generate bytecode accessors in {@link #createFastPOJOWrapper(Class)}. 
+	 * Default is true, set the system property "guzz.beanWrapper.bytecode" to false to disable it.
+	 */
+	private static boolean bytecodeEnabled = !"false".equalsIgnoreCase(System.getProperty("guzz.beanWrapper.bytecode")) ;
+	
+	/**properties registered by {@link #getPropertyIndex(String)}*/
+	private volatile String[] indexedProps = new String[0] ;
 	
 	public static JavaBeanWrapper createPOJOWrapper(Class beanClass){
 		return new JavaBeanWrapper(beanClass) ;
 	}
+	
+	/**
+	 * Create a BeanWrapper for classes accessed frequently, such as domain classes and result classes.
+	 * <p/>
+	 * The returned wrapper calls the getters and setters through cglib generated code instead of reflection, 
+	 * unless it is disabled by {@link #setBytecodeEnabled(boolean)} or the code cannot be generated for the class.
+	 */
+	public static JavaBeanWrapper createFastPOJOWrapper(Class beanClass){
+		if(bytecodeEnabled){
+			try{
+				return new FastBeanWrapper(beanClass) ;
+			}catch(Throwable e){
+				log.warn("fail to generate bytecode accessor for class:[" + beanClass + "], use reflection instead.", e) ;
+			}
+		}
+		
+		return new JavaBeanWrapper(beanClass) ;
+	}
+	
+	public static boolean isBytecodeEnabled() {
+		return bytecodeEnabled;
+	}
+
+	/**
+	 * Enable or disable bytecode accessors for the BeanWrappers created later.
+	 */
+	public static void setBytecodeEnabled(boolean bytecodeEnabled) {
+		BeanWrapper.bytecodeEnabled = bytecodeEnabled;
+	}
+	
+	/**
+	 * Get the index of the property for {@link #getValue(Object, int)} and {@link #setValue(Object, int, Object)}. 
+	 * The index is only meaningful to this wrapper.
+	 * <p/>
+	 * Resolve the index once and access the property by index to avoid looking up the property by name.
+	 */
+	public synchronized int getPropertyIndex(String propName){
+		String[] props = this.indexedProps ;
+		
+		for(int i = 0 ; i < props.length ; i++){
+			if(props[i].equals(propName)){
+				return i ;
+			}
+		}
+		
+		String[] newProps = new String[props.length + 1] ;
+		System.arraycopy(props, 0, newProps, 0, props.length) ;
+		newProps[props.length] = propName ;
+		
+		this.indexedProps = newProps ;
+		
+		return props.length ;
+	}
+	
+	/**
+	 * @param propIndex returned by {@link #getPropertyIndex(String)}
+	 */
+	public Object getValue(Object beanInstance, int propIndex){
+		return getValue(beanInstance, this.indexedProps[propIndex]) ;
+	}
+	
+	/**
+	 * @param propIndex returned by {@link #getPropertyIndex(String)}
+	 */
+	public void setValue(Object beanInstance, int propIndex, Object value){
+		setValue(beanInstance, this.indexedProps[propIndex], value) ;
+	}
 		
 	public abstract void setValue(Object beanInstance, String propName, Object value) ;
 	
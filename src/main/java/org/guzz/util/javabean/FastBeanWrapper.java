@@ -0,0 +1,164 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util.javabean;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import net.sf.cglib.reflect.FastClass;
+
+import org.guzz.exception.ORMException;
+
+/**
+ * 
+ * {@link JavaBeanWrapper} calling the getters and setters through the cglib generated {@link FastClass}
+ * instead of reflection. Properties are resolved to the method indexes of the FastClass on creation.
+ * <p/>
+ * Methods not reachable from the generated code fall back to reflection.
+ * <p/>
+ * The generated code unboxes numeric primitives through {@link Number}, and would truncate a Long passed to an int setter.
+ * So only values of the exact (boxed) parameter type are passed to the generated code, others go through reflection, 
+ * which widens them or rejects them as {@link JavaBeanWrapper} does. Exceptions thrown by the getters and setters are wrapped in {@link ORMException} as well.
+ *
+ * @see BeanWrapper#createFastPOJOWrapper(Class)
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class FastBeanWrapper extends JavaBeanWrapper {
+	
+	private static final Object[] NO_ARGS = new Object[0] ;
+	
+	private final FastClass fastClass ;
+	
+	/**FastClass index of the read method for each property. -1 if not available.*/
+	private final int[] readIndexes ;
+	
+	/**FastClass index of the write method for each property. -1 if not available.*/
+	private final int[] writeIndexes ;
+	
+	/**Parameter type of the write method for each property, primitive types are boxed.*/
+	private final Class[] writeTypes ;
+	
+	/**Is the parameter of the setter a primitive type?*/
+	private final boolean[] writePrimitives ;
+
+	public FastBeanWrapper(Class beanClass) {
+		super(beanClass) ;
+		
+		this.fastClass = FastClass.create(beanClass.getClassLoader(), beanClass) ;
+		this.readIndexes = new int[indexedDescriptors.length] ;
+		this.writeIndexes = new int[indexedDescriptors.length] ;
+		this.writeTypes = new Class[indexedDescriptors.length] ;
+		this.writePrimitives = new boolean[indexedDescriptors.length] ;
+		
+		for(int i = 0 ; i < indexedDescriptors.length ; i++){
+			PropertyDescriptor pd = indexedDescriptors[i] ;
+			
+			this.readIndexes[i] = indexOf(pd.getReadMethod()) ;
+			this.writeIndexes[i] = indexOf(pd.getWriteMethod()) ;
+			
+			if(pd.getWriteMethod() != null){
+				Class type = pd.getWriteMethod().getParameterTypes()[0] ;
+				
+				this.writePrimitives[i] = type.isPrimitive() ;
+				this.writeTypes[i] = boxedType(type) ;
+			}
+		}
+	}
+	
+	protected static Class boxedType(Class type){
+		if(!type.isPrimitive()){
+			return type ;
+		}else if(type == boolean.class){
+			return Boolean.class ;
+		}else if(type == char.class){
+			return Character.class ;
+		}else if(type == byte.class){
+			return Byte.class ;
+		}else if(type == short.class){
+			return Short.class ;
+		}else if(type == int.class){
+			return Integer.class ;
+		}else if(type == long.class){
+			return Long.class ;
+		}else if(type == float.class){
+			return Float.class ;
+		}else{
+			return Double.class ;
+		}
+	}
+	
+	/**
+	 * Can the value be passed to the generated code without losing anything?
+	 */
+	protected boolean isExactWriteType(int propIndex, Object value){
+		if(value == null){
+			return !this.writePrimitives[propIndex] ;
+		}else if(this.writePrimitives[propIndex]){
+			return value.getClass() == this.writeTypes[propIndex] ;
+		}else{
+			return this.writeTypes[propIndex].isInstance(value) ;
+		}
+	}
+	
+	protected int indexOf(Method m){
+		if(m == null) return -1 ;
+		
+		return this.fastClass.getIndex(m.getName(), m.getParameterTypes()) ;
+	}
+
+	public Object getValue(Object beanInstance, int propIndex) {
+		int index = this.readIndexes[propIndex] ;
+		
+		if(index < 0){
+			return super.getValue(beanInstance, propIndex) ;
+		}
+		
+		if(!this.beanClass.isInstance(beanInstance)){
+			//let the reflection report it.
+			return super.getValue(beanInstance, propIndex) ;
+		}
+		
+		try {
+			return this.fastClass.invoke(index, beanInstance, NO_ARGS) ;
+		} catch (InvocationTargetException e) {
+			throw new ORMException("property:" + indexedDescriptors[propIndex].getName() + " not readable in :" + this.beanClass, e) ;
+		}
+	}
+
+	public void setValue(Object beanInstance, int propIndex, Object value) {
+		int index = this.writeIndexes[propIndex] ;
+		
+		if(index < 0){
+			super.setValue(beanInstance, propIndex, value) ;
+			return ;
+		}
+		
+		if(!this.beanClass.isInstance(beanInstance) || !isExactWriteType(propIndex, value)){
+			//widened or rejected by the reflection.
+			super.setValue(beanInstance, propIndex, value) ;
+			return ;
+		}
+		
+		try {
+			this.fastClass.invoke(index, beanInstance, new Object[]{value}) ;
+		} catch (InvocationTargetException e) {
+			throw new ORMException("property:" + indexedDescriptors[propIndex].getName() + " not writable in :" + this.beanClass, e) ;
+		}
+	}
+
+}
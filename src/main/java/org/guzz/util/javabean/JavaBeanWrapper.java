@@ -41,7 +41,11 @@ import org.guzz.pojo.GuzzProxy;
 public class JavaBeanWrapper extends BeanWrapper{
 	
 	private Map propertyDescriptors = new HashMap() ;
-	private Class beanClass ;
+	protected Class beanClass ;
+	
+	/**property name -> Integer(index in indexedDescriptors)*/
+	private Map propertyIndexes = new HashMap() ;
+	protected PropertyDescriptor[] indexedDescriptors ;
 	
 	public JavaBeanWrapper(Class beanClass){
 		this.beanClass = beanClass ;
@@ -58,15 +62,29 @@ public class JavaBeanWrapper extends BeanWrapper{
 		//FIXME: cann't handle property:My_book_title
 		for(int i = 0 ; i < pd.length ; i++){
 			this.propertyDescriptors.put(pd[i].getName(), pd[i]) ;
-		}	
+			this.propertyIndexes.put(pd[i].getName(), new Integer(i)) ;
+		}
+		
+		this.indexedDescriptors = pd ;
 	}
 	
-	public void setValue(Object beanInstance, String propName, Object value){
-		PropertyDescriptor pd = (PropertyDescriptor) this.propertyDescriptors.get(propName) ;
-		if(pd == null){
+	public int getPropertyIndex(String propName){
+		Integer index = (Integer) this.propertyIndexes.get(propName) ;
+		if(index == null){
 			throw new ORMException("unknown property[" + propName + "] in :" + this.beanClass) ;
 		}
 		
+		return index.intValue() ;
+	}
+	
+	public void setValue(Object beanInstance, String propName, Object value){
+		setValue(beanInstance, getPropertyIndex(propName), value) ;
+	}
+	
+	public void setValue(Object beanInstance, int propIndex, Object value){
+		PropertyDescriptor pd = this.indexedDescriptors[propIndex] ;
+		String propName = pd.getName() ;
+		
 		Method writeMethod = pd.getWriteMethod();
 		if (writeMethod != null) {
 			try {
@@ -136,10 +154,12 @@ public class JavaBeanWrapper extends BeanWrapper{
 	}
 	
 	public Object getValue(Object beanInstance, String propName){
-		PropertyDescriptor pd = (PropertyDescriptor) this.propertyDescriptors.get(propName) ;
-		if(pd == null){
-			throw new ORMException("unknown property[" + propName + "] in :" + this.beanClass) ;
-		}
+		return getValue(beanInstance, getPropertyIndex(propName)) ;
+	}
+	
+	public Object getValue(Object beanInstance, int propIndex){
+		PropertyDescriptor pd = this.indexedDescriptors[propIndex] ;
+		String propName = pd.getName() ;
 		
 		Method readMethod = pd.getReadMethod();
 		if (readMethod != null) {
@@ -17,6 +17,7 @@
 package org.guzz.util.lb;
 
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 
@@ -28,8 +29,10 @@ public class LBRound implements RoundCard{
 	
 	private LinkedList hs = new LinkedList() ;
 	
-	private Object[] card_services = new Object[0] ;
-	private int currentPos = 0 ;
+	private volatile Object[] card_services = new Object[0] ;
+	
+	/**shared by all request threads. overflows are masked off.*/
+	private final AtomicInteger currentPos = new AtomicInteger(0) ;
 	
 	
 	/**
@@ -123,21 +126,17 @@ public class LBRound implements RoundCard{
 	}
 
 	public Object getCard() {
-		int maxSize = card_services.length ;
+		Object[] cards = this.card_services ;
+		int maxSize = cards.length ;
 		if(maxSize == 0){
 			return null ;
 		}else if(maxSize == 1){
-			return card_services[0] ;
+			return cards[0] ;
 		}
 		
-		int pos = this.currentPos++ ;
-		
-		if(pos >= maxSize){
-			pos = pos % maxSize ;
-			this.currentPos = pos + 1 ;
-		}
+		int pos = (this.currentPos.getAndIncrement() & 0x7fffffff) % maxSize ;
 		
-		return card_services[pos];
+		return cards[pos];
 	}
 	
 	//计算最大约数，通过最大公约数缩写lv数组大小。
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util.lb;
+
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 
+ * Choose the available {@link LoadCard} with the least load per weight. The load is usually the count of borrowed connections,
+ * so faster machines with the same weight get more requests as their connections come back earlier.
+ * <p/>
+ * Cards with the same load per weight are chosen in turn. This class is thread-safe after {@link #applyNewPool()}.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class LeastLoadRound implements RoundCard{
+	
+	private LinkedList hs = new LinkedList() ;
+	
+	protected volatile LoadCard[] cards = new LoadCard[0] ;
+	
+	protected volatile int[] weights = new int[0] ;
+	
+	private final AtomicInteger currentPos = new AtomicInteger(0) ;
+	
+	/**
+	 * 添加一个候选因子。
+	 * 
+	 * @param card
+	 * @param weight 负载因子，越大分配到的负载越多。最大10000，最小1.
+	 * */
+	public void addToPool(LoadCard card, int weight){
+		if(weight < 1){
+			weight = 1 ;
+		}else if(weight > 10000){
+			weight = 10000 ;
+		}
+		
+		_Holder h = new _Holder() ;
+		h.card = card ;
+		h.weight = weight ;
+		
+		hs.add(h) ;
+	}
+	
+	/**应用新添加的对象到轮询中。*/
+	public void applyNewPool(){
+		LoadCard[] cards = new LoadCard[hs.size()] ;
+		int[] weights = new int[hs.size()] ;
+		
+		for(int i = 0 ; i < cards.length ; i++){
+			_Holder h = (_Holder) hs.get(i) ;
+			
+			cards[i] = h.card ;
+			weights[i] = h.weight ;
+		}
+		
+		this.weights = weights ;
+		this.cards = cards ;
+	}
+
+	public Object getCard() {
+		LoadCard[] cards = this.cards ;
+		int[] weights = this.weights ;
+		
+		int size = cards.length ;
+		if(size == 0){
+			return null ;
+		}
+		
+		int start = (this.currentPos.getAndIncrement() & 0x7fffffff) % size ;
+		
+		LoadCard best = null ;
+		long bestLoad = 0 ;
+		int bestWeight = 1 ;
+		
+		for(int i = 0 ; i < size ; i++){
+			int pos = (start + i) % size ;
+			LoadCard c = cards[pos] ;
+			
+			if(!c.isAvailable()) continue ;
+			
+			//count the request to serve, so the weight still works when nothing is borrowed.
+			long load = c.getLoad() + 1 ;
+			
+			//load / weight < bestLoad / bestWeight
+			if(best == null || load * bestWeight < bestLoad * weights[pos]){
+				best = c ;
+				bestLoad = load ;
+				bestWeight = weights[pos] ;
+			}
+		}
+		
+		return best ;
+	}
+	
+	static class _Holder{
+		public LoadCard card ;
+		public int weight ;
+	}
+
+}
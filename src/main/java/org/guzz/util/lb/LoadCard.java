@@ -0,0 +1,37 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util.lb;
+
+/**
+ * 
+ * Card with a current load, used by {@link LeastLoadRound}.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public interface LoadCard {
+	
+	/**
+	 * The current load, eg: the count of borrowed connections.
+	 */
+	public int getLoad() ;
+	
+	/**
+	 * Cards not available are never chosen.
+	 */
+	public boolean isAvailable() ;
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util.lb;
+
+import java.util.Random;
+
+/**
+ * 
+ * Power of two choices: pick two cards at random, and choose the one with less load per weight.
+ * <p/>
+ * Unlike {@link LeastLoadRound}, a card with a stale low load is not chosen by all requests at the same time,
+ * which suits loads measured with a delay, eg: the latency of the recent queries.
+ * Falls back to {@link LeastLoadRound} when a picked card is not available.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TwoChoicesRound extends LeastLoadRound {
+	
+	/**
+	 * A Random per thread. A shared one makes all the requests contend on its seed. (ThreadLocalRandom is not available in jdk1.6)
+	 */
+	private static final ThreadLocal randoms = new ThreadLocal(){
+		protected Object initialValue() {
+			return new Random() ;
+		}
+	} ;
+
+	public Object getCard() {
+		LoadCard[] cards = this.cards ;
+		int[] weights = this.weights ;
+		
+		int size = cards.length ;
+		if(size < 3){
+			return super.getCard() ;
+		}
+		
+		Random random = (Random) randoms.get() ;
+		int i = random.nextInt(size) ;
+		int j = random.nextInt(size - 1) ;
+		if(j >= i){
+			j++ ;
+		}
+		
+		LoadCard a = cards[i] ;
+		LoadCard b = cards[j] ;
+		
+		if(!a.isAvailable() || !b.isAvailable()){
+			return super.getCard() ;
+		}
+		
+		//a.load / a.weight <= b.load / b.weight
+		if(((long) a.getLoad() + 1) * weights[j] <= ((long) b.getLoad() + 1) * weights[i]){
+			return a ;
+		}
+		
+		return b ;
+	}
+
+}
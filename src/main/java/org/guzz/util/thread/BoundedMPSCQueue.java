@@ -0,0 +1,150 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util.thread;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 
+ * Lock-free bounded ring buffer for many producers and one single consumer.
+ * <p/>
+ * Each slot carries a sequence number telling whether it is ready to be written for the current round or ready to be read. 
+ * Producers claim a slot by a CAS on the tail cursor, and never overwrite a slot the consumer hasn't read yet. 
+ * {@link #offer(Object)} returns false when the buffer is full.
+ * <p/>
+ * {@link #poll()} must be called by one thread only.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class BoundedMPSCQueue {
+	
+	private final int capacity ;
+	
+	private final int mask ;
+	
+	private final AtomicReferenceArray buffer ;
+	
+	/**slot i is writable for the cursor value c when sequences[i] == c, and readable when sequences[i] == c + 1.*/
+	private final AtomicLongArray sequences ;
+	
+	/**next position to write.*/
+	private final AtomicLong tail = new AtomicLong(0) ;
+	
+	/**next position to read. only changed by the consumer.*/
+	private volatile long head = 0 ;
+	
+	/**
+	 * @param capacity the max number of elements. rounded up to a power of 2.
+	 */
+	public BoundedMPSCQueue(int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("capacity must be greater than 0. passed:" + capacity) ;
+		}
+		
+		int size = 1 ;
+		while(size < capacity){
+			size <<= 1 ;
+		}
+		
+		this.capacity = size ;
+		this.mask = size - 1 ;
+		this.buffer = new AtomicReferenceArray(size) ;
+		this.sequences = new AtomicLongArray(size) ;
+		
+		for(int i = 0 ; i < size ; i++){
+			this.sequences.set(i, i) ;
+		}
+	}
+	
+	/**
+	 * Add the element to the tail. Safe to be called by multiple threads.
+	 * 
+	 * @param e not null
+	 * @return false if the buffer is full.
+	 */
+	public boolean offer(Object e){
+		if(e == null){
+			throw new NullPointerException("null element is not supported.") ;
+		}
+		
+		for(;;){
+			long pos = tail.get() ;
+			int index = (int) (pos & mask) ;
+			long diff = sequences.get(index) - pos ;
+			
+			if(diff == 0){
+				if(tail.compareAndSet(pos, pos + 1)){
+					buffer.set(index, e) ;
+					//publish the slot to the consumer.
+					sequences.set(index, pos + 1) ;
+					
+					return true ;
+				}
+			}else if(diff < 0){
+				//the consumer hasn't read the slot of the last round.
+				return false ;
+			}
+			
+			//another producer claimed the slot, try the next one.
+		}
+	}
+	
+	/**
+	 * Remove the head element. Must be called by the consumer thread only.
+	 * 
+	 * @return null if the buffer is empty, or the next element is still being written.
+	 */
+	public Object poll(){
+		long pos = head ;
+		int index = (int) (pos & mask) ;
+		
+		if(sequences.get(index) != pos + 1){
+			return null ;
+		}
+		
+		Object e = buffer.get(index) ;
+		buffer.set(index, null) ;
+		
+		head = pos + 1 ;
+		//free the slot for the next round.
+		sequences.set(index, pos + capacity) ;
+		
+		return e ;
+	}
+	
+	/**
+	 * Approximate number of elements in the buffer.
+	 */
+	public int size(){
+		long size = tail.get() - head ;
+		
+		if(size < 0) return 0 ;
+		
+		return size > capacity ? capacity : (int) size ;
+	}
+	
+	public boolean isEmpty(){
+		return size() == 0 ;
+	}
+	
+	public int getCapacity(){
+		return capacity ;
+	}
+
+}
@@ -16,63 +16,374 @@
  */
 package org.guzz.util.thread;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.guzz.service.core.DebugService;
 
 /**
  * 
- * A demon thread holding a queue. When the queue is full, new arrived objects override the oldest one.
- * <p />The queue is not thread-safe, and doesn't guarantee that no data will lose. Objects in this queue is processed randomly.
+ * A demon thread holding a bounded queue. Any threads can add objects to the queue, and this thread processes them in {@link #doWithTheQueue()}.
+ * <p />
+ * The queue is a lock-free {@link BoundedMPSCQueue}. Objects never override each other. When the queue is full, 
+ * the overflow policy decides what to do with the new arrived object:
+ * <ul>
+ * <li>{@link #OVERFLOW_DROP_NEWEST}: drop it and count it in {@link #getDroppedCount()}. The default one.</li>
+ * <li>{@link #OVERFLOW_BLOCK}: wait for free space no longer than the overflow timeout, and then drop it.</li>
+ * <li>{@link #OVERFLOW_CALLER_RUNS}: process it in the caller's thread by {@link #processInCaller(Object)}.</li>
+ * </ul>
+ * The thread is woken up once the queued objects reach the wake up threshold, or on the timeout of {@link #getMillSecondsToSleep()}.
+ * <p />
+ * {@link #shutdown(long)} stops accepting new objects, and keeps calling {@link #doWithTheQueue()} without sleeping until 
+ * {@link #hasPendingWork()} returns false or the timeout reaches. Objects left are counted by {@link #getPendingCount()} and logged.
+ * <p />
+ * Threads created by {@link #DemonQueuedThread(String, int)} keep the old array queue in {@link #queues} for subclasses reading the slots directly.
+ * The array is not thread-safe, new objects override the oldest ones when it is full, and the overflow policy doesn't apply.
  *
  * @author liukaixuan(liukaixuan@gmail.com)
  */
 public class DemonQueuedThread extends Thread{
 	private transient final Log log = LogFactory.getLog(getClass()) ;
 	
-	private boolean keepRunning = true ;
+	/**drop the new object if the queue is full.*/
+	public static final int OVERFLOW_DROP_NEWEST = 1 ;
+	
+	/**block the caller until the queue has space or the timeout reaches.*/
+	public static final int OVERFLOW_BLOCK = 2 ;
+	
+	/**process the new object in the caller's thread if the queue is full.*/
+	public static final int OVERFLOW_CALLER_RUNS = 3 ;
+	
+	private volatile boolean keepRunning = true ;
+	
+	/**false after the shutdown starts. New objects are rejected.*/
+	private volatile boolean accepting = true ;
+	
+	/**System.currentTimeMillis() to give up draining. 0 means not draining.*/
+	private volatile long drainDeadline ;
+	
+	private final AtomicLong rejectedCount = new AtomicLong(0) ;
 	
 	private String threadName ;
 	
+	/**null if the queue size is 0, or {@link #queues} is used.*/
+	private final BoundedMPSCQueue queue ;
+	
+	/**
+	 * The array queue of threads created by {@link #DemonQueuedThread(String, int)}. Subclasses process and clear the slots in {@link #doWithTheQueue()}.
+	 * 
+	 * @deprecated create the thread with {@link #DemonQueuedThread(String, BoundedMPSCQueue)} and read the queue with {@link #pollQueue()}.
+	 */
+	@Deprecated
 	protected Object[] queues ;
 	
 	private volatile int currentWritePos = 0 ;
 	
-	private boolean isSleepNow = false ;
+	private volatile boolean isSleepNow = false ;
 	
 	private int millSecondsToSleep = 500 ;
+	
+	private int overflowPolicy = OVERFLOW_DROP_NEWEST ;
+	
+	private long overflowTimeoutMillis = 1000 ;
+	
+	private int wakeUpThreshold = 1 ;
+	
+	private final AtomicLong droppedCount = new AtomicLong(0) ;
+	
+	/**producers blocked by a full queue.*/
+	private final AtomicInteger blockedProducers = new AtomicInteger(0) ;
+	
+	private final Object notFullLock = new Object() ;
 
 	public boolean isSleeping(){
 		return isSleepNow ;
 	}
 	
+	/**
+	 * Add the object to the queue. Safe to be called by multiple threads.
+	 * 
+	 * @see #offerToQueue(Object)
+	 */
 	public void addToQueue(Object obj){
+		offerToQueue(obj) ;
+	}
+	
+	/**
+	 * Add the object to the queue. Safe to be called by multiple threads.
+	 * 
+	 * @return false if the object is dropped as the queue is full.
+	 */
+	public boolean offerToQueue(Object obj){
+		if(!accepting){
+			rejectedCount.incrementAndGet() ;
+			
+			return false ;
+		}
+		
+		if(queues != null){
+			addToArrayQueue(obj) ;
+			
+			return true ;
+		}
+		
+		if(queue != null && queue.offer(obj)){
+			signalIfNeeded() ;
+			
+			return true ;
+		}
+		
+		return handleOverflow(obj) ;
+	}
+	
+	private void addToArrayQueue(Object obj){
 		int pos = currentWritePos++ ;
 		if(pos >= queues.length){
 			currentWritePos = 0 ;
 			pos = 0 ;
 		}
 		
-		queues[pos] = obj ;	
+		queues[pos] = obj ;
+	}
+	
+	protected boolean handleOverflow(Object obj){
+		if(overflowPolicy == OVERFLOW_CALLER_RUNS){
+			try {
+				if(processInCaller(obj)){
+					return true ;
+				}
+			} catch (Exception e) {
+				log.error("failed to process the overflowed object of thread:[" + threadName + "] in the caller thread.", e) ;
+			}
+		}else if(overflowPolicy == OVERFLOW_BLOCK && queue != null){
+			if(waitAndAdd(obj)){
+				return true ;
+			}
+		}
+		
+		long dropped = droppedCount.incrementAndGet() ;
+		
+		//don't flood the log.
+		if((dropped & (dropped - 1)) == 0){
+			log.warn("queue of thread:[" + threadName + "] is full. " + dropped + " objects dropped so far.") ;
+		}
+		
+		return false ;
+	}
+	
+	protected boolean waitAndAdd(Object obj){
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(overflowTimeoutMillis) ;
+		
+		blockedProducers.incrementAndGet() ;
+		
+		try{
+			synchronized(notFullLock){
+				while(!queue.offer(obj)){
+					long waitMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) ;
+					if(waitMillis <= 0){
+						return false ;
+					}
+					
+					//make sure the consumer is working on it.
+					LockSupport.unpark(this) ;
+					notFullLock.wait(waitMillis) ;
+				}
+			}
+			
+			signalIfNeeded() ;
+			
+			return true ;
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt() ;
+			
+			return false ;
+		}finally{
+			blockedProducers.decrementAndGet() ;
+		}
 	}
 	
+	protected void signalIfNeeded(){
+		if(isSleepNow && queue != null && queue.size() >= wakeUpThreshold){
+			LockSupport.unpark(this) ;
+		}
+	}
+	
+	/**
+	 * Remove and return the head object of the queue. Called in this thread only.
+	 * 
+	 * @return null if the queue is empty.
+	 */
+	protected Object pollQueue(){
+		if(queue == null){
+			return null ;
+		}
+		
+		Object obj = queue.poll() ;
+		
+		if(obj != null && blockedProducers.get() > 0){
+			synchronized(notFullLock){
+				notFullLock.notifyAll() ;
+			}
+		}
+		
+		return obj ;
+	}
+	
+	/**
+	 * Process the object in the caller's thread when the queue is full and the policy is {@link #OVERFLOW_CALLER_RUNS}.
+	 * <p/>
+	 * The default implementation waits for free space in the queue like {@link #OVERFLOW_BLOCK} does.
+	 * 
+	 * @return false if the object is not processed. It is counted as dropped.
+	 */
+	protected boolean processInCaller(Object obj) throws Exception{
+		return queue != null && waitAndAdd(obj) ;
+	}
+	
+	/**
+	 * Create a thread with the array queue in {@link #queues}.
+	 * 
+	 * @deprecated use {@link #DemonQueuedThread(String, BoundedMPSCQueue)}.
+	 */
+	@Deprecated
 	public DemonQueuedThread(String threadName, int queueSize){
+		this(threadName, (BoundedMPSCQueue) null) ;
+		
+		this.queues = new Object[queueSize] ;
+	}
+	
+	/**
+	 * @param queue the queue of objects to process. null if this thread doesn't need one.
+	 */
+	public DemonQueuedThread(String threadName, BoundedMPSCQueue queue){
 		this.setDaemon(true) ;
 		this.threadName = threadName ;
-		this.queues = new Object[queueSize] ;
+		this.queue = queue ;
 		
 		this.setName(DebugService.DEMON_NAME_PREFIX + threadName) ;
 	}
 	
+	/**
+	 * Stop the thread now. Objects in the queue are not processed.
+	 */
 	public void shutdown(){
+		shutdown(0) ;
+	}
+	
+	/**
+	 * Stop accepting new objects, process the ones queued within the timeout, and stop the thread.
+	 * 
+	 * @param timeoutMillis max milliseconds to wait for the queue to be drained.
+	 * @return number of objects left unprocessed.
+	 */
+	public int shutdown(long timeoutMillis){
+		startShutdown(timeoutMillis) ;
+		
+		return awaitShutdown() ;
+	}
+	
+	/**
+	 * Stop accepting new objects and start draining without waiting. Call {@link #awaitShutdown()} later to finish the shutdown.
+	 * Shutting down several threads this way lets them drain at the same time.
+	 */
+	public void startShutdown(long timeoutMillis){
+		this.accepting = false ;
+		
+		if(timeoutMillis > 0 && this.isAlive()){
+			this.drainDeadline = System.currentTimeMillis() + timeoutMillis ;
+		}else{
+			this.keepRunning = false ;
+		}
+		
+		LockSupport.unpark(this) ;
+	}
+	
+	/**
+	 * Wait for the draining started by {@link #startShutdown(long)}, and stop the thread.
+	 * 
+	 * @return number of objects left unprocessed.
+	 */
+	public int awaitShutdown(){
+		long deadline = this.drainDeadline ;
+		
+		if(deadline > 0 && Thread.currentThread() != this){
+			long waitMillis = deadline - System.currentTimeMillis() ;
+			
+			try {
+				if(waitMillis > 0){
+					this.join(waitMillis) ;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt() ;
+			}
+		}
+		
 		this.keepRunning = false ;
+		LockSupport.unpark(this) ;
+		
+		int pending = getPendingCount() ;
+		long rejected = rejectedCount.get() ;
 		
-		try {
-			this.notify() ;
-		} catch (Exception e) {
+		if(pending > 0 || rejected > 0){
+			log.warn("thread [" + threadName + "] closed. " + pending + " objects left unprocessed, " + rejected + " objects rejected during the shutdown.") ;
+		}else{
+			log.info("thread [" + threadName + "] closed.") ;
 		}
 		
-		log.info("thread [" + threadName + "] closed.") ;
+		return pending ;
+	}
+	
+	/**
+	 * Is there anything left to process? Used to decide when the draining finishes.
+	 */
+	protected boolean hasPendingWork(){
+		return getQueueBacklog() > 0 ;
+	}
+	
+	/**
+	 * Number of objects not processed yet. Logged on shutdown.
+	 */
+	protected int getPendingCount(){
+		return getQueueBacklog() ;
+	}
+	
+	/**
+	 * Process the work left before the drain deadline.
+	 */
+	protected void drain(){
+		while(keepRunning && System.currentTimeMillis() < drainDeadline){
+			boolean processed = false ;
+			
+			try{
+				processed = doWithTheQueue() ;
+			}catch(Throwable e){
+				log.error("error occured whiling draining the queue of thread: " + this.threadName, e) ;
+			}
+			
+			if(!hasPendingWork()){
+				break ;
+			}
+			
+			if(!processed){
+				//nothing processed, eg: the database is down. retry a little later.
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.min(100, Math.max(1, drainDeadline - System.currentTimeMillis())))) ;
+			}
+		}
+	}
+	
+	public boolean isAccepting(){
+		return accepting ;
+	}
+	
+	/**
+	 * Number of objects rejected after the shutdown started.
+	 */
+	public long getRejectedCount(){
+		return rejectedCount.get() ;
 	}
 	
 	/**
@@ -85,6 +396,11 @@ public class DemonQueuedThread extends Thread{
 				
 	public void run(){
 		while(keepRunning){
+			if(drainDeadline > 0){
+				drain() ;
+				break ;
+			}
+			
 			isSleepNow = false ;
 			
 			boolean shouldSleep = true ;
@@ -99,13 +415,11 @@ public class DemonQueuedThread extends Thread{
 			}
 			
 			if(shouldSleep){
-				try{
-					synchronized(this){
-						isSleepNow = true ;
-						this.wait(getMillSecondsToSleep()) ;
-					}
-				}catch(Throwable e){
-					//ignore all errors
+				isSleepNow = true ;
+				
+				//check again after announcing the sleep, or a signal may be missed.
+				if(keepRunning && drainDeadline == 0 && (queue == null || queue.size() < wakeUpThreshold)){
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(getMillSecondsToSleep())) ;
 				}
 			}
 		}
@@ -118,5 +432,76 @@ public class DemonQueuedThread extends Thread{
 	public void setMillSecondsToSleep(int millSecondsToSleep) {
 		this.millSecondsToSleep = millSecondsToSleep;
 	}
+	
+	/**
+	 * Approximate number of objects waiting in the queue.
+	 */
+	public int getQueueBacklog(){
+		if(queues != null){
+			int count = 0 ;
+			for(int i = 0 ; i < queues.length ; i++){
+				if(queues[i] != null) count++ ;
+			}
+			
+			return count ;
+		}
+		
+		return queue == null ? 0 : queue.size() ;
+	}
+	
+	/**
+	 * Number of objects dropped as the queue was full.
+	 */
+	public long getDroppedCount(){
+		return droppedCount.get() ;
+	}
+
+	public int getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @param overflowPolicy {@link #OVERFLOW_DROP_NEWEST}, {@link #OVERFLOW_BLOCK} or {@link #OVERFLOW_CALLER_RUNS}
+	 */
+	public void setOverflowPolicy(int overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	/**
+	 * Set the overflow policy by name: dropNewest, block or callerRuns. Unknown names are ignored.
+	 */
+	public void setOverflowPolicy(String policyName){
+		if("dropNewest".equalsIgnoreCase(policyName)){
+			this.overflowPolicy = OVERFLOW_DROP_NEWEST ;
+		}else if("block".equalsIgnoreCase(policyName)){
+			this.overflowPolicy = OVERFLOW_BLOCK ;
+		}else if("callerRuns".equalsIgnoreCase(policyName)){
+			this.overflowPolicy = OVERFLOW_CALLER_RUNS ;
+		}else if(policyName != null){
+			log.warn("unknown overflow policy:[" + policyName + "] for thread:[" + threadName + "].") ;
+		}
+	}
+
+	public long getOverflowTimeoutMillis() {
+		return overflowTimeoutMillis;
+	}
+
+	/**
+	 * Max milliseconds to block the caller under the {@link #OVERFLOW_BLOCK} policy.
+	 */
+	public void setOverflowTimeoutMillis(long overflowTimeoutMillis) {
+		this.overflowTimeoutMillis = overflowTimeoutMillis;
+	}
+
+	public int getWakeUpThreshold() {
+		return wakeUpThreshold;
+	}
+
+	/**
+	 * Wake up the sleeping thread once the queued objects reach this number. Default is 1.
+	 */
+	public void setWakeUpThreshold(int wakeUpThreshold) {
+		this.wakeUpThreshold = wakeUpThreshold < 1 ? 1 : wakeUpThreshold ;
+	}
 
 }
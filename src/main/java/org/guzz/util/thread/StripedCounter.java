@@ -0,0 +1,127 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util.thread;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 
+ * A long counter for heavy concurrent updates, working like the LongAdder of jdk8.
+ * <p/>
+ * Updates go to a single base value until two threads collide on it. Then the counter inflates to several cells chosen by the thread, 
+ * so concurrent updates rarely contend. The value is the sum of the base and all cells.
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class StripedCounter {
+	
+	/**longs between two used cells to keep them in different cache lines.*/
+	private static final int PADDING = 8 ;
+	
+	private static final int MAX_STRIPES ;
+	
+	static{
+		int cpus = Runtime.getRuntime().availableProcessors() ;
+		int n = 1 ;
+		while(n < cpus && n < 64){
+			n <<= 1 ;
+		}
+		
+		MAX_STRIPES = n ;
+	}
+	
+	private final AtomicLong base = new AtomicLong(0) ;
+	
+	private volatile AtomicLongArray cells ;
+	
+	public void add(long delta){
+		AtomicLongArray cs = this.cells ;
+		
+		if(cs == null){
+			long v = base.get() ;
+			
+			if(base.compareAndSet(v, v + delta)){
+				return ;
+			}
+			
+			cs = inflate() ;
+		}
+		
+		cs.getAndAdd(stripeIndex() * PADDING, delta) ;
+	}
+	
+	protected synchronized AtomicLongArray inflate(){
+		if(this.cells == null){
+			this.cells = new AtomicLongArray(MAX_STRIPES * PADDING) ;
+		}
+		
+		return this.cells ;
+	}
+	
+	/**
+	 * The current sum. Concurrent updates may or may not be included.
+	 */
+	public long sum(){
+		long sum = base.get() ;
+		AtomicLongArray cs = this.cells ;
+		
+		if(cs != null){
+			for(int i = 0 ; i < MAX_STRIPES ; i++){
+				sum += cs.get(i * PADDING) ;
+			}
+		}
+		
+		return sum ;
+	}
+	
+	/**
+	 * Return the sum and reset all parts to 0. Each update is counted in exactly one call of this method, 
+	 * but updates concurrent with the call may be left to the next one.
+	 */
+	public long sumThenReset(){
+		long sum = base.getAndSet(0) ;
+		AtomicLongArray cs = this.cells ;
+		
+		if(cs != null){
+			for(int i = 0 ; i < MAX_STRIPES ; i++){
+				sum += cs.getAndSet(i * PADDING, 0) ;
+			}
+		}
+		
+		return sum ;
+	}
+	
+	/**
+	 * Index of the stripe for the current thread. Same threads always use the same stripe.
+	 */
+	public static int stripeIndex(){
+		long id = Thread.currentThread().getId() ;
+		int h = (int) (id ^ (id >>> 32)) ;
+		
+		//spread the bits, same as the HashMap in jdk.
+		h ^= (h >>> 20) ^ (h >>> 12) ;
+		h ^= (h >>> 7) ^ (h >>> 4) ;
+		
+		return h & (MAX_STRIPES - 1) ;
+	}
+	
+	public static int getMaxStripes(){
+		return MAX_STRIPES ;
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.dialect;
+
+import junit.framework.TestCase;
+
+import org.guzz.orm.type.DateSQLDataType;
+import org.guzz.orm.type.IntegerSQLDataType;
+import org.guzz.orm.type.SQLDataType;
+import org.guzz.orm.type.StatefulType;
+import org.guzz.orm.type.StringSQLDataType;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestDialectDataType extends TestCase {
+	
+	public static class MyStatefulType extends StringSQLDataType implements StatefulType{
+	}
+
+	public void testCachedDataType() throws Exception{
+		AbstractDialect d = new H2Dialect() ;
+		
+		SQLDataType t = d.getDataType("int") ;
+		assertTrue(t instanceof IntegerSQLDataType) ;
+		assertSame(t, d.getDataType("int")) ;
+		assertNotSame(t, d.createDataType("int")) ;
+		
+		//case insensitive
+		assertTrue(d.getDataType("VarChar(255)") instanceof StringSQLDataType) ;
+		
+		//params are parts of the key
+		assertNotSame(d.getDataType("date|yyyy-MM-dd"), d.getDataType("date|yyyyMMdd")) ;
+		assertTrue(d.getDataType("date|yyyy-MM-dd") instanceof DateSQLDataType) ;
+		
+		d.registerUserDefinedTypes("myType", MyStatefulType.class) ;
+		assertNotSame(d.getDataType("mytype"), d.getDataType("mytype")) ;
+		
+		//overrided types
+		d.registerUserDefinedTypes("int", StringSQLDataType.class) ;
+		assertTrue(d.getDataType("int") instanceof StringSQLDataType) ;
+		assertTrue(d.getDataType("INT") instanceof StringSQLDataType) ;
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.jdbc;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestAdaptiveBatchSizePolicy extends TestCase {
+	
+	public void testConverge() throws Exception{
+		//100ms a batch.
+		AdaptiveBatchSizePolicy p = new AdaptiveBatchSizePolicy(100, 10, 4096) ;
+		assertEquals(4096, p.getBatchSize()) ;
+		
+		//wide rows: 1ms a row. 100 rows a batch.
+		for(int i = 0 ; i < 20 ; i++){
+			int rows = p.getBatchSize() ;
+			p.onBatchExecuted(rows, rows * 1000000L) ;
+		}
+		assertEquals(100, p.getBatchSize()) ;
+		
+		//narrow rows: 10 microseconds a row. capped by the max.
+		for(int i = 0 ; i < 40 ; i++){
+			int rows = p.getBatchSize() ;
+			p.onBatchExecuted(rows, rows * 10000L) ;
+		}
+		assertEquals(4096, p.getBatchSize()) ;
+	}
+	
+	public void testBounds() throws Exception{
+		AdaptiveBatchSizePolicy p = new AdaptiveBatchSizePolicy(10, 50, 1000) ;
+		
+		//one slow batch only halves the size.
+		p.onBatchExecuted(1000, 100000000000L) ;
+		assertEquals(500, p.getBatchSize()) ;
+		
+		for(int i = 0 ; i < 20 ; i++){
+			int rows = p.getBatchSize() ;
+			p.onBatchExecuted(rows, rows * 100000000L) ;
+		}
+		assertEquals(50, p.getBatchSize()) ;
+	}
+	
+	public void testSmallBatchIgnored() throws Exception{
+		AdaptiveBatchSizePolicy p = new AdaptiveBatchSizePolicy(100, 10, 1000) ;
+		
+		//the tail of a job.
+		p.onBatchExecuted(3, 50000000L) ;
+		assertEquals(1000, p.getBatchSize()) ;
+		assertEquals(0, p.getBatchesLearned()) ;
+	}
+	
+	public void testConfigure() throws Exception{
+		HashMap props = new HashMap() ;
+		assertNull(AdaptiveBatchSizePolicy.configure(props, 2048)) ;
+		
+		props.put("batchTargetMillis", "200") ;
+		AdaptiveBatchSizePolicy p = AdaptiveBatchSizePolicy.configure(props, 2048) ;
+		assertEquals(200, p.getTargetMillis()) ;
+		assertEquals(16, p.getMinBatchSize()) ;
+		assertEquals(2048, p.getMaxBatchSize()) ;
+		
+		props.put("minBatchSize", "100") ;
+		props.put("maxBatchSize", "50") ;
+		p = AdaptiveBatchSizePolicy.configure(props, 2048) ;
+		assertEquals(100, p.getMinBatchSize()) ;
+		assertEquals(100, p.getMaxBatchSize()) ;
+	}
+
+}
@@ -19,11 +19,14 @@ package org.guzz.orm.se;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.guzz.dao.PageFlip;
 import org.guzz.test.Article;
 import org.guzz.test.DBBasedTestCase;
 import org.guzz.test.User;
+import org.guzz.transaction.DataSourceTransactionManager;
 import org.guzz.transaction.ReadonlyTranSession;
 import org.guzz.transaction.TransactionManager;
 
@@ -178,6 +181,35 @@ public class TestDaoRead extends DBBasedTestCase {
 		assertEquals(page.getTotalCount(), 999) ;
 	}
 
+	public void testFindPageConcurrently() throws Exception{
+		ExecutorService executor = Executors.newFixedThreadPool(2) ;
+		((DataSourceTransactionManager) tm).setPageCountExecutor(executor) ;
+		
+		ReadonlyTranSession session = tm.openDelayReadTran() ;
+		
+		try{
+			SearchExpression se = SearchExpression.forClass(User.class) ;
+			se.setPageNo(2) ;
+			se.setPageSize(10) ;
+			se.setOrderBy("id asc") ;
+			se.setConcurrentCount(true) ;
+			
+			PageFlip page = session.page(se) ;
+			assertEquals(page.getElements().size(), 10) ;
+			assertEquals(((User) page.getElements().get(0)).getId(), 11) ;
+			assertEquals(page.getTotalCount(), 999) ;
+			
+			se.and(Terms.eq("userName", "name 5")) ;
+			page = session.page(se) ;
+			assertEquals(page.getElements().size(), 0) ;
+			assertEquals(page.getTotalCount(), 1) ;
+		}finally{
+			session.close() ;
+			((DataSourceTransactionManager) tm).setPageCountExecutor(null) ;
+			executor.shutdown() ;
+		}
+	}
+
 	protected void prepareEnv() throws Exception{
 		for(int i = 1 ; i < 1000 ; i++){
 			executeUpdate(getDefaultConn(), "insert into TB_USER values(" + i + ", 'name " + i + "', 'psw " + i + "', " + ((i%2==0)?1:0) + ", " + i + ", " + getDateFunction() + ")") ;		
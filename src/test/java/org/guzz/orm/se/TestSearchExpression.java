@@ -103,4 +103,60 @@ public class TestSearchExpression extends DBBasedTestCase{
 		assertEquals(se.toComputeRecordNumberSQL(map, sp).getOrginalSQL(), "select max(NAME) from TB_ARTICLE where NAME = :title_0") ;
 	}
 	
+	public void testShapeKey() throws Exception{
+		SearchExpression se = SearchExpression.forBusiness("article") ;
+		se.and(Terms.eq("title", "48")).and(new InTerm("id", new int[]{1, 2})) ;
+		se.setOrderBy("id desc") ;
+		
+		SearchExpression se2 = SearchExpression.forBusiness("article") ;
+		se2.and(Terms.eq("title", "49")).and(new InTerm("id", new int[]{3, 4})) ;
+		se2.setOrderBy("id desc") ;
+		
+		SearchParams sp = new SearchParams() ;
+		SearchParams sp2 = new SearchParams() ;
+		String key = se.toShapeKey(SearchExpression.SQL_LOAD_RECORDS, sp) ;
+		
+		assertNotNull(key) ;
+		assertEquals(key, se2.toShapeKey(SearchExpression.SQL_LOAD_RECORDS, sp2)) ;
+		assertEquals(sp2.getSearchParams().get("title_0"), "49") ;
+		assertEquals(sp2.getSearchParams().get("id_2"), new Integer(4)) ;
+		
+		//params are named the same as building the sql.
+		POJOBasedObjectMapping map = (POJOBasedObjectMapping) gf.getObjectMappingManager().getStaticObjectMapping("article") ;
+		SearchParams sp3 = new SearchParams() ;
+		se.toLoadRecordsMarkedSQL(map, sp3) ;
+		assertEquals(sp3.getSearchParams().keySet(), sp.getSearchParams().keySet()) ;
+		
+		//different structures
+		se2.setOrderBy("id asc") ;
+		assertFalse(key.equals(se2.toShapeKey(SearchExpression.SQL_LOAD_RECORDS, new SearchParams()))) ;
+		assertFalse(key.equals(se.toShapeKey(SearchExpression.SQL_COMPUTE_RECORD_NUMBER, new SearchParams()))) ;
+		
+		se2 = SearchExpression.forBusiness("article") ;
+		se2.and(Terms.eq("title", "49")).and(new InTerm("id", new int[]{3, 4, 5})) ;
+		se2.setOrderBy("id desc") ;
+		assertFalse(key.equals(se2.toShapeKey(SearchExpression.SQL_LOAD_RECORDS, new SearchParams()))) ;
+		
+		//terms unknown to the cache
+		se2.and(new SearchTerm(){
+			public String toExpression(SearchExpression se, org.guzz.orm.ObjectMapping mapping, SearchParams params) {
+				return "1=1" ;
+			}
+
+			public boolean isEmptyQuery() {
+				return false;
+			}
+		}) ;
+		assertNull(se2.toShapeKey(SearchExpression.SQL_LOAD_RECORDS, new SearchParams())) ;
+		
+		//a subclass changes the sql but not the shape.
+		se2 = SearchExpression.forBusiness("article") ;
+		se2.and(new CompareTerm("title", CompareTerm.EQUALS, "49"){
+			public String toExpression(SearchExpression se, org.guzz.orm.ObjectMapping mapping, SearchParams params) {
+				return "lower(" + super.toExpression(se, mapping, params) + ")" ;
+			}
+		}) ;
+		assertNull(se2.toShapeKey(SearchExpression.SQL_LOAD_RECORDS, new SearchParams())) ;
+	}
+	
 }
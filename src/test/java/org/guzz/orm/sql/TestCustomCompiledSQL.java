@@ -0,0 +1,124 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.orm.sql;
+
+import junit.framework.TestCase;
+
+import org.guzz.GuzzContextImpl;
+import org.guzz.connection.PhysicsDBGroup;
+import org.guzz.dialect.H2Dialect;
+import org.guzz.orm.mapping.POJOBasedObjectMapping;
+import org.guzz.orm.rdms.SimpleTable;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestCustomCompiledSQL extends TestCase {
+	
+	int built ;
+	
+	/**builds a new sql on every call.*/
+	class CountingProvider implements CustomCompiledSQL.DynamicSQLProvider{
+		
+		public NormalCompiledSQL getSql(POJOBasedObjectMapping mapping) {
+			built++ ;
+			
+			NormalCompiledSQL cs = new NormalCompiledSQL() ;
+			cs.setSql("select * from TB_USER where id = :id") ;
+			
+			return cs ;
+		}
+	}
+	
+	protected POJOBasedObjectMapping newMapping(){
+		PhysicsDBGroup db = new PhysicsDBGroup() ;
+		db.setGroupName("default") ;
+		db.setDialect(new H2Dialect()) ;
+		
+		SimpleTable table = new SimpleTable(db.getDialect()) ;
+		table.setTableName("TB_USER") ;
+		
+		return new POJOBasedObjectMapping(new GuzzContextImpl(){}, db, table) ;
+	}
+	
+	protected void setUp() throws Exception {
+		built = 0 ;
+	}
+	
+	public void testCacheHit() throws Exception{
+		CustomCompiledSQL cs = new CustomCompiledSQL(null, null, "user") ;
+		cs.setSqlProvider(new CountingProvider()) ;
+		cs.addParamPropMapping("id", "userId") ;
+		
+		POJOBasedObjectMapping m1 = newMapping() ;
+		POJOBasedObjectMapping m2 = newMapping() ;
+		
+		NormalCompiledSQL s1 = cs.getRuntimeSql(m1) ;
+		assertSame(s1, cs.getRuntimeSql(m1)) ;
+		assertEquals(1, built) ;
+		
+		//the param settings are copied to the runtime sql.
+		assertEquals("userId", s1.paramPropMapping.get("id")) ;
+		
+		//mappings are compared by identity.
+		NormalCompiledSQL s2 = cs.getRuntimeSql(m2) ;
+		assertNotSame(s1, s2) ;
+		assertEquals(2, built) ;
+		
+		//cache disabled.
+		cs.setRuntimeSQLCacheSize(0) ;
+		assertNotSame(cs.getRuntimeSql(m1), cs.getRuntimeSql(m1)) ;
+		assertEquals(4, built) ;
+	}
+	
+	public void testInvalidation() throws Exception{
+		CustomCompiledSQL cs = new CustomCompiledSQL(null, null, "user") ;
+		cs.setSqlProvider(new CountingProvider()) ;
+		POJOBasedObjectMapping m = newMapping() ;
+		
+		NormalCompiledSQL s1 = cs.getRuntimeSql(m) ;
+		assertEquals(1, built) ;
+		
+		//param settings changed.
+		cs.addParamPropMapping("id", "userId") ;
+		NormalCompiledSQL s2 = cs.getRuntimeSql(m) ;
+		assertNotSame(s1, s2) ;
+		assertEquals("userId", s2.paramPropMapping.get("id")) ;
+		
+		cs.registerParamType("id", "int") ;
+		NormalCompiledSQL s3 = cs.getRuntimeSql(m) ;
+		assertNotSame(s2, s3) ;
+		assertEquals(3, built) ;
+		
+		//a new provider.
+		CountingProvider provider = new CountingProvider() ;
+		cs.setSqlProvider(provider) ;
+		NormalCompiledSQL s4 = cs.getRuntimeSql(m) ;
+		assertNotSame(s3, s4) ;
+		assertEquals(4, built) ;
+		assertSame(s4, cs.getRuntimeSql(m)) ;
+		
+		//a new sql.
+		cs.setSql("select * from @@user") ;
+		assertNotSame(s4, cs.getRuntimeSql(m)) ;
+		assertEquals(5, built) ;
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.orm.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.guzz.dialect.H2Dialect;
+import org.guzz.orm.AbstractShadowTableView;
+import org.guzz.orm.rdms.SimpleTable;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestNormalCompiledSQL extends TestCase {
+	
+	protected SimpleTable createShadowTable(String tableName){
+		SimpleTable table = new SimpleTable(new H2Dialect()) ;
+		table.setShadowTableView(new AbstractShadowTableView(){
+			public String toTableName(Object tableCondition) {
+				return getConfiguredTableName() + tableCondition ;
+			}
+		}) ;
+		table.setTableName(tableName) ;
+		
+		return table ;
+	}
+	
+	public void testShadowSql() throws Exception{
+		NormalCompiledSQL cs = new NormalCompiledSQL() ;
+		cs.setSql("select * from @@user u, @@userGroup g where u.groupId = g.id and u.id in (select userId from @@user)") ;
+		cs.addShadowMapping("user", createShadowTable("TB_USER")) ;
+		cs.addShadowMapping("userGroup", createShadowTable("TB_GROUP")) ;
+		
+		assertEquals("select * from TB_USER1 u, TB_GROUP1 g where u.groupId = g.id and u.id in (select userId from TB_USER1)", cs.getSql(new Integer(1))) ;
+		assertEquals("select * from TB_USER2 u, TB_GROUP2 g where u.groupId = g.id and u.id in (select userId from TB_USER2)", cs.getSql(new Integer(2))) ;
+		
+		//cached
+		assertSame(cs.getSql(new Integer(1)), cs.getSql(new Integer(1))) ;
+		
+		//no shadow tables
+		cs = new NormalCompiledSQL() ;
+		cs.setSql("select * from TB_USER") ;
+		assertEquals("select * from TB_USER", cs.getSql(new Integer(1))) ;
+	}
+	
+	public void testParamBindings() throws Exception{
+		NormalCompiledSQL cs = new NormalCompiledSQL() ;
+		cs.setSql("select * from TB_USER where id = ? or name = ? or parentId = ?") ;
+		cs.addParamToLast("id") ;
+		cs.addParamToLast("name") ;
+		cs.addParamToLast("id") ;
+		
+		ParamBindings pb = cs.getParamBindings() ;
+		assertEquals(2, pb.getSlotCount()) ;
+		assertEquals(0, pb.getSlot("id")) ;
+		assertEquals(1, pb.getSlot("name")) ;
+		assertEquals(-1, pb.getSlot("other")) ;
+		assertSame(pb, cs.getParamBindings()) ;
+		
+		final List values = new ArrayList() ;
+		PreparedStatement pstm = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class}, new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("setObject".equals(method.getName())){
+					values.add(args[0] + "=" + args[1]) ;
+				}
+				
+				return null;
+			}
+		}) ;
+		
+		BindedCompiledSQL bsql = cs.bind("name", "lily").bind("id", 5).bind("other", "x") ;
+		assertSame(pb, bsql.getParamBindings()) ;
+		assertEquals(3, bsql.getBindedParams().size()) ;
+		
+		bsql.prepareNamedParams(null, pstm) ;
+		assertEquals("[1=5, 2=lily, 3=5]", values.toString()) ;
+		
+		values.clear() ;
+		bsql.clearBindedParams() ;
+		bsql.bindSlot(pb.getSlot("id"), new Integer(6)).bindSlot(pb.getSlot("name"), null) ;
+		bsql.prepareNamedParams(null, pstm) ;
+		assertEquals("[1=6, 2=null, 3=6]", values.toString()) ;
+		
+		//missing params
+		bsql.clearBindedParams() ;
+		bsql.bind("id", 7) ;
+		
+		try{
+			bsql.prepareNamedParams(null, pstm) ;
+			fail() ;
+		}catch(org.guzz.exception.DaoException e){
+		}
+	}
+
+}
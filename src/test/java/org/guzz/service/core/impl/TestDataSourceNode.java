@@ -0,0 +1,279 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.guzz.connection.DataSourceProvider;
+import org.guzz.connection.QueryTimeListener;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestDataSourceNode extends TestCase {
+	
+	/**
+	 * A provider fails when it is down.
+	 */
+	static class SwitchProvider implements DataSourceProvider, InvocationHandler{
+		
+		public volatile boolean down ;
+		
+		/**the pool is exhausted. the database is fine.*/
+		public volatile boolean exhausted ;
+		
+		/**the value of the lag query.*/
+		public volatile String lag ;
+		
+		/**the column name read by the lag query.*/
+		public String lagColumn ;
+		
+		public int acquired ;
+		
+		private final DataSource ds = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{DataSource.class}, this) ;
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if("getConnection".equals(method.getName())){
+				if(down){
+					SQLException e = new SQLException("Cannot create PoolableConnectionFactory") ;
+					e.initCause(new SQLException("Communications link failure", "08S01")) ;
+					
+					throw e ;
+				}else if(exhausted){
+					throw new SQLException("Timeout waiting for idle object") ;
+				}
+				
+				acquired++ ;
+				
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, new InvocationHandler(){
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName() ;
+						
+						if("createStatement".equals(name)){
+							return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Statement.class, ResultSet.class}, this) ;
+						}else if("executeQuery".equals(name)){
+							return proxy ;
+						}else if("next".equals(name)){
+							return Boolean.TRUE ;
+						}else if("getString".equals(name)){
+							lagColumn = String.valueOf(args[0]) ;
+							
+							return lag ;
+						}
+						
+						return null ;
+					}
+				}) ;
+			}
+			
+			return null ;
+		}
+
+		public void configure(Properties props, int maxLoad) {
+		}
+
+		public DataSource getDataSource() {
+			return ds ;
+		}
+
+		public void shutdown() {
+		}
+	}
+	
+	public void testEjectAndProbe() throws Exception{
+		SwitchProvider p = new SwitchProvider() ;
+		DataSourceNode n = new DataSourceNode("slave1", p) ;
+		
+		Properties props = new Properties() ;
+		props.setProperty("failureThreshold", "2") ;
+		props.setProperty("ejectTime", "50") ;
+		props.setProperty("maxEjectTime", "100") ;
+		n.configure(props) ;
+		
+		assertNotNull(n.getConnection()) ;
+		assertTrue(n.isAvailable()) ;
+		
+		//not a database failure.
+		p.exhausted = true ;
+		for(int i = 0 ; i < 3 ; i++){
+			try{
+				n.getConnection() ;
+				fail() ;
+			}catch(SQLException e){}
+		}
+		assertTrue(n.isAvailable()) ;
+		p.exhausted = false ;
+		
+		p.down = true ;
+		
+		try{
+			n.getConnection() ;
+			fail() ;
+		}catch(SQLException e){}
+		assertTrue(n.isAvailable()) ;
+		
+		try{
+			n.getConnection() ;
+			fail() ;
+		}catch(SQLException e){}
+		assertFalse(n.isAvailable()) ;
+		
+		//back off before the first probe.
+		assertFalse(n.isProbeDue(System.currentTimeMillis())) ;
+		assertTrue(n.isProbeDue(System.currentTimeMillis() + 50)) ;
+		
+		//failed probe doubles the back off.
+		assertFalse(n.probe()) ;
+		assertFalse(n.isAvailable()) ;
+		assertFalse(n.isProbeDue(System.currentTimeMillis() + 60)) ;
+		assertTrue(n.isProbeDue(System.currentTimeMillis() + 100)) ;
+		
+		p.down = false ;
+		assertTrue(n.probe()) ;
+		assertTrue(n.isAvailable()) ;
+		assertFalse(n.isProbeDue(System.currentTimeMillis() + 1000)) ;
+	}
+	
+	public void testTrackLoad() throws Exception{
+		DataSourceNode n = new DataSourceNode("slave1", new SwitchProvider()) ;
+		n.setTrackLoad(true) ;
+		
+		Connection c1 = n.getConnection() ;
+		Connection c2 = n.getConnection() ;
+		assertEquals(2, n.getLoad()) ;
+		
+		c1.close() ;
+		c1.close() ;
+		assertEquals(1, n.getLoad()) ;
+		
+		c2.close() ;
+		assertEquals(0, n.getLoad()) ;
+		
+		//closed through the statement, still counted back.
+		Connection c3 = n.getConnection() ;
+		Statement st = c3.createStatement() ;
+		assertSame(c3, st.getConnection()) ;
+		assertEquals(1, n.getLoad()) ;
+		
+		st.getConnection().close() ;
+		assertEquals(0, n.getLoad()) ;
+	}
+	
+	public void testTrackLatency() throws Exception{
+		DataSourceNode n = new DataSourceNode("slave1", new SwitchProvider()) ;
+		n.setTrackLatency(true) ;
+		
+		Connection c1 = n.getConnection() ;
+		assertTrue(c1 instanceof QueryTimeListener) ;
+		
+		((QueryTimeListener) c1).onQueryExecuted(50000000L) ;
+		double latency = n.getLatencyNanos(System.currentTimeMillis()) ;
+		assertTrue(latency >= 50000000L) ;
+		
+		//(50ms + acquire) * (1 borrowed + 1)
+		assertTrue(n.getLoad() >= 100000) ;
+		
+		c1.close() ;
+		assertTrue(n.getLoad() >= 50000 && n.getLoad() < 100000) ;
+		
+		//decayed while idle.
+		assertTrue(n.getLatencyNanos(System.currentTimeMillis() + 10000) < latency / 2) ;
+		assertTrue(n.getLatencyNanos(System.currentTimeMillis() + 100000) < 1000) ;
+		
+		//the reported times are averaged.
+		Connection c2 = n.getConnection() ;
+		((QueryTimeListener) c2).onQueryExecuted(0L) ;
+		assertTrue(n.getLatencyNanos(System.currentTimeMillis()) < latency) ;
+		c2.close() ;
+	}
+	
+	public void testLag() throws Exception{
+		SwitchProvider p = new SwitchProvider() ;
+		DataSourceNode n = new DataSourceNode("slave1", p) ;
+		
+		//not monitored, always within.
+		assertFalse(n.isLagMonitored()) ;
+		assertTrue(n.isLagWithin(0)) ;
+		
+		Properties props = new Properties() ;
+		props.setProperty("lagSQL", "SHOW SLAVE STATUS") ;
+		n.configure(props) ;
+		assertTrue(n.isLagMonitored()) ;
+		
+		//unknown before the first check.
+		assertEquals(-1, n.getLagMillis()) ;
+		assertFalse(n.isLagWithin(1000)) ;
+		assertTrue(n.isLagWithin(-1)) ;
+		
+		p.lag = "2" ;
+		n.checkLag(10000) ;
+		assertEquals("Seconds_Behind_Master", p.lagColumn) ;
+		assertEquals(2000, n.getLagMillis()) ;
+		assertTrue(n.isLagWithin(2000)) ;
+		assertFalse(n.isLagWithin(1999)) ;
+		
+		//replication stopped.
+		p.lag = null ;
+		n.checkLag(10000) ;
+		assertEquals(-1, n.getLagMillis()) ;
+		
+		//heartbeat table
+		props.setProperty("lagSQL", "select unix_timestamp() - max(ts) from heartbeat") ;
+		n.configure(props) ;
+		p.lag = "0.25" ;
+		n.checkLag(10000) ;
+		assertEquals("1", p.lagColumn) ;
+		assertEquals(250, n.getLagMillis()) ;
+		
+		//the result expires.
+		n.checkLag(-1) ;
+		assertEquals(-1, n.getLagMillis()) ;
+		
+		//failed check.
+		p.down = true ;
+		n.checkLag(10000) ;
+		assertEquals(-1, n.getLagMillis()) ;
+	}
+	
+	public void testProviderProps() throws Exception{
+		Properties props = new Properties() ;
+		props.setProperty("failureThreshold", "2") ;
+		props.setProperty("probeSQL", "select 1") ;
+		props.setProperty("jdbcUrl", "jdbc:mysql://localhost/test") ;
+		
+		Properties dsProps = DataSourceNode.providerProps(props) ;
+		
+		assertEquals(1, dsProps.size()) ;
+		assertEquals("jdbc:mysql://localhost/test", dsProps.getProperty("jdbcUrl")) ;
+		assertEquals(3, props.size()) ;
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core.impl;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestIncUpdateJournal extends TestCase {
+	
+	private File dir ;
+	
+	protected void setUp() throws Exception {
+		dir = new File(System.getProperty("java.io.tmpdir"), "guzz-journal-test-" + System.currentTimeMillis()) ;
+	}
+	
+	protected void tearDown() throws Exception {
+		File[] files = dir.listFiles() ;
+		
+		for(int i = 0 ; files != null && i < files.length ; i++){
+			files[i].delete() ;
+		}
+		
+		dir.delete() ;
+	}
+	
+	protected IncUpdateJournal newJournal(){
+		IncUpdateJournal journal = new IncUpdateJournal(dir, "test") ;
+		journal.setRecordsPerSegment(4) ;
+		journal.setFsyncPolicy(IncUpdateJournal.FSYNC_ALWAYS) ;
+		
+		return journal ;
+	}
+	
+	public void testReplay() throws Exception{
+		IncUpdateJournal journal = newJournal() ;
+		journal.open() ;
+		assertFalse(journal.hasReplay()) ;
+		
+		IncUpdateJournal.Generation g = journal.newGeneration() ;
+		IncUpdateJournal.JournalRecord[] records = new IncUpdateJournal.JournalRecord[6] ;
+		
+		for(int i = 0 ; i < records.length ; i++){
+			records[i] = g.append(null, "tb_article", "readCount", "id", String.valueOf(i), i + 1) ;
+		}
+		
+		//the first segment is full and all done. it is deleted.
+		for(int i = 0 ; i < 4 ; i++){
+			journal.markDone(records[i]) ;
+		}
+		journal.markDone(records[5]) ;
+		assertEquals(1, dir.listFiles().length) ;
+		
+		journal.close() ;
+		
+		journal = newJournal() ;
+		journal.open() ;
+		assertTrue(journal.hasReplay()) ;
+		
+		List pending = journal.readReplayRecords() ;
+		assertEquals(1, pending.size()) ;
+		
+		IncUpdateBusiness ut = (IncUpdateBusiness) pending.get(0) ;
+		assertNull(ut.getDbGroup()) ;
+		assertEquals("tb_article", ut.getTableName()) ;
+		assertEquals("readCount", ut.getColumnToUpdate()) ;
+		assertEquals("id", ut.getPkColunName()) ;
+		assertEquals("4", ut.getPkValue()) ;
+		assertEquals(5, ut.getCountToInc()) ;
+		
+		//new segments don't override the old ones.
+		g = journal.newGeneration() ;
+		g.append("default", "tb_article", "readCount", "id", "1", 1) ;
+		assertEquals(2, dir.listFiles().length) ;
+		
+		g.release() ;
+		assertEquals(1, dir.listFiles().length) ;
+		
+		journal.close() ;
+	}
+	
+	public void testOversize() throws Exception{
+		IncUpdateJournal journal = newJournal() ;
+		journal.setRecordSize(32) ;
+		journal.open() ;
+		
+		assertNull(journal.newGeneration().append("default", "tb_a_very_long_table_name", "readCount", "id", "1", 1)) ;
+		
+		journal.close() ;
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.core.impl;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.guzz.util.thread.StripedCounter;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestSuperSlowUpdateServiceImpl extends TestCase {
+	
+	protected long drain(SuperSlowUpdateServiceImpl service){
+		SuperSlowUpdateServiceImpl.Epoch old = service.retireEpoch() ;
+		long sum = 0 ;
+		
+		for(Iterator i = old.getCounters().values().iterator() ; i.hasNext() ; ){
+			sum += ((StripedCounter) i.next()).sum() ;
+		}
+		
+		return sum ;
+	}
+	
+	public void testEpochDrain() throws Exception{
+		final SuperSlowUpdateServiceImpl service = new SuperSlowUpdateServiceImpl() ;
+		final int threadsCount = 8 ;
+		final int countPerThread = 20000 ;
+		
+		Thread[] threads = new Thread[threadsCount] ;
+		for(int i = 0 ; i < threadsCount ; i++){
+			final int index = i ;
+			
+			threads[i] = new Thread(){
+				public void run(){
+					for(int k = 0 ; k < countPerThread ; k++){
+						service.addDelta(new IncUpdateKey("default", "tb_article", "readCount", "id", String.valueOf((k + index) % 16)), 1) ;
+					}
+				}
+			} ;
+			threads[i].start() ;
+		}
+		
+		//flush while updating. no increment may be lost or counted twice.
+		long drained = 0 ;
+		boolean alive = true ;
+		while(alive){
+			drained += drain(service) ;
+			
+			alive = false ;
+			for(int i = 0 ; i < threadsCount ; i++){
+				alive |= threads[i].isAlive() ;
+			}
+		}
+		drained += drain(service) ;
+		
+		assertEquals((long) threadsCount * countPerThread, drained) ;
+	}
+	
+	public void testPendingIncrement() throws Exception{
+		SuperSlowUpdateServiceImpl service = new SuperSlowUpdateServiceImpl() ;
+		IncUpdateKey key = new IncUpdateKey("default", "tb_article", "readCount", "id", "1") ;
+		
+		service.addDelta(key, 3) ;
+		assertEquals(3, service.getPendingIncrement(key)) ;
+		
+		//still visible while being flushed.
+		service.retireEpoch() ;
+		service.addDelta(key, 2) ;
+		assertEquals(5, service.getPendingIncrement(key)) ;
+		assertEquals(0, service.getPendingIncrement(new IncUpdateKey("default", "tb_article", "readCount", "id", "2"))) ;
+	}
+	
+	public void testJournalPerUpdate() throws Exception{
+		File dir = new File(System.getProperty("java.io.tmpdir"), "guzz-superslow-test-" + System.currentTimeMillis()) ;
+		
+		try{
+			SuperSlowUpdateServiceImpl service = new SuperSlowUpdateServiceImpl() ;
+			IncUpdateJournal journal = new IncUpdateJournal(dir, "test") ;
+			service.openJournal(journal) ;
+			
+			IncUpdateKey key = new IncUpdateKey("default", "tb_article", "readCount", "id", "1") ;
+			service.addDelta(key, 3) ;
+			service.addDelta(key, 2) ;
+			
+			//crashed before the epoch is flushed. every update is found on restart.
+			journal.close() ;
+			
+			IncUpdateJournal journal2 = new IncUpdateJournal(dir, "test") ;
+			journal2.open() ;
+			List records = journal2.readReplayRecords() ;
+			
+			long sum = 0 ;
+			for(int i = 0 ; i < records.size() ; i++){
+				sum += ((IncUpdateBusiness) records.get(i)).getCountToInc() ;
+			}
+			assertEquals(2, records.size()) ;
+			assertEquals(5, sum) ;
+			journal2.close() ;
+			
+			//a flushed epoch leaves nothing to replay.
+			SuperSlowUpdateServiceImpl service2 = new SuperSlowUpdateServiceImpl() ;
+			IncUpdateJournal journal3 = new IncUpdateJournal(dir, "test2") ;
+			service2.openJournal(journal3) ;
+			service2.addDelta(key, 1) ;
+			service2.retireEpoch().generation.release() ;
+			journal3.close() ;
+			
+			IncUpdateJournal journal4 = new IncUpdateJournal(dir, "test2") ;
+			journal4.open() ;
+			assertFalse(journal4.hasReplay()) ;
+			journal4.close() ;
+		}finally{
+			File[] files = dir.listFiles() ;
+			
+			for(int i = 0 ; files != null && i < files.length ; i++){
+				files[i].delete() ;
+			}
+			
+			dir.delete() ;
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.db.impl;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestSlowUpdateServerImpl extends TestCase {
+	
+	protected SlowUpdateServerImpl newServer(){
+		Properties props = new Properties() ;
+		props.put(SlowUpdateServerImpl.CONFIG_PAGE_SIZE, "100") ;
+		props.put(SlowUpdateServerImpl.CONFIG_COMBINE_PAGE_COUNT, "1") ;
+		props.put(SlowUpdateServerImpl.CONFIG_UPDATE_INTERVAL, "400") ;
+		props.put(SlowUpdateServerImpl.CONFIG_MAX_PAGE_SIZE, "200") ;
+		props.put(SlowUpdateServerImpl.CONFIG_MAX_COMBINE_PAGE_COUNT, "4") ;
+		props.put(SlowUpdateServerImpl.CONFIG_MIN_UPDATE_INTERVAL, "50") ;
+		
+		SlowUpdateServerImpl server = new SlowUpdateServerImpl() ;
+		server.configureWindow(props) ;
+		
+		return server ;
+	}
+	
+	public void testWindowGrowsAndShrinks(){
+		SlowUpdateServerImpl server = newServer() ;
+		
+		//far behind: combine more pages first, then read bigger pages, and sleep less.
+		server.recordCycle(100, 10, 100, 50, 10000, 0) ;
+		assertEquals(2, server.getCombinePageCount()) ;
+		assertEquals(100, server.getPageSize()) ;
+		assertEquals(200, server.getUpdateInterval()) ;
+		
+		server.recordCycle(200, 10, 100, 50, 10000, 0) ;
+		assertEquals(4, server.getCombinePageCount()) ;
+		assertEquals(100, server.getPageSize()) ;
+		assertEquals(100, server.getUpdateInterval()) ;
+		
+		server.recordCycle(400, 10, 100, 50, 10000, 0) ;
+		server.recordCycle(800, 10, 100, 50, 10000, 0) ;
+		assertEquals(4, server.getCombinePageCount()) ;
+		assertEquals(200, server.getPageSize()) ;
+		assertEquals(50, server.getUpdateInterval()) ;
+		
+		//caught up: shrink the page first, and go back to the configured values.
+		server.recordCycle(10, 10, 10, 5, 0, 0) ;
+		assertEquals(100, server.getPageSize()) ;
+		assertEquals(4, server.getCombinePageCount()) ;
+		assertEquals(100, server.getUpdateInterval()) ;
+		
+		for(int i = 0 ; i < 10 ; i++){
+			server.recordCycle(0, 0, 0, 0, 0, 0) ;
+		}
+		assertEquals(100, server.getPageSize()) ;
+		assertEquals(1, server.getCombinePageCount()) ;
+		assertEquals(400, server.getUpdateInterval()) ;
+	}
+	
+	public void testIdleCyclesKeepTheRate(){
+		SlowUpdateServerImpl server = newServer() ;
+		
+		//100 rows in 10ms, 10000 rows behind.
+		server.recordCycle(100, 100, 10, 5, 10000, 0) ;
+		int latency = server.getLatency() ;
+		assertEquals(10000 / 10 + server.getUpdateInterval(), latency) ;
+		
+		//idle cycles don't slow down the rate.
+		for(int i = 0 ; i < 10 ; i++){
+			server.recordCycle(0, 0, 0, 0, 0, 0) ;
+		}
+		assertEquals(0, server.getLatency()) ;
+		
+		server.recordCycle(100, 100, 10, 5, 10000, 0) ;
+		assertEquals(10000 / 10 + server.getUpdateInterval(), server.getLatency()) ;
+	}
+	
+	public void testNotAdaptive(){
+		Properties props = new Properties() ;
+		props.put(SlowUpdateServerImpl.CONFIG_ADAPTIVE, "false") ;
+		
+		SlowUpdateServerImpl server = new SlowUpdateServerImpl() ;
+		server.configureWindow(props) ;
+		
+		server.recordCycle(100, 10, 100, 50, 10000, 0) ;
+		assertEquals(100, server.getPageSize()) ;
+		assertEquals(1, server.getCombinePageCount()) ;
+		assertEquals(500, server.getUpdateInterval()) ;
+	}
+
+}
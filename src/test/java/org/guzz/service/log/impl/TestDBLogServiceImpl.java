@@ -0,0 +1,259 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.service.log.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.guzz.Guzz;
+import org.guzz.service.ServiceConfig;
+import org.guzz.transaction.TransactionManager;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestDBLogServiceImpl extends TestCase {
+	
+	/**table -> objects committed to it. the table is named by the class and the tableCondition of the batcher.*/
+	Map tables ;
+	
+	int commits ;
+	
+	int rollbacks ;
+	
+	/**a WriteTranSession whose batchers write to the tables on commit.*/
+	class FakeSession implements InvocationHandler{
+		
+		final List executed = new LinkedList() ;
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName() ;
+			
+			if("createObjectBatcher".equals(name)){
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{method.getReturnType()}, new FakeBatcher(this)) ;
+			}else if("commit".equals(name)){
+				for(int i = 0 ; i < executed.size() ; i++){
+					Object[] row = (Object[]) executed.get(i) ;
+					List rows = (List) tables.get(row[0]) ;
+					
+					if(rows == null){
+						rows = new ArrayList() ;
+						tables.put(row[0], rows) ;
+					}
+					
+					rows.add(row[1]) ;
+				}
+				
+				executed.clear() ;
+				commits++ ;
+			}else if("rollback".equals(name)){
+				executed.clear() ;
+				rollbacks++ ;
+			}
+			
+			return null ;
+		}
+	}
+	
+	class FakeBatcher implements InvocationHandler{
+		
+		final FakeSession session ;
+		
+		final List pending = new LinkedList() ;
+		
+		Object tableCondition ;
+		
+		FakeBatcher(FakeSession session){
+			this.session = session ;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName() ;
+			
+			if("setTableCondition".equals(name)){
+				tableCondition = args[0] ;
+			}else if("insert".equals(name)){
+				if("bad".equals(args[0])){
+					throw new IllegalStateException("bad row") ;
+				}
+				
+				//the thread's tableCondition is set for the shadow table policy as well.
+				assertEquals(tableCondition, Guzz.getTableCondition()) ;
+				pending.add(new Object[]{args[0].getClass().getName() + "_" + tableCondition, args[0]}) ;
+			}else if("executeBatch".equals(name)){
+				session.executed.addAll(pending) ;
+				pending.clear() ;
+				
+				return new int[0] ;
+			}else if(method.getReturnType() == boolean.class){
+				return Boolean.FALSE ;
+			}else if(method.getReturnType() == int.class){
+				return new Integer(0) ;
+			}
+			
+			return null ;
+		}
+	}
+	
+	protected DBLogServiceImpl newService(){
+		DBLogServiceImpl service = new DBLogServiceImpl() ;
+		
+		service.tm = (TransactionManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{TransactionManager.class}, new InvocationHandler(){
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if("openRWTran".equals(method.getName())){
+					return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{method.getReturnType()}, new FakeSession()) ;
+				}
+				
+				return null ;
+			}
+		}) ;
+		
+		return service ;
+	}
+	
+	protected void setUp() throws Exception {
+		tables = new HashMap() ;
+		commits = 0 ;
+		rollbacks = 0 ;
+	}
+	
+	public void testGroupsCommittedSeparately() throws Exception{
+		DBLogServiceImpl service = newService() ;
+		DBLogServiceImpl.DBLogThread t = service.new DBLogThread("test", 100) ;
+		
+		t.addToQueue(new DBLogServiceImpl.LogObject("a1", "a")) ;
+		t.addToQueue(new DBLogServiceImpl.LogObject("b1", "b")) ;
+		t.addToQueue(new DBLogServiceImpl.LogObject(new Integer(1), "a")) ;
+		t.addToQueue(new DBLogServiceImpl.LogObject("a2", "a")) ;
+		t.addToQueue(new DBLogServiceImpl.LogObject("bad", "c")) ;
+		t.addToQueue(new DBLogServiceImpl.LogObject("b2", "b")) ;
+		
+		Guzz.setTableCondition("caller") ;
+		
+		try{
+			assertTrue(t.doWithTheQueue()) ;
+			
+			//restored after every group.
+			assertEquals("caller", Guzz.getTableCondition()) ;
+		}finally{
+			Guzz.setTableCondition(null) ;
+		}
+		
+		//one commit per table. the failed group doesn't affect the others.
+		assertEquals(3, commits) ;
+		assertEquals(1, rollbacks) ;
+		assertEquals(3, tables.size()) ;
+		
+		List a = (List) tables.get(String.class.getName() + "_a") ;
+		assertEquals(2, a.size()) ;
+		assertEquals("a1", a.get(0)) ;
+		assertEquals("a2", a.get(1)) ;
+		
+		List b = (List) tables.get(String.class.getName() + "_b") ;
+		assertEquals(2, b.size()) ;
+		assertEquals("b1", b.get(0)) ;
+		assertEquals("b2", b.get(1)) ;
+		
+		List ia = (List) tables.get(Integer.class.getName() + "_a") ;
+		assertEquals(1, ia.size()) ;
+		
+		assertNull(tables.get(String.class.getName() + "_c")) ;
+	}
+	
+	protected DBLogServiceImpl startService(DBLogServiceImpl service, int partitions, String partitionBy){
+		Properties props = new Properties() ;
+		props.put("partitions", String.valueOf(partitions)) ;
+		props.put("partitionBy", partitionBy) ;
+		
+		ServiceConfig sc = new ServiceConfig() ;
+		sc.setProps(props) ;
+		
+		service.configure(new ServiceConfig[]{sc}) ;
+		service.startup() ;
+		
+		return service ;
+	}
+	
+	public void testPartitionByDBGroup() throws Exception{
+		//the tableCondition names the database group in this test.
+		DBLogServiceImpl service = startService(new DBLogServiceImpl(){
+			protected String getPhysicsGroupName(Object logObject, Object tableCondition){
+				return (String) tableCondition ;
+			}
+		}, 3, DBLogServiceImpl.PARTITION_BY_DB_GROUP) ;
+		
+		try{
+			Set used = new HashSet() ;
+			String[] groups = {"g1", "g2", "g3"} ;
+			
+			for(int i = 0 ; i < groups.length ; i++){
+				DBLogServiceImpl.DBLogThread t = service.choosePartition("log", groups[i]) ;
+				used.add(t) ;
+				
+				//the same group always goes to the same worker.
+				for(int k = 0 ; k < 10 ; k++){
+					assertSame(t, service.choosePartition(new Integer(k), groups[i])) ;
+				}
+			}
+			
+			//as many groups as workers: every worker is used.
+			assertEquals(3, used.size()) ;
+			
+			//unknown objects go to the first worker.
+			assertSame(service.partitionThreads[0], service.choosePartition("log", null)) ;
+		}finally{
+			service.shutdown() ;
+		}
+	}
+	
+	public void testPartitionByBusiness() throws Exception{
+		DBLogServiceImpl service = startService(new DBLogServiceImpl(), 2, DBLogServiceImpl.PARTITION_BY_BUSINESS) ;
+		
+		try{
+			Object[] logs = {"log", new Integer(1), new Long(1), new Double(1), new StringBuffer(), new Object()} ;
+			Set used = new HashSet() ;
+			
+			for(int i = 0 ; i < logs.length ; i++){
+				DBLogServiceImpl.DBLogThread t = service.choosePartition(logs[i], null) ;
+				used.add(t) ;
+				
+				//the same business always goes to the same worker, whatever the tableCondition.
+				assertSame(t, service.choosePartition(logs[i], "a")) ;
+				assertSame(t, service.choosePartition(logs[i], "b")) ;
+			}
+			
+			assertEquals(2, used.size()) ;
+		}finally{
+			service.shutdown() ;
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import junit.framework.TestCase;
+
+import org.guzz.connection.ConnectionFetcher;
+import org.guzz.connection.PhysicsDBGroup;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestConnectionsGroup extends TestCase {
+	
+	int opened ;
+	
+	int closed ;
+	
+	class CountingFetcher implements ConnectionFetcher, InvocationHandler{
+
+		public Connection getConnection(PhysicsDBGroup dbGroup) {
+			opened++ ;
+			
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, this) ;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if("close".equals(method.getName())){
+				closed++ ;
+			}else if("prepareStatement".equals(method.getName())){
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class}, new StatementSettings()) ;
+			}else if(method.getReturnType() == int.class){
+				return new Integer(Connection.TRANSACTION_REPEATABLE_READ) ;
+			}else if(method.getReturnType() == boolean.class){
+				return Boolean.FALSE ;
+			}
+			
+			return null ;
+		}
+	}
+	
+	/**records the last query timeout set.*/
+	static class StatementSettings implements InvocationHandler{
+		
+		int queryTimeout ;
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if("setQueryTimeout".equals(method.getName())){
+				queryTimeout = ((Integer) args[0]).intValue() ;
+			}else if("getQueryTimeout".equals(method.getName())){
+				return new Integer(queryTimeout) ;
+			}else if(method.getReturnType() == int.class){
+				return new Integer(0) ;
+			}else if(method.getReturnType() == boolean.class){
+				return Boolean.FALSE ;
+			}
+			
+			return null ;
+		}
+	}
+	
+	protected void setUp() throws Exception {
+		opened = 0 ;
+		closed = 0 ;
+	}
+	
+	public void testHoldUntilClose() throws Exception{
+		ConnectionsGroup g = new ConnectionsGroup(new CountingFetcher()) ;
+		PhysicsDBGroup db = new PhysicsDBGroup() ;
+		db.setGroupName("default") ;
+		
+		for(int i = 0 ; i < 3 ; i++){
+			g.statementStarted() ;
+			g.getConnection(db) ;
+			g.statementFinished() ;
+		}
+		
+		assertEquals(1, opened) ;
+		assertEquals(0, closed) ;
+		
+		g.close() ;
+		assertEquals(1, closed) ;
+	}
+	
+	public void testReleaseAfterStatement() throws Exception{
+		ConnectionsGroup g = new ConnectionsGroup(new CountingFetcher()) ;
+		g.setReleaseAfterStatement(true) ;
+		PhysicsDBGroup db = new PhysicsDBGroup() ;
+		db.setGroupName("default") ;
+		
+		for(int i = 0 ; i < 3 ; i++){
+			g.statementStarted() ;
+			g.getConnection(db) ;
+			g.statementFinished() ;
+		}
+		
+		assertEquals(3, opened) ;
+		assertEquals(3, closed) ;
+		
+		//nested query: the outer one still reads from the connection.
+		g.statementStarted() ;
+		Connection outer = g.getConnection(db) ;
+		
+		g.statementStarted() ;
+		assertSame(outer, g.getConnection(db)) ;
+		g.statementFinished() ;
+		assertEquals(3, closed) ;
+		
+		g.statementFinished() ;
+		assertEquals(4, closed) ;
+		
+		g.close() ;
+		assertEquals(4, closed) ;
+	}
+	
+	public void testReusedStatementIsReset() throws Exception{
+		ConnectionsGroup g = new ConnectionsGroup(new CountingFetcher()) ;
+		PhysicsDBGroup db = new PhysicsDBGroup() ;
+		db.setGroupName("default") ;
+		Connection conn = g.getConnection(db) ;
+		
+		PreparedStatement pstm = g.prepareStatement(conn, "select 1") ;
+		pstm.setQueryTimeout(5) ;
+		g.releaseStatement(pstm) ;
+		
+		PreparedStatement pstm2 = g.prepareStatement(conn, "select 1") ;
+		assertSame(pstm, pstm2) ;
+		assertEquals(0, pstm2.getQueryTimeout()) ;
+		
+		//busy: a new statement not cached.
+		PreparedStatement pstm3 = g.prepareStatement(conn, "select 1") ;
+		assertNotSame(pstm2, pstm3) ;
+		
+		g.releaseStatement(pstm3) ;
+		g.releaseStatement(pstm2) ;
+		
+		assertSame(pstm, g.prepareStatement(conn, "select 1")) ;
+		
+		g.close() ;
+	}
+	
+	public void testIsolationKeepsConnection() throws Exception{
+		ConnectionsGroup g = new ConnectionsGroup(new CountingFetcher()) ;
+		g.setReleaseAfterStatement(true) ;
+		PhysicsDBGroup db = new PhysicsDBGroup() ;
+		db.setGroupName("default") ;
+		
+		g.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED) ;
+		
+		g.statementStarted() ;
+		g.getConnection(db) ;
+		g.statementFinished() ;
+		
+		assertEquals(0, closed) ;
+	}
+	
+	public void testHandedOutConnectionIsKept() throws Exception{
+		ConnectionsGroup g = new ConnectionsGroup(new CountingFetcher()) ;
+		g.setReleaseAfterStatement(true) ;
+		PhysicsDBGroup db = new PhysicsDBGroup() ;
+		db.setGroupName("default") ;
+		
+		//eg: a JDBCTemplate.
+		g.connectionsHandedOut() ;
+		Connection conn = g.getConnection(db) ;
+		
+		g.statementStarted() ;
+		assertSame(conn, g.getConnection(db)) ;
+		g.statementFinished() ;
+		
+		assertEquals(1, opened) ;
+		assertEquals(0, closed) ;
+		
+		g.close() ;
+		assertEquals(1, closed) ;
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+import javax.sql.DataSource;
+
+import junit.framework.TestCase;
+
+import org.guzz.connection.DBGroupManager;
+import org.guzz.connection.PhysicsDBGroup;
+import org.guzz.jdbc.JDBCTemplate;
+import org.guzz.orm.sql.impl.CompiledSQLManagerImpl;
+import org.guzz.service.core.DatabaseService;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestReadTransactionManager extends TestCase {
+	
+	int opened ;
+	
+	int closed ;
+	
+	PhysicsDBGroup db ;
+	
+	ReadTransactionManager tm ;
+	
+	/**a DatabaseService giving counted connections.*/
+	class CountingDatabase implements InvocationHandler{
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName() ;
+			
+			if("isAvailable".equals(name)){
+				return Boolean.TRUE ;
+			}else if("getDataSource".equals(name)){
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{DataSource.class}, this) ;
+			}else if("getConnection".equals(name)){
+				opened++ ;
+				
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, this) ;
+			}else if("close".equals(name)){
+				closed++ ;
+			}else if(method.getReturnType() == boolean.class){
+				return Boolean.FALSE ;
+			}else if(method.getReturnType() == int.class){
+				return new Integer(0) ;
+			}
+			
+			return null ;
+		}
+	}
+	
+	protected void setUp() throws Exception {
+		opened = 0 ;
+		closed = 0 ;
+		
+		DatabaseService ds = (DatabaseService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{DatabaseService.class}, new CountingDatabase()) ;
+		db = new PhysicsDBGroup() ;
+		db.setGroupName("default") ;
+		db.setMasterDB(ds) ;
+		db.setSlaveDB(ds) ;
+		
+		DBGroupManager dbGroupManager = new DBGroupManager() ;
+		dbGroupManager.put("default", db) ;
+		
+		tm = new DataSourceTransactionManager(null, new CompiledSQLManagerImpl(null), null, null, dbGroupManager, null) ;
+	}
+	
+	/**
+	 * Run a statement on the session, as the queries of the session do.
+	 */
+	protected Connection runStatement(ReadonlyTranSession session){
+		ConnectionsGroup g = ((AbstractTranSessionImpl) session).getConnectionsGroup() ;
+		g.statementStarted() ;
+		
+		try{
+			return g.getConnection(db) ;
+		}finally{
+			g.statementFinished() ;
+		}
+	}
+	
+	public void testHoldByDefault() throws Exception{
+		ReadonlyTranSession session = tm.openDelayReadTran(-1) ;
+		
+		Connection c1 = runStatement(session) ;
+		Connection c2 = runStatement(session) ;
+		
+		assertSame(c1, c2) ;
+		assertEquals(1, opened) ;
+		assertEquals(0, closed) ;
+		
+		session.close() ;
+		assertEquals(1, closed) ;
+	}
+	
+	public void testReleaseAfterStatement() throws Exception{
+		ReadonlyTranSession session = tm.openDelayReadTran(-1, true) ;
+		
+		runStatement(session) ;
+		assertEquals(1, opened) ;
+		assertEquals(1, closed) ;
+		
+		//the second statement gets a new connection.
+		runStatement(session) ;
+		assertEquals(2, opened) ;
+		assertEquals(2, closed) ;
+		
+		session.close() ;
+		assertEquals(2, closed) ;
+		
+		session = tm.openNoDelayReadonlyTran(true) ;
+		runStatement(session) ;
+		runStatement(session) ;
+		assertEquals(4, opened) ;
+		assertEquals(4, closed) ;
+		session.close() ;
+	}
+	
+	public void testHandedOutConnectionIsKept() throws Exception{
+		ReadonlyTranSession session = tm.openDelayReadTran(-1, true) ;
+		
+		runStatement(session) ;
+		assertEquals(1, closed) ;
+		
+		//the template reads from the connection whenever it wants.
+		JDBCTemplate template = session.createJDBCTemplateByDbGroup("default", null) ;
+		Connection conn = template.getConnection() ;
+		
+		assertSame(conn, runStatement(session)) ;
+		assertSame(conn, runStatement(session)) ;
+		assertEquals(2, opened) ;
+		assertEquals(1, closed) ;
+		
+		session.close() ;
+		assertEquals(2, closed) ;
+	}
+
+}
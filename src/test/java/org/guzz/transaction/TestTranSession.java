@@ -20,12 +20,16 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.guzz.jdbc.JDBCTemplate;
 import org.guzz.orm.se.SearchExpression;
 import org.guzz.orm.se.Terms;
 import org.guzz.orm.sql.CompiledSQL;
+import org.guzz.orm.sql.ResultCursor;
+import org.guzz.orm.sql.RowCallback;
 import org.guzz.orm.sql.SQLQueryCallBack;
 import org.guzz.test.Article;
 import org.guzz.test.DBBasedTestCase;
@@ -76,6 +80,84 @@ public class TestTranSession extends DBBasedTestCase{
 		ts.close() ;
 	}
 	
+	public void testStatementCache() throws SQLException, Exception{
+		ReadonlyTranSession ts = gf.getTransactionManager().openDelayReadTran() ;
+		
+		try{
+			for(int i = 1 ; i < 4 ; i++){
+				SearchExpression se = SearchExpression.forClass(Article.class) ;
+				se.and(Terms.eq("id", new Integer(i))) ;
+				
+				Article a = (Article) ts.findObject(se) ;
+				assertEquals(a.getTitle(), "title " + i) ;
+			}
+			
+			ConnectionsGroup cg = ((AbstractTranSessionImpl) ts).getConnectionsGroup() ;
+			assertEquals(cg.statementCaches.size(), 1) ;
+			
+			PreparedStatementCache cache = (PreparedStatementCache) cg.statementCaches.values().iterator().next() ;
+			assertEquals(cache.size(), 1) ;
+		}finally{
+			ts.close() ;
+		}
+	}
+	
+	public void testIterate() throws SQLException, Exception{
+		ReadonlyTranSession ts = gf.getTransactionManager().openDelayReadTran() ;
+		
+		try{
+			ResultCursor c = ts.iterate(SearchExpression.forLoadAll(Article.class).setOrderBy("id asc")) ;
+			int count = 0 ;
+			
+			while(c.hasNext()){
+				Article a = (Article) c.next() ;
+				count++ ;
+				
+				assertEquals(a.getTitle(), "title " + count) ;
+			}
+			
+			assertEquals(count, 4) ;
+			assertEquals(c.getRowIndex(), 4) ;
+			
+			//stop at the second row
+			int handled = ts.forEach(SearchExpression.forLoadAll(Article.class), new RowCallback(){
+				public boolean handleRow(Object rowObject, int rowIndex) throws Exception {
+					assertTrue(rowObject instanceof Article) ;
+					
+					return rowIndex < 2 ;
+				}
+			}) ;
+			
+			assertEquals(handled, 2) ;
+		}finally{
+			ts.close() ;
+		}
+	}
+	
+	public void testRowLoadPlan() throws SQLException, Exception{
+		ReadonlyTranSession ts = gf.getTransactionManager().openDelayReadTran() ;
+		
+		try{
+			//the plan built for the first page is reused by the second one.
+			List page1 = ts.list(SearchExpression.forClass(Article.class, 1, 2).setOrderBy("id asc")) ;
+			List page2 = ts.list(SearchExpression.forClass(Article.class, 2, 2).setOrderBy("id asc")) ;
+			
+			assertEquals(((Article) page1.get(1)).getTitle(), "title 2") ;
+			assertEquals(((Article) page2.get(0)).getTitle(), "title 3") ;
+			
+			CompiledSQL sql = gf.getTransactionManager().getCompiledSQLBuilder().buildCompiledSQL("article", "select * from @@article order by @id asc") ;
+			
+			for(int i = 0 ; i < 2 ; i++){
+				List maps = ts.list(sql.bindNoParams().setResultClass(HashMap.class), 1, 10) ;
+				
+				assertEquals(maps.size(), 4) ;
+				assertEquals(((Map) maps.get(0)).get("title"), "title 1") ;
+			}
+		}finally{
+			ts.close() ;
+		}
+	}
+	
 	public void testReadDBCell00() throws SQLException, Exception{
 		ReadonlyTranSession ts = gf.getTransactionManager().openDelayReadTran() ;
 		
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util.javabean;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.guzz.exception.ORMException;
+import org.guzz.test.Article;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestFastBeanWrapper extends TestCase{
+	
+	public static class StrictBean{
+		private int age ;
+
+		public int getAge() {
+			if(age < 0) throw new IllegalStateException("age not set") ;
+			
+			return age;
+		}
+
+		public void setAge(int age) {
+			if(age < 0) throw new IllegalArgumentException("negative age") ;
+			
+			this.age = age;
+		}
+	}
+	
+	public void testGetAndSet(){
+		JavaBeanWrapper bw = BeanWrapper.createFastPOJOWrapper(Article.class) ;
+		assertTrue(bw instanceof FastBeanWrapper) ;
+		
+		Article a = new Article() ;
+		Date now = new Date() ;
+		
+		bw.setValue(a, "title", "hello") ;
+		bw.setValue(a, bw.getPropertyIndex("id"), new Integer(12)) ;
+		bw.setValue(a, bw.getPropertyIndex("createdTime"), now) ;
+		
+		assertEquals(a.getTitle(), "hello") ;
+		assertEquals(a.getId(), 12) ;
+		assertEquals(bw.getValue(a, "createdTime"), now) ;
+		assertEquals(bw.getValue(a, bw.getPropertyIndex("id")), new Integer(12)) ;
+		
+		try{
+			bw.setValue(a, bw.getPropertyIndex("id"), null) ;
+			fail("null is not allowed for int.") ;
+		}catch(ORMException e){
+		}
+		
+		try{
+			bw.getPropertyIndex("notExsit") ;
+			fail("unknown property.") ;
+		}catch(ORMException e){
+		}
+	}
+	
+	/**
+	 * Set the value with the wrapper, and return the exception thrown.
+	 */
+	protected Throwable trySet(JavaBeanWrapper bw, Object bean, Object value){
+		try{
+			bw.setValue(bean, bw.getPropertyIndex("age"), value) ;
+			return null ;
+		}catch(Throwable e){
+			return e ;
+		}
+	}
+	
+	protected void assertSameSet(Object value){
+		JavaBeanWrapper fast = BeanWrapper.createFastPOJOWrapper(StrictBean.class) ;
+		JavaBeanWrapper reflect = new JavaBeanWrapper(StrictBean.class) ;
+		assertTrue(fast instanceof FastBeanWrapper) ;
+		
+		StrictBean b1 = new StrictBean() ;
+		StrictBean b2 = new StrictBean() ;
+		Throwable e1 = trySet(fast, b1, value) ;
+		Throwable e2 = trySet(reflect, b2, value) ;
+		
+		assertEquals("value:" + value, e2 == null ? null : e2.getClass(), e1 == null ? null : e1.getClass()) ;
+		assertEquals("value:" + value, rootCause(e2), rootCause(e1)) ;
+		assertEquals("value:" + value, b2.age, b1.age) ;
+	}
+	
+	protected Class rootCause(Throwable e){
+		if(e == null) return null ;
+		
+		while(e.getCause() != null){
+			e = e.getCause() ;
+		}
+		
+		return e.getClass() ;
+	}
+	
+	public void testSameAsReflection(){
+		assertSameSet(new Integer(12)) ;
+		assertSameSet(new Short((short) 12)) ;
+		assertSameSet(new Byte((byte) 12)) ;
+		assertSameSet(new Character('a')) ;
+		
+		//not truncated into the int.
+		assertSameSet(new Long(12)) ;
+		assertSameSet(new Long(Integer.MAX_VALUE + 1L)) ;
+		assertSameSet(new Double(12.5)) ;
+		assertSameSet("12") ;
+		assertSameSet(null) ;
+		
+		//the setter rejects it.
+		assertSameSet(new Integer(-1)) ;
+	}
+	
+	public void testExceptionsOfUserCode(){
+		JavaBeanWrapper bw = BeanWrapper.createFastPOJOWrapper(StrictBean.class) ;
+		assertTrue(bw instanceof FastBeanWrapper) ;
+		
+		StrictBean b = new StrictBean() ;
+		int index = bw.getPropertyIndex("age") ;
+		
+		try{
+			bw.setValue(b, index, new Integer(-1)) ;
+			fail("the setter rejects it.") ;
+		}catch(ORMException e){
+			assertEquals(e.getCause().getCause().getMessage(), "negative age") ;
+		}
+		
+		b.age = -1 ;
+		try{
+			bw.getValue(b, index) ;
+			fail("the getter rejects it.") ;
+		}catch(ORMException e){
+			assertTrue(e.getCause().getCause() instanceof IllegalStateException) ;
+		}
+		
+		try{
+			bw.setValue(b, index, new Long(Integer.MAX_VALUE + 1L)) ;
+			fail("not an int.") ;
+		}catch(ORMException e){
+		}
+		
+		bw.setValue(b, index, new Short((short) 12)) ;
+		assertEquals(bw.getValue(b, index), new Integer(12)) ;
+	}
+	
+	public void testFallbackToReflection(){
+		BeanWrapper.setBytecodeEnabled(false) ;
+		
+		try{
+			JavaBeanWrapper bw = BeanWrapper.createFastPOJOWrapper(Article.class) ;
+			assertFalse(bw instanceof FastBeanWrapper) ;
+			
+			Article a = new Article() ;
+			bw.setValue(a, bw.getPropertyIndex("title"), "hello") ;
+			assertEquals(bw.getValue(a, "title"), "hello") ;
+		}finally{
+			BeanWrapper.setBytecodeEnabled(true) ;
+		}
+	}
+
+}
@@ -70,5 +70,125 @@ public class TestRound extends TestCase{
 			assertEquals(r.getCard(), 2) ;
 		}
 	}
+	
+	public void testConcurrentCardPool() throws Exception{
+		final LBRound r = new LBRound() ;
+		
+		r.addToPool(1, 100) ;
+		r.addToPool(2, 300) ;
+		r.applyNewPool() ;
+		
+		final int[][] counts = new int[4][3] ;
+		Thread[] ts = new Thread[4] ;
+		
+		for(int i = 0 ; i < ts.length ; i++){
+			final int[] c = counts[i] ;
+			
+			ts[i] = new Thread(){
+				public void run(){
+					for(int k = 0 ; k < 10000 ; k++){
+						c[((Integer) r.getCard()).intValue()]++ ;
+					}
+				}
+			} ;
+			ts[i].start() ;
+		}
+		
+		int c1 = 0 ;
+		int c2 = 0 ;
+		
+		for(int i = 0 ; i < ts.length ; i++){
+			ts[i].join() ;
+			c1 += counts[i][1] ;
+			c2 += counts[i][2] ;
+		}
+		
+		//every call takes a distinct position, so the weights are kept exactly.
+		assertEquals(10000, c1) ;
+		assertEquals(30000, c2) ;
+	}
+	
+	static class Loaded implements LoadCard{
+		public int load ;
+		public boolean available = true ;
+		
+		public int getLoad() {
+			return load ;
+		}
+
+		public boolean isAvailable() {
+			return available ;
+		}
+	}
+	
+	public void testLeastLoad(){
+		LeastLoadRound r = new LeastLoadRound() ;
+		Loaded a = new Loaded() ;
+		Loaded b = new Loaded() ;
+		
+		r.addToPool(a, 100) ;
+		r.addToPool(b, 300) ;
+		r.applyNewPool() ;
+		
+		//(0+1)/100 > (0+1)/300
+		assertSame(b, r.getCard()) ;
+		
+		//(1+1)/100 < (9+1)/300
+		a.load = 1 ;
+		b.load = 9 ;
+		assertSame(a, r.getCard()) ;
+		
+		a.available = false ;
+		assertSame(b, r.getCard()) ;
+		
+		b.available = false ;
+		assertNull(r.getCard()) ;
+		
+		assertNull(new LeastLoadRound().getCard()) ;
+	}
+	
+	public void testTwoChoices(){
+		TwoChoicesRound r = new TwoChoicesRound() ;
+		Loaded a = new Loaded() ;
+		Loaded b = new Loaded() ;
+		Loaded slow = new Loaded() ;
+		
+		r.addToPool(a, 100) ;
+		r.addToPool(b, 100) ;
+		r.addToPool(slow, 100) ;
+		r.applyNewPool() ;
+		
+		a.load = 10 ;
+		b.load = 10 ;
+		slow.load = 1000 ;
+		
+		//the slow one always loses the comparison.
+		for(int i = 0 ; i < 1000 ; i++){
+			assertNotSame(slow, r.getCard()) ;
+		}
+		
+		a.available = false ;
+		b.available = false ;
+		
+		for(int i = 0 ; i < 100 ; i++){
+			assertSame(slow, r.getCard()) ;
+		}
+	}
+	
+	public void testLeastLoadTurns(){
+		LeastLoadRound r = new LeastLoadRound() ;
+		Loaded a = new Loaded() ;
+		Loaded b = new Loaded() ;
+		
+		r.addToPool(a, 100) ;
+		r.addToPool(b, 100) ;
+		r.applyNewPool() ;
+		
+		//same load, chosen in turn.
+		Object first = r.getCard() ;
+		Object second = r.getCard() ;
+		
+		assertNotSame(first, second) ;
+	}
 
 }
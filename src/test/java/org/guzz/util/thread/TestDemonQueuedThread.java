@@ -0,0 +1,243 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestDemonQueuedThread extends TestCase {
+	
+	public void testMPSCQueue() throws Exception{
+		final BoundedMPSCQueue queue = new BoundedMPSCQueue(1000) ;
+		assertEquals(1024, queue.getCapacity()) ;
+		
+		final int producers = 4 ;
+		final int countPerProducer = 20000 ;
+		
+		Thread[] threads = new Thread[producers] ;
+		for(int i = 0 ; i < producers ; i++){
+			threads[i] = new Thread(){
+				public void run(){
+					for(int k = 1 ; k <= countPerProducer ; k++){
+						while(!queue.offer(new Integer(k))){
+							Thread.yield() ;
+						}
+					}
+				}
+			} ;
+			threads[i].start() ;
+		}
+		
+		long sum = 0 ;
+		int received = 0 ;
+		
+		while(received < producers * countPerProducer){
+			Integer value = (Integer) queue.poll() ;
+			
+			if(value == null){
+				Thread.yield() ;
+			}else{
+				sum += value.intValue() ;
+				received++ ;
+			}
+		}
+		
+		for(int i = 0 ; i < producers ; i++){
+			threads[i].join() ;
+		}
+		
+		assertEquals((long) producers * countPerProducer * (countPerProducer + 1) / 2, sum) ;
+		assertNull(queue.poll()) ;
+		assertTrue(queue.isEmpty()) ;
+	}
+	
+	public void testOverflow() throws Exception{
+		final List callerRuns = new ArrayList() ;
+		
+		DemonQueuedThread t = new DemonQueuedThread("test", new BoundedMPSCQueue(4)){
+			protected boolean processInCaller(Object obj) throws Exception {
+				callerRuns.add(obj) ;
+				
+				return true ;
+			}
+		} ;
+		
+		for(int i = 0 ; i < 4 ; i++){
+			assertTrue(t.offerToQueue(new Integer(i))) ;
+		}
+		assertEquals(4, t.getQueueBacklog()) ;
+		
+		//drop newest
+		assertFalse(t.offerToQueue("dropped")) ;
+		assertEquals(1, t.getDroppedCount()) ;
+		
+		//block
+		t.setOverflowPolicy("block") ;
+		t.setOverflowTimeoutMillis(50) ;
+		assertFalse(t.offerToQueue("timeout")) ;
+		assertEquals(2, t.getDroppedCount()) ;
+		
+		//caller runs
+		t.setOverflowPolicy(DemonQueuedThread.OVERFLOW_CALLER_RUNS) ;
+		assertTrue(t.offerToQueue("callerRuns")) ;
+		assertEquals(1, callerRuns.size()) ;
+		
+		//nothing overridden
+		for(int i = 0 ; i < 4 ; i++){
+			assertEquals(new Integer(i), t.pollQueue()) ;
+		}
+		assertNull(t.pollQueue()) ;
+		
+		//not overridden: block for space.
+		DemonQueuedThread t2 = new DemonQueuedThread("test", new BoundedMPSCQueue(1)) ;
+		t2.setOverflowPolicy(DemonQueuedThread.OVERFLOW_CALLER_RUNS) ;
+		t2.setOverflowTimeoutMillis(50) ;
+		assertTrue(t2.offerToQueue("a")) ;
+		assertFalse(t2.offerToQueue("b")) ;
+		assertEquals(1, t2.getDroppedCount()) ;
+	}
+	
+	public void testArrayQueue() throws Exception{
+		final List processed = new ArrayList() ;
+		
+		//subclasses reading the slots directly.
+		DemonQueuedThread t = new DemonQueuedThread("test", 4){
+			protected boolean doWithTheQueue() throws Exception {
+				for(int i = 0 ; i < queues.length ; i++){
+					if(queues[i] != null){
+						processed.add(queues[i]) ;
+						queues[i] = null ;
+					}
+				}
+				
+				return false ;
+			}
+		} ;
+		
+		t.addToQueue("a") ;
+		t.addToQueue("b") ;
+		assertEquals(2, t.getQueueBacklog()) ;
+		assertNull(t.pollQueue()) ;
+		
+		t.doWithTheQueue() ;
+		assertEquals(2, processed.size()) ;
+		assertEquals(0, t.getQueueBacklog()) ;
+	}
+	
+	public void testWakeUp() throws Exception{
+		final List processed = new ArrayList() ;
+		
+		DemonQueuedThread t = new DemonQueuedThread("test", new BoundedMPSCQueue(16)){
+			protected boolean doWithTheQueue() throws Exception {
+				Object obj = pollQueue() ;
+				
+				if(obj == null){
+					return false ;
+				}
+				
+				synchronized(processed){
+					processed.add(obj) ;
+					processed.notifyAll() ;
+				}
+				
+				return true ;
+			}
+		} ;
+		t.setMillSecondsToSleep(60000) ;
+		t.start() ;
+		
+		try{
+			while(!t.isSleeping()){
+				Thread.sleep(10) ;
+			}
+			
+			synchronized(processed){
+				t.addToQueue("a") ;
+				processed.wait(5000) ;
+			}
+			
+			assertEquals(1, processed.size()) ;
+		}finally{
+			t.shutdown() ;
+		}
+	}
+	
+	public void testShutdownDrain() throws Exception{
+		final List processed = new ArrayList() ;
+		
+		DemonQueuedThread t = new DemonQueuedThread("test", new BoundedMPSCQueue(64)){
+			protected boolean doWithTheQueue() throws Exception {
+				Object obj = pollQueue() ;
+				
+				if(obj == null){
+					return false ;
+				}
+				
+				processed.add(obj) ;
+				
+				return true ;
+			}
+		} ;
+		t.setMillSecondsToSleep(60000) ;
+		//never woken up by the queue.
+		t.setWakeUpThreshold(1000) ;
+		t.start() ;
+		
+		while(!t.isSleeping()){
+			Thread.sleep(10) ;
+		}
+		
+		for(int i = 0 ; i < 10 ; i++){
+			assertTrue(t.offerToQueue(new Integer(i))) ;
+		}
+		
+		assertEquals(0, t.shutdown(5000)) ;
+		assertEquals(10, processed.size()) ;
+		
+		assertFalse(t.isAccepting()) ;
+		assertFalse(t.offerToQueue("late")) ;
+		assertEquals(1, t.getRejectedCount()) ;
+	}
+	
+	public void testShutdownTimeout() throws Exception{
+		DemonQueuedThread t = new DemonQueuedThread("test", new BoundedMPSCQueue(64)){
+			protected boolean doWithTheQueue() throws Exception {
+				//stuck, eg: the database is down.
+				return false ;
+			}
+		} ;
+		t.start() ;
+		
+		for(int i = 0 ; i < 5 ; i++){
+			t.addToQueue(new Integer(i)) ;
+		}
+		
+		assertEquals(5, t.shutdown(200)) ;
+		
+		t.join(2000) ;
+		assertFalse(t.isAlive()) ;
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2008-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.guzz.util.thread;
+
+import junit.framework.TestCase;
+
+/**
+ * 
+ * 
+ *
+ * @author liukaixuan(liukaixuan@gmail.com)
+ */
+public class TestStripedCounter extends TestCase {
+	
+	public void testStripedCounter() throws Exception{
+		final StripedCounter counter = new StripedCounter() ;
+		final int threadsCount = 8 ;
+		final int countPerThread = 50000 ;
+		
+		Thread[] threads = new Thread[threadsCount] ;
+		for(int i = 0 ; i < threadsCount ; i++){
+			threads[i] = new Thread(){
+				public void run(){
+					for(int k = 0 ; k < countPerThread ; k++){
+						counter.add(1) ;
+					}
+				}
+			} ;
+			threads[i].start() ;
+		}
+		
+		//drain while updating. every increment must be counted exactly once.
+		long drained = 0 ;
+		boolean alive = true ;
+		while(alive){
+			drained += counter.sumThenReset() ;
+			
+			alive = false ;
+			for(int i = 0 ; i < threadsCount ; i++){
+				alive |= threads[i].isAlive() ;
+			}
+		}
+		drained += counter.sumThenReset() ;
+		
+		assertEquals((long) threadsCount * countPerThread, drained) ;
+		assertEquals(0, counter.sum()) ;
+	}
+
+}